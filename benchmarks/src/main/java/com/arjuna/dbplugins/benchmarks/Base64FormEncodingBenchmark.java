@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.risbic.dkan.Base64FormRequestEntity;
+
+/**
+ * The Base64, form URL encoded, body of a DKAN file create request, with the file held in memory or read from disk. The
+ * content length is worked out first, as the HTTP client does before sending the body, and the body is written to a
+ * discarding stream, so only the encoding is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Base64FormEncodingBenchmark
+{
+    @Param({ "1024", "65536", "1048576", "16777216", "104857600" })
+    public int payloadSize;
+
+    @Setup
+    public void setup()
+        throws IOException
+    {
+        _payload     = Payloads.createData(payloadSize);
+        _payloadFile = Payloads.createFile(_payload);
+    }
+
+    @TearDown
+    public void teardown()
+        throws IOException
+    {
+        Payloads.deleteFile(_payloadFile);
+    }
+
+    @Benchmark
+    public long encodeBytes()
+        throws IOException
+    {
+        return encode(new Base64FormRequestEntity(_payload, "upload.bin"));
+    }
+
+    @Benchmark
+    public long encodeFile()
+        throws IOException
+    {
+        return encode(new Base64FormRequestEntity(_payloadFile, "upload.bin"));
+    }
+
+    private static long encode(Base64FormRequestEntity requestEntity)
+        throws IOException
+    {
+        DiscardingOutputStream outputStream = new DiscardingOutputStream();
+        long                   length       = requestEntity.getContentLength();
+        requestEntity.writeRequest(outputStream);
+
+        return length + outputStream.getCount();
+    }
+
+    private byte[] _payload;
+    private Path   _payloadFile;
+}
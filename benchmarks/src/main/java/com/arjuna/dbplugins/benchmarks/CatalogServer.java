@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for a DKAN portal, serving a synthetic catalog for the node listing benchmarks. Every fourth node is a
+ * data set, the rest are resources, and each node carries the fields of a real listing. The listing is encoded once, so
+ * the server allocates nothing per node while the client is measured.
+ */
+public class CatalogServer
+{
+    private static final String LOGIN_PATH = "/api/action/datastore/user/login";
+    private static final String NODES_PATH = "/api/action/datastore/node";
+
+    static
+    {
+        // Without it each response waits on the client's delayed acknowledgement of its headers, swamping the parsing
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    /**
+     * @param paged whether the page and pagesize parameters are honoured, otherwise the whole catalog is sent every time,
+     *              as by a portal which does not support paging
+     */
+    public CatalogServer(int nodeCount, boolean paged)
+        throws IOException
+    {
+        _paged      = paged;
+        _nodeStarts = new int[nodeCount];
+        _nodeEnds   = new int[nodeCount];
+
+        ByteArrayOutputStream catalog = new ByteArrayOutputStream(nodeCount * 200);
+        catalog.write('[');
+        for (int node = 0; node < nodeCount; node++)
+        {
+            if (node > 0)
+                catalog.write(',');
+
+            _nodeStarts[node] = catalog.size();
+            catalog.write(encodeNode(node).getBytes(StandardCharsets.UTF_8));
+            _nodeEnds[node] = catalog.size();
+        }
+        catalog.write(']');
+        _catalog = catalog.toByteArray();
+
+        _executor = Executors.newFixedThreadPool(8);
+        _server   = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        _server.createContext(LOGIN_PATH, new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange)
+                throws IOException
+            {
+                drain(exchange);
+                exchange.getResponseHeaders().add("Set-Cookie", "SESS=benchmark");
+                respond(exchange, "{\"token\":\"benchmark\"}".getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        _server.createContext(NODES_PATH, new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange)
+                throws IOException
+            {
+                drain(exchange);
+                if ("POST".equals(exchange.getRequestMethod()))
+                    respond(exchange, "{\"nid\":\"0\"}".getBytes(StandardCharsets.UTF_8));
+                else
+                    respondListing(exchange);
+            }
+        });
+        _server.setExecutor(_executor);
+        _server.start();
+    }
+
+    public String getURL()
+    {
+        return "http://" + _server.getAddress().getHostString() + ":" + _server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the title of the last data set in the catalog, which can only be found by scanning all of it.
+     */
+    public String getLastDataSetTitle()
+    {
+        return title(((_nodeStarts.length - 1) / 4) * 4);
+    }
+
+    public int getCatalogBytes()
+    {
+        return _catalog.length;
+    }
+
+    public void stop()
+    {
+        _server.stop(0);
+        _executor.shutdownNow();
+    }
+
+    private void respondListing(HttpExchange exchange)
+        throws IOException
+    {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        if ((! _paged) || (! query.containsKey("page")) || (! query.containsKey("pagesize")))
+        {
+            respond(exchange, _catalog);
+            return;
+        }
+
+        int pageSize  = Integer.parseInt(query.get("pagesize"));
+        int firstNode = Integer.parseInt(query.get("page")) * pageSize;
+        int lastNode  = Math.min(firstNode + pageSize, _nodeStarts.length) - 1;
+        if ((pageSize <= 0) || (firstNode >= _nodeStarts.length))
+        {
+            respond(exchange, "[]".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        int offset = _nodeStarts[firstNode];
+        int length = _nodeEnds[lastNode] - offset;
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, length + 2);
+        try (OutputStream body = new BufferedOutputStream(exchange.getResponseBody(), length + 2))
+        {
+            body.write('[');
+            body.write(_catalog, offset, length);
+            body.write(']');
+        }
+    }
+
+    private static String encodeNode(int node)
+    {
+        String type = ((node % 4) == 0) ? "dataset" : "resource";
+
+        return "{\"nid\":\"" + node + "\",\"vid\":\"" + node + "\",\"type\":\"" + type + "\",\"title\":\"" + title(node) + "\","
+               + "\"language\":\"und\",\"uid\":\"1\",\"status\":\"1\",\"created\":\"1420070400\",\"changed\":\"1420070400\","
+               + "\"uri\":\"http://dkan.example.org/api/action/datastore/node/" + node + "\"}";
+    }
+
+    private static String title(int node)
+    {
+        return "Synthetic Node " + node;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery)
+        throws IOException
+    {
+        Map<String, String> query = new HashMap<String, String>();
+        if (rawQuery != null)
+        {
+            for (String parameter: rawQuery.split("&"))
+            {
+                int separator = parameter.indexOf('=');
+                if (separator > 0)
+                    query.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"), URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+            }
+        }
+
+        return query;
+    }
+
+    private static void drain(HttpExchange exchange)
+        throws IOException
+    {
+        try (InputStream requestBody = exchange.getRequestBody())
+        {
+            byte[] buffer = new byte[8192];
+            while (requestBody.read(buffer) != -1)
+                ;
+        }
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body)
+        throws IOException
+    {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody())
+        {
+            responseBody.write(body);
+        }
+    }
+
+    private final boolean         _paged;
+    private final int[]           _nodeStarts;
+    private final int[]           _nodeEnds;
+    private final byte[]          _catalog;
+    private final ExecutorService _executor;
+    private final HttpServer      _server;
+}
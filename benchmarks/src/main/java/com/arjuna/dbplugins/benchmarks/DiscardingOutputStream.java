@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.benchmarks;
+
+import java.io.OutputStream;
+
+/**
+ * Counts and discards whatever is written to it, standing in for a connection with unlimited bandwidth.
+ */
+public class DiscardingOutputStream extends OutputStream
+{
+    @Override
+    public void write(int value)
+    {
+        _count++;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length)
+    {
+        _count += length;
+    }
+
+    public long getCount()
+    {
+        return _count;
+    }
+
+    private long _count;
+}
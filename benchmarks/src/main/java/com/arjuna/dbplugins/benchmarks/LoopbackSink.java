@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A connected pair of loopback sockets, with a thread reading and discarding whatever is written to one end. Writes to
+ * the channel take the kernel's socket path, as a request to a portal would, so a file transferred to it is sent by the
+ * operating system, with sendfile on Linux, rather than copied through a buffer as it is for a channel which is not a
+ * socket.
+ */
+public class LoopbackSink
+{
+    public LoopbackSink()
+        throws IOException
+    {
+        _serverChannel = ServerSocketChannel.open();
+        _serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        _channel       = SocketChannel.open(_serverChannel.getLocalAddress());
+        _peerChannel   = _serverChannel.accept();
+
+        _drainer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        }, "loopback-sink");
+        _drainer.setDaemon(true);
+        _drainer.start();
+    }
+
+    public SocketChannel getChannel()
+    {
+        return _channel;
+    }
+
+    public void close()
+        throws IOException, InterruptedException
+    {
+        _channel.close();
+        _drainer.join();
+        _peerChannel.close();
+        _serverChannel.close();
+    }
+
+    private void drain()
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(DRAIN_BUFFER_SIZE);
+        try
+        {
+            while (_peerChannel.read(buffer) >= 0)
+                buffer.clear();
+        }
+        catch (IOException ioException)
+        {
+            // The sink is closed
+        }
+    }
+
+    private static final int DRAIN_BUFFER_SIZE = 1024 * 1024;
+
+    private final ServerSocketChannel _serverChannel;
+    private final SocketChannel       _channel;
+    private final SocketChannel       _peerChannel;
+    private final Thread              _drainer;
+}
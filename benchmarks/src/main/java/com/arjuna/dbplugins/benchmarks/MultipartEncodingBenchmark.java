@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.benchmarks;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import com.arjuna.dbplugins.ckan.filestore.MultipartFormDataRequestEntity;
+
+/**
+ * The multipart/form-data encoding of a CKAN resource_create request, with the upload held in memory or read from a
+ * file as a stream. The encodings are written to a discarding stream, so only the encoding is measured. The sending of
+ * the request with an upload from a file is also measured, over a loopback socket, both streamed through a buffer and
+ * transferred from the file by the operating system as by the zero copy transport, which needs a socket channel as its
+ * target.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultipartEncodingBenchmark
+{
+    @Param({ "1024", "65536", "1048576", "16777216", "104857600" })
+    public int payloadSize;
+
+    @Setup
+    public void setup()
+        throws IOException
+    {
+        _payload     = Payloads.createData(payloadSize);
+        _payloadFile = Payloads.createFile(_payload);
+        _sink        = new LoopbackSink();
+    }
+
+    @TearDown
+    public void teardown()
+        throws IOException, InterruptedException
+    {
+        _sink.close();
+        Payloads.deleteFile(_payloadFile);
+    }
+
+    @Benchmark
+    public long encodeBytes()
+        throws IOException
+    {
+        MultipartFormDataRequestEntity requestEntity = createRequestEntity();
+        requestEntity.addPart("upload", "upload.bin", _payload, "application/octet-stream");
+
+        DiscardingOutputStream outputStream = new DiscardingOutputStream();
+        requestEntity.writeRequest(outputStream);
+
+        return outputStream.getCount();
+    }
+
+    @Benchmark
+    public long encodeFile()
+        throws IOException
+    {
+        MultipartFormDataRequestEntity requestEntity = createRequestEntity();
+        requestEntity.addPart("upload", "upload.bin", _payloadFile, "application/octet-stream");
+
+        DiscardingOutputStream outputStream = new DiscardingOutputStream();
+        requestEntity.writeRequest(outputStream);
+
+        return outputStream.getCount();
+    }
+
+    @Benchmark
+    public long streamFile()
+        throws IOException
+    {
+        MultipartFormDataRequestEntity requestEntity = createRequestEntity();
+        requestEntity.addPart("upload", "upload.bin", _payloadFile, "application/octet-stream");
+
+        requestEntity.writeRequest(Channels.newOutputStream(_sink.getChannel()));
+
+        return requestEntity.getContentLength();
+    }
+
+    @Benchmark
+    public long transferFile()
+        throws IOException
+    {
+        MultipartFormDataRequestEntity requestEntity = createRequestEntity();
+        requestEntity.addPart("upload", "upload.bin", _payloadFile, "application/octet-stream");
+
+        requestEntity.writeRequest(_sink.getChannel());
+
+        return requestEntity.getContentLength();
+    }
+
+    private static MultipartFormDataRequestEntity createRequestEntity()
+    {
+        MultipartFormDataRequestEntity requestEntity = new MultipartFormDataRequestEntity("6b2f4a0e-5c1d-4c8e-9a57-0f3e2d1c4b5a");
+        requestEntity.addPart("package_id", "benchmark-package");
+        requestEntity.addPart("name", "upload.bin");
+        requestEntity.addPart("url", "urn:uuid:0b8e7f5a-3d2c-4e1f-8a9b-7c6d5e4f3a2b");
+        requestEntity.addPart("format", "bin");
+
+        return requestEntity;
+    }
+
+    private byte[]       _payload;
+    private Path         _payloadFile;
+    private LoopbackSink _sink;
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.risbic.dkan.DKANClient;
+import org.risbic.dkan.DKANConnection;
+import org.risbic.dkan.DKANNode;
+
+/**
+ * Parsing of DKAN node listings, served over loopback from synthetic catalogs of 1k to 100k nodes, about 200 bytes each.
+ * The data set looked up is the last in the catalog, so the whole listing is scanned: in one response from a portal
+ * that does not page, or page by page, several pages at once, from one that does. The data set cache is cleared before
+ * each lookup. Reading the whole catalog into a list of nodes is measured for comparison with the streaming scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeListingBenchmark
+{
+    @Param({ "1000", "10000", "100000" })
+    public int catalogSize;
+
+    @Param({ "paged", "unpaged" })
+    public String listing;
+
+    @Setup
+    public void setup()
+        throws Exception
+    {
+        _server        = new CatalogServer(catalogSize, "paged".equals(listing));
+        _connection    = DKANClient.connect("benchmark", "benchmark", _server.getURL());
+        _dataSetTitle  = _server.getLastDataSetTitle();
+        _catalogFilter = Collections.singletonMap("type", "dataset");
+    }
+
+    @TearDown
+    public void teardown()
+    {
+        _connection.close();
+        _server.stop();
+    }
+
+    @Benchmark
+    public String findDataSetByTitle()
+        throws Exception
+    {
+        _connection.invalidateDataSetCache();
+
+        return _connection.findOrCreateDataSetByTitle(_dataSetTitle);
+    }
+
+    @Benchmark
+    public List<DKANNode> readCatalog()
+        throws Exception
+    {
+        return _connection.queryNodes(_catalogFilter, 0, catalogSize);
+    }
+
+    private CatalogServer       _server;
+    private DKANConnection      _connection;
+    private String              _dataSetTitle;
+    private Map<String, String> _catalogFilter;
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Synthetic payloads, random so that they are neither compressible nor shortened by any encoding.
+ */
+public class Payloads
+{
+    private static final long SEED = 0x5EEDL;
+
+    public static byte[] createData(int size)
+    {
+        byte[] data = new byte[size];
+        new Random(SEED).nextBytes(data);
+
+        return data;
+    }
+
+    public static Path createFile(byte[] data)
+        throws IOException
+    {
+        Path file = Files.createTempFile("benchmark", ".bin");
+        Files.write(file, data);
+
+        return file;
+    }
+
+    public static void deleteFile(Path file)
+        throws IOException
+    {
+        if (file != null)
+            Files.deleteIfExists(file);
+    }
+}
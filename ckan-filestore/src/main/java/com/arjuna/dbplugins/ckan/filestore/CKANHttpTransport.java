@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.ckan.filestore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+/**
+ * Pooled, keep-alive, HTTP transport owned by a single data service instance.
+ *
+ * Connecting and reading are both bounded by timeouts, so that a portal which stops answering fails the request, rather
+ * than holding the calling thread for good.
+ *
+ * Connections are returned to the pool once a response has been fully read, so callers must go through
+ * {@link #execute(HttpMethod)}, which drains and releases every response, rather than the underlying client.
+ */
+public class CKANHttpTransport
+{
+    private static final Logger logger = Logger.getLogger(CKANHttpTransport.class.getName());
+
+    private static final int DRAIN_BUFFER_SIZE = 4096;
+
+    /**
+     * @param connectionTimeout the time, in milliseconds, allowed to open a connection
+     * @param socketTimeout the time, in milliseconds, allowed between reads of a response
+     */
+    public CKANHttpTransport(int maxConnectionsPerRoute, long idleConnectionTimeout, int connectionTimeout, int socketTimeout)
+    {
+        logger.log(Level.FINE, "CKANHttpTransport: " + maxConnectionsPerRoute + ", " + idleConnectionTimeout + ", " + connectionTimeout + ", " + socketTimeout);
+
+        _connectionManager = new MultiThreadedHttpConnectionManager();
+
+        HttpConnectionManagerParams connectionManagerParams = _connectionManager.getParams();
+        connectionManagerParams.setDefaultMaxConnectionsPerHost(maxConnectionsPerRoute);
+        connectionManagerParams.setMaxTotalConnections(maxConnectionsPerRoute);
+        connectionManagerParams.setStaleCheckingEnabled(true);
+        connectionManagerParams.setConnectionTimeout(connectionTimeout);
+        connectionManagerParams.setSoTimeout(socketTimeout);
+
+        _httpClient = new HttpClient(_connectionManager);
+
+        _idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+        _idleConnectionTimeoutThread.setName("CKANHttpTransport-IdleConnectionTimeout");
+        _idleConnectionTimeoutThread.setConnectionTimeout(idleConnectionTimeout);
+        _idleConnectionTimeoutThread.setTimeoutInterval(Math.max(idleConnectionTimeout / 2, 1000L));
+        _idleConnectionTimeoutThread.addConnectionManager(_connectionManager);
+        _idleConnectionTimeoutThread.start();
+    }
+
+    /**
+     * Reads the response of a request, before the connection is released.
+     */
+    public interface ResponseHandler<T>
+    {
+        public T handleResponse(int statusCode, HttpMethod method)
+            throws IOException;
+    }
+
+    /**
+     * Executes the method, reads any response body to completion and releases the connection back to the pool.
+     *
+     * @return the HTTP status code of the response
+     */
+    public int execute(HttpMethod method)
+        throws IOException
+    {
+        return execute(method, new ResponseHandler<Integer>()
+        {
+            @Override
+            public Integer handleResponse(int statusCode, HttpMethod method)
+            {
+                return statusCode;
+            }
+        });
+    }
+
+    /**
+     * Executes the method and passes the response to the handler, then reads whatever of the response body the handler
+     * left unread and releases the connection back to the pool.
+     */
+    public <T> T execute(HttpMethod method, ResponseHandler<T> responseHandler)
+        throws IOException
+    {
+        try
+        {
+            int statusCode = _httpClient.executeMethod(method);
+
+            T result = responseHandler.handleResponse(statusCode, method);
+
+            drainResponse(method);
+
+            return result;
+        }
+        finally
+        {
+            method.releaseConnection();
+        }
+    }
+
+    public void shutdown()
+    {
+        logger.log(Level.FINE, "CKANHttpTransport.shutdown");
+
+        _idleConnectionTimeoutThread.shutdown();
+        _connectionManager.shutdown();
+    }
+
+    private void drainResponse(HttpMethod method)
+        throws IOException
+    {
+        InputStream responseStream = method.getResponseBodyAsStream();
+
+        if (responseStream != null)
+        {
+            try
+            {
+                byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+                while (responseStream.read(buffer) != -1)
+                    ;
+            }
+            finally
+            {
+                responseStream.close();
+            }
+        }
+    }
+
+    private MultiThreadedHttpConnectionManager _connectionManager;
+    private HttpClient                         _httpClient;
+    private IdleConnectionTimeoutThread        _idleConnectionTimeoutThread;
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.ckan.filestore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * The JSON body of a datastore_create or datastore_upsert request, generated once into a byte buffer rather than built
+ * as a document first, so that the request is sent with a Content-Length rather than chunked, and each retry sends the
+ * same bytes without generating them again. The buffer may be supplied by the caller, and reused for the next request
+ * once this one has been sent.
+ *
+ * Row values are written as JSON strings, numbers, booleans or nulls, nested maps and collections as objects and
+ * arrays, and any other value as its string form.
+ */
+public class DataStoreRequestEntity implements RequestEntity
+{
+    /**
+     * A datastore_create request, which creates the table, and if no resource id is given the resource holding it, then
+     * inserts the rows.
+     *
+     * @param resourceId   the resource to hold the table, or null to create a resource in the package
+     * @param primaryKey   the columns identifying a row, may be empty
+     */
+    public static DataStoreRequestEntity create(String resourceId, String packageId, String resourceName, List<String> primaryKey, List<Map<?, ?>> rows)
+    {
+        return create(resourceId, packageId, resourceName, primaryKey, rows, new ByteArrayOutputStream());
+    }
+
+    /**
+     * A datastore_create request, generated into the buffer, which is reset first.
+     */
+    public static DataStoreRequestEntity create(String resourceId, String packageId, String resourceName, List<String> primaryKey, List<Map<?, ?>> rows, ByteArrayOutputStream buffer)
+    {
+        return new DataStoreRequestEntity(true, resourceId, packageId, resourceName, primaryKey, null, rows, buffer);
+    }
+
+    /**
+     * A datastore_upsert request.
+     *
+     * @param method one of "insert", "update" or "upsert"
+     */
+    public static DataStoreRequestEntity upsert(String resourceId, String method, List<Map<?, ?>> rows)
+    {
+        return upsert(resourceId, method, rows, new ByteArrayOutputStream());
+    }
+
+    /**
+     * A datastore_upsert request, generated into the buffer, which is reset first.
+     */
+    public static DataStoreRequestEntity upsert(String resourceId, String method, List<Map<?, ?>> rows, ByteArrayOutputStream buffer)
+    {
+        return new DataStoreRequestEntity(false, resourceId, null, null, null, method, rows, buffer);
+    }
+
+    private DataStoreRequestEntity(boolean create, String resourceId, String packageId, String resourceName, List<String> primaryKey, String method, List<Map<?, ?>> rows, ByteArrayOutputStream buffer)
+    {
+        _create   = create;
+        _rowCount = rows.size();
+        _body     = buffer;
+
+        _body.reset();
+        generate(_body, resourceId, packageId, resourceName, primaryKey, method, rows);
+    }
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return true;
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return _body.size();
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return "application/json; charset=UTF-8";
+    }
+
+    @Override
+    public void writeRequest(OutputStream outputStream)
+        throws IOException
+    {
+        _body.writeTo(outputStream);
+    }
+
+    public boolean isCreate()
+    {
+        return _create;
+    }
+
+    public int getRowCount()
+    {
+        return _rowCount;
+    }
+
+    private static void generate(OutputStream outputStream, String resourceId, String packageId, String resourceName, List<String> primaryKey, String method, List<Map<?, ?>> rows)
+    {
+        JsonGenerator generator = Json.createGenerator(outputStream);
+
+        generator.writeStartObject();
+        if (resourceId != null)
+            generator.write("resource_id", resourceId);
+        else
+        {
+            generator.writeStartObject("resource");
+            generator.write("package_id", packageId);
+            generator.write("name", resourceName);
+            generator.writeEnd();
+        }
+        if ((primaryKey != null) && (! primaryKey.isEmpty()))
+        {
+            generator.writeStartArray("primary_key");
+            for (String column: primaryKey)
+                generator.write(column);
+            generator.writeEnd();
+        }
+        if (method != null)
+            generator.write("method", method);
+        generator.write("force", true);
+
+        generator.writeStartArray("records");
+        for (Map<?, ?> row: rows)
+        {
+            generator.writeStartObject();
+            writeMembers(generator, row);
+            generator.writeEnd();
+        }
+        generator.writeEnd();
+
+        generator.writeEnd();
+        generator.close();
+    }
+
+    private static void writeMembers(JsonGenerator generator, Map<?, ?> map)
+    {
+        for (Map.Entry<?, ?> entry: map.entrySet())
+        {
+            String name  = String.valueOf(entry.getKey());
+            Object value = entry.getValue();
+
+            if (value == null)
+                generator.writeNull(name);
+            else if (value instanceof String)
+                generator.write(name, (String) value);
+            else if (value instanceof Boolean)
+                generator.write(name, (Boolean) value);
+            else if ((value instanceof Integer) || (value instanceof Long) || (value instanceof Short) || (value instanceof Byte))
+                generator.write(name, ((Number) value).longValue());
+            else if (value instanceof BigInteger)
+                generator.write(name, (BigInteger) value);
+            else if (value instanceof BigDecimal)
+                generator.write(name, (BigDecimal) value);
+            else if ((value instanceof Double) || (value instanceof Float))
+                writeDouble(generator, name, ((Number) value).doubleValue());
+            else if (value instanceof Map)
+            {
+                generator.writeStartObject(name);
+                writeMembers(generator, (Map<?, ?>) value);
+                generator.writeEnd();
+            }
+            else if (value instanceof Collection)
+            {
+                generator.writeStartArray(name);
+                writeElements(generator, (Collection<?>) value);
+                generator.writeEnd();
+            }
+            else
+                generator.write(name, value.toString());
+        }
+    }
+
+    private static void writeElements(JsonGenerator generator, Collection<?> collection)
+    {
+        for (Object value: collection)
+        {
+            if (value == null)
+                generator.writeNull();
+            else if (value instanceof String)
+                generator.write((String) value);
+            else if (value instanceof Boolean)
+                generator.write((Boolean) value);
+            else if ((value instanceof Integer) || (value instanceof Long) || (value instanceof Short) || (value instanceof Byte))
+                generator.write(((Number) value).longValue());
+            else if (value instanceof BigInteger)
+                generator.write((BigInteger) value);
+            else if (value instanceof BigDecimal)
+                generator.write((BigDecimal) value);
+            else if ((value instanceof Double) || (value instanceof Float))
+            {
+                double doubleValue = ((Number) value).doubleValue();
+                if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue))
+                    generator.writeNull();
+                else
+                    generator.write(doubleValue);
+            }
+            else if (value instanceof Map)
+            {
+                generator.writeStartObject();
+                writeMembers(generator, (Map<?, ?>) value);
+                generator.writeEnd();
+            }
+            else if (value instanceof Collection)
+            {
+                generator.writeStartArray();
+                writeElements(generator, (Collection<?>) value);
+                generator.writeEnd();
+            }
+            else
+                generator.write(value.toString());
+        }
+    }
+
+    private static void writeDouble(JsonGenerator generator, String name, double value)
+    {
+        // JSON has no representation of NaN or infinity
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            generator.writeNull(name);
+        else
+            generator.write(name, value);
+    }
+
+    private final boolean               _create;
+    private final int                   _rowCount;
+    private final ByteArrayOutputStream _body;
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.ckan.filestore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import com.arjuna.dbplugins.filestore.CircuitBreaker;
+import com.arjuna.dbplugins.filestore.HttpStatusException;
+import com.arjuna.dbplugins.filestore.RetryPolicy;
+import com.arjuna.dbplugins.filestore.UploadMetrics;
+import com.arjuna.dbplugins.filestore.UploadTrace;
+
+/**
+ * Streams rows into a CKAN DataStore table, in batches sent once they reach the batch size or have been open for the
+ * maximum delay.
+ *
+ * The first batch is sent with datastore_create, which creates the table, and the resource holding it if no resource id
+ * was configured. Later batches are sent with datastore_upsert, upserting on the primary key if there is one and
+ * otherwise inserting. Batches are sent one at a time, in the order they were filled.
+ *
+ * The rows of a batch which fails to send are put back at the head of the pending rows, and sent again with the next
+ * batch, or by the delay timer, unless the portal refused the batch outright, or the pending rows would then exceed the
+ * maximum, in which case the rows are dropped and logged. Each send is recorded in the service's upload metrics.
+ */
+public class DataStoreWriter
+{
+    private static final Logger logger = Logger.getLogger(DataStoreWriter.class.getName());
+
+    /**
+     * @param maxPendingRows the most rows, including those of failed batches, held waiting to be sent
+     */
+    public DataStoreWriter(String name, String ckanRootURL, String apiKey, CKANHttpTransport transport, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker, UploadMetrics metrics, String packageId, String resourceId, String resourceName, List<String> primaryKey, int batchSize, long maxDelay, int maxPendingRows)
+    {
+        logger.log(Level.FINE, "DataStoreWriter: " + name + ", " + resourceId + ", " + resourceName + ", " + primaryKey + ", " + batchSize + ", " + maxDelay + ", " + maxPendingRows);
+
+        _name           = name;
+        _ckanRootURL    = ckanRootURL;
+        _apiKey         = apiKey;
+        _transport      = transport;
+        _retryPolicy    = retryPolicy;
+        _circuitBreaker = circuitBreaker;
+        _metrics        = metrics;
+        _packageId      = packageId;
+        _resourceId     = resourceId;
+        _resourceName   = resourceName;
+        _primaryKey     = primaryKey;
+        _batchSize      = Math.max(batchSize, 1);
+        _maxDelay       = maxDelay;
+        _maxPendingRows = Math.max(maxPendingRows, _batchSize);
+        _batch          = new ArrayList<Map<?, ?>>(_batchSize);
+        _sendLock       = new Object();
+        _body           = new ByteArrayOutputStream();
+        _droppedCount   = 0;
+
+        _scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "DataStoreWriter-" + _name);
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    public void write(Map<?, ?> row)
+        throws Exception
+    {
+        List<Map<?, ?>> fullBatch = null;
+        synchronized (this)
+        {
+            if (_batch.size() >= _maxPendingRows)
+            {
+                _droppedCount++;
+                throw new IOException("DataStore writer \"" + _name + "\" has " + _batch.size() + " rows waiting to be sent, row refused");
+            }
+
+            _batch.add(row);
+            scheduleFlush();
+
+            if (_batch.size() >= _batchSize)
+                fullBatch = takeBatch();
+        }
+
+        if (fullBatch != null)
+            send(fullBatch);
+    }
+
+    /**
+     * Sends all pending rows, in batches, stopping at the first batch which fails.
+     */
+    public void flush()
+        throws Exception
+    {
+        while (true)
+        {
+            List<Map<?, ?>> batch;
+            synchronized (this)
+            {
+                batch = takeBatch();
+            }
+
+            if (batch == null)
+                return;
+            send(batch);
+        }
+    }
+
+    /**
+     * Sends the current batch and stops the delay timer.
+     */
+    public void close()
+    {
+        logger.log(Level.FINE, "DataStoreWriter.close: " + _name);
+
+        _scheduler.shutdownNow();
+        try
+        {
+            flush();
+        }
+        catch (Throwable throwable)
+        {
+            logger.log(Level.WARNING, "Problems sending final batch of \"" + _name + "\"", throwable);
+        }
+
+        synchronized (this)
+        {
+            if (! _batch.isEmpty())
+            {
+                logger.log(Level.WARNING, "Close of \"" + _name + "\" discarded " + _batch.size() + " unsent rows");
+                _droppedCount += _batch.size();
+                _batch.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the resource holding the table, null until the table has been created if no resource id was configured
+     */
+    public String getResourceId()
+    {
+        synchronized (_sendLock)
+        {
+            return _resourceId;
+        }
+    }
+
+    /**
+     * @return the number of rows dropped, refused by the portal or for lack of room to hold them
+     */
+    public synchronized long getDroppedCount()
+    {
+        return _droppedCount;
+    }
+
+    /**
+     * @return the number of rows waiting to be sent
+     */
+    public synchronized int getPendingCount()
+    {
+        return _batch.size();
+    }
+
+    /**
+     * Takes up to a batch of rows from the head of the pending rows, restarting the delay timer for any left behind.
+     */
+    private List<Map<?, ?>> takeBatch()
+    {
+        if (_batch.isEmpty())
+            return null;
+
+        if (_flushTask != null)
+        {
+            _flushTask.cancel(false);
+            _flushTask = null;
+        }
+        _batchGeneration++;
+
+        List<Map<?, ?>> batch;
+        if (_batch.size() <= _batchSize)
+        {
+            batch  = _batch;
+            _batch = new ArrayList<Map<?, ?>>(_batchSize);
+        }
+        else
+        {
+            List<Map<?, ?>> head = _batch.subList(0, _batchSize);
+            batch = new ArrayList<Map<?, ?>>(head);
+            head.clear();
+            scheduleFlush();
+        }
+
+        return batch;
+    }
+
+    /**
+     * Puts the rows of a batch which failed to send back ahead of the pending rows, if there is room for them and the
+     * failure may pass.
+     */
+    private synchronized void requeue(List<Map<?, ?>> batch, Exception failure)
+    {
+        if ((failure instanceof HttpStatusException) && (! RetryPolicy.isRetryable(failure, true)))
+        {
+            logger.log(Level.SEVERE, "Batch of " + batch.size() + " rows refused by \"" + _name + "\" datastore, rows dropped", failure);
+            _droppedCount += batch.size();
+        }
+        else if (_batch.size() + batch.size() > _maxPendingRows)
+        {
+            logger.log(Level.SEVERE, "No room to hold failed batch of " + batch.size() + " rows of \"" + _name + "\", rows dropped", failure);
+            _droppedCount += batch.size();
+        }
+        else
+        {
+            batch.addAll(_batch);
+            _batch = batch;
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush()
+    {
+        if ((_flushTask == null) && (_maxDelay > 0) && (! _scheduler.isShutdown()))
+            _flushTask = _scheduler.schedule(new FlushTask(_batchGeneration), _maxDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private void send(List<Map<?, ?>> batch)
+        throws Exception
+    {
+        synchronized (_sendLock)
+        {
+            UploadTrace trace     = new UploadTrace((_created ? "datastore_upsert" : "datastore_create") + " of " + batch.size() + " rows");
+            long        startTime = _metrics.uploadStarted();
+            long        bytes     = -1;
+            try
+            {
+                bytes = sendBatch(batch);
+            }
+            catch (Exception exception)
+            {
+                _metrics.uploadFailed(startTime, exception);
+                trace.finish(false, bytes);
+                _metrics.recordTrace(trace);
+                requeue(batch, exception);
+                throw exception;
+            }
+            _metrics.uploadSucceeded(startTime, bytes);
+            trace.finish(true, bytes);
+            _metrics.recordTrace(trace);
+        }
+    }
+
+    /**
+     * @return the length of the request body sent
+     */
+    private long sendBatch(List<Map<?, ?>> batch)
+        throws Exception
+    {
+        if (! _created)
+        {
+            final DataStoreRequestEntity requestEntity = DataStoreRequestEntity.create(_resourceId, _packageId, _resourceName, _primaryKey, batch, _body);
+
+            // Repeating a create whose response was lost may create a second resource, or insert the rows twice
+            boolean idempotent = (_resourceId != null) && (! _primaryKey.isEmpty());
+            String  resourceId = _retryPolicy.execute("datastore_create", _circuitBreaker, idempotent, new Callable<String>()
+            {
+                @Override
+                public String call()
+                    throws Exception
+                {
+                    return post("datastore_create", requestEntity);
+                }
+            });
+            if (resourceId != null)
+                _resourceId = resourceId;
+            _created = true;
+
+            return requestEntity.getContentLength();
+        }
+        else
+        {
+            final DataStoreRequestEntity requestEntity = DataStoreRequestEntity.upsert(_resourceId, _primaryKey.isEmpty() ? "insert" : "upsert", batch, _body);
+
+            _retryPolicy.execute("datastore_upsert", _circuitBreaker, (! _primaryKey.isEmpty()), new Callable<String>()
+            {
+                @Override
+                public String call()
+                    throws Exception
+                {
+                    return post("datastore_upsert", requestEntity);
+                }
+            });
+
+            return requestEntity.getContentLength();
+        }
+    }
+
+    /**
+     * @return the resource id in the result of the action
+     */
+    private String post(final String action, DataStoreRequestEntity requestEntity)
+        throws IOException
+    {
+        PostMethod postMethod = new PostMethod(_ckanRootURL + "/api/action/" + action);
+        postMethod.setRequestHeader("Authorization", _apiKey);
+        postMethod.setRequestEntity(requestEntity);
+
+        return _transport.execute(postMethod, new CKANHttpTransport.ResponseHandler<String>()
+        {
+            @Override
+            public String handleResponse(int statusCode, HttpMethod method)
+                throws IOException
+            {
+                if (statusCode != 200)
+                    throw new HttpStatusException("Problems with ckan " + action + " api invoke: status = " + statusCode + " " + method.getStatusText(), statusCode);
+
+                InputStream responseStream = method.getResponseBodyAsStream();
+                if (responseStream == null)
+                    return null;
+
+                try (JsonReader jsonReader = Json.createReader(responseStream))
+                {
+                    JsonObject result = jsonReader.readObject().getJsonObject("result");
+
+                    return (result != null) ? result.getString("resource_id", null) : null;
+                }
+                catch (JsonException | ClassCastException exception)
+                {
+                    logger.log(Level.FINE, "Unable to read " + action + " response", exception);
+                    return null;
+                }
+            }
+        });
+    }
+
+    private class FlushTask implements Runnable
+    {
+        public FlushTask(long batchGeneration)
+        {
+            _flushGeneration = batchGeneration;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                List<Map<?, ?>> batch = null;
+                synchronized (DataStoreWriter.this)
+                {
+                    if (_batchGeneration == _flushGeneration)
+                        batch = takeBatch();
+                }
+
+                while (batch != null)
+                {
+                    send(batch);
+                    synchronized (DataStoreWriter.this)
+                    {
+                        batch = takeBatch();
+                    }
+                }
+            }
+            catch (Throwable throwable)
+            {
+                logger.log(Level.WARNING, "Problems with timed flush of \"" + _name + "\"", throwable);
+            }
+        }
+
+        private final long _flushGeneration;
+    }
+
+    private final String                   _name;
+    private final String                   _ckanRootURL;
+    private final String                   _apiKey;
+    private final CKANHttpTransport        _transport;
+    private final RetryPolicy              _retryPolicy;
+    private final CircuitBreaker           _circuitBreaker;
+    private final UploadMetrics            _metrics;
+    private final String                   _packageId;
+    private final String                   _resourceName;
+    private final List<String>             _primaryKey;
+    private final int                      _batchSize;
+    private final long                     _maxDelay;
+    private final int                      _maxPendingRows;
+    private final ScheduledExecutorService _scheduler;
+    private final Object                   _sendLock;
+    private final ByteArrayOutputStream    _body;
+    private List<Map<?, ?>>                _batch;
+    private long                           _droppedCount;
+    private long                           _batchGeneration;
+    private ScheduledFuture<?>             _flushTask;
+    private String                         _resourceId;
+    private boolean                        _created;
+}
@@ -75,6 +75,61 @@ public class FileStoreCKANDataFlowNodeFactory implements DataFlowNodeFactory
                 propertyNames.add(FileStoreCKANDataService.CKANROOTURL_PROPERTYNAME);
                 propertyNames.add(FileStoreCKANDataService.PACKAGEID_PROPERTYNAME);
                 propertyNames.add(FileStoreCKANDataService.APIKEY_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.MAXCONNECTIONSPERROUTE_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.IDLECONNECTIONTIMEOUT_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.CONNECTIONTIMEOUT_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.SOCKETTIMEOUT_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.ASYNCUPLOAD_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.UPLOADWORKERTHREADS_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.UPLOADQUEUECAPACITY_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.UPLOADQUEUEFULLPOLICY_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.UPLOADDRAINTIMEOUT_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.BATCHUPLOAD_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.BATCHMAXRECORDS_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.BATCHMAXBYTES_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.BATCHMAXDELAY_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.BATCHDELIMITER_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.BATCHHEADER_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.SPOOLUPLOADS_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.SPOOLDIRECTORY_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.SPOOLMAXBYTES_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.SPOOLSEGMENTBYTES_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.SPOOLSYNCPOLICY_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.SPOOLSYNCINTERVAL_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.SPOOLREPLAYCONCURRENCY_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.SPOOLREPLAYINTERVAL_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.RETRYMAXATTEMPTS_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.RETRYINITIALBACKOFF_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.RETRYMAXBACKOFF_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.CIRCUITBREAKERFAILURETHRESHOLD_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.CIRCUITBREAKEROPENDURATION_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.CIRCUITBREAKERHALFOPENTRIALS_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.ZEROCOPYUPLOAD_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.ZEROCOPYCONNECTTIMEOUT_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.ZEROCOPYSOCKETTIMEOUT_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.UPLOADMODE_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.DATASTORERESOURCEID_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.DATASTORERESOURCENAME_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.DATASTOREPRIMARYKEY_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.DATASTOREBATCHSIZE_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.DATASTOREBATCHMAXDELAY_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.DATASTOREMAXPENDINGROWS_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.UPDATEBUFFERDIRECTORY_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.UPDATERESOURCENAME_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.UPDATEACTION_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.UPDATEFLUSHBYTES_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.UPDATEFLUSHINTERVAL_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.UPDATEMAXRESOURCEBYTES_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.UPDATEDELIMITER_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.DEDUPLICATEUPLOADS_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.DEDUPLICATECACHESIZE_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.DEDUPLICATEINDEXFILE_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.DEDUPLICATEACTION_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.COMPRESSUPLOADS_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.COMPRESSIONTHRESHOLD_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.COMPRESSIONLEVEL_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.TRACEBUFFERSIZE_PROPERTYNAME);
+                propertyNames.add(FileStoreCKANDataService.TRACELOGTHRESHOLD_PROPERTYNAME);
 
                 return propertyNames;
             }
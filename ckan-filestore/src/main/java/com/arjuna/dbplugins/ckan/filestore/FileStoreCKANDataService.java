@@ -4,18 +4,26 @@
 
 package com.arjuna.dbplugins.ckan.filestore;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import javax.json.Json;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
 import com.arjuna.databroker.data.DataConsumer;
 import com.arjuna.databroker.data.DataFlow;
 import com.arjuna.databroker.data.DataProvider;
@@ -26,6 +34,23 @@ import com.arjuna.databroker.data.jee.annotation.PostCreated;
 import com.arjuna.databroker.data.jee.annotation.PostRecovery;
 import com.arjuna.databroker.data.jee.annotation.PreConfig;
 import com.arjuna.databroker.data.jee.annotation.PreDelete;
+import com.arjuna.dbplugins.filestore.AsyncUploadPipeline;
+import com.arjuna.dbplugins.filestore.CircuitBreaker;
+import com.arjuna.dbplugins.filestore.CompressingUploader;
+import com.arjuna.dbplugins.filestore.DeduplicatingUploader;
+import com.arjuna.dbplugins.filestore.HttpStatusException;
+import com.arjuna.dbplugins.filestore.LoggingTraceSink;
+import com.arjuna.dbplugins.filestore.MeteredUploader;
+import com.arjuna.dbplugins.filestore.PropertiesUtil;
+import com.arjuna.dbplugins.filestore.QueueFullPolicy;
+import com.arjuna.dbplugins.filestore.RecordBatcher;
+import com.arjuna.dbplugins.filestore.ResourceUploader;
+import com.arjuna.dbplugins.filestore.RetryPolicy;
+import com.arjuna.dbplugins.filestore.TraceSink;
+import com.arjuna.dbplugins.filestore.UploadMetrics;
+import com.arjuna.dbplugins.filestore.UploadRecord;
+import com.arjuna.dbplugins.filestore.UploadSpool;
+import com.arjuna.dbplugins.filestore.UploadTrace;
 
 public class FileStoreCKANDataService implements DataService
 {
@@ -35,9 +60,142 @@ public class FileStoreCKANDataService implements DataService
     public static final String PACKAGEID_PROPERTYNAME   = "Package Id";
     public static final String APIKEY_PROPERTYNAME      = "API Key";
 
+    public static final String MAXCONNECTIONSPERROUTE_PROPERTYNAME = "Max Connections Per Route";
+    public static final String IDLECONNECTIONTIMEOUT_PROPERTYNAME  = "Idle Connection Timeout";
+    public static final String CONNECTIONTIMEOUT_PROPERTYNAME      = "Connection Timeout";
+    public static final String SOCKETTIMEOUT_PROPERTYNAME          = "Socket Timeout";
+
+    public static final int  DEFAULT_MAXCONNECTIONSPERROUTE = 4;
+    public static final long DEFAULT_IDLECONNECTIONTIMEOUT  = 30000L;
+    public static final int  DEFAULT_CONNECTIONTIMEOUT      = 30000;
+    public static final int  DEFAULT_SOCKETTIMEOUT          = 300000;
+
+    public static final String ASYNCUPLOAD_PROPERTYNAME           = "Asynchronous Upload";
+    public static final String UPLOADWORKERTHREADS_PROPERTYNAME   = "Upload Worker Threads";
+    public static final String UPLOADQUEUECAPACITY_PROPERTYNAME   = "Upload Queue Capacity";
+    public static final String UPLOADQUEUEFULLPOLICY_PROPERTYNAME = "Upload Queue Full Policy";
+    public static final String UPLOADDRAINTIMEOUT_PROPERTYNAME    = "Upload Drain Timeout";
+
+    public static final boolean         DEFAULT_ASYNCUPLOAD           = false;
+    public static final int             DEFAULT_UPLOADWORKERTHREADS   = 2;
+    public static final int             DEFAULT_UPLOADQUEUECAPACITY   = 1000;
+    public static final QueueFullPolicy DEFAULT_UPLOADQUEUEFULLPOLICY = QueueFullPolicy.BLOCK;
+    public static final long            DEFAULT_UPLOADDRAINTIMEOUT    = 30000L;
+
+    public static final String BATCHUPLOAD_PROPERTYNAME     = "Batch Upload";
+    public static final String BATCHMAXRECORDS_PROPERTYNAME = "Batch Max Records";
+    public static final String BATCHMAXBYTES_PROPERTYNAME   = "Batch Max Bytes";
+    public static final String BATCHMAXDELAY_PROPERTYNAME   = "Batch Max Delay";
+    public static final String BATCHDELIMITER_PROPERTYNAME  = "Batch Delimiter";
+    public static final String BATCHHEADER_PROPERTYNAME     = "Batch Header";
+
+    public static final boolean DEFAULT_BATCHUPLOAD     = false;
+    public static final int     DEFAULT_BATCHMAXRECORDS = 1000;
+    public static final int     DEFAULT_BATCHMAXBYTES   = 1048576;
+    public static final long    DEFAULT_BATCHMAXDELAY   = 5000L;
+    public static final String  DEFAULT_BATCHDELIMITER  = "\\n";
+
+    public static final String SPOOLUPLOADS_PROPERTYNAME           = "Spool Failed Uploads";
+    public static final String SPOOLDIRECTORY_PROPERTYNAME         = "Spool Directory";
+    public static final String SPOOLMAXBYTES_PROPERTYNAME          = "Spool Max Bytes";
+    public static final String SPOOLSEGMENTBYTES_PROPERTYNAME      = "Spool Segment Bytes";
+    public static final String SPOOLSYNCPOLICY_PROPERTYNAME        = "Spool Sync Policy";
+    public static final String SPOOLSYNCINTERVAL_PROPERTYNAME      = "Spool Sync Interval";
+    public static final String SPOOLREPLAYCONCURRENCY_PROPERTYNAME = "Spool Replay Concurrency";
+    public static final String SPOOLREPLAYINTERVAL_PROPERTYNAME    = "Spool Replay Interval";
+
+    public static final boolean                DEFAULT_SPOOLUPLOADS           = false;
+    public static final long                   DEFAULT_SPOOLMAXBYTES          = 1073741824L;
+    public static final long                   DEFAULT_SPOOLSEGMENTBYTES      = 16777216L;
+    public static final UploadSpool.SyncPolicy DEFAULT_SPOOLSYNCPOLICY        = UploadSpool.SyncPolicy.PERIODIC;
+    public static final long                   DEFAULT_SPOOLSYNCINTERVAL      = 1000L;
+    public static final int                    DEFAULT_SPOOLREPLAYCONCURRENCY = 2;
+    public static final long                   DEFAULT_SPOOLREPLAYINTERVAL    = 60000L;
+
+    public static final String RETRYMAXATTEMPTS_PROPERTYNAME               = "Retry Max Attempts";
+    public static final String RETRYINITIALBACKOFF_PROPERTYNAME            = "Retry Initial Backoff";
+    public static final String RETRYMAXBACKOFF_PROPERTYNAME                = "Retry Max Backoff";
+    public static final String CIRCUITBREAKERFAILURETHRESHOLD_PROPERTYNAME = "Circuit Breaker Failure Threshold";
+    public static final String CIRCUITBREAKEROPENDURATION_PROPERTYNAME     = "Circuit Breaker Open Duration";
+    public static final String CIRCUITBREAKERHALFOPENTRIALS_PROPERTYNAME   = "Circuit Breaker Half Open Trials";
+
+    public static final int  DEFAULT_RETRYMAXATTEMPTS               = 3;
+    public static final long DEFAULT_RETRYINITIALBACKOFF            = 500L;
+    public static final long DEFAULT_RETRYMAXBACKOFF                = 10000L;
+    public static final int  DEFAULT_CIRCUITBREAKERFAILURETHRESHOLD = 5;
+    public static final long DEFAULT_CIRCUITBREAKEROPENDURATION     = 30000L;
+    public static final int  DEFAULT_CIRCUITBREAKERHALFOPENTRIALS   = 1;
+
+    public static final String ZEROCOPYUPLOAD_PROPERTYNAME         = "Zero Copy File Upload";
+    public static final String ZEROCOPYCONNECTTIMEOUT_PROPERTYNAME = "Zero Copy Connect Timeout";
+    public static final String ZEROCOPYSOCKETTIMEOUT_PROPERTYNAME  = "Zero Copy Socket Timeout";
+
+    public static final boolean DEFAULT_ZEROCOPYUPLOAD         = false;
+    public static final int     DEFAULT_ZEROCOPYCONNECTTIMEOUT = 30000;
+    public static final int     DEFAULT_ZEROCOPYSOCKETTIMEOUT  = 300000;
+
+    public static final String UPLOADMODE_PROPERTYNAME              = "Upload Mode";
+    public static final String DATASTORERESOURCEID_PROPERTYNAME     = "DataStore Resource Id";
+    public static final String DATASTORERESOURCENAME_PROPERTYNAME   = "DataStore Resource Name";
+    public static final String DATASTOREPRIMARYKEY_PROPERTYNAME     = "DataStore Primary Key";
+    public static final String DATASTOREBATCHSIZE_PROPERTYNAME      = "DataStore Batch Size";
+    public static final String DATASTOREBATCHMAXDELAY_PROPERTYNAME  = "DataStore Batch Max Delay";
+    public static final String DATASTOREMAXPENDINGROWS_PROPERTYNAME = "DataStore Max Pending Rows";
+
+    public static final String UPLOADMODE_RESOURCE  = "Resource";
+    public static final String UPLOADMODE_DATASTORE = "DataStore";
+    public static final String UPLOADMODE_UPDATE    = "Update";
+
+    public static final String DEFAULT_UPLOADMODE              = UPLOADMODE_RESOURCE;
+    public static final int    DEFAULT_DATASTOREBATCHSIZE      = 500;
+    public static final long   DEFAULT_DATASTOREBATCHMAXDELAY  = 5000L;
+    public static final int    DEFAULT_DATASTOREMAXPENDINGROWS = 50000;
+
+    public static final String UPDATEBUFFERDIRECTORY_PROPERTYNAME  = "Update Buffer Directory";
+    public static final String UPDATERESOURCENAME_PROPERTYNAME     = "Update Resource Name";
+    public static final String UPDATEACTION_PROPERTYNAME           = "Update Action";
+    public static final String UPDATEFLUSHBYTES_PROPERTYNAME       = "Update Flush Bytes";
+    public static final String UPDATEFLUSHINTERVAL_PROPERTYNAME    = "Update Flush Interval";
+    public static final String UPDATEMAXRESOURCEBYTES_PROPERTYNAME = "Update Max Resource Bytes";
+    public static final String UPDATEDELIMITER_PROPERTYNAME        = "Update Delimiter";
+
+    public static final String DEFAULT_UPDATEACTION           = "resource_patch";
+    public static final long   DEFAULT_UPDATEFLUSHBYTES       = 1048576L;
+    public static final long   DEFAULT_UPDATEFLUSHINTERVAL    = 60000L;
+    public static final long   DEFAULT_UPDATEMAXRESOURCEBYTES = 67108864L;
+    public static final String DEFAULT_UPDATEDELIMITER        = "\\n";
+
+    public static final String DEDUPLICATEUPLOADS_PROPERTYNAME   = "Deduplicate Uploads";
+    public static final String DEDUPLICATECACHESIZE_PROPERTYNAME = "Deduplicate Cache Size";
+    public static final String DEDUPLICATEINDEXFILE_PROPERTYNAME = "Deduplicate Index File";
+    public static final String DEDUPLICATEACTION_PROPERTYNAME    = "Deduplicate Action";
+
+    public static final String DEDUPLICATEACTION_SKIP  = "Skip";
+    public static final String DEDUPLICATEACTION_TOUCH = "Touch";
+
+    public static final boolean DEFAULT_DEDUPLICATEUPLOADS   = false;
+    public static final int     DEFAULT_DEDUPLICATECACHESIZE = 1024;
+    public static final String  DEFAULT_DEDUPLICATEACTION    = DEDUPLICATEACTION_SKIP;
+
+    public static final String COMPRESSUPLOADS_PROPERTYNAME      = "Compress Uploads";
+    public static final String COMPRESSIONTHRESHOLD_PROPERTYNAME = "Compression Threshold";
+    public static final String COMPRESSIONLEVEL_PROPERTYNAME     = "Compression Level";
+
+    public static final boolean DEFAULT_COMPRESSUPLOADS      = false;
+    public static final long    DEFAULT_COMPRESSIONTHRESHOLD = 65536L;
+    public static final int     DEFAULT_COMPRESSIONLEVEL     = Deflater.DEFAULT_COMPRESSION;
+
+    public static final String TRACEBUFFERSIZE_PROPERTYNAME   = "Trace Buffer Size";
+    public static final String TRACELOGTHRESHOLD_PROPERTYNAME = "Trace Log Threshold";
+
+    public static final int  DEFAULT_TRACEBUFFERSIZE   = UploadMetrics.DEFAULT_TRACEBUFFERSIZE;
+    public static final long DEFAULT_TRACELOGTHRESHOLD = 10000L;
+
     public FileStoreCKANDataService()
     {
         logger.log(Level.FINE, "FileStoreCKANDataService");
+
+        _metrics = new UploadMetrics();
     }
 
     public FileStoreCKANDataService(String name, Map<String, String> properties)
@@ -46,6 +204,7 @@ public class FileStoreCKANDataService implements DataService
 
         _name       = name;
         _properties = properties;
+        _metrics    = new UploadMetrics();
     }
 
     @Override
@@ -84,29 +243,313 @@ public class FileStoreCKANDataService implements DataService
         _properties = properties;
     }
 
+    public UploadMetrics getMetrics()
+    {
+        return _metrics;
+    }
+
+    /**
+     * Replaces the sink that the trace of each upload is passed to, by default one logging the slow uploads. The most
+     * recent traces are kept by the metrics whatever the sink.
+     */
+    public void setTraceSink(TraceSink traceSink)
+    {
+        _traceSink = traceSink;
+        if (traceSink != null)
+            _metrics.setTraceSink(traceSink);
+    }
+
+    public RetryPolicy getRetryPolicy()
+    {
+        return _retryPolicy;
+    }
+
+    public CircuitBreaker getCircuitBreaker()
+    {
+        return _circuitBreaker;
+    }
+
+    public CompressingUploader getCompressingUploader()
+    {
+        return _compressingUploader;
+    }
+
+    public DeduplicatingUploader getDeduplicatingUploader()
+    {
+        return _deduplicatingUploader;
+    }
+
     @PostConfig
     @PostCreated
     @PostRecovery
     public void setup()
     {
+        _metrics.register(getClass().getSimpleName(), _name);
+        _metrics.setTraceBufferSize(PropertiesUtil.getInt(_properties, TRACEBUFFERSIZE_PROPERTYNAME, DEFAULT_TRACEBUFFERSIZE));
+        if (_traceSink != null)
+            _metrics.setTraceSink(_traceSink);
+        else
+            _metrics.setTraceSink(new LoggingTraceSink(_name, PropertiesUtil.getLong(_properties, TRACELOGTHRESHOLD_PROPERTYNAME, DEFAULT_TRACELOGTHRESHOLD)));
+
         _ckanRootURL = _properties.get(CKANROOTURL_PROPERTYNAME);
         _packageId   = _properties.get(PACKAGEID_PROPERTYNAME);
         _apiKey      = _properties.get(APIKEY_PROPERTYNAME);
+
+        int  maxConnectionsPerRoute = PropertiesUtil.getInt(_properties, MAXCONNECTIONSPERROUTE_PROPERTYNAME, DEFAULT_MAXCONNECTIONSPERROUTE);
+        long idleConnectionTimeout  = PropertiesUtil.getLong(_properties, IDLECONNECTIONTIMEOUT_PROPERTYNAME, DEFAULT_IDLECONNECTIONTIMEOUT);
+        int  connectionTimeout      = PropertiesUtil.getInt(_properties, CONNECTIONTIMEOUT_PROPERTYNAME, DEFAULT_CONNECTIONTIMEOUT);
+        int  socketTimeout          = PropertiesUtil.getInt(_properties, SOCKETTIMEOUT_PROPERTYNAME, DEFAULT_SOCKETTIMEOUT);
+
+        if (_transport != null)
+            _transport.shutdown();
+        _transport = new CKANHttpTransport(maxConnectionsPerRoute, idleConnectionTimeout, connectionTimeout, socketTimeout);
+
+        if (PropertiesUtil.getBoolean(_properties, ZEROCOPYUPLOAD_PROPERTYNAME, DEFAULT_ZEROCOPYUPLOAD))
+        {
+            if (ZeroCopyHttpTransport.supports(_ckanRootURL))
+            {
+                int zeroCopyConnectTimeout = PropertiesUtil.getInt(_properties, ZEROCOPYCONNECTTIMEOUT_PROPERTYNAME, DEFAULT_ZEROCOPYCONNECTTIMEOUT);
+                int zeroCopySocketTimeout  = PropertiesUtil.getInt(_properties, ZEROCOPYSOCKETTIMEOUT_PROPERTYNAME, DEFAULT_ZEROCOPYSOCKETTIMEOUT);
+
+                _zeroCopyTransport = new ZeroCopyHttpTransport(zeroCopyConnectTimeout, zeroCopySocketTimeout);
+            }
+            else
+            {
+                logger.log(Level.INFO, "Zero copy upload is only available for http, files will be uploaded through the pooled transport");
+                _zeroCopyTransport = null;
+            }
+        }
+        else
+            _zeroCopyTransport = null;
+
+        int  retryMaxAttempts               = PropertiesUtil.getInt(_properties, RETRYMAXATTEMPTS_PROPERTYNAME, DEFAULT_RETRYMAXATTEMPTS);
+        long retryInitialBackoff            = PropertiesUtil.getLong(_properties, RETRYINITIALBACKOFF_PROPERTYNAME, DEFAULT_RETRYINITIALBACKOFF);
+        long retryMaxBackoff                = PropertiesUtil.getLong(_properties, RETRYMAXBACKOFF_PROPERTYNAME, DEFAULT_RETRYMAXBACKOFF);
+        int  circuitBreakerFailureThreshold = PropertiesUtil.getInt(_properties, CIRCUITBREAKERFAILURETHRESHOLD_PROPERTYNAME, DEFAULT_CIRCUITBREAKERFAILURETHRESHOLD);
+        long circuitBreakerOpenDuration     = PropertiesUtil.getLong(_properties, CIRCUITBREAKEROPENDURATION_PROPERTYNAME, DEFAULT_CIRCUITBREAKEROPENDURATION);
+        int  circuitBreakerHalfOpenTrials   = PropertiesUtil.getInt(_properties, CIRCUITBREAKERHALFOPENTRIALS_PROPERTYNAME, DEFAULT_CIRCUITBREAKERHALFOPENTRIALS);
+
+        _retryPolicy    = new RetryPolicy(_name, retryMaxAttempts, retryInitialBackoff, retryMaxBackoff);
+        _circuitBreaker = CircuitBreaker.forEndpoint(_ckanRootURL, circuitBreakerFailureThreshold, circuitBreakerOpenDuration, circuitBreakerHalfOpenTrials);
+        _metrics.setRetryPolicy(_retryPolicy);
+        _metrics.setCircuitBreaker(_circuitBreaker);
+
+        String uploadMode = PropertiesUtil.getString(_properties, UPLOADMODE_PROPERTYNAME, DEFAULT_UPLOADMODE);
+        if (UPLOADMODE_DATASTORE.equalsIgnoreCase(uploadMode))
+        {
+            String       resourceId   = PropertiesUtil.getString(_properties, DATASTORERESOURCEID_PROPERTYNAME, null);
+            String       resourceName = PropertiesUtil.getString(_properties, DATASTORERESOURCENAME_PROPERTYNAME, _name);
+            List<String> primaryKey   = new LinkedList<String>();
+            int          batchSize    = PropertiesUtil.getInt(_properties, DATASTOREBATCHSIZE_PROPERTYNAME, DEFAULT_DATASTOREBATCHSIZE);
+            long         maxDelay     = PropertiesUtil.getLong(_properties, DATASTOREBATCHMAXDELAY_PROPERTYNAME, DEFAULT_DATASTOREBATCHMAXDELAY);
+            int          maxPending   = PropertiesUtil.getInt(_properties, DATASTOREMAXPENDINGROWS_PROPERTYNAME, DEFAULT_DATASTOREMAXPENDINGROWS);
+
+            String primaryKeyColumns = PropertiesUtil.getString(_properties, DATASTOREPRIMARYKEY_PROPERTYNAME, null);
+            if (primaryKeyColumns != null)
+            {
+                for (String column: primaryKeyColumns.split(","))
+                    if (! column.trim().isEmpty())
+                        primaryKey.add(column.trim());
+            }
+
+            _dataStoreWriter = new DataStoreWriter(_name, _ckanRootURL, _apiKey, _transport, _retryPolicy, _circuitBreaker, _metrics, _packageId, resourceId, resourceName, primaryKey, batchSize, maxDelay, maxPending);
+        }
+
+        ResourceUploader uploader = new ResourceUploader()
+        {
+            @Override
+            public void upload(UploadRecord record)
+                throws Exception
+            {
+                uploadResource(record);
+            }
+        };
+        uploader = new MeteredUploader(_name, _packageId, uploader, _metrics);
+        if (UPLOADMODE_UPDATE.equalsIgnoreCase(uploadMode))
+        {
+            String bufferDirectory  = PropertiesUtil.getString(_properties, UPDATEBUFFERDIRECTORY_PROPERTYNAME, null);
+            String resourceName     = PropertiesUtil.getString(_properties, UPDATERESOURCENAME_PROPERTYNAME, _name);
+            String updateAction     = PropertiesUtil.getString(_properties, UPDATEACTION_PROPERTYNAME, DEFAULT_UPDATEACTION);
+            long   flushBytes       = PropertiesUtil.getLong(_properties, UPDATEFLUSHBYTES_PROPERTYNAME, DEFAULT_UPDATEFLUSHBYTES);
+            long   flushInterval    = PropertiesUtil.getLong(_properties, UPDATEFLUSHINTERVAL_PROPERTYNAME, DEFAULT_UPDATEFLUSHINTERVAL);
+            long   maxResourceBytes = PropertiesUtil.getLong(_properties, UPDATEMAXRESOURCEBYTES_PROPERTYNAME, DEFAULT_UPDATEMAXRESOURCEBYTES);
+            String delimiter        = RecordBatcher.unescape(PropertiesUtil.getString(_properties, UPDATEDELIMITER_PROPERTYNAME, DEFAULT_UPDATEDELIMITER));
+
+            try
+            {
+                File directory = (bufferDirectory != null) ? new File(bufferDirectory) : UploadSpool.defaultDirectory("ckan-filestore-update", _name);
+
+                _resourceUpdateWriter = new ResourceUpdateWriter(_name, _ckanRootURL, _apiKey, _transport, _retryPolicy, _circuitBreaker, _packageId, directory, resourceName, updateAction, flushBytes, flushInterval, maxResourceBytes, (delimiter != null) ? delimiter.getBytes(StandardCharsets.UTF_8) : null);
+                uploader              = new MeteredUploader(_name, _packageId, _resourceUpdateWriter, _metrics);
+            }
+            catch (IOException ioException)
+            {
+                logger.log(Level.WARNING, "Unable to open resource update buffers, each record will be uploaded as a new resource", ioException);
+            }
+        }
+        else
+        {
+            if (PropertiesUtil.getBoolean(_properties, COMPRESSUPLOADS_PROPERTYNAME, DEFAULT_COMPRESSUPLOADS))
+            {
+                long threshold        = PropertiesUtil.getLong(_properties, COMPRESSIONTHRESHOLD_PROPERTYNAME, DEFAULT_COMPRESSIONTHRESHOLD);
+                int  compressionLevel = PropertiesUtil.getInt(_properties, COMPRESSIONLEVEL_PROPERTYNAME, DEFAULT_COMPRESSIONLEVEL);
+
+                _compressingUploader = new CompressingUploader(_name, uploader, threshold, compressionLevel, null);
+                uploader             = _compressingUploader;
+            }
+            if (PropertiesUtil.getBoolean(_properties, DEDUPLICATEUPLOADS_PROPERTYNAME, DEFAULT_DEDUPLICATEUPLOADS))
+            {
+                int    cacheSize = PropertiesUtil.getInt(_properties, DEDUPLICATECACHESIZE_PROPERTYNAME, DEFAULT_DEDUPLICATECACHESIZE);
+                String indexFile = PropertiesUtil.getString(_properties, DEDUPLICATEINDEXFILE_PROPERTYNAME, null);
+                String action    = PropertiesUtil.getString(_properties, DEDUPLICATEACTION_PROPERTYNAME, DEFAULT_DEDUPLICATEACTION);
+
+                ResourceUploader duplicateUploader = null;
+                if (DEDUPLICATEACTION_TOUCH.equalsIgnoreCase(action))
+                {
+                    duplicateUploader = new ResourceUploader()
+                    {
+                        @Override
+                        public void upload(UploadRecord record)
+                            throws Exception
+                        {
+                            touchPackage();
+                        }
+                    };
+                }
+
+                try
+                {
+                    File file = (indexFile != null) ? new File(indexFile) : new File(UploadSpool.defaultDirectory("ckan-filestore-dedup", _name), "index");
+
+                    _deduplicatingUploader = new DeduplicatingUploader(_name, _packageId, uploader, duplicateUploader, cacheSize, file, null);
+                    uploader               = _deduplicatingUploader;
+                }
+                catch (IOException ioException)
+                {
+                    logger.log(Level.WARNING, "Unable to open deduplication index, uploads will not be deduplicated", ioException);
+                }
+            }
+        }
+        if (PropertiesUtil.getBoolean(_properties, SPOOLUPLOADS_PROPERTYNAME, DEFAULT_SPOOLUPLOADS))
+        {
+            String                 spoolDirectory    = PropertiesUtil.getString(_properties, SPOOLDIRECTORY_PROPERTYNAME, null);
+            long                   maxBytes          = PropertiesUtil.getLong(_properties, SPOOLMAXBYTES_PROPERTYNAME, DEFAULT_SPOOLMAXBYTES);
+            long                   segmentBytes      = PropertiesUtil.getLong(_properties, SPOOLSEGMENTBYTES_PROPERTYNAME, DEFAULT_SPOOLSEGMENTBYTES);
+            UploadSpool.SyncPolicy syncPolicy        = UploadSpool.SyncPolicy.parse(PropertiesUtil.getString(_properties, SPOOLSYNCPOLICY_PROPERTYNAME, null), DEFAULT_SPOOLSYNCPOLICY);
+            long                   syncInterval      = PropertiesUtil.getLong(_properties, SPOOLSYNCINTERVAL_PROPERTYNAME, DEFAULT_SPOOLSYNCINTERVAL);
+            int                    replayConcurrency = PropertiesUtil.getInt(_properties, SPOOLREPLAYCONCURRENCY_PROPERTYNAME, DEFAULT_SPOOLREPLAYCONCURRENCY);
+            long                   replayInterval    = PropertiesUtil.getLong(_properties, SPOOLREPLAYINTERVAL_PROPERTYNAME, DEFAULT_SPOOLREPLAYINTERVAL);
+
+            try
+            {
+                File directory = (spoolDirectory != null) ? new File(spoolDirectory) : UploadSpool.defaultDirectory("ckan-filestore-spool", _name);
+
+                _uploadSpool = new UploadSpool(_name, directory, uploader, maxBytes, segmentBytes, syncPolicy, syncInterval, replayConcurrency, replayInterval);
+                _uploadSpool.start();
+                uploader     = _uploadSpool;
+            }
+            catch (IOException ioException)
+            {
+                logger.log(Level.WARNING, "Unable to open upload spool, failed uploads will not be spooled", ioException);
+            }
+        }
+        if (PropertiesUtil.getBoolean(_properties, ASYNCUPLOAD_PROPERTYNAME, DEFAULT_ASYNCUPLOAD))
+        {
+            int             workerThreads   = PropertiesUtil.getInt(_properties, UPLOADWORKERTHREADS_PROPERTYNAME, DEFAULT_UPLOADWORKERTHREADS);
+            int             queueCapacity   = PropertiesUtil.getInt(_properties, UPLOADQUEUECAPACITY_PROPERTYNAME, DEFAULT_UPLOADQUEUECAPACITY);
+            QueueFullPolicy queueFullPolicy = QueueFullPolicy.parse(PropertiesUtil.getString(_properties, UPLOADQUEUEFULLPOLICY_PROPERTYNAME, null), DEFAULT_UPLOADQUEUEFULLPOLICY);
+
+            _uploadPipeline = new AsyncUploadPipeline(_name, uploader, workerThreads, queueCapacity, queueFullPolicy);
+            uploader        = _uploadPipeline;
+        }
+        if (PropertiesUtil.getBoolean(_properties, BATCHUPLOAD_PROPERTYNAME, DEFAULT_BATCHUPLOAD))
+        {
+            int    maxRecords = PropertiesUtil.getInt(_properties, BATCHMAXRECORDS_PROPERTYNAME, DEFAULT_BATCHMAXRECORDS);
+            int    maxBytes   = PropertiesUtil.getInt(_properties, BATCHMAXBYTES_PROPERTYNAME, DEFAULT_BATCHMAXBYTES);
+            long   maxDelay   = PropertiesUtil.getLong(_properties, BATCHMAXDELAY_PROPERTYNAME, DEFAULT_BATCHMAXDELAY);
+            String delimiter  = RecordBatcher.unescape(PropertiesUtil.getString(_properties, BATCHDELIMITER_PROPERTYNAME, DEFAULT_BATCHDELIMITER));
+            String header     = RecordBatcher.unescape(PropertiesUtil.getString(_properties, BATCHHEADER_PROPERTYNAME, null));
+
+            _recordBatcher = new RecordBatcher(_name, uploader, maxRecords, maxBytes, maxDelay, (delimiter != null) ? delimiter.getBytes(StandardCharsets.UTF_8) : null, (header != null) ? header.getBytes(StandardCharsets.UTF_8) : null);
+            uploader       = _recordBatcher;
+        }
+        _metrics.setDeduplicatingUploader(_deduplicatingUploader);
+        _uploader = uploader;
     }
 
     @PreConfig
     @PreDelete
     public void teardown()
     {
+        _metrics.unregister();
+
+        if (_dataStoreWriter != null)
+        {
+            _dataStoreWriter.close();
+            _dataStoreWriter = null;
+        }
+
+        if (_recordBatcher != null)
+        {
+            _recordBatcher.close();
+            _recordBatcher = null;
+        }
+
+        if (_uploadPipeline != null)
+        {
+            long drainTimeout = PropertiesUtil.getLong(_properties, UPLOADDRAINTIMEOUT_PROPERTYNAME, DEFAULT_UPLOADDRAINTIMEOUT);
+
+            List<UploadRecord> remainingRecords = _uploadPipeline.close(drainTimeout);
+            int                discardedCount   = 0;
+            for (UploadRecord remainingRecord: remainingRecords)
+            {
+                try
+                {
+                    if ((_uploadSpool == null) || (! _uploadSpool.append(remainingRecord)))
+                        discardedCount++;
+                }
+                catch (IOException ioException)
+                {
+                    logger.log(Level.WARNING, "Problems spooling queued record", ioException);
+                    discardedCount++;
+                }
+            }
+            if (discardedCount > 0)
+                logger.log(Level.WARNING, "Teardown of \"" + _name + "\" discarded " + discardedCount + " queued records");
+            _uploadPipeline = null;
+        }
+
+        if (_uploadSpool != null)
+        {
+            _uploadSpool.close(PropertiesUtil.getLong(_properties, UPLOADDRAINTIMEOUT_PROPERTYNAME, DEFAULT_UPLOADDRAINTIMEOUT));
+            _uploadSpool = null;
+        }
+
+        if (_resourceUpdateWriter != null)
+        {
+            _resourceUpdateWriter.close();
+            _resourceUpdateWriter = null;
+        }
+        _compressingUploader   = null;
+        _deduplicatingUploader = null;
+        _metrics.setDeduplicatingUploader(null);
+
+        if (_transport != null)
+        {
+            _transport.shutdown();
+            _transport = null;
+        }
     }
 
     public void consumeString(String data)
     {
         logger.log(Level.FINE, "FileStoreCKANDataService.consumeString");
 
+        _metrics.recordConsumed(String.class);
+
         try
         {
-            uploadResource(data.getBytes(), null, null, null, null);
+            _uploader.upload(new UploadRecord(data.getBytes(), null, null, null, null));
         }
         catch (Throwable throwable)
         {
@@ -118,9 +561,11 @@ public class FileStoreCKANDataService implements DataService
     {
         logger.log(Level.FINE, "FileStoreCKANDataService.consumeBytes");
 
+        _metrics.recordConsumed(byte[].class);
+
         try
         {
-            uploadResource(data, null, null, null, null);
+            _uploader.upload(new UploadRecord(data, null, null, null, null));
         }
         catch (Throwable throwable)
         {
@@ -128,19 +573,15 @@ public class FileStoreCKANDataService implements DataService
         }
     }
 
-    public void consumeMap(Map map)
+    public void consumeInputStream(InputStream data)
     {
-        logger.log(Level.FINE, "FileStoreCKANDataService.consumeMap");
+        logger.log(Level.FINE, "FileStoreCKANDataService.consumeInputStream");
+
+        _metrics.recordConsumed(InputStream.class);
 
         try
         {
-            byte[] data                = (byte[]) map.get("data");
-            String fileName            = (String) map.get("filename");
-            String resourceName        = (String) map.get("resourcename");
-            String resourceFormat      = (String) map.get("resourceformat");
-            String resourceDescription = (String) map.get("resourcedescription");
-
-            uploadResource(data, fileName, resourceName, resourceFormat, resourceDescription);
+            _uploader.upload(new UploadRecord(data, -1, null, null, null, null));
         }
         catch (Throwable throwable)
         {
@@ -148,59 +589,43 @@ public class FileStoreCKANDataService implements DataService
         }
     }
 
-    private void uploadResource(byte[] data, String fileName, String resourceName, String resourceFormat, String resourceDescription)
+    public void consumePath(Path data)
     {
-        logger.log(Level.FINE, "FileStoreCKANDataService.consume");
+        logger.log(Level.FINE, "FileStoreCKANDataService.consumePath");
+
+        _metrics.recordConsumed(Path.class);
 
         try
         {
-            URL uploadURL  = new URL(_ckanRootURL + "/api/action/resource_create");
+            _uploader.upload(new UploadRecord(data, data.getFileName().toString(), null, null, null));
+        }
+        catch (Throwable throwable)
+        {
+            logger.log(Level.WARNING, "Problems with ckan filestore api invoke", throwable);
+        }
+    }
 
-            String boundaryText = UUID.randomUUID().toString();
+    public void consumeMap(Map map)
+    {
+        logger.log(Level.FINE, "FileStoreCKANDataService.consumeMap");
 
-            HttpURLConnection resourceCreateConnection = (HttpURLConnection) uploadURL.openConnection();
-            resourceCreateConnection.setDoOutput(true);
-            resourceCreateConnection.setDoInput(true);
-            resourceCreateConnection.setInstanceFollowRedirects(false);
-            resourceCreateConnection.setRequestMethod("POST");
-            resourceCreateConnection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundaryText);
-            resourceCreateConnection.setRequestProperty("Authorization", _apiKey);
-            resourceCreateConnection.setUseCaches(false);
+        _metrics.recordConsumed(Map.class);
 
-            try
-            {
-                OutputStream outputStream = resourceCreateConnection.getOutputStream();
-
-                String url = "urn:uuid:" + UUID.randomUUID().toString();
-
-                outputFormDataPart(outputStream, "package_id", null, _packageId.getBytes(), "form-data", boundaryText, true);
-                if (resourceName != null)
-                    outputFormDataPart(outputStream, "name", null, resourceName.getBytes(), "form-data", boundaryText, false);
-                else if (fileName != null)
-                    outputFormDataPart(outputStream, "name", null, fileName.getBytes(), "form-data", boundaryText, false);
-                if (url != null)
-                    outputFormDataPart(outputStream, "url", null, url.getBytes(), "form-data", boundaryText, false);
-                if (resourceFormat != null)
-                    outputFormDataPart(outputStream, "format", null, resourceFormat.getBytes(), "form-data", boundaryText, false);
-                if (resourceDescription != null)
-                    outputFormDataPart(outputStream, "description ", null, resourceDescription.getBytes(), "form-data", boundaryText, false);
-                if (resourceName != null)
-                    outputFormDataPart(outputStream, "upload", resourceName, data, "application/octet-stream", boundaryText, false);
-                else if (fileName != null)
-                    outputFormDataPart(outputStream, "upload", fileName, data, "application/octet-stream", boundaryText, false);
-                else
-                    outputFormDataPart(outputStream, "upload", "upload.unknown", data, "application/octet-stream", boundaryText, false);
-                outputEndBoundary(outputStream, boundaryText);
-
-                outputStream.close();
-            }
-            catch (IOException ioException)
+        try
+        {
+            if (_dataStoreWriter != null)
             {
-                logger.log(Level.WARNING, "Problems writing to ckan filestore api" + ioException);
+                _dataStoreWriter.write(map);
+                return;
             }
 
-            if (resourceCreateConnection.getResponseCode() != 200)
-                logger.log(Level.WARNING, "Problems with ckan filestore api invoke: status  = " + resourceCreateConnection.getResponseMessage());
+            Object data                = map.get("data");
+            String fileName            = (String) map.get("filename");
+            String resourceName        = (String) map.get("resourcename");
+            String resourceFormat      = (String) map.get("resourceformat");
+            String resourceDescription = (String) map.get("resourcedescription");
+
+            _uploader.upload(UploadRecord.fromData(data, fileName, resourceName, resourceFormat, resourceDescription));
         }
         catch (Throwable throwable)
         {
@@ -208,40 +633,126 @@ public class FileStoreCKANDataService implements DataService
         }
     }
 
-    private void outputFormDataPart(OutputStream outputStream, String name, String filename, byte[] value, String contentType, String boundaryText, boolean firstOutput)
-        throws IOException
+    private void uploadResource(UploadRecord record)
+        throws Exception
     {
-        if (firstOutput)
-            outputStream.write("--".getBytes());
+        logger.log(Level.FINE, "FileStoreCKANDataService.consume");
+
+        long encodeStartTime = System.nanoTime();
+
+        String fileName            = record.getFileName();
+        String resourceName        = record.getResourceName();
+        String resourceFormat      = record.getResourceFormat();
+        String resourceDescription = record.getResourceDescription();
+
+        String boundaryText = UUID.randomUUID().toString();
+        String url          = "urn:uuid:" + UUID.randomUUID().toString();
+
+        final MultipartFormDataRequestEntity requestEntity = new MultipartFormDataRequestEntity(boundaryText);
+        requestEntity.addPart("package_id", _packageId);
+        if (resourceName != null)
+            requestEntity.addPart("name", resourceName);
+        else if (fileName != null)
+            requestEntity.addPart("name", fileName);
+        if (url != null)
+            requestEntity.addPart("url", url);
+        if (resourceFormat != null)
+            requestEntity.addPart("format", resourceFormat);
+        if (resourceDescription != null)
+            requestEntity.addPart("description ", resourceDescription);
+        String uploadFileName;
+        if (resourceName != null)
+            uploadFileName = resourceName;
+        else if (fileName != null)
+            uploadFileName = fileName;
         else
-            outputStream.write("\r\n--".getBytes());
-        outputStream.write(boundaryText.getBytes());
-        outputStream.write("\r\n".getBytes());
-        outputStream.write("Content-Disposition: form-data; name=\"".getBytes());
-        outputStream.write(name.getBytes());
-        if (filename != null)
-        {
-            outputStream.write("\"; filename=\"".getBytes());
-            outputStream.write(filename.getBytes());
-        }
-        outputStream.write("\"\r\n".getBytes());
-        if (! "form-data".equals(contentType))
+            uploadFileName = "upload.unknown";
+        if (record.getData() != null)
+            requestEntity.addPart("upload", uploadFileName, record.getData(), "application/octet-stream");
+        else if (record.getPath() != null)
+            requestEntity.addPart("upload", uploadFileName, record.getPath(), "application/octet-stream");
+        else
+            requestEntity.addPart("upload", uploadFileName, record.getStream(), record.getLength(), "application/octet-stream");
+        UploadTrace.phase("encode", encodeStartTime);
+
+        // Only files gain from the zero copy transport, small requests are better served by a pooled connection
+        final boolean zeroCopy = (record.getPath() != null);
+
+        Callable<Void> resourceCreate = new Callable<Void>()
         {
-            outputStream.write("Content-Type: ".getBytes());
-            outputStream.write(contentType.getBytes());
-            outputStream.write("\r\n".getBytes());
-        }
-        outputStream.write("\r\n".getBytes());
-        outputStream.write(value);
-        outputStream.flush();
+            @Override
+            public Void call()
+                throws Exception
+            {
+                long startTime = System.nanoTime();
+                if (zeroCopy && (_zeroCopyTransport != null))
+                {
+                    int statusCode;
+                    try
+                    {
+                        statusCode = _zeroCopyTransport.post(_ckanRootURL + "/api/action/resource_create", _apiKey, requestEntity);
+                    }
+                    finally
+                    {
+                        UploadTrace.phase("zero copy request", startTime);
+                    }
+                    if (statusCode != 200)
+                        throw new HttpStatusException("Problems with ckan filestore api invoke: status = " + statusCode, statusCode);
+
+                    return null;
+                }
+
+                PostMethod resourceCreateMethod = new PostMethod(_ckanRootURL + "/api/action/resource_create");
+                resourceCreateMethod.setRequestHeader("Authorization", _apiKey);
+                TimedRequestEntity timedRequestEntity = new TimedRequestEntity(requestEntity);
+                resourceCreateMethod.setRequestEntity(timedRequestEntity);
+
+                int statusCode;
+                try
+                {
+                    statusCode = _transport.execute(resourceCreateMethod);
+                }
+                finally
+                {
+                    timedRequestEntity.addPhases(startTime);
+                }
+                if (statusCode != 200)
+                    throw new HttpStatusException("Problems with ckan filestore api invoke: status = " + statusCode + " " + resourceCreateMethod.getStatusText(), statusCode);
+
+                return null;
+            }
+        };
+        if (requestEntity.isRepeatable())
+            _retryPolicy.execute("resource_create", _circuitBreaker, false, resourceCreate);
+        else
+            _retryPolicy.executeOnce("resource_create", _circuitBreaker, resourceCreate);
     }
 
-    private void outputEndBoundary(OutputStream outputStream, String boundaryText)
-        throws IOException
+    /**
+     * Marks the package as modified, without uploading a resource, by patching it with no changes.
+     */
+    private void touchPackage()
+        throws Exception
     {
-        outputStream.write("\r\n--".getBytes());
-        outputStream.write(boundaryText.getBytes());
-        outputStream.write("--\r\n".getBytes());
+        final String requestBody = Json.createObjectBuilder().add("id", _packageId).build().toString();
+
+        _retryPolicy.execute("package_patch", _circuitBreaker, true, new Callable<Void>()
+        {
+            @Override
+            public Void call()
+                throws Exception
+            {
+                PostMethod packagePatchMethod = new PostMethod(_ckanRootURL + "/api/action/package_patch");
+                packagePatchMethod.setRequestHeader("Authorization", _apiKey);
+                packagePatchMethod.setRequestEntity(new StringRequestEntity(requestBody, "application/json", "UTF-8"));
+
+                int statusCode = _transport.execute(packagePatchMethod);
+                if (statusCode != 200)
+                    throw new HttpStatusException("Problems with ckan filestore api invoke: status = " + statusCode + " " + packagePatchMethod.getStatusText(), statusCode);
+
+                return null;
+            }
+        });
     }
 
     @Override
@@ -265,6 +776,8 @@ public class FileStoreCKANDataService implements DataService
 
         dataConsumerDataClasses.add(String.class);
         dataConsumerDataClasses.add(byte[].class);
+        dataConsumerDataClasses.add(InputStream.class);
+        dataConsumerDataClasses.add(Path.class);
         dataConsumerDataClasses.add(Map.class);
 
         return dataConsumerDataClasses;
@@ -278,6 +791,10 @@ public class FileStoreCKANDataService implements DataService
             return (DataConsumer<T>) _dataConsumerString;
         else if (dataClass == byte[].class)
             return (DataConsumer<T>) _dataConsumerBytes;
+        else if (dataClass == InputStream.class)
+            return (DataConsumer<T>) _dataConsumerInputStream;
+        else if (dataClass == Path.class)
+            return (DataConsumer<T>) _dataConsumerPath;
         else if (dataClass == Map.class)
             return (DataConsumer<T>) _dataConsumerMap;
         else
@@ -288,13 +805,32 @@ public class FileStoreCKANDataService implements DataService
     private String _packageId;
     private String _apiKey;
 
-    private DataFlow             _dataFlow;
-    private String               _name;
-    private Map<String, String>  _properties;
+    private CKANHttpTransport     _transport;
+    private ZeroCopyHttpTransport _zeroCopyTransport;
+    private AsyncUploadPipeline   _uploadPipeline;
+    private RecordBatcher         _recordBatcher;
+    private UploadSpool           _uploadSpool;
+    private ResourceUploader      _uploader;
+    private RetryPolicy           _retryPolicy;
+    private CircuitBreaker        _circuitBreaker;
+    private DataStoreWriter       _dataStoreWriter;
+    private ResourceUpdateWriter  _resourceUpdateWriter;
+    private CompressingUploader   _compressingUploader;
+    private DeduplicatingUploader _deduplicatingUploader;
+    private UploadMetrics         _metrics;
+    private TraceSink             _traceSink;
+
+    private DataFlow                  _dataFlow;
+    private String                    _name;
+    private Map<String, String>       _properties;
     @DataConsumerInjection(methodName="consumeString")
-    private DataConsumer<String> _dataConsumerString;
+    private DataConsumer<String>      _dataConsumerString;
     @DataConsumerInjection(methodName="consumeBytes")
-    private DataConsumer<byte[]> _dataConsumerBytes;
+    private DataConsumer<byte[]>      _dataConsumerBytes;
+    @DataConsumerInjection(methodName="consumeInputStream")
+    private DataConsumer<InputStream> _dataConsumerInputStream;
+    @DataConsumerInjection(methodName="consumePath")
+    private DataConsumer<Path>        _dataConsumerPath;
     @DataConsumerInjection(methodName="consumeMap")
-    private DataConsumer<Map>    _dataConsumerMap;
+    private DataConsumer<Map>         _dataConsumerMap;
 }
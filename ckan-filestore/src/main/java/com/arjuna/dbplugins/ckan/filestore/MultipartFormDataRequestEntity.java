@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.ckan.filestore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+import java.util.List;
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * A multipart/form-data request body, written straight to the connection.
+ *
+ * The framing of each part is encoded, as UTF-8, when the part is added, so the exact body length is known before the
+ * request is sent. The request is then sent with a Content-Length header and the part values are streamed to the
+ * connection, rather than the body being buffered or chunked. Part values may be read from a file or a stream as the
+ * request is written, so the heap used is that of the copy buffer whatever the size of the value. Only if a stream of
+ * unknown length is added is the request sent chunked.
+ */
+public class MultipartFormDataRequestEntity implements RequestEntity
+{
+    private static final byte[] BOUNDARY_PREFIX           = "--".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BOUNDARY_DELIMITER_PREFIX = "\r\n--".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BOUNDARY_END_SUFFIX       = "--\r\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LINE_END                  = "\r\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DISPOSITION_PREFIX        = "Content-Disposition: form-data; name=\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DISPOSITION_FILENAME      = "\"; filename=\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DISPOSITION_SUFFIX        = "\"\r\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONTENT_TYPE_PREFIX       = "Content-Type: ".getBytes(StandardCharsets.UTF_8);
+
+    private static final int  COPY_BUFFER_SIZE = 65536;
+    private static final long TRANSFER_SIZE    = 1024 * 1024;
+
+    public MultipartFormDataRequestEntity(String boundaryText)
+    {
+        _boundaryText  = boundaryText;
+        _boundary      = boundaryText.getBytes(StandardCharsets.UTF_8);
+        _parts         = new LinkedList<Part>();
+        _contentLength = BOUNDARY_DELIMITER_PREFIX.length + _boundary.length + BOUNDARY_END_SUFFIX.length;
+        _repeatable    = true;
+    }
+
+    /**
+     * Adds a plain form field, its value encoded as UTF-8.
+     */
+    public void addPart(String name, String value)
+    {
+        addPart(name, null, value.getBytes(StandardCharsets.UTF_8), "form-data");
+    }
+
+    public void addPart(String name, String filename, byte[] value, String contentType)
+    {
+        addPart(new Part(encodePartHeader(name, filename, contentType, _parts.isEmpty()), value, null, null, value.length));
+    }
+
+    /**
+     * Adds a part whose value is read from the file as the request is written.
+     */
+    public void addPart(String name, String filename, Path value, String contentType)
+        throws IOException
+    {
+        addPart(name, filename, value, Files.size(value), contentType);
+    }
+
+    /**
+     * Adds a part whose value is the first length bytes of the file, read as the request is written, for files that may
+     * grow while the request is sent.
+     */
+    public void addPart(String name, String filename, Path value, long length, String contentType)
+    {
+        addPart(new Part(encodePartHeader(name, filename, contentType, _parts.isEmpty()), null, value, null, length));
+    }
+
+    /**
+     * Adds a part whose value is read from the stream as the request is written. The stream can only be read once, so
+     * the request is then no longer repeatable.
+     *
+     * @param length the number of bytes to read from the stream, or -1 to read to the end of the stream
+     */
+    public void addPart(String name, String filename, InputStream value, long length, String contentType)
+    {
+        addPart(new Part(encodePartHeader(name, filename, contentType, _parts.isEmpty()), null, null, value, length));
+    }
+
+    private void addPart(Part part)
+    {
+        _parts.add(part);
+        if ((_contentLength >= 0) && (part.length >= 0))
+            _contentLength += part.header.length + part.length;
+        else
+            _contentLength = -1;
+        _repeatable = _repeatable && (part.stream == null);
+    }
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return _repeatable;
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return _contentLength;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return "multipart/form-data; boundary=" + _boundaryText;
+    }
+
+    @Override
+    public void writeRequest(OutputStream outputStream)
+        throws IOException
+    {
+        // The connection's request stream is already buffered, and is flushed once the whole body has been written
+        byte[] buffer = null;
+        for (Part part: _parts)
+        {
+            outputStream.write(part.header);
+            if (part.value != null)
+                outputStream.write(part.value);
+            else
+            {
+                if (buffer == null)
+                    buffer = new byte[COPY_BUFFER_SIZE];
+
+                if (part.path != null)
+                {
+                    try (InputStream inputStream = Files.newInputStream(part.path))
+                    {
+                        copy(inputStream, outputStream, part.length, buffer);
+                    }
+                }
+                else
+                    copy(part.stream, outputStream, part.length, buffer);
+            }
+        }
+        outputStream.write(BOUNDARY_DELIMITER_PREFIX);
+        outputStream.write(_boundary);
+        outputStream.write(BOUNDARY_END_SUFFIX);
+    }
+
+    /**
+     * Writes the request body to the channel. The values of file parts are transferred from the file to the channel by
+     * the operating system, without being copied through the heap, and the framing between them is written in a single
+     * gathering write.
+     */
+    public void writeRequest(GatheringByteChannel channel)
+        throws IOException
+    {
+        writeRequest(channel, null);
+    }
+
+    /**
+     * Writes the request body to the channel, as {@link #writeRequest(GatheringByteChannel)}, running the progress
+     * callback, if any, after each write or transfer, so that the caller can tell a slow connection from a stalled one.
+     * File parts are transferred a megabyte at a time, so that the callback runs while a large file is sent.
+     */
+    public void writeRequest(GatheringByteChannel channel, Runnable progress)
+        throws IOException
+    {
+        List<ByteBuffer> pending = new LinkedList<ByteBuffer>();
+        for (Part part: _parts)
+        {
+            pending.add(ByteBuffer.wrap(part.header));
+            if (part.value != null)
+                pending.add(ByteBuffer.wrap(part.value));
+            else
+            {
+                write(channel, pending, progress);
+                if (part.path != null)
+                {
+                    try (FileChannel fileChannel = FileChannel.open(part.path, StandardOpenOption.READ))
+                    {
+                        transfer(fileChannel, channel, part.length, progress);
+                    }
+                }
+                else
+                    copy(part.stream, channel, part.length, progress);
+            }
+        }
+        pending.add(ByteBuffer.wrap(BOUNDARY_DELIMITER_PREFIX));
+        pending.add(ByteBuffer.wrap(_boundary));
+        pending.add(ByteBuffer.wrap(BOUNDARY_END_SUFFIX));
+        write(channel, pending, progress);
+    }
+
+    private static void write(GatheringByteChannel channel, List<ByteBuffer> buffers, Runnable progress)
+        throws IOException
+    {
+        ByteBuffer[] bufferArray = buffers.toArray(new ByteBuffer[buffers.size()]);
+        long         remaining   = 0;
+        for (ByteBuffer buffer: bufferArray)
+            remaining += buffer.remaining();
+
+        while (remaining > 0)
+        {
+            remaining -= channel.write(bufferArray);
+            if (progress != null)
+                progress.run();
+        }
+        buffers.clear();
+    }
+
+    private static void transfer(FileChannel fileChannel, WritableByteChannel channel, long length, Runnable progress)
+        throws IOException
+    {
+        long position = 0;
+        while (position < length)
+        {
+            long transferred = fileChannel.transferTo(position, Math.min(length - position, TRANSFER_SIZE), channel);
+            if ((transferred <= 0) && (position >= fileChannel.size()))
+                throw new EOFException("Part value ended " + (length - position) + " bytes short of its length");
+            position += transferred;
+            if (progress != null)
+                progress.run();
+        }
+    }
+
+    private static void copy(InputStream inputStream, WritableByteChannel channel, long length, Runnable progress)
+        throws IOException
+    {
+        byte[] buffer    = new byte[COPY_BUFFER_SIZE];
+        long   remaining = length;
+        while ((length < 0) || (remaining > 0))
+        {
+            int read = inputStream.read(buffer, 0, (length < 0) ? buffer.length : (int) Math.min(buffer.length, remaining));
+            if (read < 0)
+            {
+                if (length < 0)
+                    return;
+                else
+                    throw new EOFException("Part value ended " + remaining + " bytes short of its length");
+            }
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+            while (byteBuffer.hasRemaining())
+                channel.write(byteBuffer);
+            remaining -= read;
+            if (progress != null)
+                progress.run();
+        }
+    }
+
+    private static void copy(InputStream inputStream, OutputStream outputStream, long length, byte[] buffer)
+        throws IOException
+    {
+        long remaining = length;
+        while ((length < 0) || (remaining > 0))
+        {
+            int read = inputStream.read(buffer, 0, (length < 0) ? buffer.length : (int) Math.min(buffer.length, remaining));
+            if (read < 0)
+            {
+                if (length < 0)
+                    return;
+                else
+                    throw new EOFException("Part value ended " + remaining + " bytes short of its length");
+            }
+            outputStream.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    private byte[] encodePartHeader(String name, String filename, String contentType, boolean firstPart)
+    {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(128);
+
+        try
+        {
+            header.write(firstPart ? BOUNDARY_PREFIX : BOUNDARY_DELIMITER_PREFIX);
+            header.write(_boundary);
+            header.write(LINE_END);
+            header.write(DISPOSITION_PREFIX);
+            header.write(name.getBytes(StandardCharsets.UTF_8));
+            if (filename != null)
+            {
+                header.write(DISPOSITION_FILENAME);
+                header.write(filename.getBytes(StandardCharsets.UTF_8));
+            }
+            header.write(DISPOSITION_SUFFIX);
+            if (! "form-data".equals(contentType))
+            {
+                header.write(CONTENT_TYPE_PREFIX);
+                header.write(contentType.getBytes(StandardCharsets.UTF_8));
+                header.write(LINE_END);
+            }
+            header.write(LINE_END);
+        }
+        catch (IOException ioException)
+        {
+            // Not thrown by ByteArrayOutputStream
+            throw new IllegalStateException(ioException);
+        }
+
+        return header.toByteArray();
+    }
+
+    private static class Part
+    {
+        public Part(byte[] header, byte[] value, Path path, InputStream stream, long length)
+        {
+            this.header = header;
+            this.value  = value;
+            this.path   = path;
+            this.stream = stream;
+            this.length = length;
+        }
+
+        public final byte[]      header;
+        public final byte[]      value;
+        public final Path        path;
+        public final InputStream stream;
+        public final long        length;
+    }
+
+    private final String     _boundaryText;
+    private final byte[]     _boundary;
+    private final List<Part> _parts;
+    private long             _contentLength;
+    private boolean          _repeatable;
+}
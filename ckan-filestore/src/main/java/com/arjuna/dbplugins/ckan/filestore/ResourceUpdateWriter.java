@@ -0,0 +1,546 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.ckan.filestore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import com.arjuna.dbplugins.filestore.CircuitBreaker;
+import com.arjuna.dbplugins.filestore.HttpStatusException;
+import com.arjuna.dbplugins.filestore.ResourceUploader;
+import com.arjuna.dbplugins.filestore.RetryPolicy;
+import com.arjuna.dbplugins.filestore.UploadRecord;
+
+/**
+ * Keeps one resource per target, rather than creating a resource per record: records are appended to a local buffer
+ * file for their target resource, and the resource content is periodically replaced with the buffer through
+ * resource_patch, or resource_update.
+ *
+ * The target resource is named by the record's resource name, or file name, or else the default resource name. The
+ * resource is created with resource_create on the first flush of its buffer, and its id is kept beside the buffer so
+ * that the same resource is updated after a restart. A buffer is flushed once the bytes appended since the last flush
+ * reach the flush threshold, and every flush interval if anything has been appended. Once a buffer reaches the maximum
+ * resource size it is flushed for the last time and a new buffer, and resource, is started with any records appended
+ * during that flush.
+ *
+ * Buffer files are named by a hash of the resource name, so that names differing only in characters a file name cannot
+ * hold never share a buffer, prefixed by the readable part of the name to help find them.
+ *
+ * A record is appended before any flush it triggers, and the flush runs outside the append lock, so appends to a target
+ * carry on while its buffer is being uploaded and a failed flush never loses the record. Flushes of a target, and rolls
+ * to a new resource, are serialised by a separate flush lock; an append that finds a flush under way leaves its records
+ * to the next flush.
+ */
+public class ResourceUpdateWriter implements ResourceUploader
+{
+    private static final Logger logger = Logger.getLogger(ResourceUpdateWriter.class.getName());
+
+    private static final String BUFFER_SUFFIX     = ".buf";
+    private static final String RESOURCEID_SUFFIX = ".id";
+    private static final String ROLL_SUFFIX       = ".roll";
+    private static final int    COPY_BUFFER_SIZE  = 65536;
+    private static final int    NOT_FOUND_STATUS  = 404;
+
+    private static final String FILENAME_DIGEST_ALGORITHM = "SHA-256";
+    private static final int    FILENAME_PREFIX_LENGTH    = 64;
+
+    public ResourceUpdateWriter(String name, String ckanRootURL, String apiKey, CKANHttpTransport transport, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker, String packageId, File directory, String defaultResourceName, String updateAction, long flushBytes, long flushInterval, long maxResourceBytes, byte[] delimiter)
+        throws IOException
+    {
+        logger.log(Level.FINE, "ResourceUpdateWriter: " + name + ", " + directory + ", " + defaultResourceName + ", " + updateAction + ", " + flushBytes + ", " + flushInterval + ", " + maxResourceBytes);
+
+        _name                = name;
+        _ckanRootURL         = ckanRootURL;
+        _apiKey              = apiKey;
+        _transport           = transport;
+        _retryPolicy         = retryPolicy;
+        _circuitBreaker      = circuitBreaker;
+        _packageId           = packageId;
+        _directory           = directory;
+        _defaultResourceName = defaultResourceName;
+        _updateAction        = updateAction;
+        _flushBytes          = flushBytes;
+        _maxResourceBytes    = maxResourceBytes;
+        _delimiter           = (delimiter != null) ? delimiter : new byte[0];
+        _buffers             = new ConcurrentHashMap<String, ResourceBuffer>();
+
+        Files.createDirectories(directory.toPath());
+
+        _scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "ResourceUpdateWriter-" + _name);
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+        if (flushInterval > 0)
+        {
+            _scheduler.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    flushAll();
+                }
+            }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Appends the record to the buffer of its target resource, then flushes the buffer if it has reached a threshold.
+     *
+     * @throws Exception only if the record could not be appended
+     */
+    @Override
+    public void upload(UploadRecord record)
+        throws Exception
+    {
+        String resourceName;
+        if (record.getResourceName() != null)
+            resourceName = record.getResourceName();
+        else if (record.getFileName() != null)
+            resourceName = record.getFileName();
+        else
+            resourceName = _defaultResourceName;
+
+        ResourceBuffer buffer = getBuffer(resourceName);
+        boolean        flush;
+        synchronized (buffer)
+        {
+            if (buffer.resourceFormat == null)
+                buffer.resourceFormat = record.getResourceFormat();
+
+            try (InputStream inputStream = record.openStream())
+            {
+                long appended = append(buffer.channel, Channels.newChannel(inputStream));
+                appended += append(buffer.channel, _delimiter);
+
+                buffer.unflushedBytes += appended;
+            }
+
+            flush = (buffer.unflushedBytes >= _flushBytes) || isFull(buffer);
+        }
+
+        // The record is safe in the buffer, so a failed flush is left to the next flush rather than failing the record,
+        // as is a flush already under way, rather than holding up the caller
+        if (flush && buffer.flushLock.tryLock())
+        {
+            try
+            {
+                flush(buffer);
+            }
+            catch (Throwable throwable)
+            {
+                logger.log(Level.WARNING, "Problems updating resource \"" + buffer.resourceName + "\" of \"" + _name + "\"", throwable);
+            }
+            finally
+            {
+                buffer.flushLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Flushes every buffer holding unflushed records.
+     */
+    public void flushAll()
+    {
+        for (ResourceBuffer buffer: new ArrayList<ResourceBuffer>(_buffers.values()))
+        {
+            buffer.flushLock.lock();
+            try
+            {
+                flush(buffer);
+            }
+            catch (Throwable throwable)
+            {
+                logger.log(Level.WARNING, "Problems updating resource \"" + buffer.resourceName + "\" of \"" + _name + "\"", throwable);
+            }
+            finally
+            {
+                buffer.flushLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Stops the flush timer, flushes every buffer and closes the buffer files, which are kept for the next start.
+     */
+    public void close()
+    {
+        logger.log(Level.FINE, "ResourceUpdateWriter.close: " + _name);
+
+        _scheduler.shutdownNow();
+        flushAll();
+        for (ResourceBuffer buffer: _buffers.values())
+        {
+            buffer.flushLock.lock();
+            try
+            {
+                synchronized (buffer)
+                {
+                    buffer.channel.close();
+                }
+            }
+            catch (IOException ioException)
+            {
+                logger.log(Level.FINE, "Problems closing buffer of \"" + buffer.resourceName + "\"", ioException);
+            }
+            finally
+            {
+                buffer.flushLock.unlock();
+            }
+        }
+        _buffers.clear();
+    }
+
+    /**
+     * @return the id of the resource holding the target's records, null if it has not yet been created
+     */
+    public String getResourceId(String resourceName)
+    {
+        ResourceBuffer buffer = _buffers.get(resourceName);
+        if (buffer == null)
+            return null;
+
+        return buffer.resourceId;
+    }
+
+    private ResourceBuffer getBuffer(String resourceName)
+        throws IOException
+    {
+        ResourceBuffer buffer = _buffers.get(resourceName);
+        if (buffer == null)
+        {
+            synchronized (_buffers)
+            {
+                buffer = _buffers.get(resourceName);
+                if (buffer == null)
+                {
+                    buffer = new ResourceBuffer(resourceName);
+                    _buffers.put(resourceName, buffer);
+                }
+            }
+        }
+
+        return buffer;
+    }
+
+    /**
+     * @return the name of the buffer file, less its suffix, of the resource
+     */
+    private static String bufferFileName(String resourceName)
+    {
+        String prefix = resourceName.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (prefix.length() > FILENAME_PREFIX_LENGTH)
+            prefix = prefix.substring(0, FILENAME_PREFIX_LENGTH);
+
+        try
+        {
+            byte[]        digest   = MessageDigest.getInstance(FILENAME_DIGEST_ALGORITHM).digest(resourceName.getBytes(StandardCharsets.UTF_8));
+            StringBuilder fileName = new StringBuilder(prefix.length() + 1 + (digest.length * 2));
+            fileName.append(prefix).append('-');
+            for (byte value: digest)
+            {
+                fileName.append(Character.forDigit((value >> 4) & 0xF, 16));
+                fileName.append(Character.forDigit(value & 0xF, 16));
+            }
+
+            return fileName.toString();
+        }
+        catch (NoSuchAlgorithmException noSuchAlgorithmException)
+        {
+            // Every Java platform provides SHA-256
+            throw new IllegalStateException(noSuchAlgorithmException);
+        }
+    }
+
+    /**
+     * @return whether the buffer has reached the maximum resource size. Called holding the buffer's lock.
+     */
+    private boolean isFull(ResourceBuffer buffer)
+        throws IOException
+    {
+        return (_maxResourceBytes > 0) && (buffer.channel.size() > 0) && (buffer.channel.size() >= _maxResourceBytes);
+    }
+
+    private static long append(FileChannel channel, ReadableByteChannel source)
+        throws IOException
+    {
+        ByteBuffer copyBuffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        long       appended   = 0;
+        while (source.read(copyBuffer) >= 0)
+        {
+            copyBuffer.flip();
+            while (copyBuffer.hasRemaining())
+                appended += channel.write(copyBuffer);
+            copyBuffer.clear();
+        }
+
+        return appended;
+    }
+
+    private static long append(FileChannel channel, byte[] data)
+        throws IOException
+    {
+        ByteBuffer dataBuffer = ByteBuffer.wrap(data);
+        while (dataBuffer.hasRemaining())
+            channel.write(dataBuffer);
+
+        return data.length;
+    }
+
+    /**
+     * Replaces the content of the buffer's resource with the buffer, as it stands, creating the resource if need be, and
+     * rolls the buffer if it has reached the maximum resource size. Called holding the buffer's flush lock, but not its
+     * lock, which is taken only to read and reset the buffer, so records can be appended while the buffer is uploaded.
+     */
+    private void flush(ResourceBuffer buffer)
+        throws Exception
+    {
+        long    length;
+        String  resourceFormat;
+        boolean full;
+        synchronized (buffer)
+        {
+            full = isFull(buffer);
+            if ((buffer.unflushedBytes == 0) && (! full))
+                return;
+
+            length         = buffer.channel.size();
+            resourceFormat = buffer.resourceFormat;
+        }
+
+        if (buffer.resourceId != null)
+        {
+            try
+            {
+                sendResource(_updateAction, buffer, resourceFormat, length, true);
+            }
+            catch (HttpStatusException httpStatusException)
+            {
+                if (httpStatusException.getStatusCode() != NOT_FOUND_STATUS)
+                    throw httpStatusException;
+
+                logger.log(Level.WARNING, "Resource \"" + buffer.resourceName + "\" (" + buffer.resourceId + ") no longer exists, creating a new resource");
+                buffer.setResourceId(null);
+            }
+        }
+        if (buffer.resourceId == null)
+        {
+            ResourceUpdaterResponceDTO response = sendResource("resource_create", buffer, resourceFormat, length, false);
+            if (response.getResourceId() == null)
+                throw new IOException("Problems with ckan filestore api invoke: resource_create returned no resource id");
+
+            buffer.setResourceId(response.getResourceId());
+        }
+
+        synchronized (buffer)
+        {
+            if (full)
+                buffer.roll(length);
+            else
+                buffer.unflushedBytes = buffer.channel.size() - length;
+        }
+    }
+
+    private ResourceUpdaterResponceDTO sendResource(final String action, ResourceBuffer buffer, String resourceFormat, long length, boolean update)
+        throws Exception
+    {
+        final MultipartFormDataRequestEntity requestEntity = new MultipartFormDataRequestEntity(UUID.randomUUID().toString());
+        if (update)
+            requestEntity.addPart("id", buffer.resourceId);
+        requestEntity.addPart("package_id", _packageId);
+        requestEntity.addPart("name", buffer.resourceName);
+        requestEntity.addPart("url", "urn:uuid:" + UUID.randomUUID().toString());
+        if (resourceFormat != null)
+            requestEntity.addPart("format", resourceFormat);
+        requestEntity.addPart("upload", buffer.resourceName, buffer.file.toPath(), length, "application/octet-stream");
+
+        // Replacing the content is idempotent, creating the resource is not
+        return _retryPolicy.execute(action, _circuitBreaker, update, new Callable<ResourceUpdaterResponceDTO>()
+        {
+            @Override
+            public ResourceUpdaterResponceDTO call()
+                throws Exception
+            {
+                PostMethod postMethod = new PostMethod(_ckanRootURL + "/api/action/" + action);
+                postMethod.setRequestHeader("Authorization", _apiKey);
+                postMethod.setRequestEntity(requestEntity);
+
+                return _transport.execute(postMethod, new CKANHttpTransport.ResponseHandler<ResourceUpdaterResponceDTO>()
+                {
+                    @Override
+                    public ResourceUpdaterResponceDTO handleResponse(int statusCode, HttpMethod method)
+                        throws IOException
+                    {
+                        ResourceUpdaterResponceDTO response = readResponse(method.getResponseBodyAsStream());
+
+                        if ((statusCode != 200) || (! Boolean.TRUE.equals(response.getSuccess())))
+                            throw new HttpStatusException("Problems with ckan " + action + " api invoke: status = " + statusCode + " " + method.getStatusText() + ((response.getErrorMessage() != null) ? ", " + response.getErrorMessage() : ""), statusCode);
+
+                        return response;
+                    }
+                });
+            }
+        });
+    }
+
+    private static ResourceUpdaterResponceDTO readResponse(InputStream responseStream)
+    {
+        ResourceUpdaterResponceDTO response = new ResourceUpdaterResponceDTO();
+        if (responseStream == null)
+            return response;
+
+        try (JsonReader jsonReader = Json.createReader(responseStream))
+        {
+            JsonObject responseObject = jsonReader.readObject();
+
+            response.setSuccess(responseObject.getBoolean("success", false));
+
+            JsonValue result = responseObject.get("result");
+            if (result instanceof JsonObject)
+                response.setResourceId(((JsonObject) result).getString("id", null));
+
+            JsonValue error = responseObject.get("error");
+            if (error instanceof JsonObject)
+                response.setErrorMessage(((JsonObject) error).getString("message", null));
+        }
+        catch (JsonException | ClassCastException exception)
+        {
+            logger.log(Level.FINE, "Unable to read resource response", exception);
+        }
+
+        return response;
+    }
+
+    private class ResourceBuffer
+    {
+        public ResourceBuffer(String resourceName)
+            throws IOException
+        {
+            String fileName = bufferFileName(resourceName);
+
+            this.resourceName = resourceName;
+            this.file         = new File(_directory, fileName + BUFFER_SUFFIX);
+            this.idFile       = new File(_directory, fileName + RESOURCEID_SUFFIX);
+            this.rollFile     = new File(_directory, fileName + ROLL_SUFFIX);
+            this.flushLock    = new ReentrantLock();
+            this.channel      = openChannel();
+
+            if (idFile.exists())
+                this.resourceId = new String(Files.readAllBytes(idFile.toPath()), StandardCharsets.UTF_8).trim();
+            // Content left from before a restart may not have reached the resource
+            this.unflushedBytes = channel.size();
+        }
+
+        public void setResourceId(String resourceId)
+            throws IOException
+        {
+            this.resourceId = resourceId;
+            if (resourceId != null)
+                Files.write(idFile.toPath(), resourceId.getBytes(StandardCharsets.UTF_8));
+            else
+                Files.deleteIfExists(idFile.toPath());
+        }
+
+        /**
+         * Forgets the resource and starts the buffer again with whatever was appended beyond the given length, so the
+         * following records go to a new resource. Called holding both the buffer's flush lock and its lock.
+         *
+         * The resource id is dropped before the buffer is replaced: a crash in between leaves the old content to be sent
+         * to a new resource, rather than the new content replacing the old resource's.
+         */
+        public void roll(long length)
+            throws IOException
+        {
+            setResourceId(null);
+            if (channel.size() == length)
+                channel.truncate(0);
+            else
+            {
+                try (FileChannel rollChannel = FileChannel.open(rollFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+                {
+                    long position = length;
+                    long size     = channel.size();
+                    try (FileChannel readChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+                    {
+                        while (position < size)
+                            position += readChannel.transferTo(position, size - position, rollChannel);
+                    }
+                }
+                channel.close();
+                Files.move(rollFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel = openChannel();
+            }
+            unflushedBytes = channel.size();
+        }
+
+        private FileChannel openChannel()
+            throws IOException
+        {
+            return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        public final String        resourceName;
+        public final File          file;
+        public final File          idFile;
+        public final File          rollFile;
+        public final ReentrantLock flushLock;
+        public FileChannel         channel;
+        public volatile String     resourceId;
+        public String              resourceFormat;
+        public long                unflushedBytes;
+    }
+
+    private final String                               _name;
+    private final String                               _ckanRootURL;
+    private final String                               _apiKey;
+    private final CKANHttpTransport                    _transport;
+    private final RetryPolicy                          _retryPolicy;
+    private final CircuitBreaker                       _circuitBreaker;
+    private final String                               _packageId;
+    private final File                                 _directory;
+    private final String                               _defaultResourceName;
+    private final String                               _updateAction;
+    private final long                                 _flushBytes;
+    private final long                                 _maxResourceBytes;
+    private final byte[]                               _delimiter;
+    private final ConcurrentMap<String, ResourceBuffer> _buffers;
+    private final ScheduledExecutorService             _scheduler;
+}
@@ -19,6 +19,13 @@ public class ResourceUpdaterResponceDTO implements Serializable
         _success = success;
     }
 
+    public ResourceUpdaterResponceDTO(Boolean success, String resourceId, String errorMessage)
+    {
+        _success      = success;
+        _resourceId   = resourceId;
+        _errorMessage = errorMessage;
+    }
+
     public Boolean getSuccess()
     {
         return _success;
@@ -29,5 +36,27 @@ public class ResourceUpdaterResponceDTO implements Serializable
         _success = success;
     }
 
+    public String getResourceId()
+    {
+        return _resourceId;
+    }
+
+    public void setResourceId(String resourceId)
+    {
+        _resourceId = resourceId;
+    }
+
+    public String getErrorMessage()
+    {
+        return _errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage)
+    {
+        _errorMessage = errorMessage;
+    }
+
     private Boolean _success;
+    private String  _resourceId;
+    private String  _errorMessage;
 }
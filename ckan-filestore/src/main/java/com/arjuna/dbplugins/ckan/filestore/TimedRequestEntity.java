@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.ckan.filestore;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import com.arjuna.dbplugins.filestore.UploadTrace;
+
+/**
+ * Passes a request body through, noting when it starts and finishes being written, so a request can be split into the
+ * phases of obtaining a connection and sending the request headers, writing the body, and waiting for the server.
+ */
+public class TimedRequestEntity implements RequestEntity
+{
+    public TimedRequestEntity(RequestEntity requestEntity)
+    {
+        _requestEntity = requestEntity;
+    }
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return _requestEntity.isRepeatable();
+    }
+
+    @Override
+    public void writeRequest(OutputStream outputStream)
+        throws IOException
+    {
+        _writeStartTime = System.nanoTime();
+        try
+        {
+            _requestEntity.writeRequest(outputStream);
+        }
+        finally
+        {
+            _writeEndTime = System.nanoTime();
+        }
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return _requestEntity.getContentLength();
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return _requestEntity.getContentType();
+    }
+
+    /**
+     * Adds the phases of the request, from its start until now, to the trace of the upload in progress on the current
+     * thread, if there is one.
+     *
+     * @param startTime the {@link System#nanoTime()} at which the request was started
+     */
+    public void addPhases(long startTime)
+    {
+        UploadTrace trace = UploadTrace.current();
+        if (trace == null)
+            return;
+
+        long endTime = System.nanoTime();
+        if (_writeStartTime == 0)
+            trace.addPhase("connect", startTime, endTime);
+        else
+        {
+            trace.addPhase("connect", startTime, _writeStartTime);
+            if (_writeEndTime == 0)
+                trace.addPhase("body write", _writeStartTime, endTime);
+            else
+            {
+                trace.addPhase("body write", _writeStartTime, _writeEndTime);
+                trace.addPhase("server", _writeEndTime, endTime);
+            }
+        }
+    }
+
+    private final RequestEntity _requestEntity;
+    private volatile long       _writeStartTime;
+    private volatile long       _writeEndTime;
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.ckan.filestore;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Minimal HTTP/1.1 client which posts multipart requests over a socket channel, so that file parts are sent with
+ * {@link java.nio.channels.FileChannel#transferTo} straight from the file to the socket.
+ *
+ * Each request uses its own connection, closed once the response has been read, which is cheap beside the size of the
+ * files this transport is used for. Only plain http URLs are supported: an https socket has to encrypt the file in the
+ * heap, so {@link #supports(String)} directs those requests to the pooled transport.
+ *
+ * A socket timeout bounds only reads from the socket's stream, not writes to, or transfers into, its channel, so an
+ * exchange is instead watched by a {@link Watchdog}, which closes the channel once no progress has been made for the
+ * socket timeout. Shutting down and closing the channel fails whichever write, transfer or read is blocked on it.
+ */
+public class ZeroCopyHttpTransport
+{
+    private static final Logger logger = Logger.getLogger(ZeroCopyHttpTransport.class.getName());
+
+    private static final int DEFAULT_HTTP_PORT    = 80;
+    private static final int RESPONSE_BUFFER_SIZE = 4096;
+
+    private static final ScheduledThreadPoolExecutor WATCHDOG_SCHEDULER = createWatchdogScheduler();
+
+    public ZeroCopyHttpTransport(int connectTimeout, int socketTimeout)
+    {
+        logger.log(Level.FINE, "ZeroCopyHttpTransport: " + connectTimeout + ", " + socketTimeout);
+
+        _connectTimeout = connectTimeout;
+        _socketTimeout  = socketTimeout;
+    }
+
+    public static boolean supports(String url)
+    {
+        return (url != null) && url.regionMatches(true, 0, "http://", 0, 7);
+    }
+
+    /**
+     * Posts the request, reads the response to completion and closes the connection.
+     *
+     * @return the HTTP status code of the response
+     */
+    public int post(String url, String authorization, MultipartFormDataRequestEntity requestEntity)
+        throws IOException
+    {
+        URI    uri  = URI.create(url);
+        int    port = (uri.getPort() != -1) ? uri.getPort() : DEFAULT_HTTP_PORT;
+        String path = ((uri.getRawPath() != null) && (! uri.getRawPath().isEmpty())) ? uri.getRawPath() : "/";
+        if (uri.getRawQuery() != null)
+            path = path + "?" + uri.getRawQuery();
+
+        long contentLength = requestEntity.getContentLength();
+        if (contentLength < 0)
+            throw new IOException("Zero copy upload requires a request of known length");
+
+        StringBuilder requestHead = new StringBuilder(256);
+        requestHead.append("POST ").append(path).append(" HTTP/1.1\r\n");
+        requestHead.append("Host: ").append(uri.getHost());
+        if (uri.getPort() != -1)
+            requestHead.append(':').append(uri.getPort());
+        requestHead.append("\r\n");
+        if (authorization != null)
+            requestHead.append("Authorization: ").append(authorization).append("\r\n");
+        requestHead.append("Content-Type: ").append(requestEntity.getContentType()).append("\r\n");
+        requestHead.append("Content-Length: ").append(contentLength).append("\r\n");
+        requestHead.append("Connection: close\r\n");
+        requestHead.append("\r\n");
+
+        try (SocketChannel channel = SocketChannel.open())
+        {
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().connect(new InetSocketAddress(uri.getHost(), port), _connectTimeout);
+
+            final Watchdog watchdog = new Watchdog(channel, _socketTimeout);
+            watchdog.start();
+            try
+            {
+                ByteBuffer requestHeadBuffer = ByteBuffer.wrap(requestHead.toString().getBytes(StandardCharsets.ISO_8859_1));
+                while (requestHeadBuffer.hasRemaining())
+                    channel.write(requestHeadBuffer);
+                requestEntity.writeRequest(channel, watchdog);
+
+                InputStream responseStream = new FilterInputStream(Channels.newInputStream(channel))
+                {
+                    @Override
+                    public int read(byte[] buffer, int offset, int length)
+                        throws IOException
+                    {
+                        int read = super.read(buffer, offset, length);
+                        watchdog.run();
+
+                        return read;
+                    }
+                };
+
+                return readResponse(new BufferedInputStream(responseStream, RESPONSE_BUFFER_SIZE));
+            }
+            catch (IOException ioException)
+            {
+                if (watchdog.isExpired())
+                    throw (IOException) new SocketTimeoutException("No progress posting to " + url + " for " + _socketTimeout + " ms").initCause(ioException);
+                else
+                    throw ioException;
+            }
+            finally
+            {
+                watchdog.cancel();
+            }
+        }
+    }
+
+    /**
+     * Reads the response to the end of the stream, skipping any interim (1xx) responses, such as "100 Continue", which
+     * a server may send before the final response.
+     */
+    private static int readResponse(InputStream responseStream)
+        throws IOException
+    {
+        int statusCode;
+        do
+        {
+            statusCode = readStatusLine(responseStream);
+
+            // The headers, which end at an empty line
+            String headerLine;
+            do
+            {
+                headerLine = readLine(responseStream);
+                if (headerLine == null)
+                    throw new IOException("HTTP response ended in its headers");
+            }
+            while (! headerLine.isEmpty());
+        }
+        while ((statusCode >= 100) && (statusCode < 200));
+
+        // The connection is closed by the server after the response, so the body is read to the end of the stream
+        byte[] buffer = new byte[RESPONSE_BUFFER_SIZE];
+        while (responseStream.read(buffer) != -1)
+            ;
+
+        return statusCode;
+    }
+
+    private static int readStatusLine(InputStream responseStream)
+        throws IOException
+    {
+        String statusLine = readLine(responseStream);
+        if ((statusLine == null) || (! statusLine.startsWith("HTTP/")))
+            throw new IOException("Malformed HTTP response: " + statusLine);
+
+        try
+        {
+            String[] statusFields = statusLine.split(" ", 3);
+
+            return Integer.parseInt(statusFields[1]);
+        }
+        catch (RuntimeException runtimeException)
+        {
+            throw new IOException("Malformed HTTP status line: " + statusLine, runtimeException);
+        }
+    }
+
+    private static String readLine(InputStream inputStream)
+        throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        int           character;
+        while (((character = inputStream.read()) != -1) && (character != '\n'))
+        {
+            if (character != '\r')
+                line.append((char) character);
+        }
+
+        return ((character == -1) && (line.length() == 0)) ? null : line.toString();
+    }
+
+    private static ScheduledThreadPoolExecutor createWatchdogScheduler()
+    {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "ZeroCopyHttpTransport-watchdog");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+
+        return scheduler;
+    }
+
+    /**
+     * Closes the channel of an exchange once it has made no progress for the timeout. Running the watchdog records
+     * progress; a timeout of zero, as for a socket, never expires.
+     */
+    private static class Watchdog implements Runnable
+    {
+        public Watchdog(SocketChannel channel, long timeout)
+        {
+            _channel      = channel;
+            _timeout      = timeout;
+            _lastProgress = System.nanoTime();
+        }
+
+        public synchronized void start()
+        {
+            if (_timeout > 0)
+                schedule(_timeout);
+        }
+
+        @Override
+        public void run()
+        {
+            _lastProgress = System.nanoTime();
+        }
+
+        public synchronized void cancel()
+        {
+            _cancelled = true;
+            if (_check != null)
+                _check.cancel(false);
+        }
+
+        public boolean isExpired()
+        {
+            return _expired;
+        }
+
+        private void schedule(long delay)
+        {
+            _check = WATCHDOG_SCHEDULER.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    check();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void check()
+        {
+            if (_cancelled)
+                return;
+
+            long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - _lastProgress);
+            if (idle < _timeout)
+                schedule(_timeout - idle);
+            else
+            {
+                logger.log(Level.FINE, "ZeroCopyHttpTransport: no progress for " + idle + " ms, closing connection");
+                _expired = true;
+                try
+                {
+                    // A transfer blocked in sendfile is not woken by closing the channel, only by shutting the socket down
+                    _channel.shutdownOutput();
+                    _channel.shutdownInput();
+                    _channel.close();
+                }
+                catch (IOException ioException)
+                {
+                    logger.log(Level.FINE, "Problems closing connection", ioException);
+                }
+            }
+        }
+
+        private final SocketChannel _channel;
+        private final long          _timeout;
+        private volatile long       _lastProgress;
+        private volatile boolean    _expired;
+        private boolean             _cancelled;
+        private ScheduledFuture<?>  _check;
+    }
+
+    private final int _connectTimeout;
+    private final int _socketTimeout;
+}
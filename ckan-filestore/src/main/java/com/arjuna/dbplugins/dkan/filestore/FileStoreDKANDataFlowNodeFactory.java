@@ -76,6 +76,46 @@ public class FileStoreDKANDataFlowNodeFactory implements DataFlowNodeFactory
                 propertyNames.add(FileStoreDKANDataService.PACKAGEID_PROPERTYNAME);
                 propertyNames.add(FileStoreDKANDataService.USERNAME_PROPERTYNAME);
                 propertyNames.add(FileStoreDKANDataService.PASSWORD_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.SESSIONTIMEOUT_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.DATASETCACHETIMETOLIVE_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.MAXCONNECTIONSPERHOST_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.CONNECTIONTIMEOUT_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.SOCKETTIMEOUT_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.NODEPAGESIZE_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.NODELISTINGPARALLELISM_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.ASYNCUPLOAD_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.UPLOADWORKERTHREADS_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.UPLOADQUEUECAPACITY_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.UPLOADQUEUEFULLPOLICY_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.UPLOADDRAINTIMEOUT_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.BATCHUPLOAD_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.BATCHMAXRECORDS_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.BATCHMAXBYTES_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.BATCHMAXDELAY_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.BATCHDELIMITER_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.BATCHHEADER_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.SPOOLUPLOADS_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.SPOOLDIRECTORY_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.SPOOLMAXBYTES_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.SPOOLSEGMENTBYTES_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.SPOOLSYNCPOLICY_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.SPOOLSYNCINTERVAL_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.SPOOLREPLAYCONCURRENCY_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.SPOOLREPLAYINTERVAL_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.RETRYMAXATTEMPTS_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.RETRYINITIALBACKOFF_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.RETRYMAXBACKOFF_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.CIRCUITBREAKERFAILURETHRESHOLD_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.CIRCUITBREAKEROPENDURATION_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.CIRCUITBREAKERHALFOPENTRIALS_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.DEDUPLICATEUPLOADS_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.DEDUPLICATECACHESIZE_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.DEDUPLICATEINDEXFILE_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.COMPRESSUPLOADS_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.COMPRESSIONTHRESHOLD_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.COMPRESSIONLEVEL_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.TRACEBUFFERSIZE_PROPERTYNAME);
+                propertyNames.add(FileStoreDKANDataService.TRACELOGTHRESHOLD_PROPERTYNAME);
 
                 return propertyNames;
             }
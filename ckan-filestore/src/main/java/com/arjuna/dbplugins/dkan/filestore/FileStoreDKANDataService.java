@@ -4,18 +4,25 @@
 
 package com.arjuna.dbplugins.dkan.filestore;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import com.arjuna.databroker.data.DataConsumer;
 import com.arjuna.databroker.data.DataFlow;
 import com.arjuna.databroker.data.DataProvider;
@@ -26,8 +33,27 @@ import com.arjuna.databroker.data.jee.annotation.PostCreated;
 import com.arjuna.databroker.data.jee.annotation.PostRecovery;
 import com.arjuna.databroker.data.jee.annotation.PreConfig;
 import com.arjuna.databroker.data.jee.annotation.PreDelete;
+import com.arjuna.dbplugins.filestore.AsyncUploadPipeline;
+import com.arjuna.dbplugins.filestore.CircuitBreaker;
+import com.arjuna.dbplugins.filestore.CompressingUploader;
+import com.arjuna.dbplugins.filestore.DeduplicatingUploader;
+import com.arjuna.dbplugins.filestore.HttpStatusException;
+import com.arjuna.dbplugins.filestore.LoggingTraceSink;
+import com.arjuna.dbplugins.filestore.MeteredUploader;
+import com.arjuna.dbplugins.filestore.PropertiesUtil;
+import com.arjuna.dbplugins.filestore.QueueFullPolicy;
+import com.arjuna.dbplugins.filestore.RecordBatcher;
+import com.arjuna.dbplugins.filestore.ResourceUploader;
+import com.arjuna.dbplugins.filestore.RetryPolicy;
+import com.arjuna.dbplugins.filestore.TraceSink;
+import com.arjuna.dbplugins.filestore.UploadMetrics;
+import com.arjuna.dbplugins.filestore.UploadRecord;
+import com.arjuna.dbplugins.filestore.UploadSpool;
+import com.arjuna.dbplugins.filestore.UploadTrace;
 import org.risbic.dkan.DKANClient;
 import org.risbic.dkan.DKANConnection;
+import org.risbic.dkan.DKANConnectionListener;
+import org.risbic.dkan.DKANException;
 
 public class FileStoreDKANDataService implements DataService
 {
@@ -38,27 +64,147 @@ public class FileStoreDKANDataService implements DataService
     public static final String USERNAME_PROPERTYNAME    = "Username";
     public static final String PASSWORD_PROPERTYNAME    = "Password";
 
+    public static final String SESSIONTIMEOUT_PROPERTYNAME         = "Session Timeout";
+    public static final String DATASETCACHETIMETOLIVE_PROPERTYNAME = "Data Set Cache Time To Live";
+    public static final String MAXCONNECTIONSPERHOST_PROPERTYNAME  = "Max Connections Per Host";
+    public static final String CONNECTIONTIMEOUT_PROPERTYNAME      = "Connection Timeout";
+    public static final String SOCKETTIMEOUT_PROPERTYNAME          = "Socket Timeout";
+    public static final String NODEPAGESIZE_PROPERTYNAME           = "Node Page Size";
+    public static final String NODELISTINGPARALLELISM_PROPERTYNAME = "Node Listing Parallelism";
+
+    public static final long DEFAULT_SESSIONTIMEOUT         = 0L;
+    public static final long DEFAULT_DATASETCACHETIMETOLIVE = 300000L;
+    public static final int  DEFAULT_MAXCONNECTIONSPERHOST  = DKANConnection.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    public static final int  DEFAULT_CONNECTIONTIMEOUT      = DKANConnection.DEFAULT_CONNECTION_TIMEOUT;
+    public static final int  DEFAULT_SOCKETTIMEOUT          = DKANConnection.DEFAULT_SOCKET_TIMEOUT;
+    public static final int  DEFAULT_NODEPAGESIZE           = DKANConnection.DEFAULT_NODE_PAGE_SIZE;
+    public static final int  DEFAULT_NODELISTINGPARALLELISM = DKANConnection.DEFAULT_NODE_LISTING_PARALLELISM;
+
+    public static final String ASYNCUPLOAD_PROPERTYNAME           = "Asynchronous Upload";
+    public static final String UPLOADWORKERTHREADS_PROPERTYNAME   = "Upload Worker Threads";
+    public static final String UPLOADQUEUECAPACITY_PROPERTYNAME   = "Upload Queue Capacity";
+    public static final String UPLOADQUEUEFULLPOLICY_PROPERTYNAME = "Upload Queue Full Policy";
+    public static final String UPLOADDRAINTIMEOUT_PROPERTYNAME    = "Upload Drain Timeout";
+
+    public static final boolean         DEFAULT_ASYNCUPLOAD           = false;
+    public static final int             DEFAULT_UPLOADWORKERTHREADS   = 2;
+    public static final int             DEFAULT_UPLOADQUEUECAPACITY   = 1000;
+    public static final QueueFullPolicy DEFAULT_UPLOADQUEUEFULLPOLICY = QueueFullPolicy.BLOCK;
+    public static final long            DEFAULT_UPLOADDRAINTIMEOUT    = 30000L;
+
+    public static final String BATCHUPLOAD_PROPERTYNAME     = "Batch Upload";
+    public static final String BATCHMAXRECORDS_PROPERTYNAME = "Batch Max Records";
+    public static final String BATCHMAXBYTES_PROPERTYNAME   = "Batch Max Bytes";
+    public static final String BATCHMAXDELAY_PROPERTYNAME   = "Batch Max Delay";
+    public static final String BATCHDELIMITER_PROPERTYNAME  = "Batch Delimiter";
+    public static final String BATCHHEADER_PROPERTYNAME     = "Batch Header";
+
+    public static final boolean DEFAULT_BATCHUPLOAD     = false;
+    public static final int     DEFAULT_BATCHMAXRECORDS = 1000;
+    public static final int     DEFAULT_BATCHMAXBYTES   = 1048576;
+    public static final long    DEFAULT_BATCHMAXDELAY   = 5000L;
+    public static final String  DEFAULT_BATCHDELIMITER  = "\\n";
+
+    public static final String SPOOLUPLOADS_PROPERTYNAME           = "Spool Failed Uploads";
+    public static final String SPOOLDIRECTORY_PROPERTYNAME         = "Spool Directory";
+    public static final String SPOOLMAXBYTES_PROPERTYNAME          = "Spool Max Bytes";
+    public static final String SPOOLSEGMENTBYTES_PROPERTYNAME      = "Spool Segment Bytes";
+    public static final String SPOOLSYNCPOLICY_PROPERTYNAME        = "Spool Sync Policy";
+    public static final String SPOOLSYNCINTERVAL_PROPERTYNAME      = "Spool Sync Interval";
+    public static final String SPOOLREPLAYCONCURRENCY_PROPERTYNAME = "Spool Replay Concurrency";
+    public static final String SPOOLREPLAYINTERVAL_PROPERTYNAME    = "Spool Replay Interval";
+
+    public static final boolean                DEFAULT_SPOOLUPLOADS           = false;
+    public static final long                   DEFAULT_SPOOLMAXBYTES          = 1073741824L;
+    public static final long                   DEFAULT_SPOOLSEGMENTBYTES      = 16777216L;
+    public static final UploadSpool.SyncPolicy DEFAULT_SPOOLSYNCPOLICY        = UploadSpool.SyncPolicy.PERIODIC;
+    public static final long                   DEFAULT_SPOOLSYNCINTERVAL      = 1000L;
+    public static final int                    DEFAULT_SPOOLREPLAYCONCURRENCY = 2;
+    public static final long                   DEFAULT_SPOOLREPLAYINTERVAL    = 60000L;
+
+    public static final String RETRYMAXATTEMPTS_PROPERTYNAME               = "Retry Max Attempts";
+    public static final String RETRYINITIALBACKOFF_PROPERTYNAME            = "Retry Initial Backoff";
+    public static final String RETRYMAXBACKOFF_PROPERTYNAME                = "Retry Max Backoff";
+    public static final String CIRCUITBREAKERFAILURETHRESHOLD_PROPERTYNAME = "Circuit Breaker Failure Threshold";
+    public static final String CIRCUITBREAKEROPENDURATION_PROPERTYNAME     = "Circuit Breaker Open Duration";
+    public static final String CIRCUITBREAKERHALFOPENTRIALS_PROPERTYNAME   = "Circuit Breaker Half Open Trials";
+
+    public static final int  DEFAULT_RETRYMAXATTEMPTS               = 3;
+    public static final long DEFAULT_RETRYINITIALBACKOFF            = 500L;
+    public static final long DEFAULT_RETRYMAXBACKOFF                = 10000L;
+    public static final int  DEFAULT_CIRCUITBREAKERFAILURETHRESHOLD = 5;
+    public static final long DEFAULT_CIRCUITBREAKEROPENDURATION     = 30000L;
+    public static final int  DEFAULT_CIRCUITBREAKERHALFOPENTRIALS   = 1;
+
+    public static final String DEDUPLICATEUPLOADS_PROPERTYNAME   = "Deduplicate Uploads";
+    public static final String DEDUPLICATECACHESIZE_PROPERTYNAME = "Deduplicate Cache Size";
+    public static final String DEDUPLICATEINDEXFILE_PROPERTYNAME = "Deduplicate Index File";
+
+    public static final boolean DEFAULT_DEDUPLICATEUPLOADS   = false;
+    public static final int     DEFAULT_DEDUPLICATECACHESIZE = 1024;
+
+    public static final String COMPRESSUPLOADS_PROPERTYNAME      = "Compress Uploads";
+    public static final String COMPRESSIONTHRESHOLD_PROPERTYNAME = "Compression Threshold";
+    public static final String COMPRESSIONLEVEL_PROPERTYNAME     = "Compression Level";
+
+    public static final boolean DEFAULT_COMPRESSUPLOADS      = false;
+    public static final long    DEFAULT_COMPRESSIONTHRESHOLD = 65536L;
+    public static final int     DEFAULT_COMPRESSIONLEVEL     = Deflater.DEFAULT_COMPRESSION;
+
+    public static final String TRACEBUFFERSIZE_PROPERTYNAME   = "Trace Buffer Size";
+    public static final String TRACELOGTHRESHOLD_PROPERTYNAME = "Trace Log Threshold";
+
+    public static final int  DEFAULT_TRACEBUFFERSIZE   = UploadMetrics.DEFAULT_TRACEBUFFERSIZE;
+    public static final long DEFAULT_TRACELOGTHRESHOLD = 10000L;
+
     private String _dkanRootURL;
     private String _packageId;
     private String _username;
     private String _password;
-
-    private DataFlow             _dataFlow;
-    private String               _name;
-    private Map<String, String>  _properties;
+    private long   _sessionTimeout;
+    private long   _dataSetCacheTimeToLive;
+    private int    _maxConnectionsPerHost;
+    private int    _connectionTimeout;
+    private int    _socketTimeout;
+    private int    _nodePageSize;
+    private int    _nodeListingParallelism;
+
+    private DKANConnection        _connection;
+    private AsyncUploadPipeline   _uploadPipeline;
+    private RecordBatcher         _recordBatcher;
+    private UploadSpool           _uploadSpool;
+    private ResourceUploader      _uploader;
+    private RetryPolicy           _retryPolicy;
+    private CircuitBreaker        _circuitBreaker;
+    private CompressingUploader   _compressingUploader;
+    private DeduplicatingUploader _deduplicatingUploader;
+    private UploadMetrics         _metrics;
+    private TraceSink             _traceSink;
+
+    private DataFlow                  _dataFlow;
+    private String                    _name;
+    private Map<String, String>       _properties;
 
     @DataConsumerInjection(methodName="consumeString")
-    private DataConsumer<String> _dataConsumerString;
+    private DataConsumer<String>      _dataConsumerString;
 
     @DataConsumerInjection(methodName="consumeBytes")
-    private DataConsumer<byte[]> _dataConsumerBytes;
+    private DataConsumer<byte[]>      _dataConsumerBytes;
+
+    @DataConsumerInjection(methodName="consumeInputStream")
+    private DataConsumer<InputStream> _dataConsumerInputStream;
+
+    @DataConsumerInjection(methodName="consumePath")
+    private DataConsumer<Path>        _dataConsumerPath;
 
     @DataConsumerInjection(methodName="consumeMap")
-    private DataConsumer<Map>    _dataConsumerMap;
+    private DataConsumer<Map>         _dataConsumerMap;
 
     public FileStoreDKANDataService()
     {
         logger.log(Level.FINE, "FileStoreDKANDataService");
+
+        _metrics = new UploadMetrics();
     }
 
     public FileStoreDKANDataService(String name, Map<String, String> properties)
@@ -67,6 +213,7 @@ public class FileStoreDKANDataService implements DataService
 
         _name       = name;
         _properties = properties;
+        _metrics    = new UploadMetrics();
     }
 
     @Override
@@ -105,30 +252,238 @@ public class FileStoreDKANDataService implements DataService
         _properties = properties;
     }
 
+    public UploadMetrics getMetrics()
+    {
+        return _metrics;
+    }
+
+    /**
+     * Replaces the sink that the trace of each upload is passed to, by default one logging the slow uploads. The most
+     * recent traces are kept by the metrics whatever the sink.
+     */
+    public void setTraceSink(TraceSink traceSink)
+    {
+        _traceSink = traceSink;
+        if (traceSink != null)
+            _metrics.setTraceSink(traceSink);
+    }
+
+    public RetryPolicy getRetryPolicy()
+    {
+        return _retryPolicy;
+    }
+
+    public CircuitBreaker getCircuitBreaker()
+    {
+        return _circuitBreaker;
+    }
+
+    public CompressingUploader getCompressingUploader()
+    {
+        return _compressingUploader;
+    }
+
+    public DeduplicatingUploader getDeduplicatingUploader()
+    {
+        return _deduplicatingUploader;
+    }
+
     @PostConfig
     @PostCreated
     @PostRecovery
     public void setup()
     {
+        _metrics.register(getClass().getSimpleName(), _name);
+        _metrics.setTraceBufferSize(PropertiesUtil.getInt(_properties, TRACEBUFFERSIZE_PROPERTYNAME, DEFAULT_TRACEBUFFERSIZE));
+        if (_traceSink != null)
+            _metrics.setTraceSink(_traceSink);
+        else
+            _metrics.setTraceSink(new LoggingTraceSink(_name, PropertiesUtil.getLong(_properties, TRACELOGTHRESHOLD_PROPERTYNAME, DEFAULT_TRACELOGTHRESHOLD)));
+
         _dkanRootURL = _properties.get(DKANROOTURL_PROPERTYNAME);
         _packageId   = _properties.get(PACKAGEID_PROPERTYNAME);
         _username    = _properties.get(USERNAME_PROPERTYNAME);
         _password    = _properties.get(PASSWORD_PROPERTYNAME);
+
+        _sessionTimeout         = PropertiesUtil.getLong(_properties, SESSIONTIMEOUT_PROPERTYNAME, DEFAULT_SESSIONTIMEOUT);
+        _dataSetCacheTimeToLive = PropertiesUtil.getLong(_properties, DATASETCACHETIMETOLIVE_PROPERTYNAME, DEFAULT_DATASETCACHETIMETOLIVE);
+        _maxConnectionsPerHost  = PropertiesUtil.getInt(_properties, MAXCONNECTIONSPERHOST_PROPERTYNAME, DEFAULT_MAXCONNECTIONSPERHOST);
+        _connectionTimeout      = PropertiesUtil.getInt(_properties, CONNECTIONTIMEOUT_PROPERTYNAME, DEFAULT_CONNECTIONTIMEOUT);
+        _socketTimeout          = PropertiesUtil.getInt(_properties, SOCKETTIMEOUT_PROPERTYNAME, DEFAULT_SOCKETTIMEOUT);
+        _nodePageSize           = PropertiesUtil.getInt(_properties, NODEPAGESIZE_PROPERTYNAME, DEFAULT_NODEPAGESIZE);
+        _nodeListingParallelism = PropertiesUtil.getInt(_properties, NODELISTINGPARALLELISM_PROPERTYNAME, DEFAULT_NODELISTINGPARALLELISM);
+
+        int  retryMaxAttempts               = PropertiesUtil.getInt(_properties, RETRYMAXATTEMPTS_PROPERTYNAME, DEFAULT_RETRYMAXATTEMPTS);
+        long retryInitialBackoff            = PropertiesUtil.getLong(_properties, RETRYINITIALBACKOFF_PROPERTYNAME, DEFAULT_RETRYINITIALBACKOFF);
+        long retryMaxBackoff                = PropertiesUtil.getLong(_properties, RETRYMAXBACKOFF_PROPERTYNAME, DEFAULT_RETRYMAXBACKOFF);
+        int  circuitBreakerFailureThreshold = PropertiesUtil.getInt(_properties, CIRCUITBREAKERFAILURETHRESHOLD_PROPERTYNAME, DEFAULT_CIRCUITBREAKERFAILURETHRESHOLD);
+        long circuitBreakerOpenDuration     = PropertiesUtil.getLong(_properties, CIRCUITBREAKEROPENDURATION_PROPERTYNAME, DEFAULT_CIRCUITBREAKEROPENDURATION);
+        int  circuitBreakerHalfOpenTrials   = PropertiesUtil.getInt(_properties, CIRCUITBREAKERHALFOPENTRIALS_PROPERTYNAME, DEFAULT_CIRCUITBREAKERHALFOPENTRIALS);
+
+        _retryPolicy    = new RetryPolicy(_name, retryMaxAttempts, retryInitialBackoff, retryMaxBackoff);
+        _circuitBreaker = CircuitBreaker.forEndpoint(_dkanRootURL, circuitBreakerFailureThreshold, circuitBreakerOpenDuration, circuitBreakerHalfOpenTrials);
+        _metrics.setRetryPolicy(_retryPolicy);
+        _metrics.setCircuitBreaker(_circuitBreaker);
+
+        synchronized (this)
+        {
+            if (_connection != null)
+                _connection.close();
+            _connection = null;
+            try
+            {
+                getConnection();
+            }
+            catch (Throwable throwable)
+            {
+                logger.log(Level.WARNING, "Unable to log in to dkan, will retry on first upload", throwable);
+            }
+        }
+
+        ResourceUploader uploader = new ResourceUploader()
+        {
+            @Override
+            public void upload(UploadRecord record)
+                throws Exception
+            {
+                uploadResource(record);
+            }
+        };
+        uploader = new MeteredUploader(_name, _packageId, uploader, _metrics);
+        if (PropertiesUtil.getBoolean(_properties, COMPRESSUPLOADS_PROPERTYNAME, DEFAULT_COMPRESSUPLOADS))
+        {
+            long threshold        = PropertiesUtil.getLong(_properties, COMPRESSIONTHRESHOLD_PROPERTYNAME, DEFAULT_COMPRESSIONTHRESHOLD);
+            int  compressionLevel = PropertiesUtil.getInt(_properties, COMPRESSIONLEVEL_PROPERTYNAME, DEFAULT_COMPRESSIONLEVEL);
+
+            _compressingUploader = new CompressingUploader(_name, uploader, threshold, compressionLevel, null);
+            uploader             = _compressingUploader;
+        }
+        if (PropertiesUtil.getBoolean(_properties, DEDUPLICATEUPLOADS_PROPERTYNAME, DEFAULT_DEDUPLICATEUPLOADS))
+        {
+            int    cacheSize = PropertiesUtil.getInt(_properties, DEDUPLICATECACHESIZE_PROPERTYNAME, DEFAULT_DEDUPLICATECACHESIZE);
+            String indexFile = PropertiesUtil.getString(_properties, DEDUPLICATEINDEXFILE_PROPERTYNAME, null);
+
+            try
+            {
+                File file = (indexFile != null) ? new File(indexFile) : new File(UploadSpool.defaultDirectory("dkan-filestore-dedup", _name), "index");
+
+                _deduplicatingUploader = new DeduplicatingUploader(_name, _packageId, uploader, null, cacheSize, file, null);
+                uploader               = _deduplicatingUploader;
+            }
+            catch (IOException ioException)
+            {
+                logger.log(Level.WARNING, "Unable to open deduplication index, uploads will not be deduplicated", ioException);
+            }
+        }
+        if (PropertiesUtil.getBoolean(_properties, SPOOLUPLOADS_PROPERTYNAME, DEFAULT_SPOOLUPLOADS))
+        {
+            String                 spoolDirectory    = PropertiesUtil.getString(_properties, SPOOLDIRECTORY_PROPERTYNAME, null);
+            long                   maxBytes          = PropertiesUtil.getLong(_properties, SPOOLMAXBYTES_PROPERTYNAME, DEFAULT_SPOOLMAXBYTES);
+            long                   segmentBytes      = PropertiesUtil.getLong(_properties, SPOOLSEGMENTBYTES_PROPERTYNAME, DEFAULT_SPOOLSEGMENTBYTES);
+            UploadSpool.SyncPolicy syncPolicy        = UploadSpool.SyncPolicy.parse(PropertiesUtil.getString(_properties, SPOOLSYNCPOLICY_PROPERTYNAME, null), DEFAULT_SPOOLSYNCPOLICY);
+            long                   syncInterval      = PropertiesUtil.getLong(_properties, SPOOLSYNCINTERVAL_PROPERTYNAME, DEFAULT_SPOOLSYNCINTERVAL);
+            int                    replayConcurrency = PropertiesUtil.getInt(_properties, SPOOLREPLAYCONCURRENCY_PROPERTYNAME, DEFAULT_SPOOLREPLAYCONCURRENCY);
+            long                   replayInterval    = PropertiesUtil.getLong(_properties, SPOOLREPLAYINTERVAL_PROPERTYNAME, DEFAULT_SPOOLREPLAYINTERVAL);
+
+            try
+            {
+                File directory = (spoolDirectory != null) ? new File(spoolDirectory) : UploadSpool.defaultDirectory("dkan-filestore-spool", _name);
+
+                _uploadSpool = new UploadSpool(_name, directory, uploader, maxBytes, segmentBytes, syncPolicy, syncInterval, replayConcurrency, replayInterval);
+                _uploadSpool.start();
+                uploader     = _uploadSpool;
+            }
+            catch (IOException ioException)
+            {
+                logger.log(Level.WARNING, "Unable to open upload spool, failed uploads will not be spooled", ioException);
+            }
+        }
+        if (PropertiesUtil.getBoolean(_properties, ASYNCUPLOAD_PROPERTYNAME, DEFAULT_ASYNCUPLOAD))
+        {
+            int             workerThreads   = PropertiesUtil.getInt(_properties, UPLOADWORKERTHREADS_PROPERTYNAME, DEFAULT_UPLOADWORKERTHREADS);
+            int             queueCapacity   = PropertiesUtil.getInt(_properties, UPLOADQUEUECAPACITY_PROPERTYNAME, DEFAULT_UPLOADQUEUECAPACITY);
+            QueueFullPolicy queueFullPolicy = QueueFullPolicy.parse(PropertiesUtil.getString(_properties, UPLOADQUEUEFULLPOLICY_PROPERTYNAME, null), DEFAULT_UPLOADQUEUEFULLPOLICY);
+
+            _uploadPipeline = new AsyncUploadPipeline(_name, uploader, workerThreads, queueCapacity, queueFullPolicy);
+            uploader        = _uploadPipeline;
+        }
+        if (PropertiesUtil.getBoolean(_properties, BATCHUPLOAD_PROPERTYNAME, DEFAULT_BATCHUPLOAD))
+        {
+            int    maxRecords = PropertiesUtil.getInt(_properties, BATCHMAXRECORDS_PROPERTYNAME, DEFAULT_BATCHMAXRECORDS);
+            int    maxBytes   = PropertiesUtil.getInt(_properties, BATCHMAXBYTES_PROPERTYNAME, DEFAULT_BATCHMAXBYTES);
+            long   maxDelay   = PropertiesUtil.getLong(_properties, BATCHMAXDELAY_PROPERTYNAME, DEFAULT_BATCHMAXDELAY);
+            String delimiter  = RecordBatcher.unescape(PropertiesUtil.getString(_properties, BATCHDELIMITER_PROPERTYNAME, DEFAULT_BATCHDELIMITER));
+            String header     = RecordBatcher.unescape(PropertiesUtil.getString(_properties, BATCHHEADER_PROPERTYNAME, null));
+
+            _recordBatcher = new RecordBatcher(_name, uploader, maxRecords, maxBytes, maxDelay, (delimiter != null) ? delimiter.getBytes(StandardCharsets.UTF_8) : null, (header != null) ? header.getBytes(StandardCharsets.UTF_8) : null);
+            uploader       = _recordBatcher;
+        }
+        _metrics.setDeduplicatingUploader(_deduplicatingUploader);
+        _uploader = uploader;
     }
 
     @PreConfig
     @PreDelete
     public void teardown()
     {
+        _metrics.unregister();
+
+        if (_recordBatcher != null)
+        {
+            _recordBatcher.close();
+            _recordBatcher = null;
+        }
+
+        if (_uploadPipeline != null)
+        {
+            long drainTimeout = PropertiesUtil.getLong(_properties, UPLOADDRAINTIMEOUT_PROPERTYNAME, DEFAULT_UPLOADDRAINTIMEOUT);
+
+            List<UploadRecord> remainingRecords = _uploadPipeline.close(drainTimeout);
+            int                discardedCount   = 0;
+            for (UploadRecord remainingRecord: remainingRecords)
+            {
+                try
+                {
+                    if ((_uploadSpool == null) || (! _uploadSpool.append(remainingRecord)))
+                        discardedCount++;
+                }
+                catch (IOException ioException)
+                {
+                    logger.log(Level.WARNING, "Problems spooling queued record", ioException);
+                    discardedCount++;
+                }
+            }
+            if (discardedCount > 0)
+                logger.log(Level.WARNING, "Teardown of \"" + _name + "\" discarded " + discardedCount + " queued records");
+            _uploadPipeline = null;
+        }
+
+        if (_uploadSpool != null)
+        {
+            _uploadSpool.close(PropertiesUtil.getLong(_properties, UPLOADDRAINTIMEOUT_PROPERTYNAME, DEFAULT_UPLOADDRAINTIMEOUT));
+            _uploadSpool = null;
+        }
+        _compressingUploader   = null;
+        _deduplicatingUploader = null;
+        _metrics.setDeduplicatingUploader(null);
+
+        synchronized (this)
+        {
+            if (_connection != null)
+                _connection.close();
+            _connection = null;
+        }
     }
 
     public void consumeString(String data)
     {
         logger.log(Level.FINE, "FileStoreDKANDataService.consumeString");
 
+        _metrics.recordConsumed(String.class);
+
         try
         {
-            uploadResource(data.getBytes(), null, null, null, null);
+            _uploader.upload(new UploadRecord(data.getBytes(), null, null, null, null));
         }
         catch (Throwable throwable)
         {
@@ -140,9 +495,43 @@ public class FileStoreDKANDataService implements DataService
     {
         logger.log(Level.FINE, "FileStoreDKANDataService.consumeBytes");
 
+        _metrics.recordConsumed(byte[].class);
+
+        try
+        {
+            _uploader.upload(new UploadRecord(data, null, null, null, null));
+        }
+        catch (Throwable throwable)
+        {
+            logger.log(Level.WARNING, "Problems with dkan filestore api invoke", throwable);
+        }
+    }
+
+    public void consumeInputStream(InputStream data)
+    {
+        logger.log(Level.FINE, "FileStoreDKANDataService.consumeInputStream");
+
+        _metrics.recordConsumed(InputStream.class);
+
         try
         {
-            uploadResource(data, null, null, null, null);
+            _uploader.upload(new UploadRecord(data, -1, null, null, null, null));
+        }
+        catch (Throwable throwable)
+        {
+            logger.log(Level.WARNING, "Problems with dkan filestore api invoke", throwable);
+        }
+    }
+
+    public void consumePath(Path data)
+    {
+        logger.log(Level.FINE, "FileStoreDKANDataService.consumePath");
+
+        _metrics.recordConsumed(Path.class);
+
+        try
+        {
+            _uploader.upload(new UploadRecord(data, data.getFileName().toString(), null, null, null));
         }
         catch (Throwable throwable)
         {
@@ -154,15 +543,17 @@ public class FileStoreDKANDataService implements DataService
     {
         logger.log(Level.FINE, "FileStoreDKANDataService.consumeMap");
 
+        _metrics.recordConsumed(Map.class);
+
         try
         {
-            byte[] data                = (byte[]) map.get("data");
+            Object data                = map.get("data");
             String fileName            = (String) map.get("filename");
             String resourceName        = (String) map.get("resourcename");
             String resourceFormat      = (String) map.get("resourceformat");
             String resourceDescription = (String) map.get("resourcedescription");
 
-            uploadResource(data, fileName, resourceName, resourceFormat, resourceDescription);
+            _uploader.upload(UploadRecord.fromData(data, fileName, resourceName, resourceFormat, resourceDescription));
         }
         catch (Throwable throwable)
         {
@@ -170,32 +561,209 @@ public class FileStoreDKANDataService implements DataService
         }
     }
 
-    private void uploadResource(byte[] data, String fileName, String resourceName, String resourceFormat, String resourceDescription)
+    private void uploadResource(UploadRecord record)
+        throws Exception
     {
         logger.log(Level.FINE, "FileStoreDKANDataService.consume");
 
+        String fileName            = record.getFileName();
+        String resourceName        = record.getResourceName();
+        String resourceFormat      = record.getResourceFormat();
+        String resourceDescription = record.getResourceDescription();
+
         // Set Defaults
         fileName = setDefault(fileName, false);
         resourceName = setDefault(resourceName, false);
         resourceDescription = setDefault(resourceDescription, true);
         resourceFormat = setDefault(resourceFormat, true);
 
-        if (data.length == 0)
+        if (record.getLength() == 0)
         {
             logger.log(Level.WARNING, "Unable to upload resource with empty data");
             return;
         }
 
+        final UploadRecord fileRecord    = record;
+        final String       fileFileName  = fileName;
+        final String       resourceTitle = resourceName;
+        final String       resourceBody  = resourceDescription;
+
+        // The data set lookup does not depend on the file, so it runs while the file is uploaded. Looking up the data set
+        // again finds any data set created by an attempt whose response was lost
+        CompletableFuture<String> dataSetLookup = executeStepAsync("data set lookup", true, true, new DKANStep<String>()
+        {
+            @Override
+            public String execute(DKANConnection connection)
+                throws Exception
+            {
+                return connection.findOrCreateDataSetByTitle(_packageId);
+            }
+        });
+
+        final String fileId = executeStep("file create", false, record.isRepeatable(), new DKANStep<String>()
+        {
+            @Override
+            public String execute(DKANConnection connection)
+                throws Exception
+            {
+                if (fileRecord.getData() != null)
+                    return connection.createFile(fileRecord.getData(), fileFileName);
+                else if (fileRecord.getPath() != null)
+                    return connection.createFile(fileRecord.getPath(), fileFileName);
+                else
+                    return connection.createFile(fileRecord.getStream(), fileRecord.getLength(), fileFileName);
+            }
+        });
+        if (fileId == null)
+            throw new IOException("Problems with dkan filestore api invoke: file create failed");
+
+        final String dataSetId = awaitStep(dataSetLookup);
+        if (dataSetId == null)
+            throw new IOException("Problems with dkan filestore api invoke: data set lookup failed");
+
+        String resourceId = executeStep("resource create", false, true, new DKANStep<String>()
+        {
+            @Override
+            public String execute(DKANConnection connection)
+                throws Exception
+            {
+                String resourceId = connection.createResourceByDataSetId(resourceTitle, resourceBody, dataSetId, fileId);
+                if (resourceId == null)
+                    // The cached node id may refer to a data set that has since been removed
+                    connection.invalidateDataSet(_packageId);
+
+                return resourceId;
+            }
+        });
+        if (resourceId == null)
+            throw new IOException("Problems with dkan filestore api invoke: resource create failed");
+    }
+
+    /**
+     * Executes a step of an upload on the shared connection, under the retry policy and circuit breaker of the endpoint.
+     * Steps that cannot send their request body a second time are not retried.
+     */
+    private <T> T executeStep(String stepName, boolean idempotent, boolean repeatable, final DKANStep<T> step)
+        throws Exception
+    {
+        Callable<T> request = new Callable<T>()
+        {
+            @Override
+            public T call()
+                throws Exception
+            {
+                DKANConnection connection = getConnection();
+                try
+                {
+                    return step.execute(connection);
+                }
+                catch (DKANException dkanException)
+                {
+                    throw new HttpStatusException(dkanException.getMessage(), dkanException.getStatusCode(), dkanException);
+                }
+            }
+        };
+
+        if (repeatable)
+            return _retryPolicy.execute(stepName, _circuitBreaker, idempotent, request);
+        else
+            return _retryPolicy.executeOnce(stepName, _circuitBreaker, request);
+    }
+
+    /**
+     * Starts a step on the connection's executor, the step is retried there as {@link #executeStep} would retry it. The
+     * trace of the upload is carried over to the executor, so the step's phases are added to it.
+     */
+    private <T> CompletableFuture<T> executeStepAsync(final String stepName, final boolean idempotent, final boolean repeatable, final DKANStep<T> step)
+    {
+        Executor executor;
+        try
+        {
+            executor = getConnection().getExecutor();
+        }
+        catch (Exception exception)
+        {
+            // Without a connection the step runs in line, and reports the login failure through the retry policy itself
+            executor = Runnable::run;
+        }
+
+        final UploadTrace trace = UploadTrace.current();
+
+        return CompletableFuture.supplyAsync(() ->
+        {
+            UploadTrace previousTrace = UploadTrace.setCurrent(trace);
+            try
+            {
+                return executeStep(stepName, idempotent, repeatable, step);
+            }
+            catch (Exception exception)
+            {
+                throw new CompletionException(exception);
+            }
+            finally
+            {
+                UploadTrace.setCurrent(previousTrace);
+            }
+        }, executor);
+    }
+
+    private <T> T awaitStep(CompletableFuture<T> step)
+        throws Exception
+    {
         try
         {
-            DKANConnection connection = DKANClient.connect(_username, _password, _dkanRootURL);
-            String fileId = connection.createFile(data, fileName);
-            connection.createResourceByDataSetTitle(resourceName, resourceDescription, _packageId, fileId);
+            return step.join();
         }
-        catch (Throwable throwable)
+        catch (CompletionException completionException)
         {
-            logger.log(Level.WARNING, "Problems with dkan filestore api invoke", throwable);
+            if (completionException.getCause() instanceof Exception)
+                throw (Exception) completionException.getCause();
+            else
+                throw completionException;
+        }
+    }
+
+    private interface DKANStep<T>
+    {
+        public T execute(DKANConnection connection)
+            throws Exception;
+    }
+
+    /**
+     * Returns the connection shared by all uploads of this service, logging in if there is no session yet. The connection
+     * may be used by any number of upload workers at once, and renews its own session when it expires or is rejected by
+     * the server.
+     */
+    private synchronized DKANConnection getConnection()
+        throws Exception
+    {
+        if (_connection == null)
+        {
+            DKANConnection connection = DKANClient.connect(_username, _password, _dkanRootURL, _maxConnectionsPerHost, _connectionTimeout, _socketTimeout);
+            if (! connection.authenticated())
+            {
+                connection.close();
+                throw new IllegalStateException("Unable to log in to dkan at " + _dkanRootURL + " as " + _username);
+            }
+
+            connection.setSessionTimeout(_sessionTimeout);
+            connection.setDataSetCacheTimeToLive(_dataSetCacheTimeToLive);
+            connection.setNodePageSize(_nodePageSize);
+            connection.setNodeListingParallelism(_nodeListingParallelism);
+            connection.addListener(new DKANConnectionListener()
+            {
+                @Override
+                public void operationCompleted(String operation, long startTime, long endTime, int statusCode)
+                {
+                    UploadTrace trace = UploadTrace.current();
+                    if (trace != null)
+                        trace.addPhase(operation, startTime, endTime);
+                }
+            });
+            _connection = connection;
         }
+
+        return _connection;
     }
 
     private String setDefault(String value, boolean allowEmpty)
@@ -228,6 +796,8 @@ public class FileStoreDKANDataService implements DataService
 
         dataConsumerDataClasses.add(String.class);
         dataConsumerDataClasses.add(byte[].class);
+        dataConsumerDataClasses.add(InputStream.class);
+        dataConsumerDataClasses.add(Path.class);
         dataConsumerDataClasses.add(Map.class);
 
         return dataConsumerDataClasses;
@@ -241,6 +811,10 @@ public class FileStoreDKANDataService implements DataService
             return (DataConsumer<T>) _dataConsumerString;
         else if (dataClass == byte[].class)
             return (DataConsumer<T>) _dataConsumerBytes;
+        else if (dataClass == InputStream.class)
+            return (DataConsumer<T>) _dataConsumerInputStream;
+        else if (dataClass == Path.class)
+            return (DataConsumer<T>) _dataConsumerPath;
         else if (dataClass == Map.class)
             return (DataConsumer<T>) _dataConsumerMap;
         else
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decouples uploads from the delivering thread: records are placed on a bounded queue which a fixed pool of worker
+ * threads drains into the downstream uploader.
+ *
+ * Records streamed from an input stream are uploaded on the delivering thread, as the stream's supplier may close it as
+ * soon as the record has been delivered.
+ */
+public class AsyncUploadPipeline implements ResourceUploader
+{
+    private static final Logger logger = Logger.getLogger(AsyncUploadPipeline.class.getName());
+
+    public AsyncUploadPipeline(String name, ResourceUploader downstream, int workerThreads, int queueCapacity, QueueFullPolicy queueFullPolicy)
+    {
+        logger.log(Level.FINE, "AsyncUploadPipeline: " + name + ", " + workerThreads + ", " + queueCapacity + ", " + queueFullPolicy);
+
+        _name            = name;
+        _downstream      = downstream;
+        _queueFullPolicy = queueFullPolicy;
+        _droppedCount    = new AtomicLong();
+        _rejectedCount   = new AtomicLong();
+
+        _executor = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), new WorkerThreadFactory(name), new QueueFullHandler());
+    }
+
+    @Override
+    public void upload(UploadRecord record)
+        throws Exception
+    {
+        if (record.isRepeatable())
+            _executor.execute(new UploadTask(record));
+        else
+            _downstream.upload(record);
+    }
+
+    public int getQueueSize()
+    {
+        return _executor.getQueue().size();
+    }
+
+    public int getActiveCount()
+    {
+        return _executor.getActiveCount();
+    }
+
+    public long getDroppedCount()
+    {
+        return _droppedCount.get();
+    }
+
+    public long getRejectedCount()
+    {
+        return _rejectedCount.get();
+    }
+
+    /**
+     * Stops accepting records and waits up to the drain timeout for queued records to be uploaded.
+     *
+     * @return the records still queued when the drain timeout expired
+     */
+    public List<UploadRecord> close(long drainTimeout)
+    {
+        logger.log(Level.FINE, "AsyncUploadPipeline.close: " + _name);
+
+        _executor.shutdown();
+
+        List<UploadRecord> remainingRecords = new LinkedList<UploadRecord>();
+        try
+        {
+            if (! _executor.awaitTermination(drainTimeout, TimeUnit.MILLISECONDS))
+            {
+                for (Runnable runnable: _executor.shutdownNow())
+                    if (runnable instanceof UploadTask)
+                        remainingRecords.add(((UploadTask) runnable).getRecord());
+
+                logger.log(Level.WARNING, "Upload queue of \"" + _name + "\" not drained within " + drainTimeout + "ms, " + remainingRecords.size() + " records outstanding");
+            }
+        }
+        catch (InterruptedException interruptedException)
+        {
+            for (Runnable runnable: _executor.shutdownNow())
+                if (runnable instanceof UploadTask)
+                    remainingRecords.add(((UploadTask) runnable).getRecord());
+            Thread.currentThread().interrupt();
+        }
+
+        return remainingRecords;
+    }
+
+    private class UploadTask implements Runnable
+    {
+        public UploadTask(UploadRecord record)
+        {
+            _record = record;
+        }
+
+        public UploadRecord getRecord()
+        {
+            return _record;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                _downstream.upload(_record);
+            }
+            catch (Throwable throwable)
+            {
+                logger.log(Level.WARNING, "Problems with asynchronous upload", throwable);
+            }
+        }
+
+        private final UploadRecord _record;
+    }
+
+    private class QueueFullHandler implements RejectedExecutionHandler
+    {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor)
+        {
+            if (executor.isShutdown())
+                throw new RejectedExecutionException("Upload pipeline \"" + _name + "\" is closed");
+
+            if (_queueFullPolicy == QueueFullPolicy.BLOCK)
+            {
+                try
+                {
+                    executor.getQueue().put(runnable);
+                }
+                catch (InterruptedException interruptedException)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while waiting for upload queue space", interruptedException);
+                }
+            }
+            else if (_queueFullPolicy == QueueFullPolicy.DROP_OLDEST)
+            {
+                if (executor.getQueue().poll() != null)
+                {
+                    _droppedCount.incrementAndGet();
+                    logger.log(Level.WARNING, "Upload queue of \"" + _name + "\" full, oldest record dropped");
+                }
+                executor.execute(runnable);
+            }
+            else
+            {
+                _rejectedCount.incrementAndGet();
+                logger.log(Level.WARNING, "Upload queue of \"" + _name + "\" full, record rejected");
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory
+    {
+        public WorkerThreadFactory(String name)
+        {
+            _name        = name;
+            _threadCount = new AtomicInteger();
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "Upload-" + _name + "-" + _threadCount.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+
+        private final String        _name;
+        private final AtomicInteger _threadCount;
+    }
+
+    private final String             _name;
+    private final ResourceUploader   _downstream;
+    private final QueueFullPolicy    _queueFullPolicy;
+    private final ThreadPoolExecutor _executor;
+    private final AtomicLong         _droppedCount;
+    private final AtomicLong         _rejectedCount;
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fails requests to an endpoint fast once it has failed repeatedly, rather than have every request wait out a connect or
+ * read timeout.
+ *
+ * The breaker opens after the failure threshold of consecutive failures. While open every request is refused with a
+ * {@link CircuitBreakerOpenException}. Once the open duration has passed the breaker is half open, and lets through up to
+ * the given number of trial requests: a successful trial closes the breaker, a failed one opens it again.
+ *
+ * Breakers are shared by all data services talking to the same endpoint, see {@link #forEndpoint}. The settings of a
+ * shared breaker are those most recently configured.
+ */
+public class CircuitBreaker
+{
+    private static final Logger logger = Logger.getLogger(CircuitBreaker.class.getName());
+
+    public enum State
+    {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final ConcurrentMap<String, CircuitBreaker> _circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /**
+     * Returns the breaker of the endpoint, creating it with the given settings if this is the first use of the endpoint.
+     * Later callers share the existing breaker, which takes on their settings, so that reconfiguring a service changes
+     * the breaker without losing its state.
+     */
+    public static CircuitBreaker forEndpoint(String endpoint, int failureThreshold, long openDuration, int halfOpenTrials)
+    {
+        CircuitBreaker circuitBreaker = _circuitBreakers.get(endpoint);
+        if (circuitBreaker == null)
+        {
+            CircuitBreaker newCircuitBreaker = new CircuitBreaker(endpoint, failureThreshold, openDuration, halfOpenTrials);
+
+            circuitBreaker = _circuitBreakers.putIfAbsent(endpoint, newCircuitBreaker);
+            if (circuitBreaker == null)
+                circuitBreaker = newCircuitBreaker;
+            else
+                circuitBreaker.configure(failureThreshold, openDuration, halfOpenTrials);
+        }
+        else
+            circuitBreaker.configure(failureThreshold, openDuration, halfOpenTrials);
+
+        return circuitBreaker;
+    }
+
+    public CircuitBreaker(String endpoint, int failureThreshold, long openDuration, int halfOpenTrials)
+    {
+        logger.log(Level.FINE, "CircuitBreaker: " + endpoint + ", " + failureThreshold + ", " + openDuration + ", " + halfOpenTrials);
+
+        _endpoint         = endpoint;
+        _failureThreshold = Math.max(failureThreshold, 1);
+        _openDuration     = openDuration;
+        _halfOpenTrials   = Math.max(halfOpenTrials, 1);
+        _state            = State.CLOSED;
+        _openedCount      = new AtomicLong();
+        _rejectedCount    = new AtomicLong();
+    }
+
+    /**
+     * Replaces the settings of the breaker, keeping its state. An open breaker stays open until the new open duration
+     * has passed since it opened.
+     */
+    public synchronized void configure(int failureThreshold, long openDuration, int halfOpenTrials)
+    {
+        if ((failureThreshold != _failureThreshold) || (openDuration != _openDuration) || (halfOpenTrials != _halfOpenTrials))
+            logger.log(Level.FINE, "CircuitBreaker.configure: " + _endpoint + ", " + failureThreshold + ", " + openDuration + ", " + halfOpenTrials);
+
+        _failureThreshold = Math.max(failureThreshold, 1);
+        _openDuration     = openDuration;
+        _halfOpenTrials   = Math.max(halfOpenTrials, 1);
+    }
+
+    /**
+     * Called before a request is sent.
+     *
+     * @throws CircuitBreakerOpenException if the breaker is open, or half open with all trial requests in progress
+     */
+    public synchronized void acquire()
+        throws CircuitBreakerOpenException
+    {
+        if ((_state == State.OPEN) && (System.currentTimeMillis() - _openedAt >= _openDuration))
+        {
+            logger.log(Level.INFO, "Circuit breaker for \"" + _endpoint + "\" half open, sending trial requests");
+            _state          = State.HALF_OPEN;
+            _trialsInFlight = 0;
+        }
+
+        if ((_state == State.OPEN) || ((_state == State.HALF_OPEN) && (_trialsInFlight >= _halfOpenTrials)))
+        {
+            _rejectedCount.incrementAndGet();
+            throw new CircuitBreakerOpenException(_endpoint);
+        }
+
+        if (_state == State.HALF_OPEN)
+            _trialsInFlight++;
+    }
+
+    /**
+     * Records a request the endpoint answered, including answers that are errors of the request rather than of the endpoint.
+     */
+    public synchronized void recordSuccess()
+    {
+        if (_state == State.HALF_OPEN)
+            logger.log(Level.INFO, "Circuit breaker for \"" + _endpoint + "\" closed");
+
+        _state               = State.CLOSED;
+        _consecutiveFailures = 0;
+        _trialsInFlight      = 0;
+    }
+
+    /**
+     * Records a request that failed because the endpoint could not be reached or reported a server error.
+     */
+    public synchronized void recordFailure()
+    {
+        _consecutiveFailures++;
+
+        if ((_state == State.HALF_OPEN) || ((_state == State.CLOSED) && (_consecutiveFailures >= _failureThreshold)))
+        {
+            logger.log(Level.WARNING, "Circuit breaker for \"" + _endpoint + "\" opened after " + _consecutiveFailures + " consecutive failures, failing fast for " + _openDuration + "ms");
+            _state          = State.OPEN;
+            _openedAt       = System.currentTimeMillis();
+            _trialsInFlight = 0;
+            _openedCount.incrementAndGet();
+        }
+    }
+
+    public String getEndpoint()
+    {
+        return _endpoint;
+    }
+
+    public synchronized State getState()
+    {
+        return _state;
+    }
+
+    public synchronized int getFailureThreshold()
+    {
+        return _failureThreshold;
+    }
+
+    public synchronized long getOpenDuration()
+    {
+        return _openDuration;
+    }
+
+    public synchronized int getHalfOpenTrials()
+    {
+        return _halfOpenTrials;
+    }
+
+    public synchronized int getConsecutiveFailures()
+    {
+        return _consecutiveFailures;
+    }
+
+    /**
+     * @return the number of times the breaker has opened
+     */
+    public long getOpenedCount()
+    {
+        return _openedCount.get();
+    }
+
+    /**
+     * @return the number of requests refused while the breaker was open
+     */
+    public long getRejectedCount()
+    {
+        return _rejectedCount.get();
+    }
+
+    private final String     _endpoint;
+    private final AtomicLong _openedCount;
+    private final AtomicLong _rejectedCount;
+    private int              _failureThreshold;
+    private long             _openDuration;
+    private int              _halfOpenTrials;
+    private State            _state;
+    private int              _consecutiveFailures;
+    private int              _trialsInFlight;
+    private long             _openedAt;
+}
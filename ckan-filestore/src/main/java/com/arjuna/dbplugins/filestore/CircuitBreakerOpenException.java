@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.io.IOException;
+
+/**
+ * A request refused without being sent because the circuit breaker of its endpoint is open.
+ */
+public class CircuitBreakerOpenException extends IOException
+{
+    private static final long serialVersionUID = -2265309184537701239L;
+
+    public CircuitBreakerOpenException(String endpoint)
+    {
+        super("Circuit breaker for \"" + endpoint + "\" is open");
+
+        _endpoint = endpoint;
+    }
+
+    public String getEndpoint()
+    {
+        return _endpoint;
+    }
+
+    private final String _endpoint;
+}
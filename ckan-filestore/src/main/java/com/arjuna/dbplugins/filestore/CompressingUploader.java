@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compresses the payloads of records before they are passed downstream, so they are stored as ".gz" resources, with
+ * ".gz" added to the file name, resource name and format. Payloads smaller than the threshold, and files which already look compressed, are passed on as
+ * they are, as is any payload which does not shrink.
+ *
+ * A byte array payload is compressed in memory, needing at most its compressed size. File and stream payloads are
+ * compressed, as they are read, into a temporary file, which is uploaded and then deleted, so a large payload is never
+ * held on the heap. As the temporary file can be read again, a compressed stream record can be retried.
+ */
+public class CompressingUploader implements ResourceUploader
+{
+    private static final Logger logger = Logger.getLogger(CompressingUploader.class.getName());
+
+    private static final String   COMPRESSED_SUFFIX     = ".gz";
+    private static final String   DEFAULT_FILENAME      = "upload";
+    private static final String[] COMPRESSED_EXTENSIONS = { ".gz", ".tgz", ".zip", ".bz2", ".xz", ".7z", ".jpg", ".jpeg", ".png", ".gif" };
+    private static final int      BUFFER_SIZE           = 65536;
+
+    /**
+     * @param threshold        payloads of fewer bytes are not compressed
+     * @param compressionLevel a {@link Deflater} level, from 1 to 9, or -1 for the default level
+     * @param tempDirectory    where compressed files are written, or null for the default temporary directory
+     */
+    public CompressingUploader(String name, ResourceUploader downstream, long threshold, int compressionLevel, File tempDirectory)
+    {
+        logger.log(Level.FINE, "CompressingUploader: " + name + ", " + threshold + ", " + compressionLevel + ", " + tempDirectory);
+
+        _name             = name;
+        _downstream       = downstream;
+        _threshold        = threshold;
+        _compressionLevel = compressionLevel;
+        _tempDirectory    = tempDirectory;
+        _bytesIn          = new AtomicLong();
+        _bytesOut         = new AtomicLong();
+    }
+
+    @Override
+    public void upload(UploadRecord record)
+        throws Exception
+    {
+        if (isCompressed(record.getFileName()) || isCompressed(record.getResourceName()))
+        {
+            _downstream.upload(record);
+            return;
+        }
+
+        if (record.getData() != null)
+        {
+            byte[] data = record.getData();
+            if (data.length < _threshold)
+            {
+                _downstream.upload(record);
+                return;
+            }
+
+            ByteArrayOutputStream compressedData = new ByteArrayOutputStream(Math.max(data.length / 4, 512));
+            try (OutputStream compressedStream = createCompressedStream(compressedData))
+            {
+                compressedStream.write(data);
+            }
+
+            if (compressedData.size() >= data.length)
+            {
+                _downstream.upload(record);
+                return;
+            }
+
+            _bytesIn.addAndGet(data.length);
+            _bytesOut.addAndGet(compressedData.size());
+            _downstream.upload(new UploadRecord(compressedData.toByteArray(), compressedFileName(record), compressedResourceName(record), compressedFormat(record), record.getResourceDescription()));
+        }
+        else
+        {
+            long length = record.getLength();
+            if ((length >= 0) && (length < _threshold))
+            {
+                _downstream.upload(record);
+                return;
+            }
+
+            Path compressedFile = (_tempDirectory != null) ? Files.createTempFile(_tempDirectory.toPath(), "compress", COMPRESSED_SUFFIX) : Files.createTempFile("compress", COMPRESSED_SUFFIX);
+            try
+            {
+                long uncompressedLength = 0;
+                try (InputStream inputStream = record.openStream(); OutputStream compressedStream = createCompressedStream(Files.newOutputStream(compressedFile)))
+                {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int    count;
+                    while (((length < 0) || (uncompressedLength < length)) && ((count = inputStream.read(buffer, 0, (length < 0) ? buffer.length : (int) Math.min(buffer.length, length - uncompressedLength))) != -1))
+                    {
+                        compressedStream.write(buffer, 0, count);
+                        uncompressedLength += count;
+                    }
+                }
+
+                long compressedLength = Files.size(compressedFile);
+                if (record.isRepeatable() && (compressedLength >= uncompressedLength))
+                {
+                    _downstream.upload(record);
+                    return;
+                }
+
+                _bytesIn.addAndGet(uncompressedLength);
+                _bytesOut.addAndGet(compressedLength);
+                _downstream.upload(new UploadRecord(compressedFile, compressedFileName(record), compressedResourceName(record), compressedFormat(record), record.getResourceDescription()));
+            }
+            finally
+            {
+                try
+                {
+                    Files.deleteIfExists(compressedFile);
+                }
+                catch (IOException ioException)
+                {
+                    logger.log(Level.WARNING, "Unable to delete compressed file \"" + compressedFile + "\" of \"" + _name + "\"", ioException);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes that have been compressed.
+     */
+    public long getBytesIn()
+    {
+        return _bytesIn.get();
+    }
+
+    /**
+     * Returns the number of compressed bytes that have been produced.
+     */
+    public long getBytesOut()
+    {
+        return _bytesOut.get();
+    }
+
+    private OutputStream createCompressedStream(OutputStream outputStream)
+        throws IOException
+    {
+        return new GZIPOutputStream(outputStream, BUFFER_SIZE)
+        {
+            {
+                def.setLevel(_compressionLevel);
+            }
+        };
+    }
+
+    private static boolean isCompressed(String name)
+    {
+        if (name == null)
+            return false;
+
+        String lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+        for (String extension: COMPRESSED_EXTENSIONS)
+            if (lowerCaseName.endsWith(extension))
+                return true;
+
+        return false;
+    }
+
+    private static String compressedFileName(UploadRecord record)
+    {
+        if (record.getFileName() != null)
+            return record.getFileName() + COMPRESSED_SUFFIX;
+        else if (record.getResourceName() != null)
+            return record.getResourceName() + COMPRESSED_SUFFIX;
+        else
+            return DEFAULT_FILENAME + COMPRESSED_SUFFIX;
+    }
+
+    private static String compressedResourceName(UploadRecord record)
+    {
+        if (record.getResourceName() != null)
+            return record.getResourceName() + COMPRESSED_SUFFIX;
+        else
+            return null;
+    }
+
+    private static String compressedFormat(UploadRecord record)
+    {
+        if (record.getResourceFormat() != null)
+            return record.getResourceFormat() + COMPRESSED_SUFFIX;
+        else
+            return "gzip";
+    }
+
+    private final String           _name;
+    private final ResourceUploader _downstream;
+    private final long             _threshold;
+    private final int              _compressionLevel;
+    private final File             _tempDirectory;
+    private final AtomicLong       _bytesIn;
+    private final AtomicLong       _bytesOut;
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Skips uploads whose content has recently been uploaded to the same package. A SHA-256 digest is taken over the
+ * record's naming and payload, and looked up in a bounded, least recently used, set of digests per package, which is
+ * persisted to an index file so the set survives a restart. A digest is reserved before the downstream upload, so that
+ * a concurrent upload of the same content waits for it rather than sending it again, and is added to the set once the
+ * upload has succeeded, or released if it fails.
+ *
+ * Every record is digested before it is passed on, so a duplicate is never sent. An input stream can only be read once,
+ * so a stream record is copied to a temporary file as it is digested, and the file, rather than the stream, is passed
+ * on and then deleted. A file record is read to be digested, then again by the downstream uploader, but its digest is
+ * remembered against the file's identity, size and modification time, so a file sent again unchanged is not read again.
+ */
+public class DeduplicatingUploader implements ResourceUploader
+{
+    private static final Logger logger = Logger.getLogger(DeduplicatingUploader.class.getName());
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int    BUFFER_SIZE      = 65536;
+    private static final String STREAM_SUFFIX    = ".tmp";
+
+    /**
+     * @param duplicateUploader passed each duplicate record, for example to touch the package metadata, may be null
+     * @param tempDirectory     where stream records are copied, or null for the default temporary directory
+     */
+    public DeduplicatingUploader(String name, String packageId, ResourceUploader downstream, ResourceUploader duplicateUploader, int maxEntries, File indexFile, File tempDirectory)
+        throws IOException
+    {
+        logger.log(Level.FINE, "DeduplicatingUploader: " + name + ", " + packageId + ", " + maxEntries + ", " + indexFile + ", " + tempDirectory);
+
+        _name              = name;
+        _packageId         = (packageId != null) ? packageId : "";
+        _downstream        = downstream;
+        _duplicateUploader = duplicateUploader;
+        _maxEntries        = maxEntries;
+        _indexFile         = indexFile;
+        _tempDirectory     = tempDirectory;
+        _digests           = new HashMap<String, LinkedHashMap<String, Boolean>>();
+        _fileDigests       = new LinkedHashMap<String, String>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+            {
+                return size() > _maxEntries;
+            }
+        };
+        _pendingDigests    = new HashSet<String>();
+        _hitCount          = new AtomicLong();
+        _missCount         = new AtomicLong();
+
+        if (_indexFile != null)
+        {
+            File directory = _indexFile.getAbsoluteFile().getParentFile();
+            if ((directory != null) && (! directory.isDirectory()) && (! directory.mkdirs()))
+                throw new IOException("Unable to create deduplication index directory \"" + directory + "\"");
+
+            loadIndex();
+        }
+    }
+
+    @Override
+    public void upload(UploadRecord record)
+        throws Exception
+    {
+        if (record.getData() != null)
+        {
+            MessageDigest digest = createDigest(record);
+            digest.update(record.getData());
+
+            upload(record, toHex(digest.digest()));
+        }
+        else if (record.getPath() != null)
+        {
+            String fileKey = fileKey(record);
+            String hash    = fileDigest(fileKey);
+            if (hash == null)
+            {
+                MessageDigest digest = createDigest(record);
+                try (InputStream stream = record.openStream())
+                {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int    count;
+                    while ((count = stream.read(buffer)) != -1)
+                        digest.update(buffer, 0, count);
+                }
+                hash = toHex(digest.digest());
+            }
+
+            upload(record, hash);
+            if (fileKey != null)
+                addFileDigest(fileKey, hash);
+        }
+        else
+        {
+            Path streamFile = (_tempDirectory != null) ? Files.createTempFile(_tempDirectory.toPath(), "dedup", STREAM_SUFFIX) : Files.createTempFile("dedup", STREAM_SUFFIX);
+            try
+            {
+                MessageDigest digest = createDigest(record);
+                long          length = record.getLength();
+                try (InputStream stream = record.openStream(); OutputStream fileStream = Files.newOutputStream(streamFile))
+                {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    long   copied = 0;
+                    int    count;
+                    while (((length < 0) || (copied < length)) && ((count = stream.read(buffer, 0, (length < 0) ? buffer.length : (int) Math.min(buffer.length, length - copied))) != -1))
+                    {
+                        digest.update(buffer, 0, count);
+                        fileStream.write(buffer, 0, count);
+                        copied += count;
+                    }
+                }
+
+                upload(new UploadRecord(streamFile, record.getFileName(), record.getResourceName(), record.getResourceFormat(), record.getResourceDescription()), toHex(digest.digest()));
+            }
+            finally
+            {
+                try
+                {
+                    Files.deleteIfExists(streamFile);
+                }
+                catch (IOException ioException)
+                {
+                    logger.log(Level.WARNING, "Unable to delete stream copy \"" + streamFile + "\" of \"" + _name + "\"", ioException);
+                }
+            }
+        }
+    }
+
+    private void upload(UploadRecord record, String hash)
+        throws Exception
+    {
+        if (! reserve(hash))
+        {
+            _hitCount.incrementAndGet();
+            logger.log(Level.FINE, "Skipping duplicate upload on \"" + _name + "\": " + hash);
+
+            if (_duplicateUploader != null)
+                _duplicateUploader.upload(record);
+
+            return;
+        }
+
+        _missCount.incrementAndGet();
+        boolean uploaded = false;
+        try
+        {
+            _downstream.upload(record);
+            uploaded = true;
+        }
+        finally
+        {
+            release(hash, uploaded);
+        }
+    }
+
+    public long getHitCount()
+    {
+        return _hitCount.get();
+    }
+
+    public long getMissCount()
+    {
+        return _missCount.get();
+    }
+
+    public synchronized int getEntryCount()
+    {
+        LinkedHashMap<String, Boolean> digests = _digests.get(_packageId);
+
+        return (digests != null) ? digests.size() : 0;
+    }
+
+    private MessageDigest createDigest(UploadRecord record)
+        throws NoSuchAlgorithmException
+    {
+        MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+
+        // The naming is part of the digest, the same content uploaded under another name is a different resource
+        updateDigest(digest, record.getFileName());
+        updateDigest(digest, record.getResourceName());
+        updateDigest(digest, record.getResourceFormat());
+        updateDigest(digest, record.getResourceDescription());
+
+        return digest;
+    }
+
+    private void updateDigest(MessageDigest digest, String value)
+    {
+        if (value != null)
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * @return the key identifying the content of the record's file, null if the file cannot be identified
+     */
+    private static String fileKey(UploadRecord record)
+    {
+        try
+        {
+            BasicFileAttributes attributes = Files.readAttributes(record.getPath(), BasicFileAttributes.class);
+            Object              fileKey    = attributes.fileKey();
+
+            StringBuilder key = new StringBuilder();
+            key.append((fileKey != null) ? fileKey : record.getPath().toAbsolutePath());
+            key.append('\0').append(attributes.size());
+            key.append('\0').append(attributes.lastModifiedTime());
+            key.append('\0').append(record.getFileName());
+            key.append('\0').append(record.getResourceName());
+            key.append('\0').append(record.getResourceFormat());
+            key.append('\0').append(record.getResourceDescription());
+
+            return key.toString();
+        }
+        catch (IOException ioException)
+        {
+            return null;
+        }
+    }
+
+    private synchronized String fileDigest(String fileKey)
+    {
+        return (fileKey != null) ? _fileDigests.get(fileKey) : null;
+    }
+
+    private synchronized void addFileDigest(String fileKey, String hash)
+    {
+        _fileDigests.put(fileKey, hash);
+    }
+
+    /**
+     * Reserves the digest for an upload, waiting while another upload of the same content is in progress.
+     *
+     * @return false if the content has already been uploaded
+     */
+    private synchronized boolean reserve(String hash)
+        throws InterruptedException
+    {
+        while (_pendingDigests.contains(hash))
+            wait();
+
+        if (contains(hash))
+            return false;
+
+        _pendingDigests.add(hash);
+
+        return true;
+    }
+
+    /**
+     * Releases a reserved digest, adding it to the set if the upload succeeded, and wakes any upload waiting for it.
+     */
+    private synchronized void release(String hash, boolean uploaded)
+    {
+        _pendingDigests.remove(hash);
+        if (uploaded)
+            add(hash);
+        notifyAll();
+    }
+
+    private synchronized boolean contains(String hash)
+    {
+        LinkedHashMap<String, Boolean> digests = _digests.get(_packageId);
+
+        return (digests != null) && (digests.get(hash) != null);
+    }
+
+    private synchronized void add(String hash)
+    {
+        if (digestsFor(_packageId).put(hash, Boolean.TRUE) != null)
+            return;
+
+        if (_indexFile != null)
+        {
+            try
+            {
+                if (_indexLines >= 2 * indexEntryCount() + _maxEntries)
+                    compactIndex();
+                else
+                {
+                    try (Writer writer = Files.newBufferedWriter(_indexFile.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND))
+                    {
+                        writer.write(_packageId + "\t" + hash + "\n");
+                    }
+                    _indexLines++;
+                }
+            }
+            catch (IOException ioException)
+            {
+                logger.log(Level.WARNING, "Problems writing deduplication index \"" + _indexFile + "\"", ioException);
+            }
+        }
+    }
+
+    private LinkedHashMap<String, Boolean> digestsFor(String packageId)
+    {
+        LinkedHashMap<String, Boolean> digests = _digests.get(packageId);
+        if (digests == null)
+        {
+            digests = new LinkedHashMap<String, Boolean>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+                {
+                    return size() > _maxEntries;
+                }
+            };
+            _digests.put(packageId, digests);
+        }
+
+        return digests;
+    }
+
+    private int indexEntryCount()
+    {
+        int count = 0;
+        for (LinkedHashMap<String, Boolean> digests: _digests.values())
+            count += digests.size();
+
+        return count;
+    }
+
+    private void loadIndex()
+        throws IOException
+    {
+        if (! _indexFile.isFile())
+            return;
+
+        try (BufferedReader reader = Files.newBufferedReader(_indexFile.toPath(), StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                int separator = line.indexOf('\t');
+                if (separator > 0)
+                    digestsFor(line.substring(0, separator)).put(line.substring(separator + 1), Boolean.TRUE);
+                else if (separator == 0)
+                    digestsFor("").put(line.substring(1), Boolean.TRUE);
+                _indexLines++;
+            }
+        }
+        logger.log(Level.FINE, "Loaded " + indexEntryCount() + " digests from deduplication index \"" + _indexFile + "\"");
+    }
+
+    private void compactIndex()
+        throws IOException
+    {
+        File compactFile = new File(_indexFile.getPath() + ".tmp");
+
+        int lines = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(compactFile.toPath(), StandardCharsets.UTF_8))
+        {
+            for (Map.Entry<String, LinkedHashMap<String, Boolean>> digests: _digests.entrySet())
+            {
+                // Least recently used first, so the order is kept when the index is loaded
+                for (String hash: digests.getValue().keySet())
+                {
+                    writer.write(digests.getKey() + "\t" + hash + "\n");
+                    lines++;
+                }
+            }
+        }
+        Files.move(compactFile.toPath(), _indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        _indexLines = lines;
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte value: bytes)
+        {
+            hex.append(Character.forDigit((value >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(value & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+
+    private final String                                      _name;
+    private final String                                      _packageId;
+    private final ResourceUploader                            _downstream;
+    private final ResourceUploader                            _duplicateUploader;
+    private final int                                         _maxEntries;
+    private final File                                        _indexFile;
+    private final File                                        _tempDirectory;
+    private final Map<String, LinkedHashMap<String, Boolean>> _digests;
+    private final LinkedHashMap<String, String>               _fileDigests;
+    private final Set<String>                                 _pendingDigests;
+    private final AtomicLong                                  _hitCount;
+    private final AtomicLong                                  _missCount;
+    private int                                               _indexLines;
+}
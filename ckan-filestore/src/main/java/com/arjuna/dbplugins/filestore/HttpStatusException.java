@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.io.IOException;
+
+/**
+ * A portal request answered with a status code other than success.
+ */
+public class HttpStatusException extends IOException
+{
+    private static final long serialVersionUID = 4381765329014720551L;
+
+    public HttpStatusException(String message, int statusCode)
+    {
+        super(message);
+
+        _statusCode = statusCode;
+    }
+
+    public HttpStatusException(String message, int statusCode, Throwable cause)
+    {
+        super(message, cause);
+
+        _statusCode = statusCode;
+    }
+
+    public int getStatusCode()
+    {
+        return _statusCode;
+    }
+
+    public boolean isServerError()
+    {
+        return _statusCode >= 500;
+    }
+
+    private final int _statusCode;
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of durations, with log-linear buckets: each power of two of microseconds is split into eight
+ * buckets, so a percentile is reported to within an eighth of its value. Recording a duration takes a few arithmetic
+ * operations and atomic updates, with no locking or allocation.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS  = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT     = 40;
+    private static final int BUCKET_COUNT     = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    public LatencyHistogram()
+    {
+        _buckets = new AtomicLongArray(BUCKET_COUNT);
+        _count   = new LongAdder();
+        _max     = new AtomicLong();
+    }
+
+    public void record(long duration, TimeUnit unit)
+    {
+        long micros = Math.max(0, unit.toMicros(duration));
+
+        _buckets.incrementAndGet(bucketIndex(micros));
+        _count.increment();
+
+        long max = _max.get();
+        while ((micros > max) && (! _max.compareAndSet(max, micros)))
+            max = _max.get();
+    }
+
+    public long getCount()
+    {
+        return _count.sum();
+    }
+
+    /**
+     * Returns the duration, in milliseconds, below which the given fraction of the recorded durations fall, or zero if
+     * nothing has been recorded.
+     *
+     * @param quantile from 0.0 to 1.0, for example 0.95 for the 95th percentile
+     */
+    public double getQuantileMillis(double quantile)
+    {
+        long[] counts = new long[BUCKET_COUNT];
+        long   total  = 0;
+        for (int index = 0; index < BUCKET_COUNT; index++)
+        {
+            counts[index] = _buckets.get(index);
+            total        += counts[index];
+        }
+        if (total == 0)
+            return 0.0;
+
+        long rank       = Math.max(1, (long) Math.ceil(quantile * total));
+        long cumulative = 0;
+        for (int index = 0; index < BUCKET_COUNT; index++)
+        {
+            cumulative += counts[index];
+            if (cumulative >= rank)
+                return Math.min(bucketUpperBound(index), _max.get()) / 1000.0;
+        }
+
+        return _max.get() / 1000.0;
+    }
+
+    public double getMaxMillis()
+    {
+        return _max.get() / 1000.0;
+    }
+
+    public void reset()
+    {
+        for (int index = 0; index < BUCKET_COUNT; index++)
+            _buckets.set(index, 0);
+        _count.reset();
+        _max.set(0);
+    }
+
+    private static int bucketIndex(long micros)
+    {
+        if (micros < SUB_BUCKET_COUNT)
+            return (int) micros;
+
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT)
+            return BUCKET_COUNT - 1;
+
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long bucketUpperBound(int index)
+    {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+
+        int exponent  = (index / SUB_BUCKET_COUNT) + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+
+        return ((long) (SUB_BUCKET_COUNT + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private final AtomicLongArray _buckets;
+    private final LongAdder       _count;
+    private final AtomicLong      _max;
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs the trace of each upload which takes at least the threshold, or which fails, with its phase timings. Other traces
+ * are logged at FINEST.
+ */
+public class LoggingTraceSink implements TraceSink
+{
+    private static final Logger logger = Logger.getLogger(LoggingTraceSink.class.getName());
+
+    /**
+     * @param threshold milliseconds, uploads taking at least this long are logged, a negative threshold logs only failures
+     */
+    public LoggingTraceSink(String name, long threshold)
+    {
+        _name      = name;
+        _threshold = (threshold >= 0) ? TimeUnit.MILLISECONDS.toNanos(threshold) : Long.MAX_VALUE;
+    }
+
+    @Override
+    public void record(UploadTrace trace)
+    {
+        if (! trace.isSucceeded())
+            logger.log(Level.INFO, "Failed upload on \"" + _name + "\": " + trace);
+        else if (trace.getDuration() >= _threshold)
+            logger.log(Level.INFO, "Slow upload on \"" + _name + "\": " + trace);
+        else if (logger.isLoggable(Level.FINEST))
+            logger.log(Level.FINEST, "Upload on \"" + _name + "\": " + trace);
+    }
+
+    private final String _name;
+    private final long   _threshold;
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.io.IOException;
+
+/**
+ * Records the outcome, duration and size of each upload passed to the downstream uploader, and traces the upload, making
+ * its trace current while the downstream uploader runs so the phases of the upload can be added to it. Each upload is
+ * also recorded as an {@link UploadEvent} when the flight recorder is running.
+ */
+public class MeteredUploader implements ResourceUploader
+{
+    public MeteredUploader(String name, String packageId, ResourceUploader downstream, UploadMetrics metrics)
+    {
+        _name       = name;
+        _packageId  = packageId;
+        _downstream = downstream;
+        _metrics    = metrics;
+    }
+
+    @Override
+    public void upload(UploadRecord record)
+        throws Exception
+    {
+        long                         bytes         = length(record);
+        UploadEvents.UploadRecording event         = UploadEvents.beginUpload();
+        UploadTrace                  trace         = new UploadTrace(description(record));
+        UploadTrace                  previousTrace = UploadTrace.setCurrent(trace);
+        long                         startTime     = _metrics.uploadStarted();
+        Throwable                    failure       = null;
+        try
+        {
+            _downstream.upload(record);
+        }
+        catch (Exception exception)
+        {
+            failure = exception;
+            _metrics.uploadFailed(startTime, exception);
+            throw exception;
+        }
+        catch (Error error)
+        {
+            failure = error;
+            _metrics.uploadFailed(startTime, error);
+            throw error;
+        }
+        finally
+        {
+            UploadTrace.setCurrent(previousTrace);
+            trace.finish(failure == null, bytes);
+            _metrics.recordTrace(trace);
+
+            event.end();
+            if (event.shouldCommit())
+                event.commit(_name, _packageId, trace.getDescription(), bytes, statusCode(failure), failure == null, trace.getPhases().toString());
+        }
+        _metrics.uploadSucceeded(startTime, bytes);
+    }
+
+    private static int statusCode(Throwable failure)
+    {
+        if (failure == null)
+            return 200;
+        else if (failure instanceof HttpStatusException)
+            return ((HttpStatusException) failure).getStatusCode();
+        else
+            return -1;
+    }
+
+    private static String description(UploadRecord record)
+    {
+        if (record.getResourceName() != null)
+            return record.getResourceName();
+        else if (record.getFileName() != null)
+            return record.getFileName();
+        else
+            return "upload";
+    }
+
+    private static long length(UploadRecord record)
+    {
+        try
+        {
+            return record.getLength();
+        }
+        catch (IOException ioException)
+        {
+            return -1;
+        }
+    }
+
+    private final String           _name;
+    private final String           _packageId;
+    private final ResourceUploader _downstream;
+    private final UploadMetrics    _metrics;
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Helpers for reading optional, typed, data flow node properties. Missing, empty or malformed values fall back to the supplied default.
+ */
+public class PropertiesUtil
+{
+    private static final Logger logger = Logger.getLogger(PropertiesUtil.class.getName());
+
+    private PropertiesUtil()
+    {
+    }
+
+    public static String getString(Map<String, String> properties, String name, String defaultValue)
+    {
+        String value = (properties != null) ? properties.get(name) : null;
+
+        if ((value == null) || value.trim().isEmpty())
+            return defaultValue;
+        else
+            return value.trim();
+    }
+
+    public static int getInt(Map<String, String> properties, String name, int defaultValue)
+    {
+        String value = getString(properties, name, null);
+
+        if (value == null)
+            return defaultValue;
+
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException numberFormatException)
+        {
+            logger.log(Level.WARNING, "Invalid value for property \"" + name + "\": \"" + value + "\", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(Map<String, String> properties, String name, long defaultValue)
+    {
+        String value = getString(properties, name, null);
+
+        if (value == null)
+            return defaultValue;
+
+        try
+        {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException numberFormatException)
+        {
+            logger.log(Level.WARNING, "Invalid value for property \"" + name + "\": \"" + value + "\", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(Map<String, String> properties, String name, boolean defaultValue)
+    {
+        String value = getString(properties, name, null);
+
+        if (value == null)
+            return defaultValue;
+        else if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("yes") || value.equals("1"))
+            return true;
+        else if (value.equalsIgnoreCase("false") || value.equalsIgnoreCase("no") || value.equals("0"))
+            return false;
+        else
+        {
+            logger.log(Level.WARNING, "Invalid value for property \"" + name + "\": \"" + value + "\", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+/**
+ * What an {@link AsyncUploadPipeline} does with a record that arrives when its queue is full.
+ */
+public enum QueueFullPolicy
+{
+    /** Wait for space, holding up the delivering thread. */
+    BLOCK,
+    /** Discard the oldest queued record to make room. */
+    DROP_OLDEST,
+    /** Discard the arriving record, logging a warning. */
+    REJECT;
+
+    public static QueueFullPolicy parse(String value, QueueFullPolicy defaultPolicy)
+    {
+        if (value == null)
+            return defaultPolicy;
+
+        try
+        {
+            return QueueFullPolicy.valueOf(value.trim().toUpperCase().replace('-', '_').replace(' ', '_'));
+        }
+        catch (IllegalArgumentException illegalArgumentException)
+        {
+            return defaultPolicy;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Concatenates the payloads of small records into a single record, which is passed downstream once the batch reaches a
+ * record count or byte size limit, or has been open for the maximum delay. Records carrying their own file or resource
+ * naming are passed straight through, as are records no smaller than the byte size limit.
+ */
+public class RecordBatcher implements ResourceUploader
+{
+    private static final Logger logger = Logger.getLogger(RecordBatcher.class.getName());
+
+    /**
+     * @param delimiter appended after each record's payload, may be null
+     * @param header    written, followed by the delimiter, at the start of each batch, for example a CSV header line, may be null
+     */
+    public RecordBatcher(String name, ResourceUploader downstream, int maxRecords, int maxBytes, long maxDelay, byte[] delimiter, byte[] header)
+    {
+        logger.log(Level.FINE, "RecordBatcher: " + name + ", " + maxRecords + ", " + maxBytes + ", " + maxDelay);
+
+        _name         = name;
+        _downstream   = downstream;
+        _maxRecords   = maxRecords;
+        _maxBytes     = maxBytes;
+        _maxDelay     = maxDelay;
+        _delimiter    = (delimiter != null) ? delimiter : new byte[0];
+        _header       = (header != null) ? header : new byte[0];
+        _batch        = new ByteArrayOutputStream();
+        _batchRecords = 0;
+
+        _scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "RecordBatcher-" + _name);
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void upload(UploadRecord record)
+        throws Exception
+    {
+        byte[] data = record.getData();
+
+        if ((record.getFileName() != null) || (record.getResourceName() != null) || (data == null) || (data.length >= _maxBytes))
+        {
+            _downstream.upload(record);
+            return;
+        }
+
+        UploadRecord fullBatch = null;
+        synchronized (this)
+        {
+            if ((_batchRecords > 0) && (_batch.size() + data.length + _delimiter.length > _maxBytes))
+                fullBatch = takeBatch();
+
+            if (_batchRecords == 0)
+            {
+                if (_header.length > 0)
+                {
+                    _batch.write(_header);
+                    _batch.write(_delimiter);
+                }
+                if (_maxDelay > 0)
+                    _flushTask = _scheduler.schedule(new FlushTask(_batchGeneration), _maxDelay, TimeUnit.MILLISECONDS);
+            }
+            _batch.write(data);
+            _batch.write(_delimiter);
+            _batchRecords++;
+
+            if ((fullBatch == null) && (_batchRecords >= _maxRecords))
+                fullBatch = takeBatch();
+        }
+
+        if (fullBatch != null)
+            _downstream.upload(fullBatch);
+    }
+
+    /**
+     * Passes any partly filled batch downstream.
+     */
+    public void flush()
+        throws Exception
+    {
+        UploadRecord batch;
+        synchronized (this)
+        {
+            batch = takeBatch();
+        }
+
+        if (batch != null)
+            _downstream.upload(batch);
+    }
+
+    /**
+     * Flushes the current batch and stops the delay timer.
+     */
+    public void close()
+    {
+        logger.log(Level.FINE, "RecordBatcher.close: " + _name);
+
+        _scheduler.shutdownNow();
+        try
+        {
+            flush();
+        }
+        catch (Throwable throwable)
+        {
+            logger.log(Level.WARNING, "Problems flushing final batch of \"" + _name + "\"", throwable);
+        }
+    }
+
+    /**
+     * Converts the escape sequences \n, \r, \t and \\, as typed into a property value, to the characters they stand for.
+     */
+    public static String unescape(String value)
+    {
+        if (value == null)
+            return null;
+
+        StringBuilder result = new StringBuilder(value.length());
+        for (int index = 0; index < value.length(); index++)
+        {
+            char character = value.charAt(index);
+            if ((character == '\\') && (index + 1 < value.length()))
+            {
+                char escaped = value.charAt(++index);
+                if (escaped == 'n')
+                    result.append('\n');
+                else if (escaped == 'r')
+                    result.append('\r');
+                else if (escaped == 't')
+                    result.append('\t');
+                else
+                    result.append(escaped);
+            }
+            else
+                result.append(character);
+        }
+
+        return result.toString();
+    }
+
+    private UploadRecord takeBatch()
+    {
+        if (_batchRecords == 0)
+            return null;
+
+        if (_flushTask != null)
+        {
+            _flushTask.cancel(false);
+            _flushTask = null;
+        }
+
+        UploadRecord batch = new UploadRecord(_batch.toByteArray(), null, null, null, null);
+        _batch.reset();
+        _batchRecords = 0;
+        _batchGeneration++;
+
+        return batch;
+    }
+
+    private class FlushTask implements Runnable
+    {
+        public FlushTask(long batchGeneration)
+        {
+            _flushGeneration = batchGeneration;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                UploadRecord batch = null;
+                synchronized (RecordBatcher.this)
+                {
+                    if (_batchGeneration == _flushGeneration)
+                        batch = takeBatch();
+                }
+
+                if (batch != null)
+                    _downstream.upload(batch);
+            }
+            catch (Throwable throwable)
+            {
+                logger.log(Level.WARNING, "Problems with timed flush of \"" + _name + "\"", throwable);
+            }
+        }
+
+        private final long _flushGeneration;
+    }
+
+    private final String                   _name;
+    private final ResourceUploader         _downstream;
+    private final int                      _maxRecords;
+    private final int                      _maxBytes;
+    private final long                     _maxDelay;
+    private final byte[]                   _delimiter;
+    private final byte[]                   _header;
+    private final ScheduledExecutorService _scheduler;
+    private final ByteArrayOutputStream    _batch;
+    private int                            _batchRecords;
+    private long                           _batchGeneration;
+    private ScheduledFuture<?>             _flushTask;
+}
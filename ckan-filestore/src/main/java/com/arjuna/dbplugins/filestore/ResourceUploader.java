@@ -0,0 +1,14 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+/**
+ * A stage that records consumed by a file store data service pass through on their way to the portal.
+ */
+public interface ResourceUploader
+{
+    public void upload(UploadRecord record)
+        throws Exception;
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.NoHttpResponseException;
+
+/**
+ * Retries portal requests that failed for reasons likely to pass, waiting a capped, exponentially growing, randomised
+ * backoff between attempts.
+ *
+ * Failures where the request cannot have reached the portal (connection refused or timed out, 502 and 503) are retried
+ * for every request. Failures where the portal may have acted on the request before failing (read timeouts, other 5xx)
+ * are only retried for idempotent requests, so a retried create cannot leave a duplicate behind.
+ */
+public class RetryPolicy
+{
+    private static final Logger logger = Logger.getLogger(RetryPolicy.class.getName());
+
+    private static final double BACKOFF_MULTIPLIER = 2.0;
+
+    public RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff)
+    {
+        this(null, maxAttempts, initialBackoff, maxBackoff);
+    }
+
+    /**
+     * @param name the name of the node whose requests are retried, recorded with each retry
+     */
+    public RetryPolicy(String name, int maxAttempts, long initialBackoff, long maxBackoff)
+    {
+        logger.log(Level.FINE, "RetryPolicy: " + name + ", " + maxAttempts + ", " + initialBackoff + ", " + maxBackoff);
+
+        _name           = name;
+        _maxAttempts    = Math.max(maxAttempts, 1);
+        _initialBackoff = initialBackoff;
+        _maxBackoff     = maxBackoff;
+        _random         = new Random();
+        _retryCount     = new AtomicLong();
+        _exhaustedCount = new AtomicLong();
+    }
+
+    /**
+     * Calls the request, through the circuit breaker if there is one, retrying it while it fails retryably and attempts remain.
+     *
+     * @param circuitBreaker the breaker of the request's endpoint, may be null
+     * @param idempotent     whether the request can be repeated without effect after the portal has acted on it
+     */
+    public <T> T execute(String requestName, CircuitBreaker circuitBreaker, boolean idempotent, Callable<T> request)
+        throws Exception
+    {
+        return execute(requestName, circuitBreaker, idempotent, _maxAttempts, request);
+    }
+
+    /**
+     * Calls the request through the circuit breaker, if there is one, without retrying it, for requests whose body
+     * cannot be sent a second time.
+     */
+    public <T> T executeOnce(String requestName, CircuitBreaker circuitBreaker, Callable<T> request)
+        throws Exception
+    {
+        return execute(requestName, circuitBreaker, false, 1, request);
+    }
+
+    private <T> T execute(String requestName, CircuitBreaker circuitBreaker, boolean idempotent, int maxAttempts, Callable<T> request)
+        throws Exception
+    {
+        for (int attempt = 1; ; attempt++)
+        {
+            if (circuitBreaker != null)
+                circuitBreaker.acquire();
+
+            try
+            {
+                T result = request.call();
+
+                if (circuitBreaker != null)
+                    circuitBreaker.recordSuccess();
+
+                return result;
+            }
+            catch (Exception exception)
+            {
+                if (circuitBreaker != null)
+                {
+                    if (isEndpointFailure(exception))
+                        circuitBreaker.recordFailure();
+                    else
+                        circuitBreaker.recordSuccess();
+                }
+
+                if (! isRetryable(exception, idempotent))
+                    throw exception;
+                if (attempt >= maxAttempts)
+                {
+                    _exhaustedCount.incrementAndGet();
+                    throw exception;
+                }
+
+                long backoff = backoff(attempt);
+                logger.log(Level.FINE, "Retrying \"" + requestName + "\" in " + backoff + "ms after attempt " + attempt + " failed: " + exception);
+                _retryCount.incrementAndGet();
+
+                UploadEvents.RetryRecording retryEvent = UploadEvents.beginRetry();
+                try
+                {
+                    Thread.sleep(backoff);
+                }
+                catch (InterruptedException interruptedException)
+                {
+                    Thread.currentThread().interrupt();
+                    throw exception;
+                }
+                finally
+                {
+                    int statusCode = (exception instanceof HttpStatusException) ? ((HttpStatusException) exception).getStatusCode() : -1;
+                    retryEvent.commit(_name, requestName, attempt, statusCode, exception.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a random wait of up to the initial backoff doubled for each earlier attempt, capped at the maximum backoff
+     */
+    public long backoff(int attempt)
+    {
+        double ceiling = Math.min(_initialBackoff * Math.pow(BACKOFF_MULTIPLIER, attempt - 1), _maxBackoff);
+
+        return (long) (_random.nextDouble() * ceiling);
+    }
+
+    public static boolean isRetryable(Exception exception, boolean idempotent)
+    {
+        if (exception instanceof CircuitBreakerOpenException)
+            return false;
+        else if ((exception instanceof ConnectException) || (exception instanceof ConnectTimeoutException) || (exception instanceof NoRouteToHostException))
+            return true;
+        else if (exception instanceof HttpStatusException)
+        {
+            int statusCode = ((HttpStatusException) exception).getStatusCode();
+
+            return (statusCode == 502) || (statusCode == 503) || (idempotent && (statusCode >= 500));
+        }
+        else
+            return idempotent && ((exception instanceof SocketTimeoutException) || (exception instanceof NoHttpResponseException));
+    }
+
+    /**
+     * @return whether the failure reflects on the health of the endpoint, rather than on the request
+     */
+    public static boolean isEndpointFailure(Exception exception)
+    {
+        if (exception instanceof HttpStatusException)
+            return ((HttpStatusException) exception).isServerError();
+        else
+            return (exception instanceof ConnectException) || (exception instanceof ConnectTimeoutException) || (exception instanceof NoRouteToHostException)
+                   || (exception instanceof SocketTimeoutException) || (exception instanceof NoHttpResponseException);
+    }
+
+    public int getMaxAttempts()
+    {
+        return _maxAttempts;
+    }
+
+    /**
+     * @return the number of retries made
+     */
+    public long getRetryCount()
+    {
+        return _retryCount.get();
+    }
+
+    /**
+     * @return the number of requests that still failed retryably after the last attempt
+     */
+    public long getExhaustedCount()
+    {
+        return _exhaustedCount.get();
+    }
+
+    private final String     _name;
+    private final int        _maxAttempts;
+    private final long       _initialBackoff;
+    private final long       _maxBackoff;
+    private final Random     _random;
+    private final AtomicLong _retryCount;
+    private final AtomicLong _exhaustedCount;
+}
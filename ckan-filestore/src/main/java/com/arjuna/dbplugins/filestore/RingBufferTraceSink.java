@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the most recent traces in memory, overwriting the oldest once full. Recording a trace claims a slot with a
+ * single atomic increment, with no locking, so upload workers never wait on one another to record.
+ */
+public class RingBufferTraceSink implements TraceSink
+{
+    public RingBufferTraceSink(int capacity)
+    {
+        _traces = new AtomicReferenceArray<UploadTrace>(Math.max(capacity, 1));
+        _next   = new AtomicLong();
+    }
+
+    @Override
+    public void record(UploadTrace trace)
+    {
+        long index = _next.getAndIncrement();
+
+        _traces.set((int) (index % _traces.length()), trace);
+    }
+
+    public int getCapacity()
+    {
+        return _traces.length();
+    }
+
+    /**
+     * Returns the traces held, most recent first.
+     */
+    public List<UploadTrace> getRecent()
+    {
+        long              next   = _next.get();
+        int               count  = (int) Math.min(next, _traces.length());
+        List<UploadTrace> recent = new ArrayList<UploadTrace>(count);
+        for (long index = next - 1; index >= next - count; index--)
+        {
+            UploadTrace trace = _traces.get((int) (index % _traces.length()));
+            if (trace != null)
+                recent.add(trace);
+        }
+
+        return recent;
+    }
+
+    /**
+     * Returns up to count of the traces held, slowest first.
+     */
+    public List<UploadTrace> getSlowest(int count)
+    {
+        List<UploadTrace> slowest = getRecent();
+        Collections.sort(slowest, new Comparator<UploadTrace>()
+        {
+            @Override
+            public int compare(UploadTrace trace1, UploadTrace trace2)
+            {
+                return Long.compare(trace2.getDuration(), trace1.getDuration());
+            }
+        });
+
+        return slowest.subList(0, Math.max(0, Math.min(count, slowest.size())));
+    }
+
+    public void clear()
+    {
+        for (int index = 0; index < _traces.length(); index++)
+            _traces.set(index, null);
+    }
+
+    private final AtomicReferenceArray<UploadTrace> _traces;
+    private final AtomicLong                        _next;
+}
@@ -0,0 +1,14 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+/**
+ * Destination of the traces of completed uploads. A sink is called on the thread that performed the upload, so should
+ * return quickly.
+ */
+public interface TraceSink
+{
+    public void record(UploadTrace trace);
+}
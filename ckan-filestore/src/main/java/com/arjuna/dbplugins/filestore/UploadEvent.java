@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for an upload by a file store service, from its start to its end, whether it succeeded or
+ * failed. Only uploads taking at least the threshold, 20 ms unless the recording says otherwise, are recorded. Created
+ * through {@link UploadEvents}, so that this class is not loaded on a JVM without the flight recorder.
+ */
+@Name("com.arjuna.dbplugins.filestore.Upload")
+@Label("File Store Upload")
+@Category("File Store")
+@Description("An upload of a record to a CKAN or DKAN portal")
+@Threshold("20 ms")
+@StackTrace(false)
+public class UploadEvent extends jdk.jfr.Event implements UploadEvents.UploadRecording
+{
+    @Label("Node")
+    String nodeName;
+
+    @Label("Package")
+    String packageId;
+
+    @Label("Resource")
+    String resource;
+
+    @Label("Payload Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Status")
+    @Description("200 on success, the response status of a failed request, or -1 for a failure without one")
+    int statusCode;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    @Label("Phases")
+    @Description("The timed phases of the upload, with their offsets from its start")
+    String phases;
+
+    @Override
+    public void commit(String nodeName, String packageId, String resource, long bytes, int statusCode, boolean succeeded, String phases)
+    {
+        this.nodeName   = nodeName;
+        this.packageId  = packageId;
+        this.resource   = resource;
+        this.bytes      = bytes;
+        this.statusCode = statusCode;
+        this.succeeded  = succeeded;
+        this.phases     = phases;
+        commit();
+    }
+}
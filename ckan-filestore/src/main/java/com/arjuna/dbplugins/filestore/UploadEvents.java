@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+/**
+ * Begins the flight recorder events of the file store. The events extend jdk.jfr.Event, which is missing from Java 8
+ * releases before 8u262, so they are only created when that class can be loaded; otherwise a recording which does
+ * nothing is returned, and the event classes are never loaded.
+ */
+final class UploadEvents
+{
+    /**
+     * An upload being recorded, see {@link UploadEvent}.
+     */
+    interface UploadRecording
+    {
+        void end();
+
+        boolean shouldCommit();
+
+        void commit(String nodeName, String packageId, String resource, long bytes, int statusCode, boolean succeeded, String phases);
+    }
+
+    /**
+     * A retry being recorded, see {@link UploadRetryEvent}.
+     */
+    interface RetryRecording
+    {
+        void commit(String nodeName, String requestName, int attempt, int statusCode, String failure);
+    }
+
+    static boolean isFlightRecorderAvailable()
+    {
+        return FLIGHT_RECORDER_AVAILABLE;
+    }
+
+    static UploadRecording beginUpload()
+    {
+        if (FLIGHT_RECORDER_AVAILABLE)
+            return FlightRecorderEvents.beginUpload();
+        else
+            return NO_RECORDING;
+    }
+
+    static RetryRecording beginRetry()
+    {
+        if (FLIGHT_RECORDER_AVAILABLE)
+            return FlightRecorderEvents.beginRetry();
+        else
+            return NO_RECORDING;
+    }
+
+    private UploadEvents()
+    {
+    }
+
+    private static boolean loadFlightRecorder()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event", false, UploadEvents.class.getClassLoader());
+
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError error)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Creates the events, and so is only loaded when the flight recorder is available.
+     */
+    private static final class FlightRecorderEvents
+    {
+        static UploadRecording beginUpload()
+        {
+            UploadEvent event = new UploadEvent();
+            event.begin();
+
+            return event;
+        }
+
+        static RetryRecording beginRetry()
+        {
+            UploadRetryEvent event = new UploadRetryEvent();
+            event.begin();
+
+            return event;
+        }
+    }
+
+    private static final class NoRecording implements UploadRecording, RetryRecording
+    {
+        @Override
+        public void end()
+        {
+        }
+
+        @Override
+        public boolean shouldCommit()
+        {
+            return false;
+        }
+
+        @Override
+        public void commit(String nodeName, String packageId, String resource, long bytes, int statusCode, boolean succeeded, String phases)
+        {
+        }
+
+        @Override
+        public void commit(String nodeName, String requestName, int attempt, int statusCode, String failure)
+        {
+        }
+    }
+
+    private static final boolean     FLIGHT_RECORDER_AVAILABLE = loadFlightRecorder();
+    private static final NoRecording NO_RECORDING              = new NoRecording();
+}
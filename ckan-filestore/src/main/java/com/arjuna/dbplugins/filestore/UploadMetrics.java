@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of a file store service's upload activity, updated with {@link LongAdder}s so that recording never contends
+ * between upload workers, and published as an MXBean named after the service.
+ *
+ * The counts of the service's retry policy, circuit breaker and deduplicating uploader are kept by those components,
+ * and published alongside once they are attached.
+ */
+public class UploadMetrics implements UploadMetricsMXBean
+{
+    private static final Logger logger = Logger.getLogger(UploadMetrics.class.getName());
+
+    public static final String DOMAIN = "com.arjuna.dbplugins.filestore";
+
+    public static final String FAILURE_CIRCUITOPEN = "circuit open";
+    public static final String FAILURE_ERROR       = "error";
+
+    public static final int DEFAULT_TRACEBUFFERSIZE = 100;
+
+    public UploadMetrics()
+    {
+        _recordsConsumed  = new ConcurrentHashMap<String, LongAdder>();
+        _bytesSent        = new LongAdder();
+        _inFlightUploads  = new LongAdder();
+        _successCount     = new LongAdder();
+        _failureCount     = new LongAdder();
+        _failuresByStatus = new ConcurrentHashMap<String, LongAdder>();
+        _latencyHistogram = new LatencyHistogram();
+        _traceBuffer      = new RingBufferTraceSink(DEFAULT_TRACEBUFFERSIZE);
+    }
+
+    public void recordConsumed(Class<?> dataClass)
+    {
+        counter(_recordsConsumed, dataClass.getSimpleName()).increment();
+    }
+
+    /**
+     * Notes the start of an upload, returning the start time to pass to {@link #uploadSucceeded} or
+     * {@link #uploadFailed}.
+     */
+    public long uploadStarted()
+    {
+        _inFlightUploads.increment();
+
+        return System.nanoTime();
+    }
+
+    /**
+     * @param bytes the number of bytes uploaded, or -1 if it is not known
+     */
+    public void uploadSucceeded(long startTime, long bytes)
+    {
+        _latencyHistogram.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        _inFlightUploads.decrement();
+        _successCount.increment();
+        if (bytes > 0)
+            _bytesSent.add(bytes);
+    }
+
+    public void uploadFailed(long startTime, Throwable failure)
+    {
+        _latencyHistogram.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        _inFlightUploads.decrement();
+        _failureCount.increment();
+
+        String status;
+        if (failure instanceof HttpStatusException)
+            status = Integer.toString(((HttpStatusException) failure).getStatusCode());
+        else if (failure instanceof CircuitBreakerOpenException)
+            status = FAILURE_CIRCUITOPEN;
+        else
+            status = FAILURE_ERROR;
+        counter(_failuresByStatus, status).increment();
+    }
+
+    /**
+     * Keeps the trace of a completed upload, and passes it to the trace sink, if there is one.
+     */
+    public void recordTrace(UploadTrace trace)
+    {
+        _traceBuffer.record(trace);
+
+        TraceSink traceSink = _traceSink;
+        if (traceSink != null)
+        {
+            try
+            {
+                traceSink.record(trace);
+            }
+            catch (RuntimeException runtimeException)
+            {
+                logger.log(Level.WARNING, "Problems recording upload trace", runtimeException);
+            }
+        }
+    }
+
+    /**
+     * Replaces the buffer of recent traces with an empty buffer of the given size.
+     */
+    public void setTraceBufferSize(int traceBufferSize)
+    {
+        if (traceBufferSize != _traceBuffer.getCapacity())
+            _traceBuffer = new RingBufferTraceSink(traceBufferSize);
+    }
+
+    public RingBufferTraceSink getTraceBuffer()
+    {
+        return _traceBuffer;
+    }
+
+    public void setTraceSink(TraceSink traceSink)
+    {
+        _traceSink = traceSink;
+    }
+
+    public TraceSink getTraceSink()
+    {
+        return _traceSink;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy)
+    {
+        _retryPolicy = retryPolicy;
+    }
+
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker)
+    {
+        _circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @param deduplicatingUploader the service's deduplicating uploader, or null if uploads are not deduplicated
+     */
+    public void setDeduplicatingUploader(DeduplicatingUploader deduplicatingUploader)
+    {
+        _deduplicatingUploader = deduplicatingUploader;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, replacing any metrics already registered for the service.
+     */
+    public void register(String serviceType, String serviceName)
+    {
+        try
+        {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName  objectName  = objectName(serviceType, serviceName);
+
+            if (mbeanServer.isRegistered(objectName))
+                mbeanServer.unregisterMBean(objectName);
+            mbeanServer.registerMBean(this, objectName);
+            _objectName = objectName;
+        }
+        catch (JMException jmException)
+        {
+            logger.log(Level.WARNING, "Unable to register upload metrics of \"" + serviceName + "\"", jmException);
+        }
+    }
+
+    public void unregister()
+    {
+        ObjectName objectName = _objectName;
+        if (objectName == null)
+            return;
+
+        try
+        {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mbeanServer.isRegistered(objectName))
+                mbeanServer.unregisterMBean(objectName);
+        }
+        catch (JMException jmException)
+        {
+            logger.log(Level.WARNING, "Unable to unregister upload metrics \"" + objectName + "\"", jmException);
+        }
+        _objectName = null;
+    }
+
+    public static ObjectName objectName(String serviceType, String serviceName)
+        throws JMException
+    {
+        return new ObjectName(DOMAIN + ":type=" + serviceType + ",name=" + ObjectName.quote(String.valueOf(serviceName)));
+    }
+
+    @Override
+    public Map<String, Long> getRecordsConsumed()
+    {
+        return snapshot(_recordsConsumed);
+    }
+
+    @Override
+    public long getBytesSent()
+    {
+        return _bytesSent.sum();
+    }
+
+    @Override
+    public long getInFlightUploads()
+    {
+        return _inFlightUploads.sum();
+    }
+
+    @Override
+    public long getSuccessCount()
+    {
+        return _successCount.sum();
+    }
+
+    @Override
+    public long getFailureCount()
+    {
+        return _failureCount.sum();
+    }
+
+    @Override
+    public Map<String, Long> getFailuresByStatus()
+    {
+        return snapshot(_failuresByStatus);
+    }
+
+    @Override
+    public long getLatencyCount()
+    {
+        return _latencyHistogram.getCount();
+    }
+
+    @Override
+    public double getLatencyP50Millis()
+    {
+        return _latencyHistogram.getQuantileMillis(0.50);
+    }
+
+    @Override
+    public double getLatencyP95Millis()
+    {
+        return _latencyHistogram.getQuantileMillis(0.95);
+    }
+
+    @Override
+    public double getLatencyP99Millis()
+    {
+        return _latencyHistogram.getQuantileMillis(0.99);
+    }
+
+    @Override
+    public double getLatencyMaxMillis()
+    {
+        return _latencyHistogram.getMaxMillis();
+    }
+
+    @Override
+    public long getRetryCount()
+    {
+        RetryPolicy retryPolicy = _retryPolicy;
+
+        return (retryPolicy != null) ? retryPolicy.getRetryCount() : 0;
+    }
+
+    @Override
+    public long getRetryExhaustedCount()
+    {
+        RetryPolicy retryPolicy = _retryPolicy;
+
+        return (retryPolicy != null) ? retryPolicy.getExhaustedCount() : 0;
+    }
+
+    @Override
+    public String getCircuitBreakerState()
+    {
+        CircuitBreaker circuitBreaker = _circuitBreaker;
+
+        return (circuitBreaker != null) ? circuitBreaker.getState().name() : null;
+    }
+
+    @Override
+    public long getCircuitBreakerOpenedCount()
+    {
+        CircuitBreaker circuitBreaker = _circuitBreaker;
+
+        return (circuitBreaker != null) ? circuitBreaker.getOpenedCount() : 0;
+    }
+
+    @Override
+    public long getCircuitBreakerRejectedCount()
+    {
+        CircuitBreaker circuitBreaker = _circuitBreaker;
+
+        return (circuitBreaker != null) ? circuitBreaker.getRejectedCount() : 0;
+    }
+
+    @Override
+    public long getDeduplicationHitCount()
+    {
+        DeduplicatingUploader deduplicatingUploader = _deduplicatingUploader;
+
+        return (deduplicatingUploader != null) ? deduplicatingUploader.getHitCount() : 0;
+    }
+
+    @Override
+    public long getDeduplicationMissCount()
+    {
+        DeduplicatingUploader deduplicatingUploader = _deduplicatingUploader;
+
+        return (deduplicatingUploader != null) ? deduplicatingUploader.getMissCount() : 0;
+    }
+
+    @Override
+    public String[] slowestUploads(int count)
+    {
+        List<UploadTrace> traces = _traceBuffer.getSlowest(count);
+
+        String[] slowestUploads = new String[traces.size()];
+        for (int index = 0; index < slowestUploads.length; index++)
+            slowestUploads[index] = traces.get(index).toString();
+
+        return slowestUploads;
+    }
+
+    /**
+     * Clears the counters, other than the number of uploads in flight, and the recent traces. The counts kept by the
+     * retry policy, circuit breaker and deduplicating uploader are not cleared.
+     */
+    @Override
+    public void reset()
+    {
+        for (LongAdder counter: _recordsConsumed.values())
+            counter.reset();
+        _bytesSent.reset();
+        _successCount.reset();
+        _failureCount.reset();
+        for (LongAdder counter: _failuresByStatus.values())
+            counter.reset();
+        _latencyHistogram.reset();
+        _traceBuffer.clear();
+    }
+
+    private static LongAdder counter(ConcurrentMap<String, LongAdder> counters, String key)
+    {
+        LongAdder counter = counters.get(key);
+        if (counter == null)
+        {
+            LongAdder newCounter = new LongAdder();
+
+            counter = counters.putIfAbsent(key, newCounter);
+            if (counter == null)
+                counter = newCounter;
+        }
+
+        return counter;
+    }
+
+    private static Map<String, Long> snapshot(ConcurrentMap<String, LongAdder> counters)
+    {
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+        for (Map.Entry<String, LongAdder> counter: counters.entrySet())
+            snapshot.put(counter.getKey(), counter.getValue().sum());
+
+        return snapshot;
+    }
+
+    private final ConcurrentMap<String, LongAdder> _recordsConsumed;
+    private final LongAdder                        _bytesSent;
+    private final LongAdder                        _inFlightUploads;
+    private final LongAdder                        _successCount;
+    private final LongAdder                        _failureCount;
+    private final ConcurrentMap<String, LongAdder> _failuresByStatus;
+    private final LatencyHistogram                 _latencyHistogram;
+    private volatile RingBufferTraceSink           _traceBuffer;
+    private volatile TraceSink                     _traceSink;
+    private volatile ObjectName                    _objectName;
+    private volatile RetryPolicy                   _retryPolicy;
+    private volatile CircuitBreaker                _circuitBreaker;
+    private volatile DeduplicatingUploader         _deduplicatingUploader;
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.util.Map;
+
+/**
+ * Management view of a file store service's upload activity, registered with the platform MBean server for each
+ * service.
+ */
+public interface UploadMetricsMXBean
+{
+    /**
+     * Returns the number of records consumed, keyed by the simple name of the data class.
+     */
+    public Map<String, Long> getRecordsConsumed();
+
+    public long getBytesSent();
+
+    public long getInFlightUploads();
+
+    public long getSuccessCount();
+
+    public long getFailureCount();
+
+    /**
+     * Returns the number of failed uploads, keyed by HTTP status code, or by "circuit open" or "error" for failures
+     * without a status.
+     */
+    public Map<String, Long> getFailuresByStatus();
+
+    public long getLatencyCount();
+
+    public double getLatencyP50Millis();
+
+    public double getLatencyP95Millis();
+
+    public double getLatencyP99Millis();
+
+    public double getLatencyMaxMillis();
+
+    /**
+     * Returns the number of retries of portal requests.
+     */
+    public long getRetryCount();
+
+    /**
+     * Returns the number of portal requests that still failed retryably after their last attempt.
+     */
+    public long getRetryExhaustedCount();
+
+    /**
+     * Returns the state of the portal's circuit breaker, "CLOSED", "OPEN" or "HALF_OPEN", or null before the service is
+     * set up.
+     */
+    public String getCircuitBreakerState();
+
+    public long getCircuitBreakerOpenedCount();
+
+    public long getCircuitBreakerRejectedCount();
+
+    /**
+     * Returns the number of uploads skipped as duplicates, zero if uploads are not deduplicated.
+     */
+    public long getDeduplicationHitCount();
+
+    public long getDeduplicationMissCount();
+
+    /**
+     * Returns the slowest of the recent uploads, slowest first, each with the timings of its phases.
+     */
+    public String[] slowestUploads(int count);
+
+    public void reset();
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A consumed record waiting to be uploaded as a resource, with the optional naming and description supplied with it.
+ *
+ * The content is held in memory, as a byte array, or is streamed from a file or an input stream when it is uploaded, so
+ * large files never have to be loaded onto the heap. File and byte array content can be read any number of times, but
+ * an input stream can only be read once, so stream records cannot be retried, queued or spooled.
+ */
+public class UploadRecord
+{
+    public UploadRecord(byte[] data, String fileName, String resourceName, String resourceFormat, String resourceDescription)
+    {
+        this(data, null, null, (data != null) ? data.length : 0, fileName, resourceName, resourceFormat, resourceDescription);
+    }
+
+    public UploadRecord(Path path, String fileName, String resourceName, String resourceFormat, String resourceDescription)
+    {
+        this(null, path, null, -1, fileName, resourceName, resourceFormat, resourceDescription);
+    }
+
+    /**
+     * @param length the number of bytes to read from the stream, or -1 to read to the end of the stream
+     */
+    public UploadRecord(InputStream stream, long length, String fileName, String resourceName, String resourceFormat, String resourceDescription)
+    {
+        this(null, null, stream, length, fileName, resourceName, resourceFormat, resourceDescription);
+    }
+
+    private UploadRecord(byte[] data, Path path, InputStream stream, long length, String fileName, String resourceName, String resourceFormat, String resourceDescription)
+    {
+        _data                = data;
+        _path                = path;
+        _stream              = stream;
+        _length              = length;
+        _fileName            = fileName;
+        _resourceName        = resourceName;
+        _resourceFormat      = resourceFormat;
+        _resourceDescription = resourceDescription;
+    }
+
+    /**
+     * Creates a record from the content of a "data" map entry, which may be a byte array, a {@link Path}, a {@link File}
+     * or an {@link InputStream}.
+     *
+     * @throws IllegalArgumentException if the content is of none of these types
+     */
+    public static UploadRecord fromData(Object data, String fileName, String resourceName, String resourceFormat, String resourceDescription)
+    {
+        if (data instanceof byte[])
+            return new UploadRecord((byte[]) data, fileName, resourceName, resourceFormat, resourceDescription);
+        else if (data instanceof Path)
+            return new UploadRecord((Path) data, fileName, resourceName, resourceFormat, resourceDescription);
+        else if (data instanceof File)
+            return new UploadRecord(((File) data).toPath(), fileName, resourceName, resourceFormat, resourceDescription);
+        else if (data instanceof InputStream)
+            return new UploadRecord((InputStream) data, -1, fileName, resourceName, resourceFormat, resourceDescription);
+        else
+            throw new IllegalArgumentException("Unsupported data type: " + ((data != null) ? data.getClass().getName() : "null"));
+    }
+
+    /**
+     * @return the content, if it is held in memory, otherwise null
+     */
+    public byte[] getData()
+    {
+        return _data;
+    }
+
+    /**
+     * @return the file holding the content, if the content is a file, otherwise null
+     */
+    public Path getPath()
+    {
+        return _path;
+    }
+
+    /**
+     * @return the stream of the content, if the content is a stream, otherwise null
+     */
+    public InputStream getStream()
+    {
+        return _stream;
+    }
+
+    /**
+     * @return the length of the content, or -1 if it is not known until the content has been read
+     */
+    public long getLength()
+        throws IOException
+    {
+        if (_path != null)
+            return Files.size(_path);
+        else
+            return _length;
+    }
+
+    /**
+     * @return whether the content can be read more than once
+     */
+    public boolean isRepeatable()
+    {
+        return _stream == null;
+    }
+
+    /**
+     * Opens the content for reading. The caller closes the returned stream, though closing it leaves the stream of a
+     * stream record open for its supplier to close.
+     */
+    public InputStream openStream()
+        throws IOException
+    {
+        if (_data != null)
+            return new ByteArrayInputStream(_data);
+        else if (_path != null)
+            return Files.newInputStream(_path);
+        else
+        {
+            return new FilterInputStream(_stream)
+            {
+                @Override
+                public void close()
+                {
+                }
+            };
+        }
+    }
+
+    public String getFileName()
+    {
+        return _fileName;
+    }
+
+    public String getResourceName()
+    {
+        return _resourceName;
+    }
+
+    public String getResourceFormat()
+    {
+        return _resourceFormat;
+    }
+
+    public String getResourceDescription()
+    {
+        return _resourceDescription;
+    }
+
+    private final byte[]      _data;
+    private final Path        _path;
+    private final InputStream _stream;
+    private final long        _length;
+    private final String      _fileName;
+    private final String      _resourceName;
+    private final String      _resourceFormat;
+    private final String      _resourceDescription;
+}
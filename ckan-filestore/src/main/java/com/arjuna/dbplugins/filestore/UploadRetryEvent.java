@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a retry of a portal request, lasting for the backoff before the next attempt. Every retry
+ * is recorded. Created through {@link UploadEvents}, so that this class is not loaded on a JVM without the flight
+ * recorder.
+ */
+@Name("com.arjuna.dbplugins.filestore.UploadRetry")
+@Label("File Store Retry")
+@Category("File Store")
+@Description("The backoff before a failed portal request is retried")
+@StackTrace(false)
+public class UploadRetryEvent extends jdk.jfr.Event implements UploadEvents.RetryRecording
+{
+    @Label("Node")
+    String nodeName;
+
+    @Label("Request")
+    String requestName;
+
+    @Label("Failed Attempt")
+    int attempt;
+
+    @Label("Status")
+    @Description("The response status of the failed attempt, or -1 for a failure without one")
+    int statusCode;
+
+    @Label("Failure")
+    String failure;
+
+    @Override
+    public void commit(String nodeName, String requestName, int attempt, int statusCode, String failure)
+    {
+        this.nodeName    = nodeName;
+        this.requestName = requestName;
+        this.attempt     = attempt;
+        this.statusCode  = statusCode;
+        this.failure     = failure;
+        commit();
+    }
+}
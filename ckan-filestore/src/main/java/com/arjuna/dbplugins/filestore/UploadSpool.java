@@ -0,0 +1,743 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only, local store for records whose upload failed, replayed in the background until the portal accepts
+ * them.
+ *
+ * Records are appended to the active segment file until it reaches the segment size, when a new segment is started.
+ * Each replay round seals the active segment and uploads the records of every sealed segment, several segments at once
+ * up to the replay concurrency. The offset of the last record uploaded is kept in an acknowledgement file beside the
+ * segment, so a round stopped by a failure resumes where it left off, and a segment is deleted once all of its records
+ * have been acknowledged.
+ *
+ * Each record is framed as a length, a CRC32 of the payload and the payload, so a record torn by a crash part way
+ * through an append is detected and truncated on replay. A segment corrupt anywhere else is moved aside rather than
+ * replayed. Records the portal refuses outright are discarded, rather than retried for ever.
+ *
+ * Records whose content is a file are spooled by reference, and are skipped on replay if the file has since gone.
+ * Records streamed from an input stream cannot be spooled, as the stream has already been read.
+ */
+public class UploadSpool implements ResourceUploader
+{
+    private static final Logger logger = Logger.getLogger(UploadSpool.class.getName());
+
+    public enum SyncPolicy
+    {
+        /** Force every append to disk before the upload is treated as handled. */
+        ALWAYS,
+        /** Force appends to disk at most once per sync interval. */
+        PERIODIC,
+        /** Leave writing back to the operating system. */
+        NEVER;
+
+        public static SyncPolicy parse(String value, SyncPolicy defaultPolicy)
+        {
+            if (value == null)
+                return defaultPolicy;
+
+            try
+            {
+                return SyncPolicy.valueOf(value.trim().toUpperCase());
+            }
+            catch (IllegalArgumentException illegalArgumentException)
+            {
+                return defaultPolicy;
+            }
+        }
+    }
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String ACK_SUFFIX     = ".ack";
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+
+    private static final int  FRAME_HEADER_SIZE   = 8;
+    private static final byte RECORD_VERSION      = 1;
+    private static final byte PATH_RECORD_VERSION = 2;
+
+    public UploadSpool(String name, File directory, ResourceUploader downstream, long maxBytes, long segmentBytes, SyncPolicy syncPolicy, long syncInterval, int replayConcurrency, long replayInterval)
+        throws IOException
+    {
+        logger.log(Level.FINE, "UploadSpool: " + name + ", " + directory + ", " + maxBytes + ", " + segmentBytes + ", " + syncPolicy);
+
+        _name                = name;
+        _directory           = directory;
+        _downstream          = downstream;
+        _maxBytes            = maxBytes;
+        _segmentBytes        = segmentBytes;
+        _syncPolicy          = syncPolicy;
+        _syncInterval        = syncInterval;
+        _replayConcurrency   = replayConcurrency;
+        _replayInterval      = replayInterval;
+        _spooledBytes        = new AtomicLong();
+        _spooledCount        = new AtomicLong();
+        _replayedCount       = new AtomicLong();
+        _discardedCount      = new AtomicLong();
+        _corruptSegmentCount = new AtomicLong();
+
+        Files.createDirectories(directory.toPath());
+
+        long nextSegmentNumber = 0;
+        for (File segment: listSegments())
+        {
+            _spooledBytes.addAndGet(segment.length());
+            nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(segment) + 1);
+        }
+        _nextSegmentNumber = nextSegmentNumber;
+    }
+
+    /**
+     * @return the spool directory used when none is configured: a directory named for the node under the application
+     *         server's data directory, or the temporary directory outside an application server
+     */
+    public static File defaultDirectory(String spoolName, String nodeName)
+    {
+        String baseDirectory = System.getProperty("jboss.server.data.dir", System.getProperty("java.io.tmpdir"));
+        String directoryName = (nodeName != null) ? nodeName.replaceAll("[^A-Za-z0-9._-]", "_") : "default";
+
+        return new File(new File(baseDirectory, spoolName), directoryName);
+    }
+
+    /**
+     * Uploads the record downstream, spooling it for later replay if the upload fails for a reason that may pass.
+     */
+    @Override
+    public void upload(UploadRecord record)
+        throws Exception
+    {
+        try
+        {
+            _downstream.upload(record);
+        }
+        catch (Exception exception)
+        {
+            if ((! isPermanentFailure(exception)) && append(record))
+                logger.log(Level.WARNING, "Upload by \"" + _name + "\" failed, record spooled for replay", exception);
+            else
+                throw exception;
+        }
+    }
+
+    /**
+     * Appends the record to the active segment.
+     *
+     * @return false if the record is streamed, or would take the spool over its size limit, in which case it is not spooled
+     */
+    public synchronized boolean append(UploadRecord record)
+        throws IOException
+    {
+        if (! record.isRepeatable())
+        {
+            logger.log(Level.SEVERE, "Spool of \"" + _name + "\" cannot hold streamed records, record lost");
+            return false;
+        }
+
+        byte[] frame = encodeFrame(record);
+
+        if (_spooledBytes.get() + frame.length > _maxBytes)
+        {
+            logger.log(Level.SEVERE, "Spool of \"" + _name + "\" full (" + _spooledBytes.get() + " bytes), record of " + frame.length + " bytes lost");
+            return false;
+        }
+
+        if ((_activeChannel != null) && (_activeChannel.size() >= _segmentBytes))
+            sealActiveSegment();
+        if (_activeChannel == null)
+        {
+            _activeSegment = new File(_directory, SEGMENT_PREFIX + String.format("%020d", _nextSegmentNumber++) + SEGMENT_SUFFIX);
+            _activeChannel = FileChannel.open(_activeSegment.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        while (buffer.hasRemaining())
+            _activeChannel.write(buffer);
+        _spooledBytes.addAndGet(frame.length);
+        _spooledCount.incrementAndGet();
+
+        if (_syncPolicy == SyncPolicy.ALWAYS)
+            _activeChannel.force(false);
+        else if ((_syncPolicy == SyncPolicy.PERIODIC) && (System.currentTimeMillis() - _lastSync >= _syncInterval))
+        {
+            _activeChannel.force(false);
+            _lastSync = System.currentTimeMillis();
+        }
+
+        return true;
+    }
+
+    /**
+     * Starts background replay of spooled records, the first round immediately and then every replay interval.
+     */
+    public synchronized void start()
+    {
+        if (_scheduler != null)
+            return;
+
+        _replayExecutor = Executors.newFixedThreadPool(_replayConcurrency, new SpoolThreadFactory("UploadSpoolReplay-" + _name));
+        _scheduler      = Executors.newSingleThreadScheduledExecutor(new SpoolThreadFactory("UploadSpool-" + _name));
+        _scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                replay();
+            }
+        }, 0, _replayInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops replay, waiting up to the timeout for a round in progress to finish, and closes the active segment.
+     */
+    public void close(long timeout)
+    {
+        logger.log(Level.FINE, "UploadSpool.close: " + _name);
+
+        ScheduledExecutorService scheduler;
+        ExecutorService          replayExecutor;
+        synchronized (this)
+        {
+            scheduler       = _scheduler;
+            replayExecutor  = _replayExecutor;
+            _scheduler      = null;
+            _replayExecutor = null;
+        }
+
+        if (scheduler != null)
+        {
+            scheduler.shutdown();
+            replayExecutor.shutdown();
+            try
+            {
+                if (! scheduler.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+                    scheduler.shutdownNow();
+                if (! replayExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+                    replayExecutor.shutdownNow();
+            }
+            catch (InterruptedException interruptedException)
+            {
+                scheduler.shutdownNow();
+                replayExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this)
+        {
+            try
+            {
+                sealActiveSegment();
+            }
+            catch (IOException ioException)
+            {
+                logger.log(Level.WARNING, "Problems closing spool segment of \"" + _name + "\"", ioException);
+            }
+        }
+    }
+
+    public long getSpooledBytes()
+    {
+        return _spooledBytes.get();
+    }
+
+    public long getSpooledCount()
+    {
+        return _spooledCount.get();
+    }
+
+    public long getReplayedCount()
+    {
+        return _replayedCount.get();
+    }
+
+    /**
+     * @return the number of spooled records discarded because the portal refused them or they could not be decoded
+     */
+    public long getDiscardedCount()
+    {
+        return _discardedCount.get();
+    }
+
+    /**
+     * @return the number of segments moved aside because of a corrupt record
+     */
+    public long getCorruptSegmentCount()
+    {
+        return _corruptSegmentCount.get();
+    }
+
+    public synchronized int getSegmentCount()
+    {
+        return listSegments().size() + ((_activeSegment != null) ? 1 : 0);
+    }
+
+    private void replay()
+    {
+        ExecutorService replayExecutor;
+        List<File>      segments;
+        synchronized (this)
+        {
+            replayExecutor = _replayExecutor;
+            try
+            {
+                sealActiveSegment();
+            }
+            catch (IOException ioException)
+            {
+                logger.log(Level.WARNING, "Problems sealing spool segment of \"" + _name + "\"", ioException);
+            }
+            segments = listSegments();
+        }
+
+        if ((replayExecutor == null) || segments.isEmpty())
+            return;
+
+        logger.log(Level.FINE, "UploadSpool.replay: " + _name + ", " + segments.size() + " segments");
+
+        List<Callable<Boolean>> replayTasks = new LinkedList<Callable<Boolean>>();
+        for (final File segment: segments)
+        {
+            replayTasks.add(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call()
+                {
+                    return replaySegment(segment);
+                }
+            });
+        }
+
+        try
+        {
+            replayExecutor.invokeAll(replayTasks);
+        }
+        catch (InterruptedException interruptedException)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (Throwable throwable)
+        {
+            logger.log(Level.WARNING, "Problems replaying spool of \"" + _name + "\"", throwable);
+        }
+    }
+
+    /**
+     * Uploads the unacknowledged records of a sealed segment, deleting it once all are acknowledged.
+     *
+     * Replay of the segment stops at the first record whose upload fails transiently, to be resumed in a later round. A
+     * record the portal refuses outright, or that cannot be decoded, is discarded rather than holding up the records
+     * behind it. A torn final frame, left by a crash part way through an append, is truncated, while a corrupt frame
+     * followed by further data moves the segment aside to a ".corrupt" file, kept for inspection.
+     *
+     * @return true if the segment was fully replayed
+     */
+    private boolean replaySegment(File segment)
+    {
+        File ackFile = new File(segment.getPath() + ACK_SUFFIX);
+
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            long       offset = readAck(ackFile);
+            long       size   = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+
+            while (offset < size)
+            {
+                header.clear();
+                if (readFully(channel, header, offset) < FRAME_HEADER_SIZE)
+                {
+                    truncateTornRecord(channel, segment, offset, size);
+                    break;
+                }
+                header.flip();
+                int  length   = header.getInt();
+                long crc      = header.getInt() & 0xFFFFFFFFL;
+                long frameEnd = offset + FRAME_HEADER_SIZE + length;
+
+                if ((length >= 0) && (frameEnd > size))
+                {
+                    truncateTornRecord(channel, segment, offset, size);
+                    break;
+                }
+
+                byte[] payload = null;
+                if (length >= 0)
+                {
+                    ByteBuffer payloadBuffer = ByteBuffer.allocate(length);
+                    readFully(channel, payloadBuffer, offset + FRAME_HEADER_SIZE);
+                    payload = payloadBuffer.array();
+                }
+
+                if ((payload != null) && (crc(payload) != crc) && (frameEnd == size))
+                {
+                    truncateTornRecord(channel, segment, offset, size);
+                    break;
+                }
+                else if ((payload == null) || (crc(payload) != crc))
+                {
+                    channel.close();
+                    moveCorruptSegment(segment, ackFile, offset);
+                    return false;
+                }
+
+                if (! replayRecord(segment, offset, payload))
+                    return false;
+
+                offset = frameEnd;
+                writeAck(ackFile, offset);
+            }
+        }
+        catch (IOException ioException)
+        {
+            logger.log(Level.WARNING, "Problems replaying spool segment " + segment, ioException);
+            return false;
+        }
+
+        long segmentSize = segment.length();
+        if (segment.delete())
+        {
+            _spooledBytes.addAndGet(- segmentSize);
+            ackFile.delete();
+        }
+
+        return true;
+    }
+
+    /**
+     * Uploads a spooled record, unless its file has gone.
+     *
+     * @return false if the upload failed for a reason that may pass, so replay of the segment should stop
+     */
+    private boolean replayRecord(File segment, long offset, byte[] payload)
+    {
+        UploadRecord record;
+        try
+        {
+            record = decodeRecord(payload);
+        }
+        catch (IOException ioException)
+        {
+            logger.log(Level.SEVERE, "Discarding undecodable record of \"" + _name + "\" in spool segment " + segment + " at offset " + offset, ioException);
+            _discardedCount.incrementAndGet();
+            return true;
+        }
+
+        if ((record.getPath() != null) && (! Files.exists(record.getPath())))
+        {
+            logger.log(Level.WARNING, "Skipping spooled record of \"" + _name + "\", file " + record.getPath() + " no longer exists");
+            return true;
+        }
+
+        try
+        {
+            _downstream.upload(record);
+            _replayedCount.incrementAndGet();
+        }
+        catch (Exception exception)
+        {
+            if (! isPermanentFailure(exception))
+            {
+                logger.log(Level.FINE, "Replay of spool segment " + segment + " stopped by upload failure", exception);
+                return false;
+            }
+
+            logger.log(Level.SEVERE, "Discarding spooled record of \"" + _name + "\" refused by the portal, " + describe(record), exception);
+            _discardedCount.incrementAndGet();
+        }
+
+        return true;
+    }
+
+    private void truncateTornRecord(FileChannel channel, File segment, long offset, long size)
+        throws IOException
+    {
+        logger.log(Level.WARNING, "Truncating torn record at end of spool segment " + segment + ", offset " + offset);
+
+        channel.truncate(offset);
+        _spooledBytes.addAndGet(- (size - offset));
+    }
+
+    /**
+     * Renames a segment holding a corrupt frame, and its acknowledgement, so that replay passes over it, leaving the
+     * records behind the corruption for recovery by hand.
+     */
+    private void moveCorruptSegment(File segment, File ackFile, long offset)
+        throws IOException
+    {
+        File corruptSegment = new File(segment.getPath() + CORRUPT_SUFFIX);
+        long segmentSize    = segment.length();
+
+        logger.log(Level.SEVERE, "Corrupt record in spool segment " + segment + " at offset " + offset + ", segment moved to " + corruptSegment + " and its remaining records not replayed");
+
+        Files.move(segment.toPath(), corruptSegment.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (ackFile.exists())
+            Files.move(ackFile.toPath(), new File(corruptSegment.getPath() + ACK_SUFFIX).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        _spooledBytes.addAndGet(- segmentSize);
+        _corruptSegmentCount.incrementAndGet();
+    }
+
+    /**
+     * @return whether a failed upload would fail again however often it is retried: the portal refused the request
+     *         itself, rather than failing to answer it
+     */
+    private static boolean isPermanentFailure(Exception exception)
+    {
+        return (exception instanceof HttpStatusException) && (! RetryPolicy.isRetryable(exception, true));
+    }
+
+    private static String describe(UploadRecord record)
+    {
+        if (record.getPath() != null)
+            return "file " + record.getPath();
+        else
+            return "resource \"" + record.getResourceName() + "\", file name \"" + record.getFileName() + "\", " + ((record.getData() != null) ? record.getData().length : 0) + " bytes";
+    }
+
+    private void sealActiveSegment()
+        throws IOException
+    {
+        if (_activeChannel != null)
+        {
+            if (_syncPolicy != SyncPolicy.NEVER)
+                _activeChannel.force(false);
+            _activeChannel.close();
+            _activeChannel = null;
+            _activeSegment = null;
+        }
+    }
+
+    private List<File> listSegments()
+    {
+        File[] segments = _directory.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File directory, String name)
+            {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+
+        List<File> sealedSegments = new LinkedList<File>();
+        if (segments != null)
+        {
+            Arrays.sort(segments);
+            for (File segment: segments)
+                if (! segment.equals(_activeSegment))
+                    sealedSegments.add(segment);
+        }
+
+        return sealedSegments;
+    }
+
+    private static long segmentNumber(File segment)
+    {
+        String name = segment.getName();
+        try
+        {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        }
+        catch (NumberFormatException numberFormatException)
+        {
+            return 0;
+        }
+    }
+
+    private long readAck(File ackFile)
+        throws IOException
+    {
+        if (! ackFile.exists())
+            return 0;
+
+        try (DataInputStream ackInputStream = new DataInputStream(Files.newInputStream(ackFile.toPath())))
+        {
+            return ackInputStream.readLong();
+        }
+        catch (IOException ioException)
+        {
+            logger.log(Level.WARNING, "Unreadable spool acknowledgement " + ackFile + ", replaying segment from start");
+            return 0;
+        }
+    }
+
+    private void writeAck(File ackFile, long offset)
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(offset);
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(ackFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+        {
+            while (buffer.hasRemaining())
+                channel.write(buffer, buffer.position());
+            if (_syncPolicy == SyncPolicy.ALWAYS)
+                channel.force(false);
+        }
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position)
+        throws IOException
+    {
+        int total = 0;
+        while (buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position + total);
+            if (read == -1)
+                break;
+            total += read;
+        }
+
+        return total;
+    }
+
+    static byte[] encodeFrame(UploadRecord record)
+        throws IOException
+    {
+        ByteArrayOutputStream payloadOutputStream = new ByteArrayOutputStream();
+        DataOutputStream      dataOutputStream    = new DataOutputStream(payloadOutputStream);
+
+        dataOutputStream.writeByte((record.getPath() != null) ? PATH_RECORD_VERSION : RECORD_VERSION);
+        writeNullableString(dataOutputStream, record.getFileName());
+        writeNullableString(dataOutputStream, record.getResourceName());
+        writeNullableString(dataOutputStream, record.getResourceFormat());
+        writeNullableString(dataOutputStream, record.getResourceDescription());
+        if (record.getPath() != null)
+            dataOutputStream.writeUTF(record.getPath().toAbsolutePath().toString());
+        else
+        {
+            byte[] data = (record.getData() != null) ? record.getData() : new byte[0];
+            dataOutputStream.writeInt(data.length);
+            dataOutputStream.write(data);
+        }
+        dataOutputStream.flush();
+
+        byte[] payload = payloadOutputStream.toByteArray();
+
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+        frame.putInt(payload.length);
+        frame.putInt((int) crc(payload));
+        frame.put(payload);
+
+        return frame.array();
+    }
+
+    static UploadRecord decodeRecord(byte[] payload)
+        throws IOException
+    {
+        DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(payload));
+
+        byte version = dataInputStream.readByte();
+        if ((version != RECORD_VERSION) && (version != PATH_RECORD_VERSION))
+            throw new IOException("Unsupported spool record version " + version);
+
+        String fileName            = readNullableString(dataInputStream);
+        String resourceName        = readNullableString(dataInputStream);
+        String resourceFormat      = readNullableString(dataInputStream);
+        String resourceDescription = readNullableString(dataInputStream);
+        if (version == PATH_RECORD_VERSION)
+            return new UploadRecord(Paths.get(dataInputStream.readUTF()), fileName, resourceName, resourceFormat, resourceDescription);
+
+        byte[] data = new byte[dataInputStream.readInt()];
+        dataInputStream.readFully(data);
+
+        return new UploadRecord(data, fileName, resourceName, resourceFormat, resourceDescription);
+    }
+
+    private static void writeNullableString(DataOutputStream dataOutputStream, String value)
+        throws IOException
+    {
+        dataOutputStream.writeBoolean(value != null);
+        if (value != null)
+            dataOutputStream.writeUTF(value);
+    }
+
+    private static String readNullableString(DataInputStream dataInputStream)
+        throws IOException
+    {
+        if (dataInputStream.readBoolean())
+            return dataInputStream.readUTF();
+        else
+            return null;
+    }
+
+    private static long crc(byte[] payload)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        return crc.getValue();
+    }
+
+    private static class SpoolThreadFactory implements ThreadFactory
+    {
+        public SpoolThreadFactory(String name)
+        {
+            _name        = name;
+            _threadCount = new AtomicInteger();
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, _name + "-" + _threadCount.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+
+        private final String        _name;
+        private final AtomicInteger _threadCount;
+    }
+
+    private final String             _name;
+    private final File               _directory;
+    private final ResourceUploader   _downstream;
+    private final long               _maxBytes;
+    private final long               _segmentBytes;
+    private final SyncPolicy         _syncPolicy;
+    private final long               _syncInterval;
+    private final int                _replayConcurrency;
+    private final long               _replayInterval;
+    private final AtomicLong         _spooledBytes;
+    private final AtomicLong         _spooledCount;
+    private final AtomicLong         _replayedCount;
+    private final AtomicLong         _discardedCount;
+    private final AtomicLong         _corruptSegmentCount;
+    private long                     _nextSegmentNumber;
+    private long                     _lastSync;
+    private File                     _activeSegment;
+    private FileChannel              _activeChannel;
+    private ScheduledExecutorService _scheduler;
+    private ExecutorService          _replayExecutor;
+}
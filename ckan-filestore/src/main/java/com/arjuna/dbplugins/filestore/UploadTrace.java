@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.filestore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timed phases of a single upload, for example connecting, writing the request body and waiting for the server, so
+ * the time taken by a slow upload can be broken down. The trace of the upload in progress on a thread is available from
+ * {@link #current()}, so the code performing each phase can add it without the trace being passed down to it. Phases
+ * may be added from several threads, as when steps of an upload overlap, and each is kept with its offset from the start
+ * of the upload, so overlapping phases can be seen as such.
+ */
+public class UploadTrace
+{
+    private static final ThreadLocal<UploadTrace> currentTrace = new ThreadLocal<UploadTrace>();
+
+    public UploadTrace(String description)
+    {
+        _description     = description;
+        _startTimeMillis = System.currentTimeMillis();
+        _startTime       = System.nanoTime();
+        _phases          = new ArrayList<Phase>();
+        _duration        = -1;
+    }
+
+    /**
+     * Returns the trace of the upload in progress on the current thread, or null if there is none.
+     */
+    public static UploadTrace current()
+    {
+        return currentTrace.get();
+    }
+
+    /**
+     * Makes the trace that of the upload in progress on the current thread, returning the trace it replaces, which should
+     * be restored once the upload is complete.
+     */
+    public static UploadTrace setCurrent(UploadTrace trace)
+    {
+        UploadTrace previousTrace = currentTrace.get();
+        if (trace != null)
+            currentTrace.set(trace);
+        else
+            currentTrace.remove();
+
+        return previousTrace;
+    }
+
+    /**
+     * Adds a phase, ending now, to the trace of the upload in progress on the current thread, if there is one.
+     *
+     * @param startTime the {@link System#nanoTime()} at which the phase started
+     */
+    public static void phase(String name, long startTime)
+    {
+        UploadTrace trace = currentTrace.get();
+        if (trace != null)
+            trace.addPhase(name, startTime, System.nanoTime());
+    }
+
+    /**
+     * @param startTime the {@link System#nanoTime()} at which the phase started
+     * @param endTime   the {@link System#nanoTime()} at which the phase ended
+     */
+    public void addPhase(String name, long startTime, long endTime)
+    {
+        Phase phase = new Phase(name, startTime - _startTime, endTime - startTime);
+        synchronized (_phases)
+        {
+            _phases.add(phase);
+        }
+    }
+
+    /**
+     * @param bytes the number of bytes uploaded, or -1 if it is not known
+     */
+    public void finish(boolean succeeded, long bytes)
+    {
+        _succeeded = succeeded;
+        _bytes     = bytes;
+        _duration  = System.nanoTime() - _startTime;
+    }
+
+    public String getDescription()
+    {
+        return _description;
+    }
+
+    public long getStartTimeMillis()
+    {
+        return _startTimeMillis;
+    }
+
+    /**
+     * Returns the duration of the upload in nanoseconds, or -1 if it has not finished.
+     */
+    public long getDuration()
+    {
+        return _duration;
+    }
+
+    public boolean isSucceeded()
+    {
+        return _succeeded;
+    }
+
+    public long getBytes()
+    {
+        return _bytes;
+    }
+
+    /**
+     * Returns the phases in the order they were added.
+     */
+    public List<Phase> getPhases()
+    {
+        synchronized (_phases)
+        {
+            return new ArrayList<Phase>(_phases);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder();
+        text.append(_description).append(": ");
+        text.append((_duration >= 0) ? millis(_duration) : "unfinished");
+        text.append(_succeeded ? ", succeeded" : ", failed");
+        if (_bytes >= 0)
+            text.append(", ").append(_bytes).append(" bytes");
+        text.append(" [");
+        boolean first = true;
+        for (Phase phase: getPhases())
+        {
+            if (! first)
+                text.append(", ");
+            text.append(phase);
+            first = false;
+        }
+        text.append("]");
+
+        return text.toString();
+    }
+
+    private static String millis(long nanos)
+    {
+        return String.format(Locale.ENGLISH, "%.1f ms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    public static class Phase
+    {
+        public Phase(String name, long offset, long duration)
+        {
+            _name     = name;
+            _offset   = offset;
+            _duration = duration;
+        }
+
+        public String getName()
+        {
+            return _name;
+        }
+
+        /**
+         * Returns the nanoseconds from the start of the upload to the start of the phase.
+         */
+        public long getOffset()
+        {
+            return _offset;
+        }
+
+        /**
+         * Returns the duration of the phase in nanoseconds.
+         */
+        public long getDuration()
+        {
+            return _duration;
+        }
+
+        @Override
+        public String toString()
+        {
+            return _name + " +" + millis(_offset) + " " + millis(_duration);
+        }
+
+        private final String _name;
+        private final long   _offset;
+        private final long   _duration;
+    }
+
+    private final String      _description;
+    private final long        _startTimeMillis;
+    private final long        _startTime;
+    private final List<Phase> _phases;
+    private volatile boolean  _succeeded;
+    private volatile long     _bytes;
+    private volatile long     _duration;
+}
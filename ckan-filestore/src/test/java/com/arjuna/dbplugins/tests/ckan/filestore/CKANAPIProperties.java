@@ -7,6 +7,7 @@ package com.arjuna.dbplugins.tests.ckan.filestore;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.Properties;
+import org.risbic.dkan.PortalStubServer;
 import static org.junit.Assert.*;
 
 public class CKANAPIProperties
@@ -29,6 +30,23 @@ public class CKANAPIProperties
         }
     }
 
+    /**
+     * Falls back to the properties of the portal stub when the properties file cannot be read.
+     */
+    public CKANAPIProperties(String ckanAPIPropertiesFilename, PortalStubServer stubServer)
+    {
+        this(ckanAPIPropertiesFilename);
+
+        if ((! _loaded) && (stubServer != null))
+        {
+            _ckanAPIProperties = new Properties();
+            _ckanAPIProperties.setProperty("ckanrooturl", stubServer.getURL());
+            _ckanAPIProperties.setProperty("package_id", "stub-package");
+            _ckanAPIProperties.setProperty("apikey", PortalStubServer.API_KEY);
+            _loaded = true;
+        }
+    }
+
     public boolean isLoaded()
     {
         return _loaded;
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.ckan.filestore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.json.Json;
+import javax.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.arjuna.dbplugins.ckan.filestore.CKANHttpTransport;
+import com.arjuna.dbplugins.ckan.filestore.DataStoreRequestEntity;
+import com.arjuna.dbplugins.ckan.filestore.DataStoreWriter;
+import com.arjuna.dbplugins.filestore.RetryPolicy;
+import com.arjuna.dbplugins.filestore.UploadMetrics;
+import org.risbic.dkan.PortalStubServer;
+
+public class DataStoreWriterTest
+{
+    private static final int BATCH_SIZE       = 3;
+    private static final int MAX_PENDING_ROWS = 7;
+
+    @Before
+    public void startStubServer()
+        throws Exception
+    {
+        _stubServer = new PortalStubServer(0);
+        _stubServer.start();
+
+        _transport = new CKANHttpTransport(2, 60000L, 5000, 5000);
+        _metrics   = new UploadMetrics();
+        _writer    = new DataStoreWriter("Test", _stubServer.getURL(), PortalStubServer.API_KEY, _transport, new RetryPolicy("Test", 1, 1L, 1L), null, _metrics, "stub-package", null, "Rows", Collections.<String>emptyList(), BATCH_SIZE, 0L, MAX_PENDING_ROWS);
+    }
+
+    @After
+    public void stopStubServer()
+    {
+        _writer.close();
+        _transport.shutdown();
+        _stubServer.stop();
+    }
+
+    @Test
+    public void fullBatchSent()
+        throws Exception
+    {
+        for (int index = 0; index < BATCH_SIZE; index++)
+            _writer.write(row(index));
+
+        assertEquals(1, _stubServer.getRequestCount("datastore_create"));
+        assertNotNull(_writer.getResourceId());
+        assertEquals(0, _writer.getPendingCount());
+        assertEquals(1, _metrics.getSuccessCount());
+        assertTrue("Bytes sent not metered", _metrics.getBytesSent() > 0);
+
+        _writer.write(row(BATCH_SIZE));
+        _writer.flush();
+        assertEquals(1, _stubServer.getRequestCount("datastore_upsert"));
+        assertEquals(2, _metrics.getSuccessCount());
+    }
+
+    @Test
+    public void failedBatchRequeued()
+        throws Exception
+    {
+        _stubServer.setErrorRate(1.0);
+        for (int index = 0; index < BATCH_SIZE - 1; index++)
+            _writer.write(row(index));
+        try
+        {
+            _writer.write(row(BATCH_SIZE - 1));
+            fail("Failed send not reported");
+        }
+        catch (IOException ioException)
+        {
+        }
+        assertEquals(BATCH_SIZE, _writer.getPendingCount());
+        assertEquals(1, _metrics.getFailureCount());
+        assertEquals(Long.valueOf(1), _metrics.getFailuresByStatus().get("503"));
+
+        // The failed batch is sent first, with the next write, then the row written after it
+        _stubServer.setErrorRate(0.0);
+        _writer.write(row(BATCH_SIZE));
+        assertEquals(1, _writer.getPendingCount());
+        assertEquals(2, _stubServer.getRequestCount("datastore_create"));
+
+        _writer.flush();
+        assertEquals(0, _writer.getPendingCount());
+        assertEquals(0, _writer.getDroppedCount());
+        assertEquals(1, _stubServer.getRequestCount("datastore_upsert"));
+        assertEquals(2, _metrics.getSuccessCount());
+    }
+
+    @Test
+    public void pendingRowsBounded()
+        throws Exception
+    {
+        _stubServer.setErrorRate(1.0);
+        for (int index = 0; index < MAX_PENDING_ROWS; index++)
+        {
+            try
+            {
+                _writer.write(row(index));
+            }
+            catch (IOException ioException)
+            {
+            }
+        }
+        assertEquals(MAX_PENDING_ROWS, _writer.getPendingCount());
+
+        try
+        {
+            _writer.write(row(MAX_PENDING_ROWS));
+            fail("Row accepted beyond maximum pending rows");
+        }
+        catch (IOException ioException)
+        {
+        }
+        assertEquals(MAX_PENDING_ROWS, _writer.getPendingCount());
+        assertEquals(1, _writer.getDroppedCount());
+    }
+
+    @Test
+    public void requestEntityLength()
+        throws Exception
+    {
+        List<Map<?, ?>> rows = new ArrayList<Map<?, ?>>();
+        for (int index = 0; index < BATCH_SIZE; index++)
+            rows.add(row(index));
+
+        ByteArrayOutputStream  buffer        = new ByteArrayOutputStream();
+        DataStoreRequestEntity requestEntity = DataStoreRequestEntity.upsert("resource", "insert", rows, buffer);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        requestEntity.writeRequest(body);
+        assertEquals(body.size(), requestEntity.getContentLength());
+        assertTrue(requestEntity.isRepeatable());
+
+        JsonObject request = Json.createReader(new ByteArrayInputStream(body.toByteArray())).readObject();
+        assertEquals("resource", request.getString("resource_id"));
+        assertEquals("insert", request.getString("method"));
+        assertEquals(BATCH_SIZE, request.getJsonArray("records").size());
+
+        // The buffer is reused by the next request
+        DataStoreRequestEntity nextRequestEntity = DataStoreRequestEntity.upsert("resource", "insert", rows.subList(0, 1), buffer);
+        assertTrue(nextRequestEntity.getContentLength() < body.size());
+    }
+
+    private static Map<?, ?> row(int index)
+    {
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("id", index);
+        row.put("name", "Row " + index);
+
+        return row;
+    }
+
+    private PortalStubServer  _stubServer;
+    private CKANHttpTransport _transport;
+    private UploadMetrics     _metrics;
+    private DataStoreWriter   _writer;
+}
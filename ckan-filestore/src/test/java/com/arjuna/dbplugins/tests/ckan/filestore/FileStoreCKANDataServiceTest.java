@@ -10,6 +10,8 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import com.arjuna.databroker.data.connector.ObservableDataProvider;
@@ -18,17 +20,32 @@ import com.arjuna.databroker.data.core.DataFlowNodeLifeCycleControl;
 import com.arjuna.dbplugins.ckan.filestore.FileStoreCKANDataService;
 import com.arjuna.dbutils.testsupport.dataflownodes.dummy.DummyDataSource;
 import com.arjuna.dbutils.testsupport.dataflownodes.lifecycle.TestJEEDataFlowNodeLifeCycleControl;
+import org.risbic.dkan.PortalStubServer;
 
 public class FileStoreCKANDataServiceTest
 {
     private static final Logger logger = Logger.getLogger(FileStoreCKANDataServiceTest.class.getName());
 
+    @BeforeClass
+    public static void startStubServer()
+        throws Exception
+    {
+        _stubServer = new PortalStubServer(0);
+        _stubServer.start();
+    }
+
+    @AfterClass
+    public static void stopStubServer()
+    {
+        _stubServer.stop();
+    }
+
     @Test
     public void createResourceAsString()
     {
         try
         {
-            CKANAPIProperties ckanAPIProperties = new CKANAPIProperties("ckanapi.properties");
+            CKANAPIProperties ckanAPIProperties = new CKANAPIProperties("ckanapi.properties", _stubServer);
 
             if (! ckanAPIProperties.isLoaded())
             {
@@ -69,7 +86,7 @@ public class FileStoreCKANDataServiceTest
     {
         try
         {
-            CKANAPIProperties ckanAPIProperties = new CKANAPIProperties("ckanapi.properties");
+            CKANAPIProperties ckanAPIProperties = new CKANAPIProperties("ckanapi.properties", _stubServer);
 
             if (! ckanAPIProperties.isLoaded())
             {
@@ -110,7 +127,7 @@ public class FileStoreCKANDataServiceTest
     {
         try
         {
-            CKANAPIProperties ckanAPIProperties = new CKANAPIProperties("ckanapi.properties");
+            CKANAPIProperties ckanAPIProperties = new CKANAPIProperties("ckanapi.properties", _stubServer);
 
             if (! ckanAPIProperties.isLoaded())
             {
@@ -151,4 +168,6 @@ public class FileStoreCKANDataServiceTest
             fail("Problem in 'createResource': " + throwable);
         }
     }
+
+    private static PortalStubServer _stubServer;
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.ckan.filestore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import com.arjuna.dbplugins.ckan.filestore.MultipartFormDataRequestEntity;
+
+public class MultipartFormDataRequestEntityTest
+{
+    private static final String BOUNDARY = "TestBoundary";
+
+    private static final String FILE_CONTENT   = "File content\r\n--not a boundary\r\n";
+    private static final String STREAM_CONTENT = "Stream content, of which only part is sent";
+    private static final int    STREAM_LENGTH  = 14;
+
+    @Rule
+    public TemporaryFolder _temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void byteArrayParts()
+        throws Exception
+    {
+        MultipartFormDataRequestEntity requestEntity = new MultipartFormDataRequestEntity(BOUNDARY);
+        requestEntity.addPart("package_id", "pkg");
+        requestEntity.addPart("upload", "data.csv", "a,b\n1,2\n".getBytes(StandardCharsets.UTF_8), "text/csv");
+
+        String expected = "--" + BOUNDARY + "\r\n"
+                          + "Content-Disposition: form-data; name=\"package_id\"\r\n"
+                          + "\r\n"
+                          + "pkg"
+                          + "\r\n--" + BOUNDARY + "\r\n"
+                          + "Content-Disposition: form-data; name=\"upload\"; filename=\"data.csv\"\r\n"
+                          + "Content-Type: text/csv\r\n"
+                          + "\r\n"
+                          + "a,b\n1,2\n"
+                          + "\r\n--" + BOUNDARY + "--\r\n";
+
+        assertTrue(requestEntity.isRepeatable());
+        assertEquals("multipart/form-data; boundary=" + BOUNDARY, requestEntity.getContentType());
+        assertBody(expected, requestEntity);
+    }
+
+    @Test
+    public void pathPart()
+        throws Exception
+    {
+        Path file = _temporaryFolder.newFile("upload.txt").toPath();
+        Files.write(file, FILE_CONTENT.getBytes(StandardCharsets.UTF_8));
+
+        MultipartFormDataRequestEntity requestEntity = new MultipartFormDataRequestEntity(BOUNDARY);
+        requestEntity.addPart("upload", "upload.txt", file, "text/plain");
+        requestEntity.addPart("name", "upload.txt");
+
+        String expected = "--" + BOUNDARY + "\r\n"
+                          + "Content-Disposition: form-data; name=\"upload\"; filename=\"upload.txt\"\r\n"
+                          + "Content-Type: text/plain\r\n"
+                          + "\r\n"
+                          + FILE_CONTENT
+                          + "\r\n--" + BOUNDARY + "\r\n"
+                          + "Content-Disposition: form-data; name=\"name\"\r\n"
+                          + "\r\n"
+                          + "upload.txt"
+                          + "\r\n--" + BOUNDARY + "--\r\n";
+
+        assertTrue(requestEntity.isRepeatable());
+        assertBody(expected, requestEntity);
+    }
+
+    @Test
+    public void sizedStreamPart()
+        throws Exception
+    {
+        String expected = "--" + BOUNDARY + "\r\n"
+                          + "Content-Disposition: form-data; name=\"upload\"; filename=\"stream\"\r\n"
+                          + "Content-Type: application/octet-stream\r\n"
+                          + "\r\n"
+                          + STREAM_CONTENT.substring(0, STREAM_LENGTH)
+                          + "\r\n--" + BOUNDARY + "--\r\n";
+
+        MultipartFormDataRequestEntity requestEntity = streamEntity(STREAM_LENGTH);
+        assertFalse(requestEntity.isRepeatable());
+        assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, requestEntity.getContentLength());
+        assertEquals(expected, writeToStream(requestEntity));
+        assertEquals(expected, writeToChannel(streamEntity(STREAM_LENGTH)));
+    }
+
+    @Test
+    public void unsizedStreamPart()
+        throws Exception
+    {
+        String expected = "--" + BOUNDARY + "\r\n"
+                          + "Content-Disposition: form-data; name=\"upload\"; filename=\"stream\"\r\n"
+                          + "Content-Type: application/octet-stream\r\n"
+                          + "\r\n"
+                          + STREAM_CONTENT
+                          + "\r\n--" + BOUNDARY + "\r\n"
+                          + "Content-Disposition: form-data; name=\"name\"\r\n"
+                          + "\r\n"
+                          + "stream"
+                          + "\r\n--" + BOUNDARY + "--\r\n";
+
+        // A part of unknown length leaves the whole request, including later parts, to be sent chunked
+        MultipartFormDataRequestEntity requestEntity = streamEntity(-1);
+        requestEntity.addPart("name", "stream");
+        assertEquals(-1, requestEntity.getContentLength());
+        assertEquals(expected, writeToStream(requestEntity));
+
+        MultipartFormDataRequestEntity channelRequestEntity = streamEntity(-1);
+        channelRequestEntity.addPart("name", "stream");
+        assertEquals(expected, writeToChannel(channelRequestEntity));
+    }
+
+    @Test
+    public void emptyEntity()
+        throws Exception
+    {
+        assertBody("\r\n--" + BOUNDARY + "--\r\n", new MultipartFormDataRequestEntity(BOUNDARY));
+    }
+
+    private static MultipartFormDataRequestEntity streamEntity(long length)
+    {
+        MultipartFormDataRequestEntity requestEntity = new MultipartFormDataRequestEntity(BOUNDARY);
+        requestEntity.addPart("upload", "stream", new ByteArrayInputStream(STREAM_CONTENT.getBytes(StandardCharsets.UTF_8)), length, "application/octet-stream");
+
+        return requestEntity;
+    }
+
+    /**
+     * Checks the content length, and the body written to both a stream and a channel, of a repeatable entity.
+     */
+    private void assertBody(String expected, MultipartFormDataRequestEntity requestEntity)
+        throws Exception
+    {
+        assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, requestEntity.getContentLength());
+        assertEquals(expected, writeToStream(requestEntity));
+        assertEquals(expected, writeToChannel(requestEntity));
+    }
+
+    private static String writeToStream(MultipartFormDataRequestEntity requestEntity)
+        throws Exception
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        requestEntity.writeRequest(outputStream);
+
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the body to a file channel, so that file parts are written by a real transfer.
+     */
+    private String writeToChannel(MultipartFormDataRequestEntity requestEntity)
+        throws Exception
+    {
+        Path body = _temporaryFolder.newFile().toPath();
+        try (FileChannel channel = FileChannel.open(body, StandardOpenOption.WRITE))
+        {
+            requestEntity.writeRequest(channel);
+        }
+
+        return new String(Files.readAllBytes(body), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.ckan.filestore;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import com.arjuna.dbplugins.ckan.filestore.CKANHttpTransport;
+import com.arjuna.dbplugins.ckan.filestore.ResourceUpdateWriter;
+import com.arjuna.dbplugins.filestore.RetryPolicy;
+import com.arjuna.dbplugins.filestore.UploadRecord;
+import org.risbic.dkan.PortalStubServer;
+
+public class ResourceUpdateWriterTest
+{
+    private static final String RESOURCE_NAME = "Readings";
+
+    private static final long FLUSH_BYTES        = 16L;
+    private static final long MAX_RESOURCE_BYTES = 40L;
+
+    @Rule
+    public TemporaryFolder _temporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void startStubServer()
+        throws Exception
+    {
+        _stubServer = new PortalStubServer(0);
+        _stubServer.start();
+
+        _transport = new CKANHttpTransport(2, 60000L, 5000, 5000);
+        _directory = _temporaryFolder.newFolder();
+    }
+
+    @After
+    public void stopStubServer()
+    {
+        _transport.shutdown();
+        _stubServer.stop();
+    }
+
+    @Test
+    public void flushedAtThreshold()
+        throws Exception
+    {
+        ResourceUpdateWriter writer = createWriter();
+        try
+        {
+            writer.upload(record("0123456"));
+            assertEquals(0, _stubServer.getRequestCount("resource_create"));
+            assertNull(writer.getResourceId(RESOURCE_NAME));
+
+            // With its delimiter the second record takes the buffer to the flush threshold
+            writer.upload(record("7890123"));
+            assertEquals(1, _stubServer.getRequestCount("resource_create"));
+            assertNotNull(writer.getResourceId(RESOURCE_NAME));
+
+            writer.upload(record("4"));
+            writer.flushAll();
+            assertEquals(1, _stubServer.getRequestCount("resource_create"));
+            assertEquals(1, _stubServer.getRequestCount("resource_patch"));
+
+            // Nothing appended since the last flush
+            writer.flushAll();
+            assertEquals(1, _stubServer.getRequestCount("resource_patch"));
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void rolledAtMaxResourceSize()
+        throws Exception
+    {
+        ResourceUpdateWriter writer = createWriter();
+        try
+        {
+            for (int index = 0; index < 2; index++)
+                writer.upload(record("0123456789abcd"));
+            String firstResourceId = writer.getResourceId(RESOURCE_NAME);
+            assertNotNull(firstResourceId);
+            assertEquals(1, _stubServer.getRequestCount("resource_create"));
+
+            // This record takes the buffer to the maximum size, so the resource is flushed for the last time and the next
+            // record starts a new resource
+            writer.upload(record("0123456789abcd"));
+            assertEquals(1, _stubServer.getRequestCount("resource_patch"));
+            assertNull(writer.getResourceId(RESOURCE_NAME));
+            assertEquals(0, bufferFiles()[0].length());
+
+            writer.upload(record("0123456789abcd"));
+            writer.flushAll();
+
+            assertEquals(2, _stubServer.getRequestCount("resource_create"));
+            assertNotEquals(firstResourceId, writer.getResourceId(RESOURCE_NAME));
+            assertEquals("0123456789abcd\n".length(), bufferFiles()[0].length());
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void recordKeptWhenRollFails()
+        throws Exception
+    {
+        ResourceUpdateWriter writer = createWriter();
+        try
+        {
+            for (int index = 0; index < 2; index++)
+                writer.upload(record("0123456789abcd"));
+            String firstResourceId = writer.getResourceId(RESOURCE_NAME);
+            assertNotNull(firstResourceId);
+
+            // The last flush before the roll fails, which neither fails nor loses the record that filled the buffer
+            _stubServer.setActionStatus("resource_patch", 500);
+            writer.upload(record("0123456789abcd"));
+            assertEquals(1, _stubServer.getRequestCount("resource_patch"));
+            assertEquals(firstResourceId, writer.getResourceId(RESOURCE_NAME));
+            assertEquals(3 * "0123456789abcd\n".length(), bufferFiles()[0].length());
+
+            // Still full, so the next record retries the flush, and is kept too
+            writer.upload(record("0123456789abcd"));
+            assertEquals(2, _stubServer.getRequestCount("resource_patch"));
+            assertEquals(4 * "0123456789abcd\n".length(), bufferFiles()[0].length());
+
+            _stubServer.clearActionStatuses();
+            writer.flushAll();
+
+            assertEquals(3, _stubServer.getRequestCount("resource_patch"));
+            assertEquals(1, _stubServer.getRequestCount("resource_create"));
+            assertNull(writer.getResourceId(RESOURCE_NAME));
+            assertEquals(0, bufferFiles()[0].length());
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void appendedDuringRoll()
+        throws Exception
+    {
+        final ResourceUpdateWriter writer = createWriter();
+        try
+        {
+            for (int index = 0; index < 2; index++)
+                writer.upload(record("0123456789abcd"));
+            String firstResourceId = writer.getResourceId(RESOURCE_NAME);
+
+            _stubServer.setLatency(500L, 0L);
+            Thread rollThread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        writer.upload(record("0123456789abcd"));
+                    }
+                    catch (Exception exception)
+                    {
+                        throw new IllegalStateException(exception);
+                    }
+                }
+            };
+            rollThread.start();
+            Thread.sleep(150L);
+
+            // Appended while the last flush of the full buffer is uploading, without waiting for it
+            long startTime = System.currentTimeMillis();
+            writer.upload(record("x"));
+            assertTrue(System.currentTimeMillis() - startTime < 250L);
+
+            rollThread.join();
+            assertEquals(1, _stubServer.getRequestCount("resource_patch"));
+            assertNull(writer.getResourceId(RESOURCE_NAME));
+            // The new buffer starts with the record appended during the roll
+            assertEquals("x\n".length(), bufferFiles()[0].length());
+
+            _stubServer.setLatency(0L, 0L);
+            writer.flushAll();
+            assertEquals(2, _stubServer.getRequestCount("resource_create"));
+            assertNotEquals(firstResourceId, writer.getResourceId(RESOURCE_NAME));
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void deletedResourceRecreated()
+        throws Exception
+    {
+        ResourceUpdateWriter writer = createWriter();
+        try
+        {
+            writer.upload(record("0123456789abcdef"));
+            String firstResourceId = writer.getResourceId(RESOURCE_NAME);
+            assertNotNull(firstResourceId);
+
+            _stubServer.setActionStatus("resource_patch", 404);
+            writer.upload(record("0123456789abcdef"));
+
+            assertEquals(1, _stubServer.getRequestCount("resource_patch"));
+            assertEquals(2, _stubServer.getRequestCount("resource_create"));
+            assertNotNull(writer.getResourceId(RESOURCE_NAME));
+            assertNotEquals(firstResourceId, writer.getResourceId(RESOURCE_NAME));
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void resourceIdKeptAcrossRestart()
+        throws Exception
+    {
+        ResourceUpdateWriter writer = createWriter();
+        writer.upload(record("0123456789abcdef"));
+        String resourceId = writer.getResourceId(RESOURCE_NAME);
+        assertNotNull(resourceId);
+
+        // Left unflushed at the restart
+        _stubServer.setErrorRate(1.0);
+        writer.upload(record("0123456789abcdef"));
+        writer.close();
+        _stubServer.setErrorRate(0.0);
+
+        ResourceUpdateWriter restartedWriter = createWriter();
+        try
+        {
+            restartedWriter.upload(record("x"));
+            restartedWriter.flushAll();
+
+            assertEquals(resourceId, restartedWriter.getResourceId(RESOURCE_NAME));
+            assertEquals(1, _stubServer.getRequestCount("resource_create"));
+            // Both failed flushes before the restart were patches too
+            assertEquals(3, _stubServer.getRequestCount("resource_patch"));
+        }
+        finally
+        {
+            restartedWriter.close();
+        }
+    }
+
+    @Test
+    public void similarNamesKeptApart()
+        throws Exception
+    {
+        ResourceUpdateWriter writer = createWriter();
+        try
+        {
+            writer.upload(new UploadRecord("0123456789abcdef".getBytes(StandardCharsets.UTF_8), null, "Site A/B", null, null));
+            writer.upload(new UploadRecord("0123456789abcdef".getBytes(StandardCharsets.UTF_8), null, "Site A_B", null, null));
+            writer.upload(new UploadRecord("0123456789abcdef".getBytes(StandardCharsets.UTF_8), null, "Site A B", null, null));
+
+            assertEquals(3, _stubServer.getRequestCount("resource_create"));
+            assertEquals(3, bufferFiles().length);
+            assertNotEquals(writer.getResourceId("Site A/B"), writer.getResourceId("Site A_B"));
+            assertNotEquals(writer.getResourceId("Site A_B"), writer.getResourceId("Site A B"));
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    private ResourceUpdateWriter createWriter()
+        throws Exception
+    {
+        return new ResourceUpdateWriter("Test", _stubServer.getURL(), PortalStubServer.API_KEY, _transport, new RetryPolicy("Test", 1, 1L, 1L), null, "stub-package", _directory, RESOURCE_NAME, "resource_patch", FLUSH_BYTES, 0L, MAX_RESOURCE_BYTES, "\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static UploadRecord record(String content)
+    {
+        return new UploadRecord(content.getBytes(StandardCharsets.UTF_8), null, null, null, null);
+    }
+
+    private File[] bufferFiles()
+    {
+        return _directory.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File directory, String name)
+            {
+                return name.endsWith(".buf");
+            }
+        });
+    }
+
+    private PortalStubServer  _stubServer;
+    private CKANHttpTransport _transport;
+    private File              _directory;
+}
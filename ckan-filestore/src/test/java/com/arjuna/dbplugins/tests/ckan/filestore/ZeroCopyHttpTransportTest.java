@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.ckan.filestore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import com.arjuna.dbplugins.ckan.filestore.MultipartFormDataRequestEntity;
+import com.arjuna.dbplugins.ckan.filestore.ZeroCopyHttpTransport;
+
+/**
+ * Posts to a raw socket peer, which answers, or fails to, as each test requires.
+ */
+public class ZeroCopyHttpTransportTest
+{
+    private static final int  SOCKET_TIMEOUT = 300;
+    private static final long HUNG_BOUND     = 5000L;
+
+    // Larger than the socket buffers of both ends, so a peer that never reads stalls the transfer
+    private static final long LARGE_FILE_SIZE = 64L * 1024L * 1024L;
+
+    @Rule
+    public TemporaryFolder _temporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void openServerSocket()
+        throws Exception
+    {
+        _serverSocket = new ServerSocket(0);
+        _transport    = new ZeroCopyHttpTransport(5000, SOCKET_TIMEOUT);
+    }
+
+    @After
+    public void closeServerSocket()
+        throws Exception
+    {
+        _serverSocket.close();
+        if (_peer != null)
+            _peer.join(HUNG_BOUND);
+    }
+
+    @Test
+    public void interimResponseSkipped()
+        throws Exception
+    {
+        startPeer(true, "HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 201 Created\r\nContent-Type: application/json\r\nContent-Length: 2\r\n\r\n{}");
+
+        assertEquals(201, _transport.post(url(), "key", smallRequest()));
+    }
+
+    @Test
+    public void statusWithoutReasonRead()
+        throws Exception
+    {
+        startPeer(true, "HTTP/1.1 409\r\nContent-Length: 0\r\n\r\n");
+
+        assertEquals(409, _transport.post(url(), "key", smallRequest()));
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedResponseRejected()
+        throws Exception
+    {
+        startPeer(true, "Not HTTP\r\n\r\n");
+
+        _transport.post(url(), "key", smallRequest());
+    }
+
+    @Test
+    public void peerNotReadingTimedOut()
+        throws Exception
+    {
+        File file = _temporaryFolder.newFile();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw"))
+        {
+            randomAccessFile.setLength(LARGE_FILE_SIZE);
+        }
+        MultipartFormDataRequestEntity requestEntity = new MultipartFormDataRequestEntity("boundary");
+        requestEntity.addPart("upload", "large.bin", file.toPath(), "application/octet-stream");
+
+        startPeer(false, null);
+
+        assertTimedOut(requestEntity);
+    }
+
+    @Test
+    public void peerNotAnsweringTimedOut()
+        throws Exception
+    {
+        startPeer(true, null);
+
+        assertTimedOut(smallRequest());
+    }
+
+    private void assertTimedOut(MultipartFormDataRequestEntity requestEntity)
+        throws Exception
+    {
+        long startTime = System.currentTimeMillis();
+        try
+        {
+            _transport.post(url(), "key", requestEntity);
+            fail("Post to a hung peer completed");
+        }
+        catch (SocketTimeoutException socketTimeoutException)
+        {
+            long duration = System.currentTimeMillis() - startTime;
+            assertTrue("Timed out too soon: " + duration, duration >= SOCKET_TIMEOUT);
+            assertTrue("Timed out too late: " + duration, duration < HUNG_BOUND);
+        }
+    }
+
+    /**
+     * Accepts one connection, reading the request if asked to, then writes the response, if any, and closes the
+     * connection. Without a response the peer holds the connection open until the server socket is closed.
+     */
+    private void startPeer(final boolean readRequest, final String response)
+    {
+        _peer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try (Socket socket = _serverSocket.accept())
+                {
+                    if (readRequest)
+                        readRequest(socket.getInputStream(), response == null);
+
+                    if (response != null)
+                    {
+                        OutputStream outputStream = socket.getOutputStream();
+                        outputStream.write(response.getBytes(StandardCharsets.ISO_8859_1));
+                        outputStream.flush();
+                    }
+                    else
+                    {
+                        // Hung until the test ends
+                        try (Socket unused = _serverSocket.accept())
+                        {
+                        }
+                    }
+                }
+                catch (IOException ioException)
+                {
+                    // The server socket closed at the end of the test
+                }
+            }
+        };
+        _peer.setDaemon(true);
+        _peer.start();
+    }
+
+    /**
+     * Reads the request head and its Content-Length of body, or, if asked to, everything until the client closes.
+     */
+    private static void readRequest(InputStream inputStream, boolean toEnd)
+        throws IOException
+    {
+        StringBuilder head = new StringBuilder();
+        while (! head.toString().endsWith("\r\n\r\n"))
+        {
+            int character = inputStream.read();
+            if (character == -1)
+                return;
+            head.append((char) character);
+        }
+
+        if (toEnd)
+        {
+            byte[] buffer = new byte[8192];
+            while (inputStream.read(buffer) != -1)
+                ;
+            return;
+        }
+
+        long remaining = 0;
+        for (String headerLine: head.toString().split("\r\n"))
+        {
+            if (headerLine.regionMatches(true, 0, "Content-Length:", 0, 15))
+                remaining = Long.parseLong(headerLine.substring(15).trim());
+        }
+        while (remaining > 0)
+        {
+            long skipped = inputStream.skip(remaining);
+            if (skipped <= 0)
+            {
+                if (inputStream.read() == -1)
+                    return;
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static MultipartFormDataRequestEntity smallRequest()
+    {
+        MultipartFormDataRequestEntity requestEntity = new MultipartFormDataRequestEntity("boundary");
+        requestEntity.addPart("package_id", "stub-package");
+        requestEntity.addPart("upload", "small.csv", "a,b\n1,2\n".getBytes(StandardCharsets.UTF_8), "text/csv");
+
+        return requestEntity;
+    }
+
+    private String url()
+    {
+        return "http://localhost:" + _serverSocket.getLocalPort() + "/api/action/resource_create";
+    }
+
+    private ServerSocket          _serverSocket;
+    private ZeroCopyHttpTransport _transport;
+    private Thread                _peer;
+}
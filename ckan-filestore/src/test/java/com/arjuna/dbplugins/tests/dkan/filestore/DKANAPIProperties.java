@@ -7,6 +7,7 @@ package com.arjuna.dbplugins.tests.dkan.filestore;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.Properties;
+import org.risbic.dkan.PortalStubServer;
 
 import static org.junit.Assert.fail;
 
@@ -33,6 +34,24 @@ public class DKANAPIProperties
         }
     }
 
+    /**
+     * Falls back to the properties of the portal stub when the properties file cannot be read.
+     */
+    public DKANAPIProperties(String dkanAPIPropertiesFilename, PortalStubServer stubServer)
+    {
+        this(dkanAPIPropertiesFilename);
+
+        if ((! _loaded) && (stubServer != null))
+        {
+            _dkanAPIProperties = new Properties();
+            _dkanAPIProperties.setProperty("dkanrooturl", stubServer.getURL());
+            _dkanAPIProperties.setProperty("package_id", "Stub Data Set");
+            _dkanAPIProperties.setProperty("username", PortalStubServer.USERNAME);
+            _dkanAPIProperties.setProperty("password", PortalStubServer.PASSWORD);
+            _loaded = true;
+        }
+    }
+
     public boolean isLoaded()
     {
         return _loaded;
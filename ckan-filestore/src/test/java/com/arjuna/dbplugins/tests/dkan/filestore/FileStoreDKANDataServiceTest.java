@@ -10,7 +10,10 @@ import com.arjuna.databroker.data.core.DataFlowNodeLifeCycleControl;
 import com.arjuna.dbplugins.dkan.filestore.FileStoreDKANDataService;
 import com.arjuna.dbutils.testsupport.dataflownodes.dummy.DummyDataSource;
 import com.arjuna.dbutils.testsupport.dataflownodes.lifecycle.TestJEEDataFlowNodeLifeCycleControl;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Test;
+import org.risbic.dkan.PortalStubServer;
 
 import java.util.Collections;
 import java.util.HashMap;
@@ -25,12 +28,26 @@ public class FileStoreDKANDataServiceTest
 {
     private static final Logger logger = Logger.getLogger(FileStoreDKANDataServiceTest.class.getName());
 
+    @BeforeClass
+    public static void startStubServer()
+        throws Exception
+    {
+        _stubServer = new PortalStubServer(0);
+        _stubServer.start();
+    }
+
+    @AfterClass
+    public static void stopStubServer()
+    {
+        _stubServer.stop();
+    }
+
     @Test
     public void createResourceAsString()
     {
         try
         {
-            DKANAPIProperties dkanAPIProperties = new DKANAPIProperties("dkanapi.properties");
+            DKANAPIProperties dkanAPIProperties = new DKANAPIProperties("dkanapi.properties", _stubServer);
 
             if (! dkanAPIProperties.isLoaded())
             {
@@ -72,7 +89,7 @@ public class FileStoreDKANDataServiceTest
     {
         try
         {
-            DKANAPIProperties dkanAPIProperties = new DKANAPIProperties("dkanapi.properties");
+            DKANAPIProperties dkanAPIProperties = new DKANAPIProperties("dkanapi.properties", _stubServer);
 
             if (! dkanAPIProperties.isLoaded())
             {
@@ -114,7 +131,7 @@ public class FileStoreDKANDataServiceTest
     {
         try
         {
-            DKANAPIProperties dkanAPIProperties = new DKANAPIProperties("dkanapi.properties");
+            DKANAPIProperties dkanAPIProperties = new DKANAPIProperties("dkanapi.properties", _stubServer);
 
             if (! dkanAPIProperties.isLoaded())
             {
@@ -156,4 +173,6 @@ public class FileStoreDKANDataServiceTest
             fail("Problem in 'createResource': " + throwable);
         }
     }
+
+    private static PortalStubServer _stubServer;
 }
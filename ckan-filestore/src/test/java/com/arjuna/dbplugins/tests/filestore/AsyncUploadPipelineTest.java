@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.arjuna.dbplugins.filestore.AsyncUploadPipeline;
+import com.arjuna.dbplugins.filestore.QueueFullPolicy;
+import com.arjuna.dbplugins.filestore.UploadRecord;
+import static com.arjuna.dbplugins.tests.filestore.RecordingUploader.read;
+import static com.arjuna.dbplugins.tests.filestore.RecordingUploader.record;
+
+public class AsyncUploadPipelineTest
+{
+    private static final long TIMEOUT = 5000L;
+
+    @Test
+    public void blockWaitsForQueueSpace()
+        throws Exception
+    {
+        RecordingUploader         downstream = new RecordingUploader();
+        final AsyncUploadPipeline pipeline   = fillPipeline(downstream, QueueFullPolicy.BLOCK);
+
+        Thread delivery = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    pipeline.upload(record("3"));
+                }
+                catch (Exception exception)
+                {
+                    fail("Problem in delivery: " + exception);
+                }
+            }
+        });
+        delivery.start();
+        delivery.join(200L);
+        assertTrue("Delivery did not wait for queue space", delivery.isAlive());
+
+        downstream.open();
+        delivery.join(TIMEOUT);
+        assertFalse(delivery.isAlive());
+
+        assertTrue(downstream.awaitUploaded(3, TIMEOUT));
+        assertEquals(Arrays.asList("1", "2", "3"), downstream.getContents());
+        assertEquals(0, pipeline.getDroppedCount());
+        assertEquals(0, pipeline.getRejectedCount());
+        assertTrue(pipeline.close(TIMEOUT).isEmpty());
+    }
+
+    @Test
+    public void dropOldestDiscardsQueuedRecord()
+        throws Exception
+    {
+        RecordingUploader   downstream = new RecordingUploader();
+        AsyncUploadPipeline pipeline   = fillPipeline(downstream, QueueFullPolicy.DROP_OLDEST);
+
+        pipeline.upload(record("3"));
+        assertEquals(1, pipeline.getDroppedCount());
+
+        downstream.open();
+        assertTrue(pipeline.close(TIMEOUT).isEmpty());
+        assertEquals(Arrays.asList("1", "3"), downstream.getContents());
+    }
+
+    @Test
+    public void rejectDiscardsArrivingRecord()
+        throws Exception
+    {
+        RecordingUploader   downstream = new RecordingUploader();
+        AsyncUploadPipeline pipeline   = fillPipeline(downstream, QueueFullPolicy.REJECT);
+
+        pipeline.upload(record("3"));
+        assertEquals(1, pipeline.getRejectedCount());
+
+        downstream.open();
+        assertTrue(pipeline.close(TIMEOUT).isEmpty());
+        assertEquals(Arrays.asList("1", "2"), downstream.getContents());
+    }
+
+    @Test
+    public void closeReturnsUnsentRecords()
+        throws Exception
+    {
+        RecordingUploader   downstream = new RecordingUploader();
+        AsyncUploadPipeline pipeline   = fillPipeline(downstream, QueueFullPolicy.BLOCK);
+
+        List<UploadRecord> remainingRecords = pipeline.close(100L);
+        downstream.open();
+
+        assertEquals(1, remainingRecords.size());
+        assertEquals("2", read(remainingRecords.get(0)));
+        assertEquals(Collections.<String>emptyList(), downstream.getContents());
+    }
+
+    @Test
+    public void streamUploadedOnDeliveringThread()
+        throws Exception
+    {
+        RecordingUploader   downstream = new RecordingUploader();
+        AsyncUploadPipeline pipeline   = new AsyncUploadPipeline("Test", downstream, 1, 1, QueueFullPolicy.BLOCK);
+
+        pipeline.upload(new UploadRecord(new ByteArrayInputStream("stream".getBytes()), -1, null, null, null, null));
+
+        assertEquals(Arrays.asList("stream"), downstream.getContents());
+        assertEquals(Arrays.asList(Thread.currentThread().getName()), downstream.getThreads());
+        pipeline.close(TIMEOUT);
+    }
+
+    /**
+     * Returns a pipeline of one worker, held uploading record "1", and a queue of one, holding record "2".
+     */
+    private static AsyncUploadPipeline fillPipeline(RecordingUploader downstream, QueueFullPolicy queueFullPolicy)
+        throws Exception
+    {
+        downstream.hold();
+
+        AsyncUploadPipeline pipeline = new AsyncUploadPipeline("Test", downstream, 1, 1, queueFullPolicy);
+        pipeline.upload(record("1"));
+        assertTrue(downstream.awaitStarted(1, TIMEOUT));
+        pipeline.upload(record("2"));
+        assertEquals(1, pipeline.getQueueSize());
+
+        return pipeline;
+    }
+}
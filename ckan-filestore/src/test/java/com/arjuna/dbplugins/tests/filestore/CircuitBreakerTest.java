@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.util.UUID;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.arjuna.dbplugins.filestore.CircuitBreaker;
+import com.arjuna.dbplugins.filestore.CircuitBreaker.State;
+import com.arjuna.dbplugins.filestore.CircuitBreakerOpenException;
+
+public class CircuitBreakerTest
+{
+    private static final long OPEN_DURATION = 50L;
+
+    @Test
+    public void opensAfterThreshold()
+        throws Exception
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("http://portal", 3, 60000L, 1);
+
+        for (int index = 0; index < 2; index++)
+        {
+            circuitBreaker.acquire();
+            circuitBreaker.recordFailure();
+        }
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+
+        circuitBreaker.acquire();
+        circuitBreaker.recordFailure();
+        assertEquals(State.OPEN, circuitBreaker.getState());
+        assertEquals(1, circuitBreaker.getOpenedCount());
+
+        assertRefused(circuitBreaker);
+        assertEquals(1, circuitBreaker.getRejectedCount());
+    }
+
+    @Test
+    public void successResetsFailures()
+        throws Exception
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("http://portal", 2, 60000L, 1);
+
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        assertEquals(1, circuitBreaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void halfOpenTrialClosesBreaker()
+        throws Exception
+    {
+        CircuitBreaker circuitBreaker = openBreaker(1);
+
+        Thread.sleep(OPEN_DURATION * 2);
+        circuitBreaker.acquire();
+        assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.recordSuccess();
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getConsecutiveFailures());
+        circuitBreaker.acquire();
+    }
+
+    @Test
+    public void halfOpenTrialReopensBreaker()
+        throws Exception
+    {
+        CircuitBreaker circuitBreaker = openBreaker(1);
+
+        Thread.sleep(OPEN_DURATION * 2);
+        circuitBreaker.acquire();
+        assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.recordFailure();
+        assertEquals(State.OPEN, circuitBreaker.getState());
+        assertEquals(2, circuitBreaker.getOpenedCount());
+        assertRefused(circuitBreaker);
+    }
+
+    @Test
+    public void halfOpenTrialsLimited()
+        throws Exception
+    {
+        CircuitBreaker circuitBreaker = openBreaker(2);
+
+        Thread.sleep(OPEN_DURATION * 2);
+        circuitBreaker.acquire();
+        circuitBreaker.acquire();
+        assertRefused(circuitBreaker);
+        assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.recordSuccess();
+        circuitBreaker.acquire();
+    }
+
+    @Test
+    public void sharedBreakerReconfigured()
+        throws Exception
+    {
+        String endpoint = "http://" + UUID.randomUUID() + "/";
+
+        CircuitBreaker circuitBreaker = CircuitBreaker.forEndpoint(endpoint, 5, 60000L, 1);
+        circuitBreaker.recordFailure();
+
+        CircuitBreaker reconfiguredCircuitBreaker = CircuitBreaker.forEndpoint(endpoint, 2, OPEN_DURATION, 3);
+        assertSame(circuitBreaker, reconfiguredCircuitBreaker);
+        assertEquals(2, circuitBreaker.getFailureThreshold());
+        assertEquals(OPEN_DURATION, circuitBreaker.getOpenDuration());
+        assertEquals(3, circuitBreaker.getHalfOpenTrials());
+        assertEquals(1, circuitBreaker.getConsecutiveFailures());
+
+        circuitBreaker.recordFailure();
+        assertEquals(State.OPEN, circuitBreaker.getState());
+
+        assertNotSame(circuitBreaker, CircuitBreaker.forEndpoint(endpoint + "other", 2, OPEN_DURATION, 3));
+    }
+
+    private static CircuitBreaker openBreaker(int halfOpenTrials)
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("http://portal", 1, OPEN_DURATION, halfOpenTrials);
+        circuitBreaker.recordFailure();
+        assertEquals(State.OPEN, circuitBreaker.getState());
+
+        return circuitBreaker;
+    }
+
+    private static void assertRefused(CircuitBreaker circuitBreaker)
+    {
+        try
+        {
+            circuitBreaker.acquire();
+            fail("Request not refused");
+        }
+        catch (CircuitBreakerOpenException circuitBreakerOpenException)
+        {
+        }
+    }
+}
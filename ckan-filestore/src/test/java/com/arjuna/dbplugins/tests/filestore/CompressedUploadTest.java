@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.arjuna.databroker.data.core.DataFlowNodeLifeCycleControl;
+import com.arjuna.dbplugins.ckan.filestore.FileStoreCKANDataService;
+import com.arjuna.dbplugins.dkan.filestore.FileStoreDKANDataService;
+import com.arjuna.dbutils.testsupport.dataflownodes.lifecycle.TestJEEDataFlowNodeLifeCycleControl;
+import org.risbic.dkan.PortalStubServer;
+
+/**
+ * Uploads payloads either side of the compression threshold to a portal stub, and decodes what the stub received: a
+ * payload over the threshold arrives gzip compressed, as a ".gz" file, and decompresses to the original, and a payload
+ * under it arrives unchanged.
+ */
+public class CompressedUploadTest
+{
+    private static final int COMPRESSION_THRESHOLD = 1024;
+
+    @Before
+    public void startStubServer()
+        throws Exception
+    {
+        _stubServer = new PortalStubServer(0);
+        _stubServer.setBodiesKept(true);
+        _stubServer.start();
+
+        _dataFlowNodeLifeCycleControl = new TestJEEDataFlowNodeLifeCycleControl();
+
+        StringBuilder payload = new StringBuilder();
+        for (int index = 0; payload.length() < 64 * 1024; index++)
+            payload.append("reading,").append(index).append(",").append(index % 17).append("\n");
+        _largePayload = payload.toString().getBytes(StandardCharsets.UTF_8);
+        _smallPayload = Arrays.copyOf(_largePayload, COMPRESSION_THRESHOLD - 1);
+    }
+
+    @After
+    public void stopStubServer()
+    {
+        _stubServer.stop();
+    }
+
+    @Test
+    public void ckanUploadsCompressed()
+        throws Exception
+    {
+        Map<String, String> properties = compressionProperties();
+        properties.put(FileStoreCKANDataService.CKANROOTURL_PROPERTYNAME, _stubServer.getURL());
+        properties.put(FileStoreCKANDataService.PACKAGEID_PROPERTYNAME, "stub-package");
+        properties.put(FileStoreCKANDataService.APIKEY_PROPERTYNAME, PortalStubServer.API_KEY);
+
+        FileStoreCKANDataService fileStoreCKANDataService = new FileStoreCKANDataService("CompressedCKANDataService", properties);
+        _dataFlowNodeLifeCycleControl.completeCreationAndActivateDataFlowNode(UUID.randomUUID().toString(), fileStoreCKANDataService, null);
+        try
+        {
+            fileStoreCKANDataService.consumeBytes(_largePayload);
+            PortalStubServer.ReceivedRequest request = _stubServer.getLastRequest("resource_create");
+            assertTrue(request.getBodyLength() < _largePayload.length / 2);
+            assertTrue(uploadPartHeader(request).contains("filename=\"upload.gz\""));
+            assertArrayEquals(_largePayload, gunzip(uploadPart(request)));
+
+            fileStoreCKANDataService.consumeBytes(_smallPayload);
+            request = _stubServer.getLastRequest("resource_create");
+            assertFalse(uploadPartHeader(request).contains(".gz"));
+            assertArrayEquals(_smallPayload, uploadPart(request));
+        }
+        finally
+        {
+            _dataFlowNodeLifeCycleControl.removeDataFlowNode(fileStoreCKANDataService);
+        }
+    }
+
+    @Test
+    public void dkanUploadsCompressed()
+        throws Exception
+    {
+        Map<String, String> properties = compressionProperties();
+        properties.put(FileStoreDKANDataService.DKANROOTURL_PROPERTYNAME, _stubServer.getURL());
+        properties.put(FileStoreDKANDataService.PACKAGEID_PROPERTYNAME, "Stub Data Set");
+        properties.put(FileStoreDKANDataService.USERNAME_PROPERTYNAME, PortalStubServer.USERNAME);
+        properties.put(FileStoreDKANDataService.PASSWORD_PROPERTYNAME, PortalStubServer.PASSWORD);
+
+        FileStoreDKANDataService fileStoreDKANDataService = new FileStoreDKANDataService("CompressedDKANDataService", properties);
+        _dataFlowNodeLifeCycleControl.completeCreationAndActivateDataFlowNode(UUID.randomUUID().toString(), fileStoreDKANDataService, null);
+        try
+        {
+            fileStoreDKANDataService.consumeBytes(_largePayload);
+            Map<String, String> form = parseForm(_stubServer.getLastRequest("datastore/file"));
+            assertTrue(form.get("filename").endsWith(".gz"));
+            assertArrayEquals(_largePayload, gunzip(Base64.getDecoder().decode(form.get("file"))));
+
+            fileStoreDKANDataService.consumeBytes(_smallPayload);
+            form = parseForm(_stubServer.getLastRequest("datastore/file"));
+            assertFalse(form.get("filename").endsWith(".gz"));
+            assertArrayEquals(_smallPayload, Base64.getDecoder().decode(form.get("file")));
+        }
+        finally
+        {
+            _dataFlowNodeLifeCycleControl.removeDataFlowNode(fileStoreDKANDataService);
+        }
+    }
+
+    private static Map<String, String> compressionProperties()
+    {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(FileStoreCKANDataService.COMPRESSUPLOADS_PROPERTYNAME, "true");
+        properties.put(FileStoreCKANDataService.COMPRESSIONTHRESHOLD_PROPERTYNAME, Integer.toString(COMPRESSION_THRESHOLD));
+
+        return properties;
+    }
+
+    private static String uploadPartHeader(PortalStubServer.ReceivedRequest request)
+    {
+        String body  = new String(request.getBody(), StandardCharsets.ISO_8859_1);
+        int    start = body.indexOf("Content-Disposition: form-data; name=\"upload\"");
+        assertTrue("No upload part", start >= 0);
+
+        return body.substring(start, body.indexOf("\r\n\r\n", start));
+    }
+
+    /**
+     * @return the value of the multipart "upload" part of the request
+     */
+    private static byte[] uploadPart(PortalStubServer.ReceivedRequest request)
+    {
+        String contentType = request.getHeader("Content-Type");
+        String boundary    = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+        String body        = new String(request.getBody(), StandardCharsets.ISO_8859_1);
+        int    start       = body.indexOf("\r\n\r\n", body.indexOf("Content-Disposition: form-data; name=\"upload\"")) + 4;
+        int    end         = body.indexOf("\r\n--" + boundary, start);
+
+        return Arrays.copyOfRange(request.getBody(), start, end);
+    }
+
+    private static Map<String, String> parseForm(PortalStubServer.ReceivedRequest request)
+        throws Exception
+    {
+        Map<String, String> form = new HashMap<String, String>();
+        for (String pair: new String(request.getBody(), StandardCharsets.US_ASCII).split("&"))
+        {
+            int separator = pair.indexOf('=');
+            form.put(pair.substring(0, separator), URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+        }
+
+        return form;
+    }
+
+    private static byte[] gunzip(byte[] compressed)
+        throws Exception
+    {
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed)))
+        {
+            byte[] buffer = new byte[8192];
+            int    count;
+            while ((count = inputStream.read(buffer)) != -1)
+                uncompressed.write(buffer, 0, count);
+        }
+
+        return uncompressed.toByteArray();
+    }
+
+    private PortalStubServer             _stubServer;
+    private DataFlowNodeLifeCycleControl _dataFlowNodeLifeCycleControl;
+    private byte[]                       _largePayload;
+    private byte[]                       _smallPayload;
+}
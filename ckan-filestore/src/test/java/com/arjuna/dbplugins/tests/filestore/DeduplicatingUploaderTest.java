@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import com.arjuna.dbplugins.filestore.DeduplicatingUploader;
+import com.arjuna.dbplugins.filestore.HttpStatusException;
+import com.arjuna.dbplugins.filestore.ResourceUploader;
+import com.arjuna.dbplugins.filestore.UploadRecord;
+import static com.arjuna.dbplugins.tests.filestore.RecordingUploader.record;
+
+public class DeduplicatingUploaderTest
+{
+    private static final int MAX_ENTRIES = 2;
+
+    @Rule
+    public TemporaryFolder _temporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void createFolders()
+        throws Exception
+    {
+        _indexFile     = new File(_temporaryFolder.newFolder(), "index");
+        _tempDirectory = _temporaryFolder.newFolder();
+    }
+
+    @Test
+    public void hitsAndMissesCounted()
+        throws Exception
+    {
+        RecordingUploader     downstream            = new RecordingUploader();
+        RecordingUploader     duplicateUploader     = new RecordingUploader();
+        DeduplicatingUploader deduplicatingUploader = new DeduplicatingUploader("Test", "package", downstream, duplicateUploader, MAX_ENTRIES, _indexFile, _tempDirectory);
+
+        deduplicatingUploader.upload(record("a"));
+        deduplicatingUploader.upload(record("a"));
+        deduplicatingUploader.upload(record("b"));
+        deduplicatingUploader.upload(new UploadRecord("a".getBytes(StandardCharsets.UTF_8), "a.txt", null, null, null));
+
+        assertEquals(Arrays.asList("a", "b", "a"), downstream.getContents());
+        assertEquals(Arrays.asList("a"), duplicateUploader.getContents());
+        assertEquals(1, deduplicatingUploader.getHitCount());
+        assertEquals(3, deduplicatingUploader.getMissCount());
+    }
+
+    @Test
+    public void failedUploadNotRemembered()
+        throws Exception
+    {
+        RecordingUploader     downstream            = new RecordingUploader();
+        DeduplicatingUploader deduplicatingUploader = new DeduplicatingUploader("Test", "package", downstream, null, MAX_ENTRIES, _indexFile, _tempDirectory);
+
+        downstream.setFailure(new HttpStatusException("Service unavailable", 503));
+        try
+        {
+            deduplicatingUploader.upload(record("a"));
+            fail("Failure not reported");
+        }
+        catch (HttpStatusException httpStatusException)
+        {
+        }
+        downstream.setFailure(null);
+        deduplicatingUploader.upload(record("a"));
+
+        assertEquals(Arrays.asList("a"), downstream.getContents());
+        assertEquals(0, deduplicatingUploader.getHitCount());
+        assertEquals(2, deduplicatingUploader.getMissCount());
+    }
+
+    @Test
+    public void concurrentDuplicateUploadedOnce()
+        throws Exception
+    {
+        RecordingUploader           downstream            = new RecordingUploader();
+        final DeduplicatingUploader deduplicatingUploader = new DeduplicatingUploader("Test", "package", downstream, null, MAX_ENTRIES, _indexFile, _tempDirectory);
+
+        downstream.hold();
+        Thread firstUpload  = uploadThread(deduplicatingUploader, "a");
+        assertTrue(downstream.awaitStarted(1, 5000L));
+        Thread secondUpload = uploadThread(deduplicatingUploader, "a");
+
+        // The second upload waits for the first, rather than sending the same content
+        assertFalse(downstream.awaitStarted(1, 200L));
+        downstream.open();
+        firstUpload.join();
+        secondUpload.join();
+
+        assertEquals(Arrays.asList("a"), downstream.getContents());
+        assertEquals(1, deduplicatingUploader.getHitCount());
+        assertEquals(1, deduplicatingUploader.getMissCount());
+    }
+
+    @Test
+    public void concurrentDuplicateUploadedAfterFailure()
+        throws Exception
+    {
+        final RecordingUploader downstream   = new RecordingUploader();
+        final CountDownLatch    failureStart = new CountDownLatch(1);
+        final CountDownLatch    failureOpen  = new CountDownLatch(1);
+        ResourceUploader        failOnce     = new ResourceUploader()
+        {
+            @Override
+            public void upload(UploadRecord record)
+                throws Exception
+            {
+                if (_failed.compareAndSet(false, true))
+                {
+                    failureStart.countDown();
+                    failureOpen.await();
+                    throw new HttpStatusException("Service unavailable", 503);
+                }
+                downstream.upload(record);
+            }
+
+            private final AtomicBoolean _failed = new AtomicBoolean();
+        };
+        final DeduplicatingUploader deduplicatingUploader = new DeduplicatingUploader("Test", "package", failOnce, null, MAX_ENTRIES, _indexFile, _tempDirectory);
+
+        Thread firstUpload  = uploadThread(deduplicatingUploader, "a");
+        assertTrue(failureStart.await(5000L, TimeUnit.MILLISECONDS));
+        Thread secondUpload = uploadThread(deduplicatingUploader, "a");
+        assertFalse(downstream.awaitStarted(1, 200L));
+
+        // The first upload fails, releasing its reservation to the second
+        failureOpen.countDown();
+        firstUpload.join();
+        secondUpload.join();
+
+        assertEquals(Arrays.asList("a"), downstream.getContents());
+        assertEquals(0, deduplicatingUploader.getHitCount());
+        assertEquals(2, deduplicatingUploader.getMissCount());
+    }
+
+    @Test
+    public void streamDuplicatesSkipped()
+        throws Exception
+    {
+        RecordingUploader     downstream            = new RecordingUploader();
+        DeduplicatingUploader deduplicatingUploader = new DeduplicatingUploader("Test", "package", downstream, null, MAX_ENTRIES, _indexFile, _tempDirectory);
+
+        deduplicatingUploader.upload(streamRecord("stream content", -1));
+        deduplicatingUploader.upload(streamRecord("stream content", -1));
+        deduplicatingUploader.upload(record("stream content"));
+
+        // Only the given length of a sized stream is content
+        deduplicatingUploader.upload(streamRecord("stream content and more", 14));
+
+        assertEquals(Arrays.asList("stream content"), downstream.getContents());
+        assertEquals(3, deduplicatingUploader.getHitCount());
+        assertEquals(0, _tempDirectory.list().length);
+    }
+
+    @Test
+    public void fileDuplicatesSkipped()
+        throws Exception
+    {
+        Path file = _temporaryFolder.newFile("upload.txt").toPath();
+        Files.write(file, "file content".getBytes(StandardCharsets.UTF_8));
+
+        RecordingUploader     downstream            = new RecordingUploader();
+        DeduplicatingUploader deduplicatingUploader = new DeduplicatingUploader("Test", "package", downstream, null, MAX_ENTRIES, _indexFile, _tempDirectory);
+
+        deduplicatingUploader.upload(new UploadRecord(file, null, null, null, null));
+        deduplicatingUploader.upload(new UploadRecord(file, null, null, null, null));
+        deduplicatingUploader.upload(record("file content"));
+
+        // A changed file is a new upload, even though it is the same file
+        Files.write(file, "changed file content".getBytes(StandardCharsets.UTF_8));
+        deduplicatingUploader.upload(new UploadRecord(file, null, null, null, null));
+
+        assertEquals(Arrays.asList("file content", "changed file content"), downstream.getContents());
+        assertEquals(2, deduplicatingUploader.getHitCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted()
+        throws Exception
+    {
+        RecordingUploader     downstream            = new RecordingUploader();
+        DeduplicatingUploader deduplicatingUploader = new DeduplicatingUploader("Test", "package", downstream, null, MAX_ENTRIES, null, _tempDirectory);
+
+        deduplicatingUploader.upload(record("a"));
+        deduplicatingUploader.upload(record("b"));
+        deduplicatingUploader.upload(record("a"));
+        deduplicatingUploader.upload(record("c"));
+        assertEquals(MAX_ENTRIES, deduplicatingUploader.getEntryCount());
+
+        // "b" was the least recently used when "c" was added
+        deduplicatingUploader.upload(record("b"));
+        deduplicatingUploader.upload(record("c"));
+
+        assertEquals(Arrays.asList("a", "b", "c", "b"), downstream.getContents());
+        assertEquals(2, deduplicatingUploader.getHitCount());
+    }
+
+    @Test
+    public void indexReloaded()
+        throws Exception
+    {
+        DeduplicatingUploader deduplicatingUploader = new DeduplicatingUploader("Test", "package", new RecordingUploader(), null, MAX_ENTRIES, _indexFile, _tempDirectory);
+        deduplicatingUploader.upload(record("a"));
+        deduplicatingUploader.upload(record("b"));
+
+        RecordingUploader     downstream                    = new RecordingUploader();
+        DeduplicatingUploader reloadedDeduplicatingUploader = new DeduplicatingUploader("Test", "package", downstream, null, MAX_ENTRIES, _indexFile, _tempDirectory);
+        assertEquals(2, reloadedDeduplicatingUploader.getEntryCount());
+        reloadedDeduplicatingUploader.upload(record("a"));
+        reloadedDeduplicatingUploader.upload(record("b"));
+
+        // The index is per package
+        DeduplicatingUploader otherDeduplicatingUploader = new DeduplicatingUploader("Test", "other", downstream, null, MAX_ENTRIES, _indexFile, _tempDirectory);
+        otherDeduplicatingUploader.upload(record("a"));
+
+        assertEquals(Collections.singletonList("a"), downstream.getContents());
+        assertEquals(2, reloadedDeduplicatingUploader.getHitCount());
+    }
+
+    @Test
+    public void indexCompacted()
+        throws Exception
+    {
+        DeduplicatingUploader deduplicatingUploader = new DeduplicatingUploader("Test", "package", new RecordingUploader(), null, MAX_ENTRIES, _indexFile, _tempDirectory);
+        for (int index = 0; index < 50; index++)
+            deduplicatingUploader.upload(record(Integer.toString(index)));
+
+        // Lines of evicted digests are dropped once they outnumber the live ones
+        int indexLines = Files.readAllLines(_indexFile.toPath(), StandardCharsets.UTF_8).size();
+        assertTrue("Index of " + indexLines + " lines not compacted", indexLines <= (3 * MAX_ENTRIES) + 1);
+
+        RecordingUploader     downstream                    = new RecordingUploader();
+        DeduplicatingUploader reloadedDeduplicatingUploader = new DeduplicatingUploader("Test", "package", downstream, null, MAX_ENTRIES, _indexFile, _tempDirectory);
+        assertEquals(MAX_ENTRIES, reloadedDeduplicatingUploader.getEntryCount());
+        reloadedDeduplicatingUploader.upload(record("49"));
+        reloadedDeduplicatingUploader.upload(record("48"));
+        reloadedDeduplicatingUploader.upload(record("0"));
+
+        assertEquals(Arrays.asList("0"), downstream.getContents());
+    }
+
+    private static Thread uploadThread(final DeduplicatingUploader deduplicatingUploader, final String content)
+    {
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    deduplicatingUploader.upload(record(content));
+                }
+                catch (Exception exception)
+                {
+                    // Failures are seen through the downstream uploader
+                }
+            }
+        };
+        thread.start();
+
+        return thread;
+    }
+
+    private static UploadRecord streamRecord(String content, long length)
+    {
+        return new UploadRecord(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), length, null, null, null, null);
+    }
+
+    private File _indexFile;
+    private File _tempDirectory;
+}
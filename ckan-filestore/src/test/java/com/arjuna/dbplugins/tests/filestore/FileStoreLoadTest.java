@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.arjuna.dbplugins.ckan.filestore.FileStoreCKANDataService;
+import com.arjuna.dbplugins.dkan.filestore.FileStoreDKANDataService;
+import org.risbic.dkan.PortalStubServer;
+
+/**
+ * End to end load of the file store services against the portal stub. The load, and the stub's behaviour, are set by
+ * system properties, for example:
+ *
+ *   mvn test -Dtest=FileStoreLoadTest -Dloadtest.records=10000 -Dloadtest.recordsize=1048576 -Dloadtest.latency=20 -Dloadtest.errorrate=0.01
+ *
+ * and any property named "loadtest.property.&lt;name&gt;" is passed to the service as "&lt;name&gt;", for example
+ * "-Dloadtest.property.Asynchronous Upload=true" and "-Dloadtest.property.Upload Worker Threads=8". The defaults
+ * make a short run which also checks nothing fails.
+ */
+public class FileStoreLoadTest
+{
+    private static final Logger logger = Logger.getLogger(FileStoreLoadTest.class.getName());
+
+    public static final String RECORDS_PROPERTYNAME     = "loadtest.records";
+    public static final String RECORDSIZE_PROPERTYNAME  = "loadtest.recordsize";
+    public static final String LATENCY_PROPERTYNAME     = "loadtest.latency";
+    public static final String JITTER_PROPERTYNAME      = "loadtest.jitter";
+    public static final String ERRORRATE_PROPERTYNAME   = "loadtest.errorrate";
+    public static final String CATALOGSIZE_PROPERTYNAME = "loadtest.catalogsize";
+    public static final String PROPERTY_PREFIX          = "loadtest.property.";
+
+    public static final int    DEFAULT_RECORDS     = 200;
+    public static final int    DEFAULT_RECORDSIZE  = 16 * 1024;
+    public static final long   DEFAULT_LATENCY     = 2L;
+    public static final long   DEFAULT_JITTER      = 0L;
+    public static final double DEFAULT_ERRORRATE   = 0.0;
+    public static final int    DEFAULT_CATALOGSIZE = 10000;
+
+    @Before
+    public void startStubServer()
+        throws Exception
+    {
+        _errorRate = Double.parseDouble(System.getProperty(ERRORRATE_PROPERTYNAME, Double.toString(DEFAULT_ERRORRATE)));
+
+        _stubServer = new PortalStubServer(Integer.getInteger(CATALOGSIZE_PROPERTYNAME, DEFAULT_CATALOGSIZE));
+        _stubServer.setLatency(Long.getLong(LATENCY_PROPERTYNAME, DEFAULT_LATENCY), Long.getLong(JITTER_PROPERTYNAME, DEFAULT_JITTER));
+        _stubServer.setErrorRate(_errorRate);
+        _stubServer.start();
+
+        _loadGenerator = new LoadGenerator(Integer.getInteger(RECORDS_PROPERTYNAME, DEFAULT_RECORDS), Integer.getInteger(RECORDSIZE_PROPERTYNAME, DEFAULT_RECORDSIZE));
+    }
+
+    @After
+    public void stopStubServer()
+    {
+        _stubServer.stop();
+    }
+
+    @Test
+    public void loadCKANDataService()
+    {
+        try
+        {
+            Map<String, String> properties = serviceProperties();
+            properties.put(FileStoreCKANDataService.CKANROOTURL_PROPERTYNAME, _stubServer.getURL());
+            properties.put(FileStoreCKANDataService.PACKAGEID_PROPERTYNAME, "stub-package");
+            properties.put(FileStoreCKANDataService.APIKEY_PROPERTYNAME, PortalStubServer.API_KEY);
+
+            FileStoreCKANDataService fileStoreCKANDataService = new FileStoreCKANDataService("LoadCKANDataService", properties);
+
+            LoadReport loadReport = _loadGenerator.run(fileStoreCKANDataService, fileStoreCKANDataService.getMetrics());
+            report("loadCKANDataService", loadReport);
+        }
+        catch (Throwable throwable)
+        {
+            logger.log(Level.WARNING, "Problem in 'loadCKANDataService'", throwable);
+            fail("Problem in 'loadCKANDataService': " + throwable);
+        }
+    }
+
+    @Test
+    public void loadDKANDataService()
+    {
+        try
+        {
+            Map<String, String> properties = serviceProperties();
+            properties.put(FileStoreDKANDataService.DKANROOTURL_PROPERTYNAME, _stubServer.getURL());
+            properties.put(FileStoreDKANDataService.PACKAGEID_PROPERTYNAME, "Stub Data Set");
+            properties.put(FileStoreDKANDataService.USERNAME_PROPERTYNAME, PortalStubServer.USERNAME);
+            properties.put(FileStoreDKANDataService.PASSWORD_PROPERTYNAME, PortalStubServer.PASSWORD);
+
+            FileStoreDKANDataService fileStoreDKANDataService = new FileStoreDKANDataService("LoadDKANDataService", properties);
+
+            LoadReport loadReport = _loadGenerator.run(fileStoreDKANDataService, fileStoreDKANDataService.getMetrics());
+            report("loadDKANDataService", loadReport);
+        }
+        catch (Throwable throwable)
+        {
+            logger.log(Level.WARNING, "Problem in 'loadDKANDataService'", throwable);
+            fail("Problem in 'loadDKANDataService': " + throwable);
+        }
+    }
+
+    private void report(String testName, LoadReport loadReport)
+    {
+        logger.log(Level.INFO, testName + ": " + loadReport);
+        logger.log(Level.INFO, testName + ": portal stub requests " + _stubServer.getRequestCounts() + ", " + _stubServer.getBytesReceived() + " bytes received");
+
+        assertTrue("No uploads succeeded", loadReport.getSuccessCount() > 0);
+        if (_errorRate == 0.0)
+            assertEquals("Uploads failed without injected errors", 0, loadReport.getFailureCount());
+    }
+
+    private static Map<String, String> serviceProperties()
+    {
+        Map<String, String> properties = new HashMap<String, String>();
+        for (String propertyName: System.getProperties().stringPropertyNames())
+        {
+            if (propertyName.startsWith(PROPERTY_PREFIX))
+                properties.put(propertyName.substring(PROPERTY_PREFIX.length()), System.getProperty(propertyName));
+        }
+
+        return properties;
+    }
+
+    private PortalStubServer _stubServer;
+    private LoadGenerator    _loadGenerator;
+    private double           _errorRate;
+}
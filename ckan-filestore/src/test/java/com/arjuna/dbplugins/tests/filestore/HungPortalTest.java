@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.arjuna.databroker.data.core.DataFlowNodeLifeCycleControl;
+import com.arjuna.dbplugins.ckan.filestore.FileStoreCKANDataService;
+import com.arjuna.dbplugins.dkan.filestore.FileStoreDKANDataService;
+import com.arjuna.dbplugins.filestore.CircuitBreaker;
+import com.arjuna.dbplugins.filestore.UploadMetrics;
+import com.arjuna.dbutils.testsupport.dataflownodes.lifecycle.TestJEEDataFlowNodeLifeCycleControl;
+import org.risbic.dkan.PortalStubServer;
+
+/**
+ * Uploads to a portal stub which never answers within the socket timeout, checking that the timed out uploads open the
+ * circuit breaker and that later uploads are then refused without waiting on the portal.
+ */
+public class HungPortalTest
+{
+    private static final long HANG_LATENCY   = 10000L;
+    private static final int  SOCKET_TIMEOUT = 200;
+
+    private static final int FAILURE_THRESHOLD = 2;
+
+    @Before
+    public void startStubServer()
+        throws Exception
+    {
+        _stubServer = new PortalStubServer(0);
+        _stubServer.setLatency(HANG_LATENCY, 0L);
+        _stubServer.start();
+
+        _dataFlowNodeLifeCycleControl = new TestJEEDataFlowNodeLifeCycleControl();
+    }
+
+    @After
+    public void stopStubServer()
+    {
+        _stubServer.stop();
+    }
+
+    @Test
+    public void hungCKANPortalOpensBreaker()
+        throws Exception
+    {
+        Map<String, String> properties = serviceProperties();
+        properties.put(FileStoreCKANDataService.CKANROOTURL_PROPERTYNAME, _stubServer.getURL());
+        properties.put(FileStoreCKANDataService.PACKAGEID_PROPERTYNAME, "stub-package");
+        properties.put(FileStoreCKANDataService.APIKEY_PROPERTYNAME, PortalStubServer.API_KEY);
+
+        FileStoreCKANDataService fileStoreCKANDataService = new FileStoreCKANDataService("HungCKANDataService", properties);
+        _dataFlowNodeLifeCycleControl.completeCreationAndActivateDataFlowNode(UUID.randomUUID().toString(), fileStoreCKANDataService, null);
+        try
+        {
+            for (int index = 0; index < FAILURE_THRESHOLD; index++)
+                fileStoreCKANDataService.consumeBytes(("Record " + index).getBytes());
+
+            assertBreakerOpen(fileStoreCKANDataService.getCircuitBreaker(), fileStoreCKANDataService.getMetrics());
+
+            long startTime = System.currentTimeMillis();
+            fileStoreCKANDataService.consumeBytes("Refused record".getBytes());
+            assertTrue("Upload waited on open breaker", System.currentTimeMillis() - startTime < SOCKET_TIMEOUT);
+            assertEquals(Long.valueOf(1), fileStoreCKANDataService.getMetrics().getFailuresByStatus().get(UploadMetrics.FAILURE_CIRCUITOPEN));
+            assertEquals(1, fileStoreCKANDataService.getMetrics().getCircuitBreakerRejectedCount());
+        }
+        finally
+        {
+            _dataFlowNodeLifeCycleControl.removeDataFlowNode(fileStoreCKANDataService);
+        }
+    }
+
+    @Test
+    public void hungDKANPortalOpensBreaker()
+        throws Exception
+    {
+        Map<String, String> properties = serviceProperties();
+        properties.put(FileStoreDKANDataService.DKANROOTURL_PROPERTYNAME, _stubServer.getURL());
+        properties.put(FileStoreDKANDataService.PACKAGEID_PROPERTYNAME, "Stub Data Set");
+        properties.put(FileStoreDKANDataService.USERNAME_PROPERTYNAME, PortalStubServer.USERNAME);
+        properties.put(FileStoreDKANDataService.PASSWORD_PROPERTYNAME, PortalStubServer.PASSWORD);
+
+        FileStoreDKANDataService fileStoreDKANDataService = new FileStoreDKANDataService("HungDKANDataService", properties);
+        _dataFlowNodeLifeCycleControl.completeCreationAndActivateDataFlowNode(UUID.randomUUID().toString(), fileStoreDKANDataService, null);
+        try
+        {
+            for (int index = 0; index < FAILURE_THRESHOLD; index++)
+                fileStoreDKANDataService.consumeBytes(("Record " + index).getBytes());
+
+            assertBreakerOpen(fileStoreDKANDataService.getCircuitBreaker(), fileStoreDKANDataService.getMetrics());
+        }
+        finally
+        {
+            _dataFlowNodeLifeCycleControl.removeDataFlowNode(fileStoreDKANDataService);
+        }
+    }
+
+    private static void assertBreakerOpen(CircuitBreaker circuitBreaker, UploadMetrics metrics)
+    {
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(CircuitBreaker.State.OPEN.name(), metrics.getCircuitBreakerState());
+        assertEquals(1, metrics.getCircuitBreakerOpenedCount());
+    }
+
+    /**
+     * Properties shared by the services: a short socket timeout, no retries, so that each upload times out once, and a
+     * breaker which stays open for the rest of the test.
+     */
+    private static Map<String, String> serviceProperties()
+    {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(FileStoreCKANDataService.SOCKETTIMEOUT_PROPERTYNAME, Integer.toString(SOCKET_TIMEOUT));
+        properties.put(FileStoreCKANDataService.RETRYMAXATTEMPTS_PROPERTYNAME, "1");
+        properties.put(FileStoreCKANDataService.CIRCUITBREAKERFAILURETHRESHOLD_PROPERTYNAME, Integer.toString(FAILURE_THRESHOLD));
+        properties.put(FileStoreCKANDataService.CIRCUITBREAKEROPENDURATION_PROPERTYNAME, Long.toString(HANG_LATENCY));
+
+        return properties;
+    }
+
+    private PortalStubServer             _stubServer;
+    private DataFlowNodeLifeCycleControl _dataFlowNodeLifeCycleControl;
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.arjuna.dbplugins.filestore.LatencyHistogram;
+
+/**
+ * The bucket arithmetic is private, so the upper bound of the bucket holding a duration is observed as the median of
+ * that duration and a far larger one, which the histogram reports as the upper bound of the lower duration's bucket.
+ */
+public class LatencyHistogramTest
+{
+    // Beyond the largest bucket, of 2^40 microseconds onwards
+    private static final long BEYOND_BUCKETS = 1L << 45;
+
+    private static final long CLAMP_BOUND = (1L << 41) - 1;
+
+    @Test
+    public void exactBelowEightMicros()
+    {
+        for (long micros = 0; micros < 8; micros++)
+            assertEquals("Bucket of " + micros + "us", micros, bucketUpperBound(micros));
+    }
+
+    @Test
+    public void powersOfTwo()
+    {
+        for (int exponent = 3; exponent < 40; exponent++)
+        {
+            long micros = 1L << exponent;
+
+            assertEquals("Bucket of 2^" + exponent + "us", micros + (micros / 8) - 1, bucketUpperBound(micros));
+            assertEquals("Bucket of 2^" + exponent + "-1us", micros - 1, bucketUpperBound(micros - 1));
+        }
+    }
+
+    @Test
+    public void withinAnEighth()
+    {
+        for (long micros = 8; micros < (1L << 40); micros = (micros * 3) / 2 + 1)
+        {
+            long upperBound = bucketUpperBound(micros);
+
+            assertTrue("Bucket of " + micros + "us below it", upperBound >= micros);
+            assertTrue("Bucket of " + micros + "us wider than an eighth", upperBound - micros < (micros / 8) + 1);
+        }
+    }
+
+    @Test
+    public void clampedAtMaxExponent()
+    {
+        assertEquals(CLAMP_BOUND, bucketUpperBound(1L << 40));
+        assertEquals(CLAMP_BOUND, bucketUpperBound(1L << 44));
+
+        // The bound of the last bucket is capped by the largest duration recorded
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        latencyHistogram.record(1L << 40, TimeUnit.MICROSECONDS);
+        assertEquals((1L << 40) / 1000.0, latencyHistogram.getQuantileMillis(1.0), 0.0);
+    }
+
+    @Test
+    public void quantilesOfUniformDistribution()
+    {
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        for (long millis = 1; millis <= 1000; millis++)
+            latencyHistogram.record(millis, TimeUnit.MILLISECONDS);
+
+        assertEquals(1000, latencyHistogram.getCount());
+        assertEquals(1000.0, latencyHistogram.getMaxMillis(), 0.0);
+
+        double p50 = latencyHistogram.getQuantileMillis(0.50);
+        double p99 = latencyHistogram.getQuantileMillis(0.99);
+        assertTrue("p50 of " + p50 + "ms", (p50 >= 500.0) && (p50 <= 500.0 * 9 / 8));
+        assertTrue("p99 of " + p99 + "ms", (p99 >= 990.0) && (p99 <= 1000.0));
+        assertEquals(1000.0, latencyHistogram.getQuantileMillis(1.0), 0.0);
+    }
+
+    @Test
+    public void emptyAndReset()
+    {
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        assertEquals(0.0, latencyHistogram.getQuantileMillis(0.5), 0.0);
+
+        latencyHistogram.record(5, TimeUnit.MILLISECONDS);
+        latencyHistogram.reset();
+
+        assertEquals(0, latencyHistogram.getCount());
+        assertEquals(0.0, latencyHistogram.getMaxMillis(), 0.0);
+        assertEquals(0.0, latencyHistogram.getQuantileMillis(0.99), 0.0);
+    }
+
+    private static long bucketUpperBound(long micros)
+    {
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        latencyHistogram.record(micros, TimeUnit.MICROSECONDS);
+        latencyHistogram.record(BEYOND_BUCKETS, TimeUnit.MICROSECONDS);
+
+        return Math.round(latencyHistogram.getQuantileMillis(0.5) * 1000.0);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.util.Collections;
+import java.util.UUID;
+import com.arjuna.databroker.data.DataService;
+import com.arjuna.databroker.data.connector.ObservableDataProvider;
+import com.arjuna.databroker.data.connector.ObserverDataConsumer;
+import com.arjuna.databroker.data.core.DataFlowNodeLifeCycleControl;
+import com.arjuna.dbplugins.filestore.UploadMetrics;
+import com.arjuna.dbutils.testsupport.dataflownodes.dummy.DummyDataSource;
+import com.arjuna.dbutils.testsupport.dataflownodes.lifecycle.TestJEEDataFlowNodeLifeCycleControl;
+
+/**
+ * Drives a file store service with records of a fixed size sent from a dummy data source, and reports the throughput
+ * and the upload latencies recorded by the service's metrics. The run is timed from the first record to the removal of
+ * the service, so uploads still queued in an asynchronous pipeline are included.
+ */
+public class LoadGenerator
+{
+    public LoadGenerator(int recordCount, int recordSize)
+    {
+        _recordCount = recordCount;
+        _recordSize  = recordSize;
+    }
+
+    public LoadReport run(DataService dataService, UploadMetrics metrics)
+        throws Exception
+    {
+        DataFlowNodeLifeCycleControl dataFlowNodeLifeCycleControl = new TestJEEDataFlowNodeLifeCycleControl();
+
+        DummyDataSource dummyDataSource = new DummyDataSource("Load Generator", Collections.<String, String>emptyMap());
+
+        dataFlowNodeLifeCycleControl.completeCreationAndActivateDataFlowNode(UUID.randomUUID().toString(), dummyDataSource, null);
+        dataFlowNodeLifeCycleControl.completeCreationAndActivateDataFlowNode(UUID.randomUUID().toString(), dataService, null);
+
+        ((ObservableDataProvider<byte[]>) dummyDataSource.getDataProvider(byte[].class)).addDataConsumer((ObserverDataConsumer<byte[]>) dataService.getDataConsumer(byte[].class));
+
+        metrics.reset();
+
+        long startTime = System.nanoTime();
+        for (int index = 0; index < _recordCount; index++)
+            dummyDataSource.sendData(record(index));
+
+        dataFlowNodeLifeCycleControl.removeDataFlowNode(dummyDataSource);
+        dataFlowNodeLifeCycleControl.removeDataFlowNode(dataService);
+        long elapsedTime = System.nanoTime() - startTime;
+
+        return new LoadReport(_recordCount, (long) _recordCount * _recordSize, elapsedTime, metrics);
+    }
+
+    /**
+     * Each record starts with its index, so that no two records are duplicates of each other.
+     */
+    private byte[] record(int index)
+    {
+        byte[] record = new byte[_recordSize];
+        for (int position = 0; position < _recordSize; position++)
+            record[position] = (byte) ('a' + (position % 26));
+
+        byte[] prefix = (index + ",").getBytes();
+        System.arraycopy(prefix, 0, record, 0, Math.min(prefix.length, _recordSize));
+
+        return record;
+    }
+
+    private final int _recordCount;
+    private final int _recordSize;
+}
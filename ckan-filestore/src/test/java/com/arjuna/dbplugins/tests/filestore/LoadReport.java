@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import com.arjuna.dbplugins.filestore.UploadMetrics;
+
+/**
+ * Outcome of a {@link LoadGenerator} run: the throughput over the whole run, and a snapshot of the service's upload
+ * counters and latency percentiles taken at its end.
+ */
+public class LoadReport
+{
+    public LoadReport(int recordCount, long recordBytes, long elapsedTime, UploadMetrics metrics)
+    {
+        _recordCount      = recordCount;
+        _recordBytes      = recordBytes;
+        _elapsedTime      = elapsedTime;
+        _successCount     = metrics.getSuccessCount();
+        _failureCount     = metrics.getFailureCount();
+        _failuresByStatus = metrics.getFailuresByStatus();
+        _bytesSent        = metrics.getBytesSent();
+        _latencyP50       = metrics.getLatencyP50Millis();
+        _latencyP95       = metrics.getLatencyP95Millis();
+        _latencyP99       = metrics.getLatencyP99Millis();
+        _latencyMax       = metrics.getLatencyMaxMillis();
+    }
+
+    public int getRecordCount()
+    {
+        return _recordCount;
+    }
+
+    public long getElapsedMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(_elapsedTime);
+    }
+
+    public double getRecordsPerSecond()
+    {
+        return _recordCount / seconds();
+    }
+
+    /**
+     * Returns the rate, in megabytes (10^6 bytes) per second, at which record content was uploaded.
+     */
+    public double getMegabytesPerSecond()
+    {
+        return (_recordBytes / 1000000.0) / seconds();
+    }
+
+    public long getSuccessCount()
+    {
+        return _successCount;
+    }
+
+    public long getFailureCount()
+    {
+        return _failureCount;
+    }
+
+    public Map<String, Long> getFailuresByStatus()
+    {
+        return _failuresByStatus;
+    }
+
+    public long getBytesSent()
+    {
+        return _bytesSent;
+    }
+
+    public double getLatencyP50Millis()
+    {
+        return _latencyP50;
+    }
+
+    public double getLatencyP95Millis()
+    {
+        return _latencyP95;
+    }
+
+    public double getLatencyP99Millis()
+    {
+        return _latencyP99;
+    }
+
+    public double getLatencyMaxMillis()
+    {
+        return _latencyMax;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d records in %d ms: %.1f records/s, %.2f MB/s, %d uploaded, %d failed %s, latency p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms",
+                             _recordCount, getElapsedMillis(), getRecordsPerSecond(), getMegabytesPerSecond(), _successCount, _failureCount, _failuresByStatus,
+                             _latencyP50, _latencyP95, _latencyP99, _latencyMax);
+    }
+
+    private double seconds()
+    {
+        return Math.max(_elapsedTime, 1L) / 1000000000.0;
+    }
+
+    private final int               _recordCount;
+    private final long              _recordBytes;
+    private final long              _elapsedTime;
+    private final long              _successCount;
+    private final long              _failureCount;
+    private final Map<String, Long> _failuresByStatus;
+    private final long              _bytesSent;
+    private final double            _latencyP50;
+    private final double            _latencyP95;
+    private final double            _latencyP99;
+    private final double            _latencyMax;
+}
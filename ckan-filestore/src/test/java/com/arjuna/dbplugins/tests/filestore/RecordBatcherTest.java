@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.arjuna.dbplugins.filestore.RecordBatcher;
+import com.arjuna.dbplugins.filestore.UploadRecord;
+import static com.arjuna.dbplugins.tests.filestore.RecordingUploader.record;
+
+public class RecordBatcherTest
+{
+    private static final byte[] NEWLINE = "\n".getBytes();
+
+    @Test
+    public void flushOnRecordCount()
+        throws Exception
+    {
+        RecordingUploader downstream = new RecordingUploader();
+        RecordBatcher     batcher    = new RecordBatcher("Test", downstream, 3, 1024, 0L, NEWLINE, null);
+
+        batcher.upload(record("a"));
+        batcher.upload(record("b"));
+        assertEquals(Collections.<String>emptyList(), downstream.getContents());
+        batcher.upload(record("c"));
+
+        assertEquals(Arrays.asList("a\nb\nc\n"), downstream.getContents());
+        batcher.close();
+    }
+
+    @Test
+    public void flushBeforeExceedingByteSize()
+        throws Exception
+    {
+        RecordingUploader downstream = new RecordingUploader();
+        RecordBatcher     batcher    = new RecordBatcher("Test", downstream, 100, 10, 0L, NEWLINE, null);
+
+        batcher.upload(record("aaaa"));
+        batcher.upload(record("bbbb"));
+        assertEquals(Collections.<String>emptyList(), downstream.getContents());
+        batcher.upload(record("cccc"));
+
+        assertEquals(Arrays.asList("aaaa\nbbbb\n"), downstream.getContents());
+        batcher.close();
+        assertEquals(Arrays.asList("aaaa\nbbbb\n", "cccc\n"), downstream.getContents());
+    }
+
+    @Test
+    public void flushAfterMaxDelay()
+        throws Exception
+    {
+        RecordingUploader downstream = new RecordingUploader();
+        RecordBatcher     batcher    = new RecordBatcher("Test", downstream, 100, 1024, 100L, NEWLINE, null);
+
+        batcher.upload(record("a"));
+        assertTrue("Batch not flushed after max delay", downstream.awaitUploaded(1, 5000L));
+        assertEquals(Arrays.asList("a\n"), downstream.getContents());
+
+        batcher.close();
+        assertEquals(1, downstream.getContents().size());
+    }
+
+    @Test
+    public void headerStartsEachBatch()
+        throws Exception
+    {
+        RecordingUploader downstream = new RecordingUploader();
+        RecordBatcher     batcher    = new RecordBatcher("Test", downstream, 2, 1024, 0L, "\r\n".getBytes(), "x,y".getBytes());
+
+        batcher.upload(record("1,2"));
+        batcher.upload(record("3,4"));
+        batcher.upload(record("5,6"));
+        batcher.flush();
+
+        assertEquals(Arrays.asList("x,y\r\n1,2\r\n3,4\r\n", "x,y\r\n5,6\r\n"), downstream.getContents());
+        batcher.close();
+    }
+
+    @Test
+    public void largeAndNamedRecordsPassThrough()
+        throws Exception
+    {
+        RecordingUploader downstream = new RecordingUploader();
+        RecordBatcher     batcher    = new RecordBatcher("Test", downstream, 100, 4, 0L, null, null);
+
+        batcher.upload(record("ab"));
+        batcher.upload(record("large"));
+        batcher.upload(new UploadRecord("cd".getBytes(), "file.txt", null, null, null));
+        assertEquals(Arrays.asList("large", "cd"), downstream.getContents());
+
+        batcher.close();
+        assertEquals(Arrays.asList("large", "cd", "ab"), downstream.getContents());
+    }
+
+    @Test
+    public void unescape()
+    {
+        assertNull(RecordBatcher.unescape(null));
+        assertEquals("a\nb", RecordBatcher.unescape("a\\nb"));
+        assertEquals("\r\n\t", RecordBatcher.unescape("\\r\\n\\t"));
+        assertEquals("a\\b", RecordBatcher.unescape("a\\\\b"));
+        assertEquals(",", RecordBatcher.unescape("\\,"));
+        assertEquals("a\\", RecordBatcher.unescape("a\\"));
+        assertEquals("plain", RecordBatcher.unescape("plain"));
+    }
+}
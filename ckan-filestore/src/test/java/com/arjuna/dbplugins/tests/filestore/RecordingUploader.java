@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import com.arjuna.dbplugins.filestore.ResourceUploader;
+import com.arjuna.dbplugins.filestore.UploadRecord;
+
+/**
+ * Downstream uploader for tests, which keeps the content of each record it is given. It can be held closed, so that
+ * uploads wait until it is opened, and can be told to fail all uploads, or those of records with given content.
+ */
+public class RecordingUploader implements ResourceUploader
+{
+    public RecordingUploader()
+    {
+        _contents = new ArrayList<String>();
+        _threads  = new ArrayList<String>();
+        _failures = new ConcurrentHashMap<String, Exception>();
+        _started  = new Semaphore(0);
+        _uploaded = new Semaphore(0);
+        _open     = new CountDownLatch(0);
+    }
+
+    @Override
+    public void upload(UploadRecord record)
+        throws Exception
+    {
+        _started.release();
+        _open.await();
+
+        String content = read(record);
+
+        Exception failure = _failures.containsKey(content) ? _failures.get(content) : _failure;
+        if (failure != null)
+            throw failure;
+
+        synchronized (this)
+        {
+            _contents.add(content);
+            _threads.add(Thread.currentThread().getName());
+        }
+        _uploaded.release();
+    }
+
+    /**
+     * Holds later uploads until {@link #open()} is called.
+     */
+    public void hold()
+    {
+        _open = new CountDownLatch(1);
+    }
+
+    public void open()
+    {
+        _open.countDown();
+    }
+
+    /**
+     * Fails every later upload with the given exception, or none if it is null.
+     */
+    public void setFailure(Exception failure)
+    {
+        _failure = failure;
+    }
+
+    /**
+     * Fails later uploads of records with the given content.
+     */
+    public void setFailure(String content, Exception failure)
+    {
+        _failures.put(content, failure);
+    }
+
+    /**
+     * Waits for the given number of uploads to have started, whether or not they have been held.
+     */
+    public boolean awaitStarted(int count, long timeout)
+        throws InterruptedException
+    {
+        return _started.tryAcquire(count, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for the given number of uploads to have completed.
+     */
+    public boolean awaitUploaded(int count, long timeout)
+        throws InterruptedException
+    {
+        return _uploaded.tryAcquire(count, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized List<String> getContents()
+    {
+        return new ArrayList<String>(_contents);
+    }
+
+    public synchronized List<String> getThreads()
+    {
+        return new ArrayList<String>(_threads);
+    }
+
+    public static UploadRecord record(String content)
+    {
+        return new UploadRecord(content.getBytes(StandardCharsets.UTF_8), null, null, null, null);
+    }
+
+    public static String read(UploadRecord record)
+        throws Exception
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream stream = record.openStream())
+        {
+            byte[] buffer = new byte[4096];
+            int    length;
+            while ((length = stream.read(buffer)) != -1)
+                content.write(buffer, 0, length);
+        }
+
+        return new String(content.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private final List<String>           _contents;
+    private final List<String>           _threads;
+    private final Map<String, Exception> _failures;
+    private final Semaphore              _started;
+    private final Semaphore              _uploaded;
+    private volatile CountDownLatch      _open;
+    private volatile Exception           _failure;
+}
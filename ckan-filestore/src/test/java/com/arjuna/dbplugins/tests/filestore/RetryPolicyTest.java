@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.arjuna.dbplugins.filestore.CircuitBreaker;
+import com.arjuna.dbplugins.filestore.CircuitBreakerOpenException;
+import com.arjuna.dbplugins.filestore.HttpStatusException;
+import com.arjuna.dbplugins.filestore.RetryPolicy;
+
+public class RetryPolicyTest
+{
+    /**
+     * Each row is a failure, whether it is retried for an idempotent request, and whether it is retried for a
+     * non-idempotent one.
+     */
+    private static final Object[][] RETRYABILITY = new Object[][]
+    {
+        { new HttpStatusException("Bad gateway", 502),         true,  true  },
+        { new HttpStatusException("Service unavailable", 503), true,  true  },
+        { new HttpStatusException("Internal error", 500),      true,  false },
+        { new HttpStatusException("Gateway timeout", 504),     true,  false },
+        { new HttpStatusException("Bad request", 400),         false, false },
+        { new HttpStatusException("Not found", 404),           false, false },
+        { new SocketTimeoutException("Read timed out"),        true,  false },
+        { new ConnectException("Connection refused"),          true,  true  },
+        { new CircuitBreakerOpenException("http://portal"),    false, false },
+        { new IOException("Broken pipe"),                      false, false }
+    };
+
+    @Test
+    public void retryability()
+    {
+        for (Object[] row: RETRYABILITY)
+        {
+            Exception exception = (Exception) row[0];
+
+            assertEquals("Idempotent " + exception, row[1], RetryPolicy.isRetryable(exception, true));
+            assertEquals("Non-idempotent " + exception, row[2], RetryPolicy.isRetryable(exception, false));
+        }
+    }
+
+    @Test
+    public void endpointFailures()
+    {
+        assertTrue(RetryPolicy.isEndpointFailure(new HttpStatusException("Internal error", 500)));
+        assertTrue(RetryPolicy.isEndpointFailure(new SocketTimeoutException("Read timed out")));
+        assertTrue(RetryPolicy.isEndpointFailure(new ConnectException("Connection refused")));
+        assertFalse(RetryPolicy.isEndpointFailure(new HttpStatusException("Bad request", 400)));
+        assertFalse(RetryPolicy.isEndpointFailure(new IOException("Broken pipe")));
+    }
+
+    @Test
+    public void retriesUntilSuccess()
+        throws Exception
+    {
+        RetryPolicy    retryPolicy    = new RetryPolicy("Test", 3, 1L, 10L);
+        CircuitBreaker circuitBreaker = new CircuitBreaker("http://portal", 5, 60000L, 1);
+        FailingRequest request        = new FailingRequest(2, new HttpStatusException("Service unavailable", 503));
+
+        assertEquals("Done", retryPolicy.execute("test", circuitBreaker, false, request));
+        assertEquals(3, request.getCallCount());
+        assertEquals(2, retryPolicy.getRetryCount());
+        assertEquals(0, retryPolicy.getExhaustedCount());
+        assertEquals(0, circuitBreaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void exhaustedAfterMaxAttempts()
+        throws Exception
+    {
+        RetryPolicy    retryPolicy = new RetryPolicy("Test", 3, 1L, 10L);
+        FailingRequest request     = new FailingRequest(5, new ConnectException("Connection refused"));
+
+        try
+        {
+            retryPolicy.execute("test", null, false, request);
+            fail("Failure not reported");
+        }
+        catch (ConnectException connectException)
+        {
+        }
+        assertEquals(3, request.getCallCount());
+        assertEquals(2, retryPolicy.getRetryCount());
+        assertEquals(1, retryPolicy.getExhaustedCount());
+    }
+
+    @Test
+    public void nonRetryableNotRetried()
+        throws Exception
+    {
+        RetryPolicy    retryPolicy = new RetryPolicy("Test", 3, 1L, 10L);
+        FailingRequest request     = new FailingRequest(1, new SocketTimeoutException("Read timed out"));
+
+        try
+        {
+            retryPolicy.execute("test", null, false, request);
+            fail("Failure not reported");
+        }
+        catch (SocketTimeoutException socketTimeoutException)
+        {
+        }
+        assertEquals(1, request.getCallCount());
+        assertEquals(0, retryPolicy.getRetryCount());
+
+        FailingRequest onceRequest = new FailingRequest(1, new HttpStatusException("Service unavailable", 503));
+        try
+        {
+            retryPolicy.executeOnce("test", null, onceRequest);
+            fail("Failure not reported");
+        }
+        catch (HttpStatusException httpStatusException)
+        {
+        }
+        assertEquals(1, onceRequest.getCallCount());
+    }
+
+    @Test
+    public void backoffCapped()
+    {
+        RetryPolicy retryPolicy = new RetryPolicy("Test", 10, 100L, 1000L);
+
+        for (int attempt = 1; attempt <= 10; attempt++)
+        {
+            long backoff = retryPolicy.backoff(attempt);
+
+            assertTrue("Negative backoff", backoff >= 0);
+            assertTrue("Backoff " + backoff + " of attempt " + attempt + " above ceiling", backoff <= Math.min(100L << (attempt - 1), 1000L));
+        }
+    }
+
+    private static class FailingRequest implements Callable<String>
+    {
+        public FailingRequest(int failureCount, Exception failure)
+        {
+            _failureCount = failureCount;
+            _failure      = failure;
+            _callCount    = new AtomicInteger();
+        }
+
+        @Override
+        public String call()
+            throws Exception
+        {
+            if (_callCount.incrementAndGet() <= _failureCount)
+                throw _failure;
+
+            return "Done";
+        }
+
+        public int getCallCount()
+        {
+            return _callCount.get();
+        }
+
+        private final int           _failureCount;
+        private final Exception     _failure;
+        private final AtomicInteger _callCount;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import com.arjuna.databroker.data.core.DataFlowNodeLifeCycleControl;
+import com.arjuna.dbplugins.ckan.filestore.FileStoreCKANDataService;
+import com.arjuna.dbplugins.dkan.filestore.FileStoreDKANDataService;
+import com.arjuna.dbutils.testsupport.dataflownodes.lifecycle.TestJEEDataFlowNodeLifeCycleControl;
+import org.risbic.dkan.PortalStubServer;
+
+/**
+ * Uploads byte array, file and stream payloads to a portal stub, checking how each request body was framed: a body of
+ * known length is sent with a Content-Length which matches the body received, any other body is sent chunked.
+ */
+public class StreamingUploadTest
+{
+    private static final int PAYLOAD_SIZE = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder _temporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void startStubServer()
+        throws Exception
+    {
+        _stubServer = new PortalStubServer(0);
+        _stubServer.start();
+
+        _dataFlowNodeLifeCycleControl = new TestJEEDataFlowNodeLifeCycleControl();
+
+        _payload = new byte[PAYLOAD_SIZE];
+        new Random(1234L).nextBytes(_payload);
+        _payloadFile = _temporaryFolder.newFile("payload.bin").toPath();
+        Files.write(_payloadFile, _payload);
+    }
+
+    @After
+    public void stopStubServer()
+    {
+        _stubServer.stop();
+    }
+
+    @Test
+    public void ckanBodiesFramed()
+        throws Exception
+    {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(FileStoreCKANDataService.CKANROOTURL_PROPERTYNAME, _stubServer.getURL());
+        properties.put(FileStoreCKANDataService.PACKAGEID_PROPERTYNAME, "stub-package");
+        properties.put(FileStoreCKANDataService.APIKEY_PROPERTYNAME, PortalStubServer.API_KEY);
+
+        FileStoreCKANDataService fileStoreCKANDataService = new FileStoreCKANDataService("StreamingCKANDataService", properties);
+        _dataFlowNodeLifeCycleControl.completeCreationAndActivateDataFlowNode(UUID.randomUUID().toString(), fileStoreCKANDataService, null);
+        try
+        {
+            fileStoreCKANDataService.consumeBytes(_payload);
+            assertFixedLength(_stubServer.getLastRequest("resource_create"));
+
+            fileStoreCKANDataService.consumePath(_payloadFile);
+            assertFixedLength(_stubServer.getLastRequest("resource_create"));
+
+            fileStoreCKANDataService.consumeInputStream(new ByteArrayInputStream(_payload));
+            assertChunked(_stubServer.getLastRequest("resource_create"));
+
+            assertEquals(3, _stubServer.getRequestCount("resource_create"));
+        }
+        finally
+        {
+            _dataFlowNodeLifeCycleControl.removeDataFlowNode(fileStoreCKANDataService);
+        }
+    }
+
+    @Test
+    public void dkanBodiesFramed()
+        throws Exception
+    {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(FileStoreDKANDataService.DKANROOTURL_PROPERTYNAME, _stubServer.getURL());
+        properties.put(FileStoreDKANDataService.PACKAGEID_PROPERTYNAME, "Stub Data Set");
+        properties.put(FileStoreDKANDataService.USERNAME_PROPERTYNAME, PortalStubServer.USERNAME);
+        properties.put(FileStoreDKANDataService.PASSWORD_PROPERTYNAME, PortalStubServer.PASSWORD);
+
+        FileStoreDKANDataService fileStoreDKANDataService = new FileStoreDKANDataService("StreamingDKANDataService", properties);
+        _dataFlowNodeLifeCycleControl.completeCreationAndActivateDataFlowNode(UUID.randomUUID().toString(), fileStoreDKANDataService, null);
+        try
+        {
+            fileStoreDKANDataService.consumeBytes(_payload);
+            assertFixedLength(_stubServer.getLastRequest("datastore/file"));
+
+            // The encoded length of a file depends on its content, so it is sent chunked rather than read twice
+            fileStoreDKANDataService.consumePath(_payloadFile);
+            assertChunked(_stubServer.getLastRequest("datastore/file"));
+
+            fileStoreDKANDataService.consumeInputStream(new ByteArrayInputStream(_payload));
+            assertChunked(_stubServer.getLastRequest("datastore/file"));
+
+            assertEquals(3, _stubServer.getRequestCount("datastore/file"));
+        }
+        finally
+        {
+            _dataFlowNodeLifeCycleControl.removeDataFlowNode(fileStoreDKANDataService);
+        }
+    }
+
+    private static void assertFixedLength(PortalStubServer.ReceivedRequest request)
+    {
+        assertNotNull(request);
+        assertNull(request.getHeader("Transfer-Encoding"));
+        assertNotNull(request.getHeader("Content-Length"));
+        assertEquals(request.getBodyLength(), Long.parseLong(request.getHeader("Content-Length")));
+        assertTrue(request.getBodyLength() > PAYLOAD_SIZE);
+    }
+
+    private static void assertChunked(PortalStubServer.ReceivedRequest request)
+    {
+        assertNotNull(request);
+        assertEquals("chunked", request.getHeader("Transfer-Encoding"));
+        assertNull(request.getHeader("Content-Length"));
+        assertTrue(request.getBodyLength() > PAYLOAD_SIZE);
+    }
+
+    private PortalStubServer             _stubServer;
+    private DataFlowNodeLifeCycleControl _dataFlowNodeLifeCycleControl;
+    private byte[]                       _payload;
+    private Path                         _payloadFile;
+}
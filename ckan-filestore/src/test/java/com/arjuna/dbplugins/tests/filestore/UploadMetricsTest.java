@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.arjuna.dbplugins.filestore.CircuitBreaker;
+import com.arjuna.dbplugins.filestore.HttpStatusException;
+import com.arjuna.dbplugins.filestore.RetryPolicy;
+import com.arjuna.dbplugins.filestore.UploadMetrics;
+import com.arjuna.dbplugins.filestore.UploadMetricsMXBean;
+
+public class UploadMetricsTest
+{
+    private static final String SERVICE_TYPE = "UploadMetricsTest";
+
+    @Test
+    public void registeredWithPlatformMBeanServer()
+        throws Exception
+    {
+        MBeanServer   mbeanServer   = ManagementFactory.getPlatformMBeanServer();
+        String        serviceName   = "Service \"A\", with *special* characters";
+        ObjectName    objectName    = UploadMetrics.objectName(SERVICE_TYPE, serviceName);
+        UploadMetrics uploadMetrics = new UploadMetrics();
+
+        uploadMetrics.register(SERVICE_TYPE, serviceName);
+        try
+        {
+            assertTrue(mbeanServer.isRegistered(objectName));
+
+            long startTime = uploadMetrics.uploadStarted();
+            uploadMetrics.uploadSucceeded(startTime, 100);
+            uploadMetrics.recordConsumed(byte[].class);
+
+            UploadMetricsMXBean proxy = JMX.newMXBeanProxy(mbeanServer, objectName, UploadMetricsMXBean.class);
+            assertEquals(1, proxy.getSuccessCount());
+            assertEquals(100, proxy.getBytesSent());
+            assertEquals(Long.valueOf(1), proxy.getRecordsConsumed().get("byte[]"));
+            assertNull(proxy.getCircuitBreakerState());
+        }
+        finally
+        {
+            uploadMetrics.unregister();
+        }
+        assertFalse(mbeanServer.isRegistered(objectName));
+
+        // A second unregister is harmless
+        uploadMetrics.unregister();
+    }
+
+    @Test
+    public void registrationReplaced()
+        throws Exception
+    {
+        MBeanServer   mbeanServer        = ManagementFactory.getPlatformMBeanServer();
+        ObjectName    objectName         = UploadMetrics.objectName(SERVICE_TYPE, "Replaced");
+        UploadMetrics uploadMetrics      = new UploadMetrics();
+        UploadMetrics replacementMetrics = new UploadMetrics();
+
+        uploadMetrics.register(SERVICE_TYPE, "Replaced");
+        replacementMetrics.register(SERVICE_TYPE, "Replaced");
+        try
+        {
+            replacementMetrics.uploadFailed(replacementMetrics.uploadStarted(), new HttpStatusException("Bad request", 400));
+
+            assertEquals(1L, mbeanServer.getAttribute(objectName, "FailureCount"));
+        }
+        finally
+        {
+            replacementMetrics.unregister();
+        }
+        assertFalse(mbeanServer.isRegistered(objectName));
+    }
+
+    @Test
+    public void componentCountsPublished()
+        throws Exception
+    {
+        UploadMetrics  uploadMetrics  = new UploadMetrics();
+        CircuitBreaker circuitBreaker = new CircuitBreaker("http://portal", 1, 60000L, 1);
+        uploadMetrics.setRetryPolicy(new RetryPolicy("Test", 1, 1L, 1L));
+        uploadMetrics.setCircuitBreaker(circuitBreaker);
+
+        assertEquals("CLOSED", uploadMetrics.getCircuitBreakerState());
+        circuitBreaker.recordFailure();
+        assertEquals("OPEN", uploadMetrics.getCircuitBreakerState());
+        assertEquals(1, uploadMetrics.getCircuitBreakerOpenedCount());
+        assertEquals(0, uploadMetrics.getRetryCount());
+        assertEquals(0, uploadMetrics.getDeduplicationHitCount());
+    }
+}
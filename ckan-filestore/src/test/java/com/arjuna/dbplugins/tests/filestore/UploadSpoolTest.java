@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import com.arjuna.dbplugins.filestore.HttpStatusException;
+import com.arjuna.dbplugins.filestore.UploadRecord;
+import com.arjuna.dbplugins.filestore.UploadSpool;
+import com.arjuna.dbplugins.filestore.UploadSpool.SyncPolicy;
+import static com.arjuna.dbplugins.tests.filestore.RecordingUploader.record;
+
+public class UploadSpoolTest
+{
+    private static final long TIMEOUT = 5000L;
+
+    // A spooled record of one byte, with no naming, is framed in 18 bytes
+    private static final int FRAME_SIZE = 18;
+
+    @Rule
+    public TemporaryFolder _temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void replayUploadsAndDeletesSegments()
+        throws Exception
+    {
+        File directory = spoolRecords(SyncPolicy.PERIODIC, "1", "2", "3");
+
+        RecordingUploader downstream = new RecordingUploader();
+        UploadSpool       spool      = replay(directory, downstream, 3);
+
+        assertEquals(Arrays.asList("1", "2", "3"), downstream.getContents());
+        assertEquals(3, spool.getReplayedCount());
+        assertEquals(0, spool.getSpooledBytes());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void tornFinalFrameTruncated()
+        throws Exception
+    {
+        File directory = spoolRecords(SyncPolicy.PERIODIC, "1", "2");
+
+        // A frame header promising more payload than was written before the crash
+        ByteBuffer tornFrame = ByteBuffer.allocate(12);
+        tornFrame.putInt(100);
+        tornFrame.putInt(0);
+        appendToSegment(directory, tornFrame.array());
+
+        RecordingUploader downstream = new RecordingUploader();
+        UploadSpool       spool      = replay(directory, downstream, 2);
+
+        assertEquals(Arrays.asList("1", "2"), downstream.getContents());
+        assertEquals(0, spool.getCorruptSegmentCount());
+        assertEquals(0, spool.getSpooledBytes());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void tornFinalHeaderTruncated()
+        throws Exception
+    {
+        File directory = spoolRecords(SyncPolicy.PERIODIC, "1");
+        appendToSegment(directory, new byte[] { 0, 0, 1 });
+
+        RecordingUploader downstream = new RecordingUploader();
+        UploadSpool       spool      = replay(directory, downstream, 1);
+
+        assertEquals(Arrays.asList("1"), downstream.getContents());
+        assertEquals(0, spool.getCorruptSegmentCount());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void corruptFrameMovesSegmentAside()
+        throws Exception
+    {
+        File directory = spoolRecords(SyncPolicy.PERIODIC, "1", "2", "3");
+
+        // Damage the content of the second record, leaving the third intact behind it
+        File segment = segments(directory)[0];
+        try (RandomAccessFile segmentFile = new RandomAccessFile(segment, "rw"))
+        {
+            segmentFile.seek((2 * FRAME_SIZE) - 1);
+            segmentFile.write('x');
+        }
+
+        RecordingUploader downstream = new RecordingUploader();
+        UploadSpool       spool      = replay(directory, downstream, 1);
+        awaitSegments(spool, 0);
+
+        assertEquals(Arrays.asList("1"), downstream.getContents());
+        assertEquals(1, spool.getCorruptSegmentCount());
+        assertEquals(0, spool.getSpooledBytes());
+        assertTrue("Corrupt segment not kept", new File(segment.getPath() + ".corrupt").exists());
+        assertEquals(3 * FRAME_SIZE, new File(segment.getPath() + ".corrupt").length());
+        spool.close(TIMEOUT);
+    }
+
+    @Test
+    public void replayResumesFromAcknowledgement()
+        throws Exception
+    {
+        File directory = spoolRecords(SyncPolicy.ALWAYS, "1", "2", "3");
+
+        RecordingUploader failingDownstream = new RecordingUploader();
+        failingDownstream.setFailure("2", new HttpStatusException("Service unavailable", 503));
+        UploadSpool failingSpool = createSpool(directory, failingDownstream, 1024L);
+        failingSpool.start();
+        assertTrue(failingDownstream.awaitStarted(2, TIMEOUT));
+        failingSpool.close(TIMEOUT);
+
+        assertEquals(Arrays.asList("1"), failingDownstream.getContents());
+        assertEquals(1, segments(directory).length);
+        assertTrue("Acknowledgement not written", new File(segments(directory)[0].getPath() + ".ack").exists());
+
+        // As after a restart, a new spool on the same directory carries on after the acknowledged record
+        RecordingUploader downstream = new RecordingUploader();
+        UploadSpool       spool      = replay(directory, downstream, 2);
+
+        assertEquals(Arrays.asList("2", "3"), downstream.getContents());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void refusedRecordDiscarded()
+        throws Exception
+    {
+        File directory = spoolRecords(SyncPolicy.PERIODIC, "1", "2", "3");
+
+        RecordingUploader downstream = new RecordingUploader();
+        downstream.setFailure("2", new HttpStatusException("Request entity too large", 413));
+        UploadSpool spool = replay(directory, downstream, 2);
+
+        assertEquals(Arrays.asList("1", "3"), downstream.getContents());
+        assertEquals(1, spool.getDiscardedCount());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void refusedUploadNotSpooled()
+        throws Exception
+    {
+        RecordingUploader downstream = new RecordingUploader();
+        downstream.setFailure(new HttpStatusException("Bad request", 400));
+        UploadSpool spool = createSpool(_temporaryFolder.newFolder(), downstream, 1024L);
+
+        try
+        {
+            spool.upload(record("1"));
+            fail("Refused upload not reported");
+        }
+        catch (HttpStatusException httpStatusException)
+        {
+            assertEquals(400, httpStatusException.getStatusCode());
+        }
+        assertEquals(0, spool.getSpooledCount());
+        spool.close(TIMEOUT);
+    }
+
+    @Test
+    public void maxBytesRefusesRecords()
+        throws Exception
+    {
+        RecordingUploader downstream = new RecordingUploader();
+        downstream.setFailure(new HttpStatusException("Service unavailable", 503));
+        UploadSpool spool = createSpool(_temporaryFolder.newFolder(), downstream, (2 * FRAME_SIZE) + 1);
+
+        spool.upload(record("1"));
+        assertTrue(spool.append(record("2")));
+        assertFalse(spool.append(record("3")));
+        try
+        {
+            spool.upload(record("4"));
+            fail("Upload failure not reported when spool full");
+        }
+        catch (HttpStatusException httpStatusException)
+        {
+            assertEquals(503, httpStatusException.getStatusCode());
+        }
+
+        assertEquals(2, spool.getSpooledCount());
+        assertEquals(2 * FRAME_SIZE, spool.getSpooledBytes());
+        spool.close(TIMEOUT);
+    }
+
+    @Test
+    public void streamRecordsNotSpooled()
+        throws Exception
+    {
+        UploadSpool spool = createSpool(_temporaryFolder.newFolder(), new RecordingUploader(), 1024L);
+
+        assertFalse(spool.append(new UploadRecord(new ByteArrayInputStream(new byte[1]), 1, null, null, null, null)));
+        assertEquals(0, spool.getSpooledCount());
+        spool.close(TIMEOUT);
+    }
+
+    @Test
+    public void pathRecordsSpooledByReference()
+        throws Exception
+    {
+        byte[] content = new byte[65536];
+        Arrays.fill(content, (byte) 'p');
+        Path file = _temporaryFolder.newFile("content").toPath();
+        Files.write(file, content);
+
+        File        directory = _temporaryFolder.newFolder();
+        UploadSpool spool     = createSpool(directory, new RecordingUploader(), 1024L);
+        assertTrue(spool.append(new UploadRecord(file, "content.txt", null, null, null)));
+        spool.close(TIMEOUT);
+        assertTrue("Content of file spooled", spool.getSpooledBytes() < 1024L);
+
+        RecordingUploader downstream = new RecordingUploader();
+        replay(directory, downstream, 1);
+
+        assertEquals(Arrays.asList(new String(content)), downstream.getContents());
+    }
+
+    @Test
+    public void pathRecordsOfRemovedFilesSkipped()
+        throws Exception
+    {
+        Path file = _temporaryFolder.newFile("removed").toPath();
+
+        File        directory = _temporaryFolder.newFolder();
+        UploadSpool spool     = createSpool(directory, new RecordingUploader(), 1024L);
+        assertTrue(spool.append(new UploadRecord(file, null, null, null, null)));
+        assertTrue(spool.append(record("1")));
+        spool.close(TIMEOUT);
+        Files.delete(file);
+
+        RecordingUploader downstream = new RecordingUploader();
+        replay(directory, downstream, 1);
+
+        assertEquals(Arrays.asList("1"), downstream.getContents());
+    }
+
+    @Test
+    public void syncPolicies()
+        throws Exception
+    {
+        assertEquals(SyncPolicy.ALWAYS, SyncPolicy.parse("always", SyncPolicy.NEVER));
+        assertEquals(SyncPolicy.NEVER, SyncPolicy.parse(" Never ", SyncPolicy.ALWAYS));
+        assertEquals(SyncPolicy.PERIODIC, SyncPolicy.parse(null, SyncPolicy.PERIODIC));
+        assertEquals(SyncPolicy.PERIODIC, SyncPolicy.parse("sometimes", SyncPolicy.PERIODIC));
+
+        for (SyncPolicy syncPolicy: SyncPolicy.values())
+        {
+            File directory = spoolRecords(syncPolicy, "1", "2");
+
+            RecordingUploader downstream = new RecordingUploader();
+            replay(directory, downstream, 2);
+
+            assertEquals("Sync policy " + syncPolicy, Arrays.asList("1", "2"), downstream.getContents());
+        }
+    }
+
+    private File spoolRecords(SyncPolicy syncPolicy, String... contents)
+        throws Exception
+    {
+        File        directory = _temporaryFolder.newFolder();
+        UploadSpool spool     = new UploadSpool("Test", directory, new RecordingUploader(), 1024L, 1024L, syncPolicy, 0L, 1, 3600000L);
+        for (String content: contents)
+            assertTrue(spool.append(record(content)));
+        spool.close(TIMEOUT);
+
+        assertEquals(1, segments(directory).length);
+        assertEquals(contents.length * FRAME_SIZE, segments(directory)[0].length());
+
+        return directory;
+    }
+
+    /**
+     * Starts a spool on the directory and waits for it to have uploaded the given number of records and finished its
+     * first replay round.
+     */
+    private static UploadSpool replay(File directory, RecordingUploader downstream, int uploadCount)
+        throws Exception
+    {
+        UploadSpool spool = createSpool(directory, downstream, 1024L);
+        spool.start();
+
+        assertTrue("Spooled records not replayed", downstream.awaitUploaded(uploadCount, TIMEOUT));
+        awaitSegments(spool, 0);
+        spool.close(TIMEOUT);
+
+        return spool;
+    }
+
+    private static UploadSpool createSpool(File directory, RecordingUploader downstream, long maxBytes)
+        throws IOException
+    {
+        return new UploadSpool("Test", directory, downstream, maxBytes, 1024L, SyncPolicy.PERIODIC, 1000L, 1, 3600000L);
+    }
+
+    private static void awaitSegments(UploadSpool spool, int segmentCount)
+        throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while ((spool.getSegmentCount() != segmentCount) && (System.currentTimeMillis() < deadline))
+            Thread.sleep(10L);
+
+        assertEquals(segmentCount, spool.getSegmentCount());
+    }
+
+    private static void appendToSegment(File directory, byte[] bytes)
+        throws IOException
+    {
+        Files.write(segments(directory)[0].toPath(), bytes, StandardOpenOption.APPEND);
+    }
+
+    private static File[] segments(File directory)
+    {
+        File[] segments = directory.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File directory, String name)
+            {
+                return name.endsWith(".seg");
+            }
+        });
+        Arrays.sort(segments);
+
+        return segments;
+    }
+}
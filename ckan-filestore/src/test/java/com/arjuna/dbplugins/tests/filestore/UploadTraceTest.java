@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2014-2015, Arjuna Technologies Limited, Newcastle-upon-Tyne, England. All rights reserved.
+ */
+
+package com.arjuna.dbplugins.tests.filestore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.arjuna.databroker.data.core.DataFlowNodeLifeCycleControl;
+import com.arjuna.dbplugins.ckan.filestore.FileStoreCKANDataService;
+import com.arjuna.dbplugins.dkan.filestore.FileStoreDKANDataService;
+import com.arjuna.dbplugins.filestore.RingBufferTraceSink;
+import com.arjuna.dbplugins.filestore.UploadTrace;
+import com.arjuna.dbutils.testsupport.dataflownodes.lifecycle.TestJEEDataFlowNodeLifeCycleControl;
+import org.risbic.dkan.PortalStubServer;
+
+/**
+ * Uploads to a portal stub with a fixed latency, checking that the phases traced for each upload account for roughly
+ * all of its duration, and no more: the time the phases cover, counting overlapping phases once, lies within a margin of
+ * the upload's duration.
+ */
+public class UploadTraceTest
+{
+    private static final long LATENCY = 100L;
+
+    // Time spent outside any phase, such as handing the record over and recording the metrics, in milliseconds
+    private static final long UNTRACED_MARGIN = 50L;
+
+    @Before
+    public void startStubServer()
+        throws Exception
+    {
+        _stubServer = new PortalStubServer(0);
+        _stubServer.start();
+        _stubServer.setLatency(LATENCY, 0L);
+
+        _dataFlowNodeLifeCycleControl = new TestJEEDataFlowNodeLifeCycleControl();
+        _traceSink                    = new RingBufferTraceSink(10);
+    }
+
+    @After
+    public void stopStubServer()
+    {
+        _stubServer.stop();
+    }
+
+    @Test
+    public void ckanPhasesCoverUpload()
+        throws Exception
+    {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(FileStoreCKANDataService.CKANROOTURL_PROPERTYNAME, _stubServer.getURL());
+        properties.put(FileStoreCKANDataService.PACKAGEID_PROPERTYNAME, "stub-package");
+        properties.put(FileStoreCKANDataService.APIKEY_PROPERTYNAME, PortalStubServer.API_KEY);
+
+        FileStoreCKANDataService fileStoreCKANDataService = new FileStoreCKANDataService("TracedCKANDataService", properties);
+        fileStoreCKANDataService.setTraceSink(_traceSink);
+        _dataFlowNodeLifeCycleControl.completeCreationAndActivateDataFlowNode(UUID.randomUUID().toString(), fileStoreCKANDataService, null);
+        try
+        {
+            fileStoreCKANDataService.consumeBytes("Traced record".getBytes());
+        }
+        finally
+        {
+            _dataFlowNodeLifeCycleControl.removeDataFlowNode(fileStoreCKANDataService);
+        }
+
+        // The CKAN phases run one after another, so they also sum to the duration
+        UploadTrace trace = onlyTrace();
+        assertCovered(trace);
+        assertWithinMargin(trace, sum(trace.getPhases()));
+    }
+
+    @Test
+    public void dkanPhasesCoverUpload()
+        throws Exception
+    {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(FileStoreDKANDataService.DKANROOTURL_PROPERTYNAME, _stubServer.getURL());
+        properties.put(FileStoreDKANDataService.PACKAGEID_PROPERTYNAME, "Stub Data Set");
+        properties.put(FileStoreDKANDataService.USERNAME_PROPERTYNAME, PortalStubServer.USERNAME);
+        properties.put(FileStoreDKANDataService.PASSWORD_PROPERTYNAME, PortalStubServer.PASSWORD);
+
+        FileStoreDKANDataService fileStoreDKANDataService = new FileStoreDKANDataService("TracedDKANDataService", properties);
+        fileStoreDKANDataService.setTraceSink(_traceSink);
+        _dataFlowNodeLifeCycleControl.completeCreationAndActivateDataFlowNode(UUID.randomUUID().toString(), fileStoreDKANDataService, null);
+        try
+        {
+            fileStoreDKANDataService.consumeBytes("Traced record".getBytes());
+        }
+        finally
+        {
+            _dataFlowNodeLifeCycleControl.removeDataFlowNode(fileStoreDKANDataService);
+        }
+
+        // The data set lookup overlaps the file upload, so the phases sum to more than the duration
+        UploadTrace trace = onlyTrace();
+        assertCovered(trace);
+        assertTrue(trace.toString(), sum(trace.getPhases()) > trace.getDuration());
+    }
+
+    private UploadTrace onlyTrace()
+    {
+        List<UploadTrace> traces = _traceSink.getRecent();
+        assertEquals(1, traces.size());
+        assertTrue(traces.get(0).isSucceeded());
+
+        return traces.get(0);
+    }
+
+    /**
+     * Checks that the phases of the trace cover its duration, within the margin, and each lies within the upload.
+     */
+    private static void assertCovered(UploadTrace trace)
+    {
+        assertTrue(trace.toString(), trace.getDuration() >= TimeUnit.MILLISECONDS.toNanos(LATENCY));
+        for (UploadTrace.Phase phase: trace.getPhases())
+            assertTrue(trace.toString(), phase.getOffset() + phase.getDuration() <= trace.getDuration());
+
+        assertWithinMargin(trace, covered(trace.getPhases()));
+    }
+
+    private static void assertWithinMargin(UploadTrace trace, long phasesDuration)
+    {
+        assertTrue(trace.toString(), phasesDuration <= trace.getDuration());
+        assertTrue(trace.toString(), trace.getDuration() - phasesDuration <= TimeUnit.MILLISECONDS.toNanos(UNTRACED_MARGIN));
+    }
+
+    private static long sum(List<UploadTrace.Phase> phases)
+    {
+        long sum = 0;
+        for (UploadTrace.Phase phase: phases)
+            sum += phase.getDuration();
+
+        return sum;
+    }
+
+    /**
+     * @return the nanoseconds covered by at least one of the phases
+     */
+    private static long covered(List<UploadTrace.Phase> phases)
+    {
+        List<UploadTrace.Phase> sortedPhases = new ArrayList<UploadTrace.Phase>(phases);
+        Collections.sort(sortedPhases, new Comparator<UploadTrace.Phase>()
+        {
+            @Override
+            public int compare(UploadTrace.Phase phase1, UploadTrace.Phase phase2)
+            {
+                return Long.compare(phase1.getOffset(), phase2.getOffset());
+            }
+        });
+
+        long covered = 0;
+        long coveredTo = 0;
+        for (UploadTrace.Phase phase: sortedPhases)
+        {
+            long start = Math.max(phase.getOffset(), coveredTo);
+            long end   = phase.getOffset() + phase.getDuration();
+            if (end > start)
+            {
+                covered  += end - start;
+                coveredTo = end;
+            }
+        }
+
+        return covered;
+    }
+
+    private PortalStubServer             _stubServer;
+    private DataFlowNodeLifeCycleControl _dataFlowNodeLifeCycleControl;
+    private RingBufferTraceSink          _traceSink;
+}
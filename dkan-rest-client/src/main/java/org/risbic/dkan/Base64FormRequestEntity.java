@@ -0,0 +1,294 @@
+/* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+* <p/>
+* http://www.apache.org/licenses/LICENSE-2.0
+* <p/>
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.risbic.dkan;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Form url-encoded body of a DKAN file create request, <code>file=&lt;base64&gt;&amp;filename=&lt;name&gt;</code>, with the
+ * file content base64 and url encoded on the fly while it is written to the connection. Memory use is fixed by the
+ * buffer sizes whatever the size of the file.
+ *
+ * Byte array and file sources are repeatable. A byte array is sent with an exact content length, counted in memory.
+ * The encoded length of a file depends on its content, as "+" and "/" are url encoded to three bytes where other
+ * characters take one, so rather than read the file twice it is sent chunked, as is a stream, which can be read only
+ * once. A stream is left open for its supplier to close.
+ */
+public class Base64FormRequestEntity implements RequestEntity
+{
+   private static final String CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+   private static final int INPUT_BUFFER_SIZE = 3 * 2048;
+
+   private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+   // Largest output of one 3 byte group, when all four characters need percent encoding
+   private static final int MAX_GROUP_OUTPUT = 12;
+
+   private static final byte[][] ENCODING = new byte[64][];
+
+   private static final byte[] PADDING = { '%', '3', 'D' };
+
+   private static final byte[] FILE_PREFIX = "file=".getBytes(StandardCharsets.US_ASCII);
+
+   static
+   {
+      String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+      for (int i = 0; i < alphabet.length(); i++)
+      {
+         ENCODING[i] = new byte[] { (byte) alphabet.charAt(i) };
+      }
+      ENCODING[62] = new byte[] { '%', '2', 'B' };
+      ENCODING[63] = new byte[] { '%', '2', 'F' };
+   }
+
+   private final byte[] data;
+
+   private final Path path;
+
+   private final InputStream stream;
+
+   private final long streamLength;
+
+   private final byte[] suffix;
+
+   private long contentLength = -2;
+
+   public Base64FormRequestEntity(byte[] data, String filename)
+   {
+      this(data, null, null, -1, filename);
+   }
+
+   public Base64FormRequestEntity(Path path, String filename)
+   {
+      this(null, path, null, -1, filename);
+   }
+
+   /**
+    * @param length the number of bytes to read from the stream, or -1 to read to the end of the stream
+    */
+   public Base64FormRequestEntity(InputStream stream, long length, String filename)
+   {
+      this(null, null, stream, length, filename);
+   }
+
+   private Base64FormRequestEntity(byte[] data, Path path, InputStream stream, long streamLength, String filename)
+   {
+      this.data = data;
+      this.path = path;
+      this.stream = stream;
+      this.streamLength = streamLength;
+      this.suffix = encodeSuffix(filename);
+   }
+
+   @Override
+   public boolean isRepeatable()
+   {
+      return stream == null;
+   }
+
+   @Override
+   public String getContentType()
+   {
+      return CONTENT_TYPE;
+   }
+
+   @Override
+   public synchronized long getContentLength()
+   {
+      if (contentLength == -2)
+      {
+         if (data != null)
+         {
+            try
+            {
+               contentLength = FILE_PREFIX.length + encode(new ByteArrayInputStream(data), -1, null) + suffix.length;
+            }
+            catch (IOException ioException)
+            {
+               contentLength = -1;
+            }
+         }
+         else
+         {
+            contentLength = -1;
+         }
+      }
+      return contentLength;
+   }
+
+   @Override
+   public void writeRequest(OutputStream out) throws IOException
+   {
+      out.write(FILE_PREFIX);
+      if (stream != null)
+      {
+         encode(stream, streamLength, out);
+      }
+      else
+      {
+         try (InputStream input = (data != null) ? new ByteArrayInputStream(data) : Files.newInputStream(path))
+         {
+            encode(input, -1, out);
+         }
+      }
+      out.write(suffix);
+   }
+
+   /**
+    * Base64 encodes, then url encodes, the input into the output, or just counts the encoded bytes if the output is null.
+    *
+    * @param length the number of input bytes to encode, or -1 to encode to the end of the input
+    * @return the number of bytes of encoded output
+    */
+   static long encode(InputStream input, long length, OutputStream output) throws IOException
+   {
+      byte[] in = new byte[INPUT_BUFFER_SIZE];
+      byte[] out = (output != null) ? new byte[OUTPUT_BUFFER_SIZE] : null;
+
+      long remaining = length;
+      long total = 0;
+      int pending = 0;
+      int outPos = 0;
+
+      while (remaining != 0)
+      {
+         int toRead = in.length - pending;
+         if (remaining > 0 && remaining < toRead)
+         {
+            toRead = (int) remaining;
+         }
+         int read = input.read(in, pending, toRead);
+         if (read == -1)
+         {
+            if (remaining > 0)
+            {
+               throw new EOFException("Stream ended " + remaining + " bytes before the declared length");
+            }
+            break;
+         }
+         if (remaining > 0)
+         {
+            remaining -= read;
+         }
+
+         int available = pending + read;
+         int whole = available - (available % 3);
+         for (int i = 0; i < whole; i += 3)
+         {
+            int bits = ((in[i] & 0xFF) << 16) | ((in[i + 1] & 0xFF) << 8) | (in[i + 2] & 0xFF);
+            if (out != null)
+            {
+               if (outPos > out.length - MAX_GROUP_OUTPUT)
+               {
+                  output.write(out, 0, outPos);
+                  total += outPos;
+                  outPos = 0;
+               }
+               outPos = put(out, outPos, ENCODING[(bits >>> 18) & 0x3F]);
+               outPos = put(out, outPos, ENCODING[(bits >>> 12) & 0x3F]);
+               outPos = put(out, outPos, ENCODING[(bits >>> 6) & 0x3F]);
+               outPos = put(out, outPos, ENCODING[bits & 0x3F]);
+            }
+            else
+            {
+               total += ENCODING[(bits >>> 18) & 0x3F].length + ENCODING[(bits >>> 12) & 0x3F].length
+                     + ENCODING[(bits >>> 6) & 0x3F].length + ENCODING[bits & 0x3F].length;
+            }
+         }
+
+         pending = available - whole;
+         for (int i = 0; i < pending; i++)
+         {
+            in[i] = in[whole + i];
+         }
+      }
+
+      if (out != null)
+      {
+         if (outPos > out.length - MAX_GROUP_OUTPUT)
+         {
+            output.write(out, 0, outPos);
+            total += outPos;
+            outPos = 0;
+         }
+      }
+
+      if (pending > 0)
+      {
+         int bits = (in[0] & 0xFF) << 16;
+         if (pending == 2)
+         {
+            bits |= (in[1] & 0xFF) << 8;
+         }
+         byte[][] group = new byte[4][];
+         group[0] = ENCODING[(bits >>> 18) & 0x3F];
+         group[1] = ENCODING[(bits >>> 12) & 0x3F];
+         group[2] = (pending == 2) ? ENCODING[(bits >>> 6) & 0x3F] : PADDING;
+         group[3] = PADDING;
+         for (byte[] encoded : group)
+         {
+            if (out != null)
+            {
+               outPos = put(out, outPos, encoded);
+            }
+            else
+            {
+               total += encoded.length;
+            }
+         }
+      }
+
+      if (out != null)
+      {
+         output.write(out, 0, outPos);
+         total += outPos;
+      }
+      return total;
+   }
+
+   private static int put(byte[] buffer, int position, byte[] encoded)
+   {
+      for (int i = 0; i < encoded.length; i++)
+      {
+         buffer[position++] = encoded[i];
+      }
+      return position;
+   }
+
+   private static byte[] encodeSuffix(String filename)
+   {
+      try
+      {
+         return ("&filename=" + URLEncoder.encode(filename, "UTF-8")).getBytes(StandardCharsets.US_ASCII);
+      }
+      catch (IOException ioException)
+      {
+         throw new IllegalStateException(ioException);
+      }
+   }
+}
@@ -0,0 +1,58 @@
+/* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+* <p/>
+* http://www.apache.org/licenses/LICENSE-2.0
+* <p/>
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.risbic.dkan;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a log in by a {@link DKANConnection}. Every log in is recorded, as each one delays the
+ * requests waiting on the session. Created through {@link DKANEvents}, so that this class is not loaded on a JVM
+ * without the flight recorder.
+ */
+@Name("org.risbic.dkan.Authentication")
+@Label("DKAN Authentication")
+@Category("DKAN")
+@Description("A log in to a DKAN portal")
+@StackTrace(false)
+public class DKANAuthenticationEvent extends jdk.jfr.Event implements DKANEvents.AuthenticationRecording
+{
+   @Label("Portal")
+   String url;
+
+   @Label("Username")
+   String username;
+
+   @Label("Status")
+   @Description("The response status, or -1 if no response was received")
+   int statusCode;
+
+   @Label("Authenticated")
+   boolean authenticated;
+
+   @Override
+   public void commit(String url, String username, int statusCode, boolean authenticated)
+   {
+      this.url = url;
+      this.username = username;
+      this.statusCode = statusCode;
+      this.authenticated = authenticated;
+      commit();
+   }
+}
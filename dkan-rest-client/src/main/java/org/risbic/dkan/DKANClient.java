@@ -23,4 +23,9 @@ public class DKANClient
    {
       return new DKANConnection(username, password, url);
    }
+
+   public static DKANConnection connect(String username, String password, String url, int maxConnectionsPerHost, int connectionTimeout, int socketTimeout) throws Exception
+   {
+      return new DKANConnection(username, password, url, maxConnectionsPerHost, connectionTimeout, socketTimeout);
+   }
 }
@@ -16,25 +16,48 @@
 
 package org.risbic.dkan;
 
-import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
 
 import javax.json.Json;
-import javax.json.JsonArray;
+import javax.json.JsonException;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 import javax.json.JsonStructure;
-import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
 import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.nio.file.Files;
-import java.util.Iterator;
-
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A connection to a DKAN server, which may be used by any number of threads at once. Requests are sent over a pool of
+ * HTTP connections, and all share the one session, which is renewed by whichever caller first finds it stale.
+ */
 public class DKANConnection
 {
    private static final String AUTH_PATH = "/api/action/datastore/user/login";
@@ -43,23 +66,94 @@ public class DKANConnection
 
    private static final String NODES_PATH = "/api/action/datastore/node";
 
-   private String url;
+   private static final long DEFAULT_DATASET_CACHE_TTL = 300000L;
+
+   public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+
+   public static final int DEFAULT_CONNECTION_TIMEOUT = 30000;
+
+   public static final int DEFAULT_SOCKET_TIMEOUT = 300000;
+
+   public static final int DEFAULT_NODE_PAGE_SIZE = 100;
+
+   public static final int DEFAULT_NODE_LISTING_PARALLELISM = 4;
+
+   private static final int MAX_NODE_PAGES = 100000;
+
+   private final String url;
+
+   private String username;
+
+   private String password;
+
+   private final MultiThreadedHttpConnectionManager connectionManager;
 
-   private HttpClient client;
+   private final HttpClient client;
 
-   private String csrfToken;
+   private final ExecutorService defaultExecutor;
 
-   private String cookie;
+   private volatile Executor executor;
+
+   private volatile DKANSession session;
+
+   private volatile long sessionTimeout;
+
+   private final DKANDataSetIndex dataSetIndex = new DKANDataSetIndex(DEFAULT_DATASET_CACHE_TTL);
+
+   private final ConcurrentMap<String, CompletableFuture<String>> dataSetLookups = new ConcurrentHashMap<>();
+
+   private final ForkJoinPool listingPool;
+
+   private volatile int nodePageSize = DEFAULT_NODE_PAGE_SIZE;
+
+   private volatile int nodeListingParallelism = DEFAULT_NODE_LISTING_PARALLELISM;
+
+   private final List<DKANConnectionListener> listeners = new CopyOnWriteArrayList<>();
 
    public DKANConnection(String username, String password, String url) throws Exception
+   {
+      this(username, password, url, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_CONNECTION_TIMEOUT, DEFAULT_SOCKET_TIMEOUT);
+   }
+
+   /**
+    * @param maxConnectionsPerHost the number of requests that may be in progress at once
+    * @param connectionTimeout     milliseconds to wait for a connection to be established, zero to wait indefinitely
+    * @param socketTimeout         milliseconds to wait for data from the server, zero to wait indefinitely
+    */
+   public DKANConnection(String username, String password, String url, int maxConnectionsPerHost, int connectionTimeout, int socketTimeout) throws Exception
    {
       this.url = url;
-      client = new HttpClient();
+
+      connectionManager = new MultiThreadedHttpConnectionManager();
+      connectionManager.getParams().setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+      connectionManager.getParams().setMaxTotalConnections(maxConnectionsPerHost);
+      connectionManager.getParams().setConnectionTimeout(connectionTimeout);
+      connectionManager.getParams().setSoTimeout(socketTimeout);
+      client = new HttpClient(connectionManager);
+
+      defaultExecutor = Executors.newCachedThreadPool(runnable ->
+      {
+         Thread thread = new Thread(runnable, "DKANConnection-" + url);
+         thread.setDaemon(true);
+         return thread;
+      });
+      executor = defaultExecutor;
+
+      // Listing pages are fetched on their own pool, never larger than the connection pool
+      listingPool = new ForkJoinPool(maxConnectionsPerHost);
+
       authenticate(username, password);
    }
 
-   public boolean authenticate(String username, String password) throws IOException
+   /**
+    * Logs in, replacing the current session. Requests in progress keep the session they started with, and the new
+    * session is only published once it is complete.
+    */
+   public synchronized boolean authenticate(String username, String password) throws IOException
    {
+      this.username = username;
+      this.password = password;
+
       String endpoint = url + AUTH_PATH;
       PostMethod post = new PostMethod(endpoint);
       post.setRequestHeader("Accept", "application/json");
@@ -70,34 +164,187 @@ public class DKANConnection
 
       post.setRequestBody(data);
 
-      client.executeMethod(post);
-      cookie = post.getResponseHeader("Set-Cookie").getValue();
-      this.csrfToken = ((JsonObject) readJSONResponse(post, false)).getString("token");
+      DKANSession renewed = null;
+      DKANEvents.AuthenticationRecording event = DKANEvents.beginAuthentication();
+      long startTime = System.nanoTime();
+      int status = -1;
+      try
+      {
+         status = client.executeMethod(post);
+         if (status == HttpStatus.SC_OK)
+         {
+            Header cookieHeader = post.getResponseHeader("Set-Cookie");
+            String csrfToken = ((JsonObject) readJSONResponse(post, false)).getString("token", null);
+            if (cookieHeader != null && csrfToken != null)
+            {
+               renewed = new DKANSession(cookieHeader.getValue(), csrfToken);
+            }
+         }
+      }
+      finally
+      {
+         post.releaseConnection();
+         fireOperationCompleted("authenticate", startTime, status);
+
+         event.commit(url, username, status, renewed != null);
+      }
+      session = renewed;
 
-      return csrfToken != null;
+      return renewed != null;
+   }
+
+   /**
+    * Closes the pooled HTTP connections. The connection cannot be used afterwards.
+    */
+   public void close()
+   {
+      defaultExecutor.shutdown();
+      listingPool.shutdown();
+      connectionManager.shutdown();
+   }
+
+   /**
+    * Adds a listener to be told of each operation as it completes. Listeners are called on the thread performing the
+    * operation, so should return quickly.
+    */
+   public void addListener(DKANConnectionListener listener)
+   {
+      listeners.add(listener);
+   }
+
+   public void removeListener(DKANConnectionListener listener)
+   {
+      listeners.remove(listener);
+   }
+
+   /**
+    * Sets the executor on which the asynchronous operations run. By default each connection has its own pool of daemon
+    * threads. The number of requests in progress at once is still limited by the connection pool.
+    */
+   public void setExecutor(Executor executor)
+   {
+      this.executor = (executor != null) ? executor : defaultExecutor;
+   }
+
+   public Executor getExecutor()
+   {
+      return executor;
    }
 
    public boolean authenticated()
    {
-      return csrfToken != null;
+      return session != null;
+   }
+
+   public DKANSession getSession()
+   {
+      return session;
+   }
+
+   /**
+    * Sets the age, in milliseconds, after which the session is renewed before the next request is sent. A value of zero
+    * or less keeps the session until the server rejects it.
+    */
+   public void setSessionTimeout(long sessionTimeout)
+   {
+      this.sessionTimeout = sessionTimeout;
+   }
+
+   public long getSessionTimeout()
+   {
+      return sessionTimeout;
+   }
+
+   /**
+    * Sets how long, in milliseconds, a data set title to node id mapping is trusted before the node listing is consulted
+    * again. A value of zero or less disables the cache.
+    */
+   public void setDataSetCacheTimeToLive(long timeToLive)
+   {
+      dataSetIndex.setTimeToLive(timeToLive);
+   }
+
+   public long getDataSetCacheTimeToLive()
+   {
+      return dataSetIndex.getTimeToLive();
+   }
+
+   public void invalidateDataSetCache()
+   {
+      dataSetIndex.invalidateAll();
+   }
+
+   public void invalidateDataSet(String title)
+   {
+      dataSetIndex.invalidate(title);
    }
 
    public String createFile(File file) throws IOException
    {
-      return createFile(Files.readAllBytes(file.toPath()), file.getName());
+      return createFile(file.toPath());
+   }
+
+   public String createFile(Path path) throws IOException
+   {
+      return createFile(path, path.getFileName().toString());
+   }
+
+   public String createFile(Path path, String filename) throws IOException
+   {
+      return createFile(new Base64FormRequestEntity(path, filename));
+   }
+
+   /**
+    * Creates a file from the content of the stream. The stream can only be sent once, so if the server rejects the
+    * session the session is renewed but the upload is not repeated, and null is returned as for any other failure.
+    *
+    * @param length the number of bytes to read from the stream, or -1 to read to the end of the stream
+    */
+   public String createFile(InputStream data, long length, String filename) throws IOException
+   {
+      return createFile(new Base64FormRequestEntity(data, length, filename));
    }
 
    public String createFile(byte[] data, String filename) throws IOException
+   {
+      return createFile(new Base64FormRequestEntity(data, filename));
+   }
+
+   private String createFile(Base64FormRequestEntity requestEntity) throws IOException
    {
       PostMethod post = createPostMethod(url + FILE_PATH);
-      post.addParameter("file", encodeData(data));
-      post.addParameter("filename", filename);
+      post.setRequestEntity(requestEntity);
 
-      if(client.executeMethod(post) == 200)
+      try
       {
-         return ((JsonObject) readJSONResponse(post, false)).getString("fid");
+         if(executeMethod("createFile", post) == 200)
+         {
+            return ((JsonObject) readJSONResponse(post, false)).getString("fid");
+         }
+         return null;
+      }
+      finally
+      {
+         post.releaseConnection();
       }
-      return null;
+   }
+
+   public CompletableFuture<String> createFileAsync(Path path, String filename)
+   {
+      return supplyAsync(() -> createFile(path, filename));
+   }
+
+   /**
+    * @param length the number of bytes to read from the stream, or -1 to read to the end of the stream
+    */
+   public CompletableFuture<String> createFileAsync(InputStream data, long length, String filename)
+   {
+      return supplyAsync(() -> createFile(data, length, filename));
+   }
+
+   public CompletableFuture<String> createFileAsync(byte[] data, String filename)
+   {
+      return supplyAsync(() -> createFile(data, filename));
    }
 
    public String createDataSet(String title, String description) throws IOException
@@ -107,11 +354,23 @@ public class DKANConnection
       post.addParameter("title", title);
       post.addParameter("body[und][0][value]", description);
 
-      if(client.executeMethod(post) == 200)
+      try
       {
-         return ((JsonObject) readJSONResponse(post, false)).getString("nid");
+         if(executeMethod("createDataSet", post) == 200)
+         {
+            String dataSetId = ((JsonObject) readJSONResponse(post, false)).getString("nid");
+            if (dataSetId != null)
+            {
+               dataSetIndex.put(title, dataSetId);
+            }
+            return dataSetId;
+         }
+         return null;
+      }
+      finally
+      {
+         post.releaseConnection();
       }
-      return null;
    }
 
    public String createResourceByDataSetId(String title, String description, String dataSetId, String fileId) throws IOException
@@ -123,11 +382,18 @@ public class DKANConnection
       post.addParameter("field_dataset_ref[und][]", dataSetId);
       post.addParameter("field_link_remote_file[und][0][fid]", fileId);
 
-      if(client.executeMethod(post) == 200)
+      try
       {
-         return ((JsonObject) readJSONResponse(post, false)).getString("nid");
+         if(executeMethod("createResourceByDataSetId", post) == 200)
+         {
+            return ((JsonObject) readJSONResponse(post, false)).getString("nid");
+         }
+         return null;
+      }
+      finally
+      {
+         post.releaseConnection();
       }
-      return null;
    }
 
    public String createResourceByDataSetTitle(String title, String description, String dataSetTitle, String fileId) throws IOException
@@ -135,31 +401,189 @@ public class DKANConnection
       String dataSetId = findOrCreateDataSetByTitle(dataSetTitle);
       if (dataSetId != null)
       {
-         return createResourceByDataSetId(title, description, dataSetId, fileId);
+         String resourceId = createResourceByDataSetId(title, description, dataSetId, fileId);
+         if (resourceId == null)
+         {
+            // The cached node id may refer to a data set that has since been removed
+            dataSetIndex.invalidate(dataSetTitle);
+         }
+         return resourceId;
       }
       return null;
    }
 
+   public CompletableFuture<String> createResourceByDataSetIdAsync(String title, String description, String dataSetId, String fileId)
+   {
+      return supplyAsync(() -> createResourceByDataSetId(title, description, dataSetId, fileId));
+   }
+
+   /**
+    * Creates a resource for the file in the titled data set. The data set is looked up, or created, while the file is
+    * still being uploaded, so the two requests overlap rather than following one another. Completes with null if the
+    * file, the data set or the resource could not be created.
+    *
+    * @param fileId the file id, as completed by one of the createFileAsync methods
+    */
+   public CompletableFuture<String> createResourceByDataSetTitleAsync(String title, String description, String dataSetTitle, CompletionStage<String> fileId)
+   {
+      CompletableFuture<String> dataSetId = findOrCreateDataSetByTitleAsync(dataSetTitle);
+
+      return fileId.toCompletableFuture().thenCombineAsync(dataSetId, (file, dataSet) -> call(() ->
+      {
+         if (file == null || dataSet == null)
+         {
+            return null;
+         }
+
+         String resourceId = createResourceByDataSetId(title, description, dataSet, file);
+         if (resourceId == null)
+         {
+            // The cached node id may refer to a data set that has since been removed
+            dataSetIndex.invalidate(dataSetTitle);
+         }
+         return resourceId;
+      }), executor);
+   }
+
+   public CompletableFuture<String> findOrCreateDataSetByTitleAsync(String title)
+   {
+      CompletableFuture<String> inFlight = dataSetLookups.get(title);
+      if (inFlight != null)
+      {
+         return inFlight;
+      }
+      return supplyAsync(() -> findOrCreateDataSetByTitle(title));
+   }
+
+   /**
+    * Returns the node id of the titled data set, creating the data set if there is none. Concurrent calls for the same
+    * title share a single lookup, and creation, so they all receive the same node id and no duplicate data sets are
+    * created.
+    */
    public String findOrCreateDataSetByTitle(String title) throws IOException
    {
-      GetMethod get = createGetMethod(url + NODES_PATH);
-      client.executeMethod(get);
-      JsonArray dataSets = ((JsonArray) readJSONResponse(get, true));
+      DKANEvents.DataSetResolutionRecording event = DKANEvents.beginDataSetResolution();
 
-      String dataSetId = null;
+      String dataSetId = dataSetIndex.get(title);
+      if (dataSetId != null)
+      {
+         event.setSource("cache");
+         event.commit(url, title, dataSetId);
+         return dataSetId;
+      }
+
+      long startTime = System.nanoTime();
+      int status = -1;
+      try
+      {
+         dataSetId = findOrCreateDataSet(title, event);
+         status = HttpStatus.SC_OK;
+         return dataSetId;
+      }
+      finally
+      {
+         fireOperationCompleted("findOrCreateDataSetByTitle", startTime, status);
+         event.commit(url, title, dataSetId);
+      }
+   }
+
+   private String findOrCreateDataSet(String title, DKANEvents.DataSetResolutionRecording event) throws IOException
+   {
+      String dataSetId;
+      CompletableFuture<String> lookup = new CompletableFuture<>();
+      CompletableFuture<String> inFlight = dataSetLookups.putIfAbsent(title, lookup);
+      if (inFlight != null)
+      {
+         event.setSource("shared");
+         return await(inFlight);
+      }
 
-      Iterator<JsonValue> i = dataSets.iterator();
-      while(i.hasNext())
+      try
       {
-         JsonValue value =  i.next();
-         if (value instanceof JsonObject)
+         // A lookup for the title may have completed between the cache miss and this lookup being registered
+         dataSetId = dataSetIndex.get(title);
+         if (dataSetId == null)
          {
-            JsonObject dataSet = (JsonObject) value;
-            if (dataSet.getString("type").equals("dataset") && dataSet.getString("title").equals(title))
-            {
-               dataSetId = dataSet.getString("nid");
-            }
+            event.setSource("portal");
+            dataSetId = lookupOrCreateDataSet(title);
          }
+         else
+         {
+            event.setSource("cache");
+         }
+         lookup.complete(dataSetId);
+         return dataSetId;
+      }
+      catch (IOException | RuntimeException e)
+      {
+         lookup.completeExceptionally(e);
+         throw e;
+      }
+      finally
+      {
+         dataSetLookups.remove(title, lookup);
+      }
+   }
+
+   /**
+    * Returns one page of the node listing, filtered by the parameters, for example "type" and "title". A server which
+    * does not support a filter returns nodes that do not match it, so callers should check the nodes they are given.
+    *
+    * @param page     the page to return, counting from zero
+    * @param pageSize the number of nodes on each page
+    */
+   public List<DKANNode> queryNodes(Map<String, String> parameters, int page, int pageSize) throws IOException
+   {
+      List<DKANNode> nodes = new ArrayList<>();
+      scanNodes(parameters, page, pageSize, node ->
+      {
+         nodes.add(node);
+         return false;
+      });
+      return nodes;
+   }
+
+   /**
+    * Sets the number of nodes requested on each page of a node listing.
+    */
+   public void setNodePageSize(int nodePageSize)
+   {
+      this.nodePageSize = nodePageSize;
+   }
+
+   public int getNodePageSize()
+   {
+      return nodePageSize;
+   }
+
+   /**
+    * Sets the number of pages fetched at once when the whole node listing has to be crawled.
+    */
+   public void setNodeListingParallelism(int nodeListingParallelism)
+   {
+      this.nodeListingParallelism = Math.max(1, nodeListingParallelism);
+   }
+
+   public int getNodeListingParallelism()
+   {
+      return nodeListingParallelism;
+   }
+
+   private String lookupOrCreateDataSet(String title) throws IOException
+   {
+      // A filtered query finds the data set without listing the whole portal, but a server which ignores the filter
+      // answers with an arbitrary page of nodes, which proves nothing about the data set's absence
+      Map<String, String> parameters = new LinkedHashMap<>();
+      parameters.put("type", "dataset");
+      parameters.put("title", title);
+
+      DataSetScan scan = new DataSetScan(title);
+      scanNodes(parameters, 0, nodePageSize, scan);
+
+      String dataSetId = scan.dataSetId;
+      if (dataSetId == null && scan.unfiltered)
+      {
+         dataSetId = crawlDataSets(title);
       }
 
       if (dataSetId == null)
@@ -169,30 +593,417 @@ public class DKANConnection
       return dataSetId;
    }
 
-   private static String encodeData(byte[] data) throws UnsupportedEncodingException
+   /**
+    * Crawls the data set listing a page at a time, fetching several pages at once, until the titled data set is found or
+    * the listing ends. Every data set seen is added to the index, so later lookups of other titles are served from the
+    * cache.
+    *
+    * @return the id of the data set, or null if the listing ended without it
+    * @throws IOException if the listing has not ended after {@link #MAX_NODE_PAGES} pages
+    */
+   private String crawlDataSets(String title) throws IOException
+   {
+      Map<String, String> parameters = Collections.singletonMap("type", "dataset");
+      int pageSize = nodePageSize;
+      int parallelism = nodeListingParallelism;
+
+      String firstNid = null;
+      for (int firstPage = 0; firstPage < MAX_NODE_PAGES; firstPage += parallelism)
+      {
+         List<CompletableFuture<DataSetScan>> pages = new ArrayList<>(parallelism);
+         for (int page = firstPage; page < firstPage + parallelism; page++)
+         {
+            int pageNumber = page;
+            pages.add(CompletableFuture.supplyAsync(() -> call(() ->
+            {
+               DataSetScan scan = new DataSetScan(title);
+               scanNodes(parameters, pageNumber, pageSize, scan);
+               return scan;
+            }), listingPool));
+         }
+
+         String dataSetId = null;
+         boolean lastPage = false;
+         for (int page = 0; page < pages.size(); page++)
+         {
+            DataSetScan scan = await(pages.get(page));
+            if (scan.dataSetId != null)
+            {
+               dataSetId = scan.dataSetId;
+            }
+
+            // A short page ends the listing, as does a repeat of the first page, from a server which ignores paging and
+            // sends the same page, or everything, every time
+            if (firstPage + page == 0)
+            {
+               firstNid = scan.firstNid;
+            }
+            else if (firstNid != null && firstNid.equals(scan.firstNid))
+            {
+               lastPage = true;
+            }
+            if (scan.nodeCount < pageSize)
+            {
+               lastPage = true;
+            }
+         }
+
+         if (dataSetId != null || lastPage)
+         {
+            return dataSetId;
+         }
+      }
+
+      // Not having seen the end of the listing proves nothing about the data set's absence, so it must not be created
+      throw new IOException("Node listing of " + url + " did not end within " + MAX_NODE_PAGES + " pages");
+   }
+
+   /**
+    * Streams over a page of the node listing, passing each node to the visitor until the visitor asks to stop. Nodes are
+    * read one at a time and never built into a tree, and once the visitor stops the rest of the page is not read at all:
+    * the connection is aborted rather than drained.
+    *
+    * @return the number of nodes visited
+    * @throws DKANException if the listing is answered with a status other than 200
+    */
+   private int scanNodes(Map<String, String> parameters, int page, int pageSize, NodeVisitor visitor) throws IOException
+   {
+      List<NameValuePair> query = new ArrayList<>();
+      for (Map.Entry<String, String> parameter : parameters.entrySet())
+      {
+         query.add(new NameValuePair("parameters[" + parameter.getKey() + "]", parameter.getValue()));
+      }
+      query.add(new NameValuePair("page", Integer.toString(page)));
+      query.add(new NameValuePair("pagesize", Integer.toString(pageSize)));
+
+      GetMethod get = createGetMethod(url + NODES_PATH);
+      get.setQueryString(query.toArray(new NameValuePair[query.size()]));
+      try
+      {
+         int status = executeMethod("listNodes", get);
+         if (status != HttpStatus.SC_OK)
+         {
+            throw new DKANException(get.getName() + " " + get.getPath() + " failed: " + status, status);
+         }
+         return scanNodes(get, visitor);
+      }
+      finally
+      {
+         get.releaseConnection();
+      }
+   }
+
+   private int scanNodes(HttpMethod method, NodeVisitor visitor) throws IOException
+   {
+      InputStream responseBody = method.getResponseBodyAsStream();
+      if (responseBody == null)
+      {
+         throw new IOException("Node listing has no content");
+      }
+
+      JsonParser parser = Json.createParser(responseBody);
+      try
+      {
+         if (! parser.hasNext() || parser.next() != JsonParser.Event.START_ARRAY)
+         {
+            throw new IOException("Node listing is not an array");
+         }
+
+         int nodeCount = 0;
+         int depth = 1;
+         String key = null;
+         String type = null;
+         String title = null;
+         String nid = null;
+         while (parser.hasNext())
+         {
+            JsonParser.Event event = parser.next();
+            switch (event)
+            {
+               case START_OBJECT:
+               case START_ARRAY:
+                  depth++;
+                  if (depth == 2)
+                  {
+                     key = null;
+                     type = null;
+                     title = null;
+                     nid = null;
+                  }
+                  break;
+               case END_OBJECT:
+               case END_ARRAY:
+                  if (depth == 2)
+                  {
+                     nodeCount++;
+                     if (visitor.visit(new DKANNode(nid, type, title)))
+                     {
+                        method.abort();
+                        return nodeCount;
+                     }
+                  }
+                  depth--;
+                  break;
+               case KEY_NAME:
+                  key = parser.getString();
+                  break;
+               case VALUE_STRING:
+               case VALUE_NUMBER:
+                  if (depth == 2)
+                  {
+                     if ("type".equals(key))
+                     {
+                        type = parser.getString();
+                     }
+                     else if ("title".equals(key))
+                     {
+                        title = parser.getString();
+                     }
+                     else if ("nid".equals(key))
+                     {
+                        nid = parser.getString();
+                     }
+                  }
+                  break;
+               default:
+                  break;
+            }
+         }
+         parser.close();
+
+         return nodeCount;
+      }
+      catch (JsonException e)
+      {
+         throw new IOException("Unable to read node listing", e);
+      }
+   }
+
+   private interface NodeVisitor
+   {
+      /**
+       * @return true to stop reading the listing
+       */
+      boolean visit(DKANNode node);
+   }
+
+   /**
+    * Adds each data set of a listing to the index, stopping at the titled data set, and notes whether the listing held
+    * nodes other than the titled data set.
+    */
+   private class DataSetScan implements NodeVisitor
+   {
+      private final String title;
+
+      private String dataSetId;
+
+      private String firstNid;
+
+      private int nodeCount;
+
+      private boolean unfiltered;
+
+      private DataSetScan(String title)
+      {
+         this.title = title;
+      }
+
+      @Override
+      public boolean visit(DKANNode node)
+      {
+         if (nodeCount++ == 0)
+         {
+            firstNid = node.getNid();
+         }
+
+         boolean dataSet = "dataset".equals(node.getType()) && node.getTitle() != null && node.getNid() != null;
+         if (dataSet)
+         {
+            dataSetIndex.put(node.getTitle(), node.getNid());
+         }
+         if (dataSet && node.getTitle().equals(title))
+         {
+            dataSetId = node.getNid();
+            return true;
+         }
+
+         unfiltered = true;
+         return false;
+      }
+   }
+
+   private static <T> T await(CompletableFuture<T> future) throws IOException
    {
-      return new String(Base64.encodeBase64(data), "UTF-8");
+      try
+      {
+         return future.join();
+      }
+      catch (CompletionException e)
+      {
+         if (e.getCause() instanceof IOException)
+         {
+            throw (IOException) e.getCause();
+         }
+         if (e.getCause() instanceof RuntimeException)
+         {
+            throw (RuntimeException) e.getCause();
+         }
+         throw new IOException(e.getCause());
+      }
+   }
+
+   private <T> CompletableFuture<T> supplyAsync(IOSupplier<T> supplier)
+   {
+      return CompletableFuture.supplyAsync(() -> call(supplier), executor);
+   }
+
+   private static <T> T call(IOSupplier<T> supplier)
+   {
+      try
+      {
+         return supplier.get();
+      }
+      catch (IOException e)
+      {
+         throw new CompletionException(e);
+      }
+   }
+
+   private interface IOSupplier<T>
+   {
+      T get() throws IOException;
    }
 
    private PostMethod createPostMethod(String url)
    {
       PostMethod post = new PostMethod(url);
-      post.setRequestHeader("X-CSRF-Token", csrfToken);
       post.setRequestHeader("Content-type", "application/x-www-form-urlencoded");
       post.setRequestHeader("Accept", "application/json");
-      post.setRequestHeader("Cookie", cookie);
       return post;
    }
 
    private GetMethod createGetMethod(String url)
    {
       GetMethod get = new GetMethod(url);
-      get.setRequestHeader("X-CSRF-Token", csrfToken);
       get.setRequestHeader("Accept", "application/json");
-      get.setRequestHeader("Cookie", cookie);
       return get;
    }
 
+   /**
+    * Executes the method within the current session. An expired session is renewed before the request is sent, and a
+    * request rejected with 401 or 403 is sent once more after logging in again. A request whose body cannot be repeated,
+    * such as a file read from a stream, is not sent again: the session is still renewed, but the 401 or 403 is returned
+    * for the caller to decide whether to retry.
+    *
+    * The caller must release the method's connection once the response has been read.
+    *
+    * @throws DKANException if the server answers with a 5xx status
+    */
+   private int executeMethod(String operation, HttpMethodBase method) throws IOException
+   {
+      DKANSession current = session;
+      if (current == null || current.isExpired(sessionTimeout))
+      {
+         current = reauthenticate(current);
+      }
+
+      DKANEvents.RequestRecording event = DKANEvents.beginRequest();
+      long startTime = System.nanoTime();
+      int status = -1;
+      try
+      {
+         applySession(method, current);
+         status = client.executeMethod(method);
+
+         if (status == HttpStatus.SC_UNAUTHORIZED || status == HttpStatus.SC_FORBIDDEN)
+         {
+            method.releaseConnection();
+
+            DKANSession renewed = reauthenticate(current);
+            if (isRepeatable(method))
+            {
+               applySession(method, renewed);
+               status = client.executeMethod(method);
+            }
+         }
+      }
+      finally
+      {
+         fireOperationCompleted(operation, startTime, status);
+
+         event.end();
+         if (event.shouldCommit())
+         {
+            event.commit(operation, url, method.getPath(), requestLength(method), status);
+         }
+      }
+
+      if (status >= HttpStatus.SC_INTERNAL_SERVER_ERROR)
+      {
+         method.releaseConnection();
+         throw new DKANException(method.getName() + " " + method.getPath() + " failed: " + status, status);
+      }
+      return status;
+   }
+
+   private static boolean isRepeatable(HttpMethodBase method)
+   {
+      if (method instanceof EntityEnclosingMethod)
+      {
+         RequestEntity requestEntity = ((EntityEnclosingMethod) method).getRequestEntity();
+         return requestEntity == null || requestEntity.isRepeatable();
+      }
+      return true;
+   }
+
+   private static long requestLength(HttpMethodBase method)
+   {
+      if (method instanceof EntityEnclosingMethod)
+      {
+         RequestEntity requestEntity = ((EntityEnclosingMethod) method).getRequestEntity();
+         if (requestEntity != null)
+         {
+            return requestEntity.getContentLength();
+         }
+      }
+      return 0;
+   }
+
+   private void fireOperationCompleted(String operation, long startTime, int statusCode)
+   {
+      if (listeners.isEmpty())
+      {
+         return;
+      }
+
+      long endTime = System.nanoTime();
+      for (DKANConnectionListener listener : listeners)
+      {
+         listener.operationCompleted(operation, startTime, endTime, statusCode);
+      }
+   }
+
+   /**
+    * Logs in again, unless another caller has already replaced the stale session.
+    */
+   private synchronized DKANSession reauthenticate(DKANSession stale) throws IOException
+   {
+      if (session == stale && username != null)
+      {
+         authenticate(username, password);
+      }
+      return session;
+   }
+
+   private static void applySession(HttpMethodBase method, DKANSession session)
+   {
+      if (session != null)
+      {
+         method.setRequestHeader("X-CSRF-Token", session.getCsrfToken());
+         method.setRequestHeader("Cookie", session.getCookie());
+      }
+   }
+
    private JsonStructure readJSONResponse(HttpMethod method, boolean array) throws IOException
    {
       JsonReader jsonReader = Json.createReader(method.getResponseBodyAsStream());
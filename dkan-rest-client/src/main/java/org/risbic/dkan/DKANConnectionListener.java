@@ -0,0 +1,36 @@
+/* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+* <p/>
+* http://www.apache.org/licenses/LICENSE-2.0
+* <p/>
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.risbic.dkan;
+
+/**
+ * Notified as a {@link DKANConnection} completes each operation, on the thread that performed it, so the time taken can
+ * be attributed to the work that caused it. Times are {@link System#nanoTime()} values.
+ */
+public interface DKANConnectionListener
+{
+   /**
+    * @param operation  "authenticate", "createFile", "createDataSet", "createResourceByDataSetId" or "listNodes", each a
+    *                   single request timed until its response status is received, or "findOrCreateDataSetByTitle", which
+    *                   spans the listing and creation requests of a data set lookup
+    *                   that missed the cache
+    * @param startTime  when the operation started
+    * @param endTime    when the operation completed
+    * @param statusCode the response status, or -1 if no response was received; 200 for a data set lookup that
+    *                   completed without error
+    */
+   void operationCompleted(String operation, long startTime, long endTime, int statusCode);
+}
@@ -0,0 +1,104 @@
+/* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+* <p/>
+* http://www.apache.org/licenses/LICENSE-2.0
+* <p/>
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.risbic.dkan;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of data set title to node id, each entry valid for a fixed time to live.
+ */
+public class DKANDataSetIndex
+{
+   private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+   private volatile long timeToLive;
+
+   public DKANDataSetIndex(long timeToLive)
+   {
+      this.timeToLive = timeToLive;
+   }
+
+   /**
+    * @return the node id for the title, or null if it is not cached or the entry has expired
+    */
+   public String get(String title)
+   {
+      Entry entry = entries.get(title);
+      if (entry == null)
+      {
+         return null;
+      }
+      if (entry.isExpired(timeToLive))
+      {
+         entries.remove(title, entry);
+         return null;
+      }
+      return entry.nid;
+   }
+
+   public void put(String title, String nid)
+   {
+      entries.put(title, new Entry(nid));
+   }
+
+   public void invalidate(String title)
+   {
+      entries.remove(title);
+   }
+
+   public void invalidateAll()
+   {
+      entries.clear();
+   }
+
+   public int size()
+   {
+      return entries.size();
+   }
+
+   public long getTimeToLive()
+   {
+      return timeToLive;
+   }
+
+   /**
+    * Sets how long, in milliseconds, an entry stays valid. A value of zero or less disables caching.
+    */
+   public void setTimeToLive(long timeToLive)
+   {
+      this.timeToLive = timeToLive;
+   }
+
+   private static final class Entry
+   {
+      private final String nid;
+
+      private final long createdAt;
+
+      private Entry(String nid)
+      {
+         this.nid = nid;
+         this.createdAt = System.currentTimeMillis();
+      }
+
+      private boolean isExpired(long timeToLive)
+      {
+         return timeToLive <= 0 || System.currentTimeMillis() - createdAt >= timeToLive;
+      }
+   }
+}
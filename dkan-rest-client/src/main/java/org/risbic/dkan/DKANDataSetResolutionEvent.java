@@ -0,0 +1,66 @@
+/* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+* <p/>
+* http://www.apache.org/licenses/LICENSE-2.0
+* <p/>
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.risbic.dkan;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for the resolution of a data set title to its node id, from the cache, by waiting on a lookup
+ * already in progress, or by listing, and perhaps creating, data sets. Only resolutions taking at least the threshold,
+ * 10 ms unless the recording says otherwise, are recorded, so cache hits are normally left out. Created through
+ * {@link DKANEvents}, so that this class is not loaded on a JVM without the flight recorder.
+ */
+@Name("org.risbic.dkan.DataSetResolution")
+@Label("DKAN Data Set Resolution")
+@Category("DKAN")
+@Description("The lookup, or creation, of a DKAN data set by title")
+@Threshold("10 ms")
+@StackTrace(false)
+public class DKANDataSetResolutionEvent extends jdk.jfr.Event implements DKANEvents.DataSetResolutionRecording
+{
+   @Label("Portal")
+   String url;
+
+   @Label("Data Set Title")
+   String dataSetTitle;
+
+   @Label("Data Set Id")
+   String dataSetId;
+
+   @Label("Source")
+   @Description("\"cache\", \"shared\" for a lookup already in progress, or \"portal\"")
+   String source;
+
+   @Override
+   public void setSource(String source)
+   {
+      this.source = source;
+   }
+
+   @Override
+   public void commit(String url, String dataSetTitle, String dataSetId)
+   {
+      this.url = url;
+      this.dataSetTitle = dataSetTitle;
+      this.dataSetId = dataSetId;
+      commit();
+   }
+}
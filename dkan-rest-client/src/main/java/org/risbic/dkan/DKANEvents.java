@@ -0,0 +1,156 @@
+/* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+* <p/>
+* http://www.apache.org/licenses/LICENSE-2.0
+* <p/>
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.risbic.dkan;
+
+/**
+ * Begins the flight recorder events of a {@link DKANConnection}. The events extend jdk.jfr.Event, which is missing from
+ * Java 8 releases before 8u262, so they are only created when that class can be loaded; otherwise a recording which
+ * does nothing is returned, and the event classes are never loaded.
+ */
+final class DKANEvents
+{
+   private static final boolean FLIGHT_RECORDER_AVAILABLE = loadFlightRecorder();
+
+   private static final NoRecording NO_RECORDING = new NoRecording();
+
+   private DKANEvents()
+   {
+   }
+
+   /**
+    * A request being recorded, see {@link DKANRequestEvent}.
+    */
+   interface RequestRecording
+   {
+      void end();
+
+      boolean shouldCommit();
+
+      void commit(String operation, String url, String path, long bytes, int statusCode);
+   }
+
+   /**
+    * A log in being recorded, see {@link DKANAuthenticationEvent}.
+    */
+   interface AuthenticationRecording
+   {
+      void commit(String url, String username, int statusCode, boolean authenticated);
+   }
+
+   /**
+    * A data set resolution being recorded, see {@link DKANDataSetResolutionEvent}.
+    */
+   interface DataSetResolutionRecording
+   {
+      void setSource(String source);
+
+      void commit(String url, String dataSetTitle, String dataSetId);
+   }
+
+   static boolean isFlightRecorderAvailable()
+   {
+      return FLIGHT_RECORDER_AVAILABLE;
+   }
+
+   static RequestRecording beginRequest()
+   {
+      return FLIGHT_RECORDER_AVAILABLE ? FlightRecorderEvents.beginRequest() : NO_RECORDING;
+   }
+
+   static AuthenticationRecording beginAuthentication()
+   {
+      return FLIGHT_RECORDER_AVAILABLE ? FlightRecorderEvents.beginAuthentication() : NO_RECORDING;
+   }
+
+   static DataSetResolutionRecording beginDataSetResolution()
+   {
+      return FLIGHT_RECORDER_AVAILABLE ? FlightRecorderEvents.beginDataSetResolution() : NO_RECORDING;
+   }
+
+   private static boolean loadFlightRecorder()
+   {
+      try
+      {
+         Class.forName("jdk.jfr.Event", false, DKANEvents.class.getClassLoader());
+         return true;
+      }
+      catch (ClassNotFoundException | LinkageError e)
+      {
+         return false;
+      }
+   }
+
+   /**
+    * Creates the events, and so is only loaded when the flight recorder is available.
+    */
+   private static final class FlightRecorderEvents
+   {
+      static RequestRecording beginRequest()
+      {
+         DKANRequestEvent event = new DKANRequestEvent();
+         event.begin();
+         return event;
+      }
+
+      static AuthenticationRecording beginAuthentication()
+      {
+         DKANAuthenticationEvent event = new DKANAuthenticationEvent();
+         event.begin();
+         return event;
+      }
+
+      static DataSetResolutionRecording beginDataSetResolution()
+      {
+         DKANDataSetResolutionEvent event = new DKANDataSetResolutionEvent();
+         event.begin();
+         return event;
+      }
+   }
+
+   private static final class NoRecording implements RequestRecording, AuthenticationRecording, DataSetResolutionRecording
+   {
+      @Override
+      public void end()
+      {
+      }
+
+      @Override
+      public boolean shouldCommit()
+      {
+         return false;
+      }
+
+      @Override
+      public void commit(String operation, String url, String path, long bytes, int statusCode)
+      {
+      }
+
+      @Override
+      public void commit(String url, String username, int statusCode, boolean authenticated)
+      {
+      }
+
+      @Override
+      public void setSource(String source)
+      {
+      }
+
+      @Override
+      public void commit(String url, String dataSetTitle, String dataSetId)
+      {
+      }
+   }
+}
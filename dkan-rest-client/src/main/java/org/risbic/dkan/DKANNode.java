@@ -0,0 +1,57 @@
+/* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+* <p/>
+* http://www.apache.org/licenses/LICENSE-2.0
+* <p/>
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.risbic.dkan;
+
+/**
+ * Summary of a node from a node listing: its id, its type, such as "dataset" or "resource", and its title.
+ */
+public final class DKANNode
+{
+   private final String nid;
+
+   private final String type;
+
+   private final String title;
+
+   public DKANNode(String nid, String type, String title)
+   {
+      this.nid = nid;
+      this.type = type;
+      this.title = title;
+   }
+
+   public String getNid()
+   {
+      return nid;
+   }
+
+   public String getType()
+   {
+      return type;
+   }
+
+   public String getTitle()
+   {
+      return title;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "DKANNode[" + nid + ", " + type + ", " + title + "]";
+   }
+}
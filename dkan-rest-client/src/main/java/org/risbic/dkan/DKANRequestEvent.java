@@ -0,0 +1,66 @@
+/* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+* <p/>
+* http://www.apache.org/licenses/LICENSE-2.0
+* <p/>
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.risbic.dkan;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for a request sent by a {@link DKANConnection}, lasting until its response status is received.
+ * Only requests taking at least the threshold, 10 ms unless the recording says otherwise, are recorded. Created through
+ * {@link DKANEvents}, so that this class is not loaded on a JVM without the flight recorder.
+ */
+@Name("org.risbic.dkan.Request")
+@Label("DKAN Request")
+@Category("DKAN")
+@Description("A request to a DKAN portal, until its response status is received")
+@Threshold("10 ms")
+@StackTrace(false)
+public class DKANRequestEvent extends jdk.jfr.Event implements DKANEvents.RequestRecording
+{
+   @Label("Operation")
+   String operation;
+
+   @Label("Portal")
+   String url;
+
+   @Label("Path")
+   String path;
+
+   @Label("Request Bytes")
+   @DataAmount
+   long bytes;
+
+   @Label("Status")
+   @Description("The response status, or -1 if no response was received")
+   int statusCode;
+
+   @Override
+   public void commit(String operation, String url, String path, long bytes, int statusCode)
+   {
+      this.operation = operation;
+      this.url = url;
+      this.path = path;
+      this.bytes = bytes;
+      this.statusCode = statusCode;
+      commit();
+   }
+}
@@ -0,0 +1,56 @@
+/* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+* <p/>
+* http://www.apache.org/licenses/LICENSE-2.0
+* <p/>
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.risbic.dkan;
+
+/**
+ * Immutable snapshot of an authenticated DKAN session: the session cookie and the CSRF token issued with it.
+ */
+public final class DKANSession
+{
+   private final String cookie;
+
+   private final String csrfToken;
+
+   private final long createdAt;
+
+   public DKANSession(String cookie, String csrfToken)
+   {
+      this.cookie = cookie;
+      this.csrfToken = csrfToken;
+      this.createdAt = System.currentTimeMillis();
+   }
+
+   public String getCookie()
+   {
+      return cookie;
+   }
+
+   public String getCsrfToken()
+   {
+      return csrfToken;
+   }
+
+   public long getCreatedAt()
+   {
+      return createdAt;
+   }
+
+   public boolean isExpired(long timeout)
+   {
+      return timeout > 0 && System.currentTimeMillis() - createdAt >= timeout;
+   }
+}
@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.risbic.dkan;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Base64FormRequestEntityTest
+{
+   @Test
+   public void testByteArrayEncoding() throws Exception
+   {
+      Random random = new Random(1234L);
+      for (int size : new int[] { 0, 1, 2, 3, 4, 5, 6143, 6144, 6145, 100000 })
+      {
+         byte[] data = new byte[size];
+         random.nextBytes(data);
+
+         Base64FormRequestEntity entity = new Base64FormRequestEntity(data, "test file.csv");
+         String expected = expectedBody(data, "test file.csv");
+
+         assertTrue(entity.isRepeatable());
+         assertEquals(expected, write(entity));
+         assertEquals(expected.length(), entity.getContentLength());
+      }
+   }
+
+   @Test
+   public void testPathEncoding() throws Exception
+   {
+      byte[] data = new byte[70001];
+      new Random(5678L).nextBytes(data);
+
+      Path path = Files.createTempFile("Base64FormRequestEntityTest", ".bin");
+      try
+      {
+         Files.write(path, data);
+
+         Base64FormRequestEntity entity = new Base64FormRequestEntity(path, "data.bin");
+         String expected = expectedBody(data, "data.bin");
+
+         assertTrue(entity.isRepeatable());
+         assertEquals(-1, entity.getContentLength());
+         assertEquals(expected, write(entity));
+         assertEquals(expected, write(entity));
+      }
+      finally
+      {
+         Files.delete(path);
+      }
+   }
+
+   @Test
+   public void testStreamEncoding() throws Exception
+   {
+      byte[] data = new byte[10000];
+      new Random(91011L).nextBytes(data);
+
+      Base64FormRequestEntity entity = new Base64FormRequestEntity(new ByteArrayInputStream(data), 9000, "data.bin");
+      byte[] expectedData = new byte[9000];
+      System.arraycopy(data, 0, expectedData, 0, expectedData.length);
+
+      assertFalse(entity.isRepeatable());
+      assertEquals(-1, entity.getContentLength());
+      assertEquals(expectedBody(expectedData, "data.bin"), write(entity));
+   }
+
+   @Test
+   public void testStreamLeftOpen() throws Exception
+   {
+      final AtomicBoolean closed = new AtomicBoolean();
+      InputStream stream = new ByteArrayInputStream(new byte[100])
+      {
+         @Override
+         public void close()
+         {
+            closed.set(true);
+         }
+      };
+
+      write(new Base64FormRequestEntity(stream, -1, "data.bin"));
+      assertFalse(closed.get());
+   }
+
+   @Test(expected = EOFException.class)
+   public void testShortStream() throws Exception
+   {
+      Base64FormRequestEntity entity = new Base64FormRequestEntity(new ByteArrayInputStream(new byte[10]), 20, "data.bin");
+      write(entity);
+   }
+
+   private static String write(Base64FormRequestEntity entity) throws Exception
+   {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      entity.writeRequest(out);
+      return out.toString("US-ASCII");
+   }
+
+   private static String expectedBody(byte[] data, String filename) throws Exception
+   {
+      String base64 = new String(Base64.encodeBase64(data), "US-ASCII");
+      return "file=" + URLEncoder.encode(base64, "UTF-8") + "&filename=" + URLEncoder.encode(filename, "UTF-8");
+   }
+}
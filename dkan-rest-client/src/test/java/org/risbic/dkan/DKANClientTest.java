@@ -17,18 +17,33 @@
 
 package org.risbic.dkan;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -50,6 +65,11 @@ public class DKANClientTest
 
    private String url;
 
+   private PortalStubServer stubServer;
+
+   /**
+    * Runs against the portal named in the properties file if there is one, otherwise against a portal stub.
+    */
    @Before
    public void setup()
    {
@@ -57,6 +77,16 @@ public class DKANClientTest
       {
          Class c = getClass();
          URL url1 = c.getResource(DKAN_PROPERTIES_FILE);
+         if (url1 == null)
+         {
+            stubServer = new PortalStubServer(0);
+            stubServer.start();
+
+            username = PortalStubServer.USERNAME;
+            password = PortalStubServer.PASSWORD;
+            url = stubServer.getURL();
+            return;
+         }
          String file = url1.getFile();
 
          try (FileReader fr = new FileReader(file))
@@ -75,6 +105,15 @@ public class DKANClientTest
       }
    }
 
+   @After
+   public void teardown()
+   {
+      if (stubServer != null)
+      {
+         stubServer.stop();
+      }
+   }
+
    @Test
    public void testAuthenticate() throws Exception
    {
@@ -142,4 +181,299 @@ public class DKANClientTest
       String resourceId = connection.createResourceByDataSetTitle("Res_" + UUID.randomUUID().toString(), "Desc", dataSetTitle, fileId);
       assertNotNull(resourceId);
    }
+
+   @Test
+   public void testSessionRenewedWhenRejected() throws Exception
+   {
+      if (stubServer == null)
+      {
+         return;
+      }
+
+      DKANConnection connection = DKANClient.connect(username, password, url);
+      stubServer.expireSessions();
+
+      assertNotNull(connection.createDataSet("TestDataSet_" + UUID.randomUUID().toString(), "Test Description"));
+      assertEquals(2, stubServer.getRequestCount("datastore/user/login"));
+   }
+
+   @Test
+   public void testSessionRenewedOnceForConcurrentRequests() throws Exception
+   {
+      if (stubServer == null)
+      {
+         return;
+      }
+
+      DKANConnection connection = DKANClient.connect(username, password, url);
+      stubServer.setLatency(200L, 0L);
+      stubServer.expireSessions();
+
+      // Every request is rejected with the stale session, but only the first to be rejected logs in again
+      assertEquals(6, createConcurrently(connection, 6).size());
+      assertEquals(2, stubServer.getRequestCount("datastore/user/login"));
+      assertEquals(12, stubServer.getRequestCount("datastore/node"));
+
+      // An expired session is renewed once before the requests are sent, rather than each being rejected
+      connection.setSessionTimeout(500L);
+      Thread.sleep(600L);
+      assertEquals(6, createConcurrently(connection, 6).size());
+      assertEquals(3, stubServer.getRequestCount("datastore/user/login"));
+      assertEquals(18, stubServer.getRequestCount("datastore/node"));
+   }
+
+   @Test
+   public void testStreamUploadNotRepeatedWhenRejected() throws Exception
+   {
+      if (stubServer == null)
+      {
+         return;
+      }
+
+      DKANConnection connection = DKANClient.connect(username, password, url);
+      stubServer.expireSessions();
+
+      byte[] data = "a,b,c".getBytes(StandardCharsets.UTF_8);
+      assertNull(connection.createFile(new ByteArrayInputStream(data), data.length, "test.csv"));
+      assertEquals(1, stubServer.getRequestCount("datastore/file"));
+      assertEquals(2, stubServer.getRequestCount("datastore/user/login"));
+
+      // The renewed session is kept for the next attempt
+      assertNotNull(connection.createFile(new ByteArrayInputStream(data), data.length, "test.csv"));
+   }
+
+   @Test
+   public void testNodeListingErrorStatusReported() throws Exception
+   {
+      if (stubServer == null)
+      {
+         return;
+      }
+
+      DKANConnection connection = DKANClient.connect(username, password, url);
+      stubServer.setActionStatus("datastore/node", 404);
+
+      try
+      {
+         connection.queryNodes(Collections.singletonMap("type", "dataset"), 0, 10);
+         fail("Node listing error not reported");
+      }
+      catch (DKANException e)
+      {
+         assertEquals(404, e.getStatusCode());
+      }
+   }
+
+   @Test
+   public void testNodeListingReadOnlyUntilDataSetFound() throws Exception
+   {
+      if (stubServer == null)
+      {
+         return;
+      }
+
+      DKANConnection connection = connectToCatalog(50);
+      connection.setNodePageSize(50);
+
+      // Every listing lists all the data sets, but breaks off after the first ten
+      stubServer.setFiltersIgnored(true);
+      stubServer.setListingCutOff(10);
+      try
+      {
+         connection.queryNodes(Collections.<String, String>emptyMap(), 0, 50);
+         fail("Broken off node listing read without error");
+      }
+      catch (IOException e)
+      {
+      }
+
+      assertNotNull(connection.findOrCreateDataSetByTitle("Data Set 3"));
+      assertEquals(2, stubServer.getRequestCount("datastore/node"));
+      assertEquals(50, stubServer.getNodeCount());
+   }
+
+   @Test
+   public void testFilteredQueryFindsDataSet() throws Exception
+   {
+      if (stubServer == null)
+      {
+         return;
+      }
+
+      DKANConnection connection = connectToCatalog(200);
+
+      assertNotNull(connection.findOrCreateDataSetByTitle("Data Set 150"));
+      assertEquals(1, stubServer.getRequestCount("datastore/node"));
+      assertEquals(200, stubServer.getNodeCount());
+   }
+
+   @Test
+   public void testCrawlEndsAtShortPage() throws Exception
+   {
+      if (stubServer == null)
+      {
+         return;
+      }
+
+      DKANConnection connection = connectToCatalog(25);
+      connection.setNodePageSize(10);
+      connection.setNodeListingParallelism(2);
+      stubServer.setFiltersIgnored(true);
+
+      // The filtered query, pages 0 and 1, then pages 2, which is short, and 3, then the data set is created
+      assertNotNull(connection.findOrCreateDataSetByTitle("Missing Data Set"));
+      assertEquals(6, stubServer.getRequestCount("datastore/node"));
+      assertEquals(26, stubServer.getNodeCount());
+   }
+
+   @Test
+   public void testCrawlEndsAtRepeatedPage() throws Exception
+   {
+      if (stubServer == null)
+      {
+         return;
+      }
+
+      DKANConnection connection = connectToCatalog(25);
+      connection.setNodePageSize(10);
+      connection.setNodeListingParallelism(2);
+      stubServer.setFiltersIgnored(true);
+      stubServer.setPagingIgnored(true);
+
+      // The filtered query, pages 0 and 1, which repeats page 0, then the data set is created
+      assertNotNull(connection.findOrCreateDataSetByTitle("Missing Data Set"));
+      assertEquals(4, stubServer.getRequestCount("datastore/node"));
+      assertEquals(26, stubServer.getNodeCount());
+   }
+
+   @Test
+   public void testParallelCrawl() throws Exception
+   {
+      if (stubServer == null)
+      {
+         return;
+      }
+
+      DKANConnection connection = connectToCatalog(100);
+      connection.setNodePageSize(10);
+      connection.setNodeListingParallelism(4);
+      stubServer.setFiltersIgnored(true);
+      stubServer.setLatency(200L, 0L);
+
+      // The filtered query, then pages 0 to 3 and 4 to 7, four at a time, rather than nine requests one after another
+      long startTime = System.currentTimeMillis();
+      assertNotNull(connection.findOrCreateDataSetByTitle("Data Set 57"));
+      long duration = System.currentTimeMillis() - startTime;
+      assertEquals(9, stubServer.getRequestCount("datastore/node"));
+      assertEquals(100, stubServer.getNodeCount());
+      assertTrue("Pages fetched one at a time, taking " + duration + "ms", duration < 1400L);
+
+      // The data sets of the crawled pages are indexed
+      assertNotNull(connection.findOrCreateDataSetByTitle("Data Set 12"));
+      assertEquals(9, stubServer.getRequestCount("datastore/node"));
+   }
+
+   @Test
+   public void testConcurrentLookupsShareOneRequest() throws Exception
+   {
+      if (stubServer == null)
+      {
+         return;
+      }
+
+      DKANConnection connection = connectToCatalog(10);
+      stubServer.setLatency(300L, 0L);
+
+      // One filtered query finds the data set for every caller
+      List<String> dataSetIds = findConcurrently(connection, "Data Set 5", 8);
+      assertEquals(1, stubServer.getRequestCount("datastore/node"));
+      assertEquals(1, new HashSet<>(dataSetIds).size());
+      assertNotNull(dataSetIds.get(0));
+
+      // One filtered query, then one creation, of a data set not yet in the catalogue
+      dataSetIds = findConcurrently(connection, "New Data Set", 8);
+      assertEquals(11, stubServer.getNodeCount());
+      assertEquals(1, new HashSet<>(dataSetIds).size());
+      assertNotNull(dataSetIds.get(0));
+   }
+
+   /**
+    * Looks up the titled data set from the given number of threads at once, returning the node id each received.
+    */
+   private static List<String> findConcurrently(DKANConnection connection, String title, int callers) throws Exception
+   {
+      ExecutorService executor = Executors.newFixedThreadPool(callers);
+      try
+      {
+         CountDownLatch start = new CountDownLatch(1);
+         List<Future<String>> lookups = new ArrayList<>();
+         for (int caller = 0; caller < callers; caller++)
+         {
+            lookups.add(executor.submit(() ->
+            {
+               start.await();
+               return connection.findOrCreateDataSetByTitle(title);
+            }));
+         }
+         start.countDown();
+
+         List<String> dataSetIds = new ArrayList<>();
+         for (Future<String> lookup : lookups)
+         {
+            dataSetIds.add(lookup.get(10, TimeUnit.SECONDS));
+         }
+         return dataSetIds;
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Creates a data set from each of the given number of threads at once, returning the node ids created.
+    */
+   private static Set<String> createConcurrently(DKANConnection connection, int callers) throws Exception
+   {
+      ExecutorService executor = Executors.newFixedThreadPool(callers);
+      try
+      {
+         CountDownLatch start = new CountDownLatch(1);
+         List<Future<String>> creations = new ArrayList<>();
+         for (int caller = 0; caller < callers; caller++)
+         {
+            creations.add(executor.submit(() ->
+            {
+               start.await();
+               return connection.createDataSet("TestDataSet_" + UUID.randomUUID().toString(), "Test Description");
+            }));
+         }
+         start.countDown();
+
+         Set<String> dataSetIds = new HashSet<>();
+         for (Future<String> creation : creations)
+         {
+            dataSetIds.add(creation.get(10, TimeUnit.SECONDS));
+         }
+         assertFalse(dataSetIds.contains(null));
+         return dataSetIds;
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Replaces the portal stub with one whose catalogue holds the given number of data sets, and connects to it.
+    */
+   private DKANConnection connectToCatalog(int catalogSize) throws Exception
+   {
+      stubServer.stop();
+      stubServer = new PortalStubServer(catalogSize);
+      stubServer.start();
+      url = stubServer.getURL();
+
+      return DKANClient.connect(username, password, url);
+   }
 }
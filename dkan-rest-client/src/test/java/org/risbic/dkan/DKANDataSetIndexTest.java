@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.risbic.dkan;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DKANDataSetIndexTest
+{
+   @Test
+   public void testPutAndGet()
+   {
+      DKANDataSetIndex index = new DKANDataSetIndex(60000L);
+      index.put("Title", "42");
+
+      assertEquals("42", index.get("Title"));
+      assertNull(index.get("Other"));
+   }
+
+   @Test
+   public void testInvalidate()
+   {
+      DKANDataSetIndex index = new DKANDataSetIndex(60000L);
+      index.put("Title1", "1");
+      index.put("Title2", "2");
+
+      index.invalidate("Title1");
+      assertNull(index.get("Title1"));
+      assertEquals("2", index.get("Title2"));
+
+      index.invalidateAll();
+      assertEquals(0, index.size());
+   }
+
+   @Test
+   public void testExpiry() throws Exception
+   {
+      DKANDataSetIndex index = new DKANDataSetIndex(50L);
+      index.put("Title", "42");
+      Thread.sleep(100L);
+
+      assertNull(index.get("Title"));
+      assertEquals(0, index.size());
+   }
+
+   @Test
+   public void testDisabled()
+   {
+      DKANDataSetIndex index = new DKANDataSetIndex(0L);
+      index.put("Title", "42");
+
+      assertNull(index.get("Title"));
+   }
+}
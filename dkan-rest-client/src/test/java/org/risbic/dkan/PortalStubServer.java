@@ -0,0 +1,652 @@
+/* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+* <p/>
+* http://www.apache.org/licenses/LICENSE-2.0
+* <p/>
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package org.risbic.dkan;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded stand-in for a CKAN or DKAN portal, so that the clients and the file store services can be tested, and
+ * loaded, without a real portal.
+ *
+ * Under "/api/action/" it answers the DKAN "datastore/user/login", "datastore/file" and "datastore/node" endpoints, and
+ * treats any other action, for example "resource_create", "resource_update", "package_patch" or "datastore_upsert", as
+ * a CKAN action which succeeds with a new resource id. The node listing honours the "parameters[type]",
+ * "parameters[title]", "page" and "pagesize" query parameters, over a catalogue pre-populated with the given number of
+ * data sets, and can be made to ignore the filters or paging, or to break off mid-listing. Every request can be delayed by a
+ * fixed latency plus a random jitter, and failed with a 503 at a given rate, and any action can be answered with a
+ * given error status. Request bodies are read and counted, but only form bodies are parsed. The headers and length of
+ * the last request to each action are kept, with its body if bodies are kept.
+ */
+public class PortalStubServer
+{
+   public static final String USERNAME = "stub";
+
+   public static final String PASSWORD = "stub";
+
+   public static final String API_KEY = "stub-api-key";
+
+   private static final String ACTION_PATH = "/api/action/";
+
+   private static final String LOGIN_ACTION = "datastore/user/login";
+
+   private static final String FILE_ACTION = "datastore/file";
+
+   private static final String NODE_ACTION = "datastore/node";
+
+   private static final String SESSION_COOKIE = "SESSstub";
+
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   static
+   {
+      // Without it the server's small responses wait on delayed ACKs, which would swamp any configured latency
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+   }
+
+   private final List<Node> nodes = new ArrayList<>();
+
+   private final AtomicLong nextNodeId = new AtomicLong();
+
+   private final AtomicLong nextFileId = new AtomicLong();
+
+   private final Map<String, String> sessions = new ConcurrentHashMap<>();
+
+   private final ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+
+   private final Map<String, Integer> actionStatuses = new ConcurrentHashMap<>();
+
+   private final Map<String, ReceivedRequest> lastRequests = new ConcurrentHashMap<>();
+
+   private final AtomicLong errorCount = new AtomicLong();
+
+   private final AtomicLong bytesReceived = new AtomicLong();
+
+   private volatile long latency;
+
+   private volatile long jitter;
+
+   private volatile double errorRate;
+
+   private volatile boolean filtersIgnored;
+
+   private volatile boolean pagingIgnored;
+
+   private volatile int listingCutOff;
+
+   private volatile boolean bodiesKept;
+
+   private HttpServer server;
+
+   private ExecutorService executor;
+
+   /**
+    * @param catalogSize the number of data sets, titled "Data Set 0" onwards, listed before any are created
+    */
+   public PortalStubServer(int catalogSize)
+   {
+      for (int index = 0; index < catalogSize; index++)
+      {
+         addNode("dataset", "Data Set " + index);
+      }
+   }
+
+   public synchronized void start() throws IOException
+   {
+      if (server != null)
+      {
+         return;
+      }
+
+      executor = Executors.newCachedThreadPool(new ThreadFactory()
+      {
+         @Override
+         public Thread newThread(Runnable runnable)
+         {
+            Thread thread = new Thread(runnable, "portal-stub");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+      server.createContext(ACTION_PATH, new HttpHandler()
+      {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException
+         {
+            PortalStubServer.this.handle(exchange);
+         }
+      });
+      server.setExecutor(executor);
+      server.start();
+   }
+
+   public synchronized void stop()
+   {
+      if (server != null)
+      {
+         server.stop(0);
+         executor.shutdownNow();
+         server = null;
+         executor = null;
+      }
+   }
+
+   /**
+    * Returns the root URL to configure the clients with, for example "http://127.0.0.1:40123".
+    */
+   public synchronized String getURL()
+   {
+      if (server == null)
+      {
+         throw new IllegalStateException("Portal stub not started");
+      }
+      return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+   }
+
+   /**
+    * Delays each response by the latency plus a random amount up to the jitter, both in milliseconds.
+    */
+   public void setLatency(long latency, long jitter)
+   {
+      this.latency = latency;
+      this.jitter = jitter;
+   }
+
+   /**
+    * Sets the fraction, from 0.0 to 1.0, of requests answered with a 503.
+    */
+   public void setErrorRate(double errorRate)
+   {
+      this.errorRate = errorRate;
+   }
+
+   /**
+    * Answers every request to the action, for example "resource_patch", with the error status until it is cleared.
+    */
+   public void setActionStatus(String action, int status)
+   {
+      actionStatuses.put(action, status);
+   }
+
+   public void clearActionStatuses()
+   {
+      actionStatuses.clear();
+   }
+
+   /**
+    * Answers node listings as a portal which does not support the "parameters[type]" and "parameters[title]" filters
+    * would, listing every node.
+    */
+   public void setFiltersIgnored(boolean filtersIgnored)
+   {
+      this.filtersIgnored = filtersIgnored;
+   }
+
+   /**
+    * Answers node listings as a portal which does not support the "page" parameter would, sending the first page of
+    * nodes every time.
+    */
+   public void setPagingIgnored(boolean pagingIgnored)
+   {
+      this.pagingIgnored = pagingIgnored;
+   }
+
+   /**
+    * Breaks off each node listing of more than the given number of nodes after that many, leaving the JSON unterminated,
+    * as a portal failing mid-response would. Zero sends listings whole.
+    */
+   public void setListingCutOff(int listingCutOff)
+   {
+      this.listingCutOff = listingCutOff;
+   }
+
+   /**
+    * Keeps the body of the last request to each action, uploads included, so that tests can check what was sent.
+    */
+   public void setBodiesKept(boolean bodiesKept)
+   {
+      this.bodiesKept = bodiesKept;
+   }
+
+   /**
+    * Returns the last request made to the action, or null if none has been made.
+    */
+   public ReceivedRequest getLastRequest(String action)
+   {
+      return lastRequests.get(action);
+   }
+
+   /**
+    * Forgets the issued sessions, so that the next DKAN request which needs one is rejected with a 401.
+    */
+   public void expireSessions()
+   {
+      sessions.clear();
+   }
+
+   /**
+    * Returns the number of requests made to the action, for example "resource_create" or "datastore/node".
+    */
+   public long getRequestCount(String action)
+   {
+      AtomicLong counter = requestCounts.get(action);
+      return (counter != null) ? counter.get() : 0;
+   }
+
+   public Map<String, Long> getRequestCounts()
+   {
+      Map<String, Long> snapshot = new TreeMap<>();
+      for (Map.Entry<String, AtomicLong> counter : requestCounts.entrySet())
+      {
+         snapshot.put(counter.getKey(), counter.getValue().get());
+      }
+      return snapshot;
+   }
+
+   public long getErrorCount()
+   {
+      return errorCount.get();
+   }
+
+   public long getBytesReceived()
+   {
+      return bytesReceived.get();
+   }
+
+   public int getNodeCount()
+   {
+      synchronized (nodes)
+      {
+         return nodes.size();
+      }
+   }
+
+   public void resetCounts()
+   {
+      requestCounts.clear();
+      lastRequests.clear();
+      errorCount.set(0);
+      bytesReceived.set(0);
+   }
+
+   private void handle(HttpExchange exchange) throws IOException
+   {
+      try
+      {
+         String action = exchange.getRequestURI().getPath().substring(ACTION_PATH.length());
+         AtomicLong counter = requestCounts.get(action);
+         if (counter == null)
+         {
+            requestCounts.putIfAbsent(action, new AtomicLong());
+            counter = requestCounts.get(action);
+         }
+         counter.incrementAndGet();
+
+         boolean keep = bodiesKept;
+         ByteArrayOutputStream kept = (isForm(exchange) || keep) ? new ByteArrayOutputStream() : null;
+         long length = readBody(exchange.getRequestBody(), kept);
+         byte[] body = (kept != null) ? kept.toByteArray() : new byte[0];
+         lastRequests.put(action, new ReceivedRequest(exchange, length, keep ? body : null));
+
+         delay();
+
+         if (errorRate > 0.0 && ThreadLocalRandom.current().nextDouble() < errorRate)
+         {
+            errorCount.incrementAndGet();
+            respond(exchange, 503, error("Service unavailable"));
+         }
+         else if (actionStatuses.containsKey(action))
+         {
+            errorCount.incrementAndGet();
+            respond(exchange, actionStatuses.get(action), error("Status set for " + action));
+         }
+         else if (LOGIN_ACTION.equals(action))
+         {
+            login(exchange, parseForm(body));
+         }
+         else if (FILE_ACTION.equals(action))
+         {
+            if (checkSession(exchange))
+            {
+               respond(exchange, 200, Json.createObjectBuilder().add("fid", Long.toString(nextFileId.incrementAndGet())).build());
+            }
+         }
+         else if (NODE_ACTION.equals(action))
+         {
+            if ("GET".equals(exchange.getRequestMethod()))
+            {
+               listNodes(exchange, parseForm(rawQuery(exchange)));
+            }
+            else if (checkSession(exchange))
+            {
+               createNode(exchange, parseForm(body));
+            }
+         }
+         else if (API_KEY.equals(exchange.getRequestHeaders().getFirst("Authorization")))
+         {
+            String id = UUID.randomUUID().toString();
+            JsonObject result = Json.createObjectBuilder().add("id", id).add("resource_id", id).build();
+            respond(exchange, 200, Json.createObjectBuilder().add("success", true).add("result", result).build());
+         }
+         else
+         {
+            respond(exchange, 403, error("Access denied"));
+         }
+      }
+      finally
+      {
+         exchange.close();
+      }
+   }
+
+   private void login(HttpExchange exchange, Map<String, String> form) throws IOException
+   {
+      if (USERNAME.equals(form.get("username")) && PASSWORD.equals(form.get("password")))
+      {
+         String sessionId = UUID.randomUUID().toString();
+         String token = UUID.randomUUID().toString();
+         sessions.put(SESSION_COOKIE + "=" + sessionId, token);
+
+         exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE + "=" + sessionId + "; path=/; HttpOnly");
+         respond(exchange, 200, Json.createObjectBuilder().add("sessid", sessionId).add("session_name", SESSION_COOKIE).add("token", token).build());
+      }
+      else
+      {
+         respond(exchange, 401, error("Wrong username or password."));
+      }
+   }
+
+   private boolean checkSession(HttpExchange exchange) throws IOException
+   {
+      String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+      String token = (cookie != null) ? sessions.get(cookie.split(";", 2)[0].trim()) : null;
+      if (token != null && token.equals(exchange.getRequestHeaders().getFirst("X-CSRF-Token")))
+      {
+         return true;
+      }
+
+      respond(exchange, 401, error("Access denied for user anonymous"));
+      return false;
+   }
+
+   private void listNodes(HttpExchange exchange, Map<String, String> query) throws IOException
+   {
+      String type = filtersIgnored ? null : query.get("parameters[type]");
+      String title = filtersIgnored ? null : query.get("parameters[title]");
+      int pageSize = parseInt(query.get("pagesize"), 20);
+      int first = pagingIgnored ? 0 : parseInt(query.get("page"), 0) * pageSize;
+
+      List<JsonObject> page = new ArrayList<>();
+      synchronized (nodes)
+      {
+         int matched = 0;
+         for (Node node : nodes)
+         {
+            if ((type == null || type.equals(node.type)) && (title == null || title.equals(node.title)))
+            {
+               if (matched >= first + pageSize)
+               {
+                  break;
+               }
+               if (matched >= first)
+               {
+                  page.add(Json.createObjectBuilder().add("nid", node.nid).add("type", node.type).add("title", node.title).build());
+               }
+               matched++;
+            }
+         }
+      }
+
+      int cutOff = listingCutOff;
+      boolean cut = cutOff > 0 && page.size() > cutOff;
+      StringBuilder listing = new StringBuilder("[");
+      for (JsonObject node : cut ? page.subList(0, cutOff) : page)
+      {
+         if (listing.length() > 1)
+         {
+            listing.append(',');
+         }
+         listing.append(node);
+      }
+      listing.append(cut ? "," : "]");
+
+      byte[] response = listing.toString().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, response.length);
+      try (OutputStream responseBody = exchange.getResponseBody())
+      {
+         responseBody.write(response);
+      }
+   }
+
+   private void createNode(HttpExchange exchange, Map<String, String> form) throws IOException
+   {
+      String type = form.get("type");
+      String title = form.get("title");
+      if (type == null || title == null)
+      {
+         respond(exchange, 406, error("Node type and title are required"));
+         return;
+      }
+
+      String nid = addNode(type, title);
+      respond(exchange, 200, Json.createObjectBuilder().add("nid", nid).build());
+   }
+
+   private String addNode(String type, String title)
+   {
+      String nid = Long.toString(nextNodeId.incrementAndGet());
+      synchronized (nodes)
+      {
+         nodes.add(new Node(nid, type, title));
+      }
+      return nid;
+   }
+
+   private void delay()
+   {
+      long delay = latency + ((jitter > 0) ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0);
+      if (delay > 0)
+      {
+         try
+         {
+            Thread.sleep(delay);
+         }
+         catch (InterruptedException interruptedException)
+         {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   /**
+    * Reads the whole request body, counting it, into the given stream, if any: without one, as for uploads unless bodies
+    * are kept, the body is discarded as it is read.
+    */
+   private long readBody(InputStream requestBody, ByteArrayOutputStream kept) throws IOException
+   {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      long length = 0;
+      int read;
+      while ((read = requestBody.read(buffer)) != -1)
+      {
+         length += read;
+         if (kept != null)
+         {
+            kept.write(buffer, 0, read);
+         }
+      }
+      bytesReceived.addAndGet(length);
+
+      return length;
+   }
+
+   /**
+    * Form bodies other than file uploads, whose base64 content is of no interest here, are parsed.
+    */
+   private static boolean isForm(HttpExchange exchange)
+   {
+      String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+      String path = exchange.getRequestURI().getPath();
+      return contentType != null && contentType.startsWith("application/x-www-form-urlencoded") && ! path.endsWith(FILE_ACTION);
+   }
+
+   private static byte[] rawQuery(HttpExchange exchange)
+   {
+      String query = exchange.getRequestURI().getRawQuery();
+      return (query != null) ? query.getBytes(StandardCharsets.US_ASCII) : new byte[0];
+   }
+
+   private static Map<String, String> parseForm(byte[] body) throws UnsupportedEncodingException
+   {
+      if (body.length == 0)
+      {
+         return Collections.emptyMap();
+      }
+
+      Map<String, String> form = new HashMap<>();
+      for (String pair : new String(body, StandardCharsets.US_ASCII).split("&"))
+      {
+         int separator = pair.indexOf('=');
+         if (separator > 0)
+         {
+            form.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"), URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+         }
+      }
+      return form;
+   }
+
+   private static int parseInt(String value, int defaultValue)
+   {
+      try
+      {
+         return (value != null) ? Integer.parseInt(value) : defaultValue;
+      }
+      catch (NumberFormatException numberFormatException)
+      {
+         return defaultValue;
+      }
+   }
+
+   private static JsonObject error(String message)
+   {
+      JsonObjectBuilder error = Json.createObjectBuilder().add("message", message);
+      return Json.createObjectBuilder().add("success", false).add("error", error).build();
+   }
+
+   private static void respond(HttpExchange exchange, int status, JsonObject response) throws IOException
+   {
+      byte[] responseBytes = response.toString().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, responseBytes.length);
+      try (OutputStream responseBody = exchange.getResponseBody())
+      {
+         responseBody.write(responseBytes);
+      }
+   }
+
+   /**
+    * The headers, body length and, if kept, body of a request as the stub received it, the body decoded from any chunked
+    * transfer encoding.
+    */
+   public static class ReceivedRequest
+   {
+      private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+      private final long bodyLength;
+
+      private final byte[] body;
+
+      ReceivedRequest(HttpExchange exchange, long bodyLength, byte[] body)
+      {
+         for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet())
+         {
+            if (! header.getValue().isEmpty())
+            {
+               headers.put(header.getKey(), header.getValue().get(0));
+            }
+         }
+         this.bodyLength = bodyLength;
+         this.body = body;
+      }
+
+      public String getHeader(String name)
+      {
+         return headers.get(name);
+      }
+
+      public long getBodyLength()
+      {
+         return bodyLength;
+      }
+
+      /**
+       * Returns the body, or null if bodies were not being kept.
+       */
+      public byte[] getBody()
+      {
+         return body;
+      }
+   }
+
+   private static class Node
+   {
+      final String nid;
+
+      final String type;
+
+      final String title;
+
+      Node(String nid, String type, String title)
+      {
+         this.nid = nid;
+         this.type = type;
+         this.title = title;
+      }
+   }
+}